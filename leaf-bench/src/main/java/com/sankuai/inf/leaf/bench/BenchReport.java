@@ -0,0 +1,102 @@
+package com.sankuai.inf.leaf.bench;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个发号接口的压测结果，延迟单位纳秒，输出时换算成毫秒
+ */
+public class BenchReport {
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final String name;
+    private final double rate;
+    private final long durationMillis;
+    private final long sent;
+    private final long measured;
+    private final long completed;
+    private final long errors;
+    /**
+     * 从计划发出时间开始计算的延迟，已修正coordinated omission
+     */
+    private final Histogram latency;
+    /**
+     * 从实际发出时间开始计算的服务时间
+     */
+    private final Histogram service;
+
+    public BenchReport(String name, double rate, long durationMillis, long sent, long measured,
+                       long completed, long errors, Histogram latency, Histogram service) {
+        this.name = name;
+        this.rate = rate;
+        this.durationMillis = durationMillis;
+        this.sent = sent;
+        this.measured = measured;
+        this.completed = completed;
+        this.errors = errors;
+        this.latency = latency;
+        this.service = service;
+    }
+
+    /**
+     * 输出汇总和延迟分布，分布的格式可以直接用HdrHistogram的plotter画图
+     * @param out
+     */
+    public void print(PrintStream out) {
+        out.println("==== " + name + " ====");
+        out.printf("target rate %.1f/s, sent %d, measured %d, completed %d, errors %d, unfinished %d%n",
+                rate, sent, measured, completed, errors, sent - completed - errors);
+        out.printf("achieved %.1f/s over %ds%n", latency.getTotalCount() * 1000.0 / durationMillis,
+                TimeUnit.MILLISECONDS.toSeconds(durationMillis));
+        header(out);
+        summary(out, "latency (corrected)", latency);
+        summary(out, "service time", service);
+        out.println();
+        out.println("latency (corrected) distribution:");
+        latency.outputPercentileDistribution(out, NANOS_PER_MILLI);
+    }
+
+    static void header(PrintStream out) {
+        out.printf("%-22s %10s %10s %10s %10s %10s %10s%n", "(ms)", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+    }
+
+    static void summary(PrintStream out, String label, Histogram histogram) {
+        out.printf("%-22s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", label,
+                histogram.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(90) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.99) / NANOS_PER_MILLI,
+                histogram.getMaxValue() / NANOS_PER_MILLI);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getMeasured() {
+        return measured;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public Histogram getService() {
+        return service;
+    }
+}
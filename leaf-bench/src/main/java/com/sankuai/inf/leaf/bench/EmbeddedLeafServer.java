@@ -0,0 +1,155 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.common.PropertyFactory;
+import com.sankuai.inf.leaf.server.Constants;
+import com.sankuai.inf.leaf.server.LeafServerApplication;
+import org.apache.curator.test.TestingServer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 进程内启动的leaf-server，用于没有现成环境时压测
+ * + 号段存储使用内存H2数据库，启动时创建leaf_alloc表和业务key
+ * + 雪花模式的workerId注册使用进程内的zookeeper
+ * 服务的配置来自leaf.properties，启动前在 {@link PropertyFactory} 中覆盖，所以一个进程只能启动一次
+ */
+public class EmbeddedLeafServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedLeafServer.class);
+
+    private final int port;
+    private TestingServer zookeeper;
+    /**
+     * 保持一个连接，避免内存库在没有连接时被关闭
+     */
+    private Connection holder;
+    private ConfigurableApplicationContext context;
+
+    /**
+     * @param port 服务端口，小于等于0时随机选择
+     */
+    public EmbeddedLeafServer(int port) throws IOException {
+        this.port = port > 0 ? port : freePort();
+    }
+
+    /**
+     * 启动服务并等待发号器就绪
+     * @param tags 号段模式的业务key
+     * @param step 业务key的步长
+     * @param readyTimeoutMillis
+     * @throws Exception
+     */
+    public void start(List<String> tags, int step, long readyTimeoutMillis) throws Exception {
+        zookeeper = new TestingServer(true);
+        JdbcDataSource dataSource = new JdbcDataSource();
+        String url = "jdbc:h2:mem:leaf-bench;MODE=MySQL;DB_CLOSE_DELAY=-1";
+        dataSource.setURL(url);
+        holder = dataSource.getConnection();
+        createTags(tags, step);
+
+        Properties properties = PropertyFactory.getProperties();
+        properties.setProperty(Constants.LEAF_NAME, "com.sankuai.leaf.bench");
+        properties.setProperty(Constants.LEAF_SEGMENT_ENABLE, "true");
+        properties.setProperty(Constants.LEAF_JDBC_URL, url);
+        properties.setProperty(Constants.LEAF_JDBC_USERNAME, "");
+        properties.setProperty(Constants.LEAF_JDBC_PASSWORD, "");
+        properties.setProperty(Constants.LEAF_SNOWFLAKE_ENABLE, "true");
+        properties.setProperty(Constants.LEAF_SNOWFLAKE_ZK_ADDRESS, zookeeper.getConnectString());
+        properties.setProperty(Constants.LEAF_SNOWFLAKE_PORT, String.valueOf(port));
+        context = new SpringApplicationBuilder(LeafServerApplication.class)
+                .properties("server.port=" + port)
+                .run();
+        awaitReady(readyTimeoutMillis);
+        logger.info("Embedded leaf server started at {}, zookeeper {}, {} tags", getUrl(), zookeeper.getConnectString(), tags.size());
+    }
+
+    private void createTags(List<String> tags, int step) throws SQLException {
+        Statement statement = holder.createStatement();
+        try {
+            statement.execute("CREATE TABLE IF NOT EXISTS leaf_alloc (biz_tag varchar(128) NOT NULL DEFAULT '', "
+                    + "max_id bigint NOT NULL DEFAULT 1, step int NOT NULL, description varchar(256) DEFAULT NULL, "
+                    + "update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (biz_tag))");
+        } finally {
+            statement.close();
+        }
+        PreparedStatement insert = holder.prepareStatement("INSERT INTO leaf_alloc(biz_tag, max_id, step, description) VALUES(?, 1, ?, 'leaf-bench')");
+        try {
+            for (String tag : tags) {
+                insert.setString(1, tag);
+                insert.setInt(2, step);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * 轮询 /ready，全部发号器就绪时返回200
+     * @param timeoutMillis
+     * @throws Exception
+     */
+    private void awaitReady(long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        int code = -1;
+        while (System.currentTimeMillis() < deadline) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(getUrl() + "/ready").openConnection();
+            code = connection.getResponseCode();
+            InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                in.close();
+            }
+            if (code == HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("embedded leaf server not ready in " + timeoutMillis + "ms, last status " + code);
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + port;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        if (holder != null) {
+            try {
+                holder.close();
+            } catch (SQLException e) {
+                logger.warn("close h2 connection error", e);
+            }
+        }
+        if (zookeeper != null) {
+            zookeeper.close();
+        }
+    }
+}
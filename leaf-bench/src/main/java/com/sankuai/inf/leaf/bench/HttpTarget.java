@@ -0,0 +1,72 @@
+package com.sankuai.inf.leaf.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * 通过http接口发号
+ * + segment: /api/segment/get/{key}
+ * + snowflake: /api/snowflake/get/{key}
+ * 使用HttpURLConnection的keep-alive连接，连接数由系统属性 http.maxConnections 控制
+ */
+public class HttpTarget implements Target {
+    private final String name;
+    private final String prefix;
+    private final int timeoutMillis;
+
+    /**
+     * @param baseUrl       服务地址，例如 http://127.0.0.1:8080
+     * @param mode          segment 或者 snowflake
+     * @param timeoutMillis 连接和读取超时
+     */
+    public HttpTarget(String baseUrl, String mode, int timeoutMillis) {
+        if (!"segment".equals(mode) && !"snowflake".equals(mode)) {
+            throw new IllegalArgumentException("unknown target " + mode);
+        }
+        this.name = mode;
+        this.prefix = (baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl) + "/api/" + mode + "/get/";
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public long call(String key) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(prefix + URLEncoder.encode(key, "UTF-8")).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        int code = connection.getResponseCode();
+        /** 读完响应体，连接才能放回keep-alive缓存 **/
+        InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String body = in == null ? "" : read(in);
+        if (code != HttpURLConnection.HTTP_OK) {
+            throw new IOException("http " + code + " " + body);
+        }
+        long id = Long.parseLong(body.trim());
+        if (id < 0) {
+            throw new IOException("exception id " + id);
+        }
+        return id;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
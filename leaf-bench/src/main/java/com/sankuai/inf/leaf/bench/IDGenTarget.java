@@ -0,0 +1,36 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+
+/**
+ * 进程内直接调用发号器，不经过http
+ */
+public class IDGenTarget implements Target {
+    private final String name;
+    private final IDGen idGen;
+
+    /**
+     * @param name  segment 或者 snowflake，与记录中的发号器名称对应
+     * @param idGen 已经初始化的发号器
+     */
+    public IDGenTarget(String name, IDGen idGen) {
+        this.name = name;
+        this.idGen = idGen;
+    }
+
+    @Override
+    public long call(String key) throws Exception {
+        Result result = idGen.get(key);
+        if (result.getStatus() != Status.SUCCESS) {
+            throw new IllegalStateException(result.toString());
+        }
+        return result.getId();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,77 @@
+package com.sankuai.inf.leaf.bench;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录收到的全部号码，压测结束后检查是否重复
+ * + 号段模式下不同业务key的号码可以相同，按key分别检查
+ * + 雪花模式下号码全局唯一，使用同一个分组
+ * 号码保存在long数组中，结束时排序后检查相邻元素
+ */
+public class IdLedger {
+    private final ConcurrentHashMap<String, LongList> groups = new ConcurrentHashMap<>();
+
+    public void add(String group, long id) {
+        LongList list = groups.get(group);
+        if (list == null) {
+            LongList created = new LongList();
+            list = groups.putIfAbsent(group, created);
+            if (list == null) {
+                list = created;
+            }
+        }
+        list.add(id);
+    }
+
+    /**
+     * 收到的号码总数
+     * @return
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongList list : groups.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    /**
+     * 重复的号码数，同一个号码出现n次记为n-1
+     * @return
+     */
+    public long countDuplicates() {
+        long duplicates = 0;
+        for (Map.Entry<String, LongList> entry : groups.entrySet()) {
+            long[] ids = entry.getValue().toArray();
+            Arrays.sort(ids);
+            for (int i = 1; i < ids.length; i++) {
+                if (ids[i] == ids[i - 1]) {
+                    duplicates++;
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sankuai.inf.leaf.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 业务key的分布
+ * + uniform: 每个key的概率相同
+ * + zipf: 第k个key的概率正比于 1/k^s，s越大越集中在少数热点key上
+ */
+public class KeyDistribution {
+    private final List<String> keys;
+    /**
+     * 累计概率，为null时表示均匀分布
+     */
+    private final double[] cdf;
+
+    private KeyDistribution(List<String> keys, double[] cdf) {
+        this.keys = keys;
+        this.cdf = cdf;
+    }
+
+    public static KeyDistribution uniform(List<String> keys) {
+        checkKeys(keys);
+        return new KeyDistribution(new ArrayList<>(keys), null);
+    }
+
+    /**
+     * @param keys 按热度从高到低排列
+     * @param s    指数，大于0
+     * @return
+     */
+    public static KeyDistribution zipf(List<String> keys, double s) {
+        checkKeys(keys);
+        if (s <= 0) {
+            throw new IllegalArgumentException("zipf exponent must be positive");
+        }
+        double[] cdf = new double[keys.size()];
+        double sum = 0;
+        for (int i = 0; i < cdf.length; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < cdf.length; i++) {
+            cdf[i] /= sum;
+        }
+        return new KeyDistribution(new ArrayList<>(keys), cdf);
+    }
+
+    /**
+     * 根据名称创建，name为 uniform 或者 zipf
+     * @param name
+     * @param keys
+     * @param s    zipf的指数
+     * @return
+     */
+    public static KeyDistribution of(String name, List<String> keys, double s) {
+        if ("uniform".equals(name)) {
+            return uniform(keys);
+        } else if ("zipf".equals(name)) {
+            return zipf(keys, s);
+        }
+        throw new IllegalArgumentException("unknown distribution " + name);
+    }
+
+    private static void checkKeys(List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            throw new IllegalArgumentException("keys must not be empty");
+        }
+    }
+
+    /**
+     * 抽取一个key
+     * @param random
+     * @return
+     */
+    public String next(Random random) {
+        if (cdf == null) {
+            return keys.get(random.nextInt(keys.size()));
+        }
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        /** 没有找到时返回 -(插入位置)-1 **/
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return keys.get(Math.min(index, keys.size() - 1));
+    }
+
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+}
@@ -0,0 +1,148 @@
+package com.sankuai.inf.leaf.bench;
+
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测入口，参数格式为 --name=value
+ * + url: 服务地址，不配置时进程内启动leaf-server(H2 + 内嵌zookeeper)
+ * + port: 内嵌服务的端口，默认随机
+ * + targets: segment,snowflake 中的一个或多个，依次压测，默认两者
+ * + rate: 每秒请求数，默认1000
+ * + duration / warmup: 计入统计的秒数和预热秒数，默认30和5
+ * + threads: 最大并发请求数，默认32
+ * + keys / key-prefix: 业务key为 {key-prefix}0 到 {key-prefix}{keys-1}，默认100个 leaf-bench-*
+ * + key-list: 直接指定业务key，逗号分隔，优先于keys
+ * + distribution / zipf-s: uniform 或者 zipf，以及zipf的指数，默认uniform和1.0
+ * + step: 内嵌服务中业务key的步长，默认1000
+ * + snowflake-keyed: 服务开启了按业务key的雪花发号时为true，按key检查号码唯一
+ * + timeout: 请求超时毫秒数，默认5000
+ * + seed: 选取业务key的随机种子
+ * + hgrm: 每个接口的延迟分布写入 {hgrm}-{target}.hlog，可以用HistogramLogProcessor处理
+ * 发现重复号码时以状态码2退出
+ * 指定 --replay 时改为回放线上记录的请求，参数见 {@link LeafReplay}
+ * 指定 --zk-contention 时改为测量zookeeper存储的更新竞争，参数见 {@link ZookeeperContentionBench}
+ * 指定 --refill-scenarios 时改为测量存储变慢或者不稳定时的号段发号，参数见 {@link RefillScenarioBench}
+ */
+public class LeafBench {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        if (options.containsKey("replay")) {
+            LeafReplay.main(args);
+            return;
+        }
+        if (options.containsKey("zk-contention")) {
+            ZookeeperContentionBench.main(args);
+            return;
+        }
+        if (options.containsKey("refill-scenarios")) {
+            RefillScenarioBench.main(args);
+            return;
+        }
+        String url = options.get("url");
+        List<String> targets = Arrays.asList(option(options, "targets", "segment,snowflake").split(","));
+        double rate = Double.parseDouble(option(options, "rate", "1000"));
+        long duration = Long.parseLong(option(options, "duration", "30")) * 1000;
+        long warmup = Long.parseLong(option(options, "warmup", "5")) * 1000;
+        int threads = Integer.parseInt(option(options, "threads", "32"));
+        int timeout = Integer.parseInt(option(options, "timeout", "5000"));
+        long seed = Long.parseLong(option(options, "seed", String.valueOf(System.nanoTime())));
+        boolean snowflakeKeyed = Boolean.parseBoolean(option(options, "snowflake-keyed", "false"));
+        KeyDistribution keys = KeyDistribution.of(option(options, "distribution", "uniform"), keys(options),
+                Double.parseDouble(option(options, "zipf-s", "1.0")));
+        /** HttpURLConnection默认每个地址只保留5个keep-alive连接 **/
+        System.setProperty("http.maxConnections", String.valueOf(threads));
+
+        EmbeddedLeafServer server = null;
+        if (url == null || url.trim().isEmpty()) {
+            server = new EmbeddedLeafServer(Integer.parseInt(option(options, "port", "0")));
+            server.start(keys.getKeys(), Integer.parseInt(option(options, "step", "1000")), 60000);
+            url = server.getUrl();
+        }
+        long duplicates = 0;
+        try {
+            for (String name : targets) {
+                Target target = new HttpTarget(url, name.trim(), timeout);
+                IdLedger ledger = new IdLedger();
+                boolean groupByKey = "segment".equals(target.getName()) || snowflakeKeyed;
+                LoadGenerator generator = new LoadGenerator(target, keys, rate, threads, ledger, groupByKey, seed);
+                BenchReport report = generator.run(warmup, duration, Math.max(timeout * 2L, 10000));
+                report.print(System.out);
+                long found = ledger.countDuplicates();
+                System.out.printf("ids received %d, duplicates %d%n%n", ledger.getCount(), found);
+                duplicates += found;
+                if (options.containsKey("hgrm")) {
+                    write(new File(options.get("hgrm") + "-" + target.getName() + ".hlog"), report);
+                }
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        System.exit(duplicates > 0 ? 2 : 0);
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unknown argument " + arg);
+            }
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, index), arg.substring(index + 1));
+            }
+        }
+        return options;
+    }
+
+    static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static List<String> keys(Map<String, String> options) {
+        List<String> keys = new ArrayList<>();
+        String list = options.get("key-list");
+        if (list != null && !list.trim().isEmpty()) {
+            for (String key : list.split(",")) {
+                if (!key.trim().isEmpty()) {
+                    keys.add(key.trim());
+                }
+            }
+            return keys;
+        }
+        int count = Integer.parseInt(option(options, "keys", "100"));
+        String prefix = option(options, "key-prefix", "leaf-bench-");
+        for (int i = 0; i < count; i++) {
+            keys.add(prefix + i);
+        }
+        return keys;
+    }
+
+    private static void write(File file, BenchReport report) throws FileNotFoundException {
+        PrintStream out = new PrintStream(file);
+        try {
+            HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputComment("leaf-bench " + report.getName() + " corrected latency in nanoseconds");
+            writer.outputLogFormatVersion();
+            writer.outputLegend();
+            report.getLatency().setTag(report.getName());
+            writer.outputIntervalHistogram(report.getLatency());
+        } finally {
+            out.close();
+        }
+    }
+}
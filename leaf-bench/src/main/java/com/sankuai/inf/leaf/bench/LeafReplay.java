@@ -0,0 +1,158 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.MappedFileIDAllocDao;
+import com.sankuai.inf.leaf.server.record.TrafficRecord;
+import com.sankuai.inf.leaf.server.record.TrafficRecordReader;
+import com.sankuai.inf.leaf.snowflake.SnowflakeIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.TimestampCheckpoint;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 在进程内回放leaf-server记录的发号请求(leaf.record.enable=true)，评估参数调整在真实流量下的效果
+ * + replay: 记录文件或者记录目录
+ * + targets: segment,snowflake 中的一个或多个，同时回放，默认两者
+ * + speed: 回放速度倍数，默认1
+ * + duration: 只回放记录中最开始的这么多秒，默认全部
+ * + threads: 最大并发请求数，默认32
+ * + step: 号段业务key的初始步长，默认1000
+ * + db-latency / db-jitter: 每次更新号段的存储耗时毫秒数及其随机部分，默认0
+ * + snowflake-keyed: 雪花发号器按业务key独立发号
+ * + worker-id: 雪花发号器的workerId，默认0
+ * 号段存储为临时的内存映射文件，记录中发号成功过的业务key在回放前创建，其余业务key回放时返回错误，与线上一致
+ * 发现重复号码时以状态码2退出
+ */
+public class LeafReplay {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LeafBench.parse(args);
+        String path = options.get("replay");
+        if (path == null || path.trim().isEmpty() || "true".equals(path)) {
+            throw new IllegalArgumentException("--replay=<file or dir> is required");
+        }
+        List<File> files = TrafficRecordReader.list(new File(path.trim()));
+        List<String> names = Arrays.asList(LeafBench.option(options, "targets", "segment,snowflake").split(","));
+        double speed = Double.parseDouble(LeafBench.option(options, "speed", "1"));
+        int threads = Integer.parseInt(LeafBench.option(options, "threads", "32"));
+        boolean snowflakeKeyed = Boolean.parseBoolean(LeafBench.option(options, "snowflake-keyed", "false"));
+
+        File dataFile = File.createTempFile("leaf-replay", ".dat");
+        MappedFileIDAllocDao fileDao = null;
+        long duplicates = 0;
+        try {
+            List<Target> targets = new ArrayList<>();
+            for (String name : names) {
+                if ("segment".equals(name.trim())) {
+                    fileDao = new MappedFileIDAllocDao(dataFile.getPath());
+                    int step = Integer.parseInt(LeafBench.option(options, "step", "1000"));
+                    for (String key : segmentKeys(files)) {
+                        fileDao.addTag(key, 1, step);
+                    }
+                    FaultInjectingIDAllocDao dao = new FaultInjectingIDAllocDao(fileDao);
+                    dao.setLatency(Long.parseLong(LeafBench.option(options, "db-latency", "0")),
+                            Long.parseLong(LeafBench.option(options, "db-jitter", "0")));
+                    targets.add(new IDGenTarget("segment", segment(dao)));
+                } else if ("snowflake".equals(name.trim())) {
+                    targets.add(new IDGenTarget("snowflake",
+                            snowflake(Integer.parseInt(LeafBench.option(options, "worker-id", "0")), snowflakeKeyed)));
+                } else {
+                    throw new IllegalArgumentException("unknown target " + name);
+                }
+            }
+            IdLedger ledger = new IdLedger();
+            TrafficReplay replay = new TrafficReplay(new TrafficRecordReader(files), targets, speed, threads, ledger, snowflakeKeyed);
+            if (options.containsKey("duration")) {
+                replay.setMaxTraceMillis(Long.parseLong(options.get("duration").trim()) * 1000);
+            }
+            for (BenchReport report : replay.run(30000)) {
+                report.print(System.out);
+                BenchReport.header(System.out);
+                BenchReport.summary(System.out, "recorded in server", replay.getRecordedLatency(report.getName()));
+                System.out.println();
+            }
+            duplicates = ledger.countDuplicates();
+            System.out.printf("skipped %d, ids received %d, duplicates %d%n", replay.getSkipped(), ledger.getCount(), duplicates);
+        } finally {
+            if (fileDao != null) {
+                fileDao.close();
+            }
+            if (!dataFile.delete()) {
+                dataFile.deleteOnExit();
+            }
+        }
+        System.exit(duplicates > 0 ? 2 : 0);
+    }
+
+    /**
+     * 记录中发号成功过的号段业务key
+     * @param files
+     * @return
+     * @throws IOException
+     */
+    static Set<String> segmentKeys(List<File> files) throws IOException {
+        Set<String> keys = new LinkedHashSet<>();
+        TrafficRecordReader reader = new TrafficRecordReader(files);
+        for (TrafficRecord record = reader.next(); record != null; record = reader.next()) {
+            if (record.getGenerator() == TrafficRecord.SEGMENT && record.isSuccess()) {
+                keys.add(record.getKey());
+            }
+        }
+        return keys;
+    }
+
+    private static SegmentIDGenImpl segment(FaultInjectingIDAllocDao dao) {
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        if (!idGen.init()) {
+            throw new IllegalStateException("segment init fail");
+        }
+        return idGen;
+    }
+
+    /**
+     * 固定workerId的雪花发号器，不依赖zookeeper
+     * @param workerId
+     * @param keyed
+     * @return
+     */
+    private static SnowflakeIDGenImpl snowflake(final int workerId, boolean keyed) {
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new WorkerIDHolder() {
+            @Override
+            public boolean init() {
+                return true;
+            }
+
+            @Override
+            public int getWorkerID() {
+                return workerId;
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+
+            @Override
+            public TimestampCheckpoint getCheckpoint() {
+                return null;
+            }
+        });
+        if (keyed) {
+            idGen.enableKeyedSequence(SnowflakeIDGenImpl.DEFAULT_MAX_KEYS, SnowflakeIDGenImpl.DEFAULT_KEY_IDLE_MS);
+        }
+        if (!idGen.init()) {
+            throw new IllegalStateException("snowflake init fail");
+        }
+        return idGen;
+    }
+}
@@ -0,0 +1,144 @@
+package com.sankuai.inf.leaf.bench;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 固定到达速率的开环压测
+ * + 调度线程按计划时间 start + i * interval 提交请求，不等待上一个请求返回
+ * + 请求先在工作线程池的队列中排队，服务变慢时排队时间会累积
+ * + 延迟从计划发出的时间开始计算，包含排队时间，避免coordinated omission：
+ *   闭环压测在服务卡顿时会少发请求，卡顿期间本该发出的请求的延迟不会被记录
+ * + 同时记录从实际发出开始计算的服务时间，两者的差距就是排队时间
+ * 预热期间的请求只检查号码，不计入延迟
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final Target target;
+    private final KeyDistribution keys;
+    private final double rate;
+    private final int threads;
+    private final IdLedger ledger;
+    private final boolean groupByKey;
+    private final Random random;
+
+    /**
+     * @param target     发号接口
+     * @param keys       业务key分布
+     * @param rate       每秒请求数
+     * @param threads    工作线程数，即最大并发请求数
+     * @param ledger     收到的号码
+     * @param groupByKey 是否按业务key分别检查号码唯一
+     * @param seed       选取业务key的随机种子
+     */
+    public LoadGenerator(Target target, KeyDistribution keys, double rate, int threads,
+                         IdLedger ledger, boolean groupByKey, long seed) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.target = target;
+        this.keys = keys;
+        this.rate = rate;
+        this.threads = threads;
+        this.ledger = ledger;
+        this.groupByKey = groupByKey;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 执行压测，阻塞到全部请求完成或者超时
+     * @param warmupMillis   预热时长
+     * @param durationMillis 计入统计的时长
+     * @param drainMillis    发送结束后等待未完成请求的最长时间
+     * @return
+     * @throws InterruptedException
+     */
+    public BenchReport run(long warmupMillis, long durationMillis, long drainMillis) throws InterruptedException {
+        final Recorder latency = new Recorder(3);
+        final Recorder service = new Recorder(3);
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong lastError = new AtomicLong();
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Thread-Bench-" + target.getName() + "-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ((ThreadPoolExecutor) executor).prestartAllCoreThreads();
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long sent = 0;
+        long measured = 0;
+        for (long i = 0; ; i++) {
+            final long intended = start + i * interval;
+            if (intended - end >= 0) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) - intended < 0) {
+                LockSupport.parkNanos(intended - now);
+            }
+            final String key = keys.next(random);
+            final boolean record = intended - measureStart >= 0;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long begin = System.nanoTime();
+                    try {
+                        long id = target.call(key);
+                        long done = System.nanoTime();
+                        if (record) {
+                            latency.recordValue(done - intended);
+                            service.recordValue(done - begin);
+                        }
+                        ledger.add(groupByKey ? target.getName() + "/" + key : target.getName(), id);
+                        completed.incrementAndGet();
+                    } catch (Exception e) {
+                        if (errors.incrementAndGet() == 1 || System.currentTimeMillis() - lastError.get() > 1000) {
+                            lastError.set(System.currentTimeMillis());
+                            logger.warn("{} request {} fail: {}", target.getName(), key, e.toString());
+                        }
+                    }
+                }
+            });
+            sent++;
+            if (record) {
+                measured++;
+            }
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+            logger.warn("{} requests not finished in {}ms", target.getName(), drainMillis);
+            executor.shutdownNow();
+        }
+        Histogram latencyHistogram = latency.getIntervalHistogram();
+        Histogram serviceHistogram = service.getIntervalHistogram();
+        return new BenchReport(target.getName(), rate, durationMillis, sent, measured,
+                completed.get(), errors.get(), latencyHistogram, serviceHistogram);
+    }
+}
@@ -0,0 +1,140 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.MappedFileIDAllocDao;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 存储变慢或者不稳定时号段发号的表现，用于根据数据选择步长
+ * + refill-scenarios: 依次执行 存储正常、存储更新耗时200ms时步长100和2000、一半调用失败、卡顿400ms 几个场景
+ * + speed: 发号速率的倍数，默认1
+ * 每个场景单线程按固定速率发号，延迟从计划发号的时间开始计算(包括前一次发号阻塞造成的排队)，
+ * 报告错误率、当前号段耗尽时后备号段还没有就绪的次数、存储调用次数和延迟分布
+ * 号段存储为临时的内存映射文件，存储耗时和错误由 {@link FaultInjectingIDAllocDao} 注入
+ */
+public class RefillScenarioBench {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LeafBench.parse(args);
+        double speed = Double.parseDouble(LeafBench.option(options, "speed", "1"));
+        File dataFile = File.createTempFile("leaf-refill-scenario", ".dat");
+        MappedFileIDAllocDao fileDao = new MappedFileIDAllocDao(dataFile.getPath());
+        try {
+            Scenario healthy = new Scenario("healthy db", 1000, (int) (2000 * speed), 1000);
+            healthy.latencyMillis = 1;
+            healthy.jitterMillis = 2;
+            healthy.run(fileDao, System.out);
+
+            Scenario small = new Scenario("slow db, step 100", 100, (int) (2000 * speed), 1000);
+            small.latencyMillis = 200;
+            small.run(fileDao, System.out);
+
+            Scenario large = new Scenario("slow db, step 2000", 2000, (int) (2000 * speed), 1000);
+            large.latencyMillis = 200;
+            large.run(fileDao, System.out);
+
+            Scenario flaky = new Scenario("flaky db, 50% errors", 500, (int) (2000 * speed), 1000);
+            flaky.latencyMillis = 2;
+            flaky.jitterMillis = 3;
+            flaky.errorRate = 0.5;
+            flaky.run(fileDao, System.out);
+
+            Scenario stall = new Scenario("stall 400ms, timeout 100ms", 100, (int) (1000 * speed), 1500);
+            stall.timeoutMillis = 100;
+            stall.stallAt = 50;
+            stall.stallMillis = 400;
+            stall.run(fileDao, System.out);
+        } finally {
+            fileDao.close();
+            if (!dataFile.delete()) {
+                dataFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static class Scenario {
+        private final String name;
+        private final int step;
+        private final int rate;
+        private final long millis;
+        private long latencyMillis;
+        private long jitterMillis;
+        private long timeoutMillis;
+        /** 发号期间存储调用失败的概率，初始化时不注入错误 **/
+        private double errorRate;
+        /** 开始后多少毫秒卡顿，小于0时不卡顿 **/
+        private long stallAt = -1;
+        private long stallMillis;
+
+        Scenario(String name, int step, int rate, long millis) {
+            this.name = name;
+            this.step = step;
+            this.rate = rate;
+            this.millis = millis;
+        }
+
+        void run(MappedFileIDAllocDao fileDao, PrintStream out) {
+            String key = "scenario-" + name.replaceAll("[^a-zA-Z0-9]+", "-");
+            fileDao.addTag(key, 1, step);
+            FaultInjectingIDAllocDao dao = new FaultInjectingIDAllocDao(fileDao, 7);
+            dao.setLatency(latencyMillis, jitterMillis);
+            if (timeoutMillis > 0) {
+                dao.setTimeout(timeoutMillis);
+            }
+            SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+            idGen.setDao(dao);
+            if (!idGen.init()) {
+                throw new IllegalStateException("segment init fail");
+            }
+            dao.setErrorRate(errorRate);
+
+            Histogram latency = new Histogram(MAX_LATENCY_NANOS, 3);
+            long requests = 0;
+            long errors = 0;
+            long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+            boolean stalled = stallAt < 0;
+            for (long i = 0; ; i++) {
+                long intended = start + i * interval;
+                if (intended - end >= 0) {
+                    break;
+                }
+                long now;
+                while ((now = System.nanoTime()) - intended < 0) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                if (!stalled && now - start >= TimeUnit.MILLISECONDS.toNanos(stallAt)) {
+                    dao.stall(stallMillis);
+                    stalled = true;
+                }
+                Result result = idGen.get(key);
+                latency.recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY_NANOS));
+                requests++;
+                if (result.getStatus() != Status.SUCCESS) {
+                    errors++;
+                }
+            }
+            long notReady = idGen.getCache().get(key).getNotReadyExhaustions().get();
+            idGen.close();
+
+            out.println("==== " + name + " ====");
+            out.printf("step %d, %d/s, requests %d, errors %d (%.2f%%), not ready %d, dao calls %d, dao errors %d, dao timeouts %d%n",
+                    step, rate, requests, errors, errors * 100.0 / Math.max(1, requests), notReady,
+                    dao.getCalls(), dao.getErrors(), dao.getTimeouts());
+            BenchReport.header(out);
+            BenchReport.summary(out, "latency", latency);
+            out.println();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.sankuai.inf.leaf.bench;
+
+/**
+ * 压测的发号接口
+ */
+public interface Target {
+
+    /**
+     * 同步取一个号码
+     * @param key 业务key
+     * @return 号码
+     * @throws Exception 请求失败或者返回的不是号码
+     */
+    long call(String key) throws Exception;
+
+    /**
+     * 名称，用于报告
+     * @return
+     */
+    String getName();
+}
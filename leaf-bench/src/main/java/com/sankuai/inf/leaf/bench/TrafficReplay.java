@@ -0,0 +1,198 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.server.record.TrafficRecord;
+import com.sankuai.inf.leaf.server.record.TrafficRecordReader;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按线上记录的时间回放发号请求
+ * + 第i条记录的计划发出时间为 start + (t(i) - t(0)) / speed，speed大于1时加速回放
+ * + 与 {@link LoadGenerator} 一样开环发送，延迟从计划发出的时间开始计算
+ * + 记录中的业务key、发号器和请求之间的间隔都保持不变，保留线上的突发、热点key和昼夜变化
+ * + 同时统计记录中的线上耗时，便于和回放的结果对比
+ * 没有对应发号接口的记录跳过
+ */
+public class TrafficReplay {
+    private static final Logger logger = LoggerFactory.getLogger(TrafficReplay.class);
+
+    private final TrafficRecordReader reader;
+    private final Map<String, Target> targets;
+    private final double speed;
+    private final int threads;
+    private final IdLedger ledger;
+    private final boolean snowflakeKeyed;
+    private long maxTraceMillis = Long.MAX_VALUE;
+    private final Map<String, Histogram> recordedLatency = new LinkedHashMap<>();
+    private long skipped;
+
+    /**
+     * @param reader         记录
+     * @param targets        发号接口，名称与记录中的发号器名称(segment/snowflake)对应
+     * @param speed          回放速度倍数
+     * @param threads        工作线程数，即最大并发请求数
+     * @param ledger         收到的号码
+     * @param snowflakeKeyed 雪花发号器是否按业务key独立发号
+     */
+    public TrafficReplay(TrafficRecordReader reader, List<Target> targets, double speed, int threads,
+                         IdLedger ledger, boolean snowflakeKeyed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.reader = reader;
+        this.targets = new LinkedHashMap<>();
+        for (Target target : targets) {
+            this.targets.put(target.getName(), target);
+            recordedLatency.put(target.getName(), new Histogram(3));
+        }
+        this.speed = speed;
+        this.threads = threads;
+        this.ledger = ledger;
+        this.snowflakeKeyed = snowflakeKeyed;
+    }
+
+    /**
+     * 只回放记录中最开始的一段时间
+     * @param millis 记录中的时长，不是回放的时长
+     */
+    public void setMaxTraceMillis(long millis) {
+        this.maxTraceMillis = millis;
+    }
+
+    /**
+     * 执行回放，阻塞到全部请求完成或者超时
+     * @param drainMillis 发送结束后等待未完成请求的最长时间
+     * @return 每个发号接口的结果
+     * @throws IOException 记录文件格式错误
+     * @throws InterruptedException
+     */
+    public List<BenchReport> run(long drainMillis) throws IOException, InterruptedException {
+        final Map<String, Stats> stats = new LinkedHashMap<>();
+        for (String name : targets.keySet()) {
+            stats.put(name, new Stats());
+        }
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Thread-Replay-" + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        ((ThreadPoolExecutor) executor).prestartAllCoreThreads();
+
+        final AtomicLong lastError = new AtomicLong();
+        long start = System.nanoTime();
+        long first = -1;
+        long traceMicros = 0;
+        for (TrafficRecord record = reader.next(); record != null; record = reader.next()) {
+            if (first < 0) {
+                first = record.getTimestampMicros();
+            }
+            long offset = Math.max(0, record.getTimestampMicros() - first);
+            if (offset > TimeUnit.MILLISECONDS.toMicros(maxTraceMillis)) {
+                break;
+            }
+            traceMicros = Math.max(traceMicros, offset);
+            final Target target = targets.get(record.getGeneratorName());
+            if (target == null) {
+                skipped++;
+                continue;
+            }
+            final Stats stat = stats.get(target.getName());
+            final String key = record.getKey();
+            final long intended = start + (long) (TimeUnit.MICROSECONDS.toNanos(offset) / speed);
+            long now;
+            while ((now = System.nanoTime()) - intended < 0) {
+                LockSupport.parkNanos(intended - now);
+            }
+            stat.sent++;
+            recordedLatency.get(target.getName()).recordValue(TimeUnit.MICROSECONDS.toNanos(record.getLatencyMicros()));
+            final String group = "segment".equals(target.getName()) || snowflakeKeyed ? target.getName() + "/" + key : target.getName();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long begin = System.nanoTime();
+                    try {
+                        long id = target.call(key);
+                        long done = System.nanoTime();
+                        stat.latency.recordValue(done - intended);
+                        stat.service.recordValue(done - begin);
+                        ledger.add(group, id);
+                        stat.completed.incrementAndGet();
+                    } catch (Exception e) {
+                        stat.errors.incrementAndGet();
+                        if (System.currentTimeMillis() - lastError.get() > 1000) {
+                            lastError.set(System.currentTimeMillis());
+                            logger.warn("{} replay {} fail: {}", target.getName(), key, e.toString());
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+            logger.warn("Replay requests not finished in {}ms", drainMillis);
+            executor.shutdownNow();
+        }
+        long durationMillis = Math.max(1, (long) (TimeUnit.MICROSECONDS.toMillis(traceMicros) / speed));
+        List<BenchReport> reports = new ArrayList<>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats stat = entry.getValue();
+            reports.add(new BenchReport(entry.getKey(), stat.sent * 1000.0 / durationMillis, durationMillis,
+                    stat.sent, stat.sent, stat.completed.get(), stat.errors.get(),
+                    stat.latency.getIntervalHistogram(), stat.service.getIntervalHistogram()));
+        }
+        return reports;
+    }
+
+    /**
+     * 记录中的线上耗时，单位纳秒
+     * @param name 发号器名称
+     * @return
+     */
+    public Histogram getRecordedLatency(String name) {
+        return recordedLatency.get(name);
+    }
+
+    /**
+     * 没有对应发号接口而跳过的记录数
+     * @return
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    private static class Stats {
+        final Recorder latency = new Recorder(3);
+        final Recorder service = new Recorder(3);
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        /**
+         * 只在调度线程中修改
+         */
+        long sent;
+    }
+}
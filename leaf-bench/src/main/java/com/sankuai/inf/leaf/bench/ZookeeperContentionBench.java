@@ -0,0 +1,144 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.segment.dao.impl.ZookeeperIDAllocDao;
+import org.HdrHistogram.Histogram;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个leaf节点用zookeeper存储并发更新同一个业务key，测量compare-and-set冲突次数和号段更新耗时
+ * + zk-contention: 并发客户端数，逗号分隔，依次测量，默认 1,4,16
+ * + zk: zookeeper地址，不配置时启动内嵌的TestingServer
+ * + rounds: 每个客户端连续更新的次数，默认50
+ * + step: 业务key的步长，默认100
+ * + max-retry: 一次更新最多重试的次数，默认 {@link ZookeeperIDAllocDao#DEFAULT_MAX_RETRY}
+ * 每个客户端使用独立的curator连接，更新之间没有间隔，是最坏情况的竞争
+ * 发现重复号段时以状态码2退出
+ */
+public class ZookeeperContentionBench {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LeafBench.parse(args);
+        String clientCounts = LeafBench.option(options, "zk-contention", "1,4,16");
+        if ("true".equals(clientCounts)) {
+            clientCounts = "1,4,16";
+        }
+        int rounds = Integer.parseInt(LeafBench.option(options, "rounds", "50"));
+        int step = Integer.parseInt(LeafBench.option(options, "step", "100"));
+        int maxRetry = Integer.parseInt(LeafBench.option(options, "max-retry", String.valueOf(ZookeeperIDAllocDao.DEFAULT_MAX_RETRY)));
+        String zk = options.get("zk");
+        TestingServer server = null;
+        if (zk == null || zk.trim().isEmpty()) {
+            server = new TestingServer();
+            zk = server.getConnectString();
+        }
+        long duplicates = 0;
+        try {
+            String basePath = "/leaf-bench/zk-contention-" + System.currentTimeMillis();
+            int index = 0;
+            for (String count : clientCounts.split(",")) {
+                String tag = "hot-" + index++;
+                duplicates += run(zk.trim(), basePath, tag, Integer.parseInt(count.trim()), rounds, step, maxRetry, System.out);
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        if (duplicates > 0) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @return 重复的号段数
+     */
+    static long run(String zk, String basePath, final String tag, int clientCount, final int rounds, int step,
+                    int maxRetry, PrintStream out) throws Exception {
+        List<CuratorFramework> curators = new ArrayList<>();
+        List<ZookeeperIDAllocDao> daos = new ArrayList<>();
+        for (int c = 0; c < clientCount; c++) {
+            CuratorFramework curator = CuratorFrameworkFactory.newClient(zk, new RetryOneTime(1000));
+            curator.start();
+            curators.add(curator);
+            ZookeeperIDAllocDao dao = new ZookeeperIDAllocDao(curator, basePath);
+            dao.setMaxRetry(maxRetry);
+            daos.add(dao);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+        try {
+            daos.get(0).addTag(tag, 1, step);
+            List<Future<Refills>> futures = new ArrayList<>();
+            for (final ZookeeperIDAllocDao dao : daos) {
+                futures.add(executor.submit(new Callable<Refills>() {
+                    @Override
+                    public Refills call() {
+                        Refills refills = new Refills();
+                        for (int r = 0; r < rounds; r++) {
+                            long start = System.nanoTime();
+                            try {
+                                refills.maxIds.add(dao.updateMaxIdAndGetLeafAlloc(tag).getMaxId());
+                                refills.latency.recordValue(Math.min(System.nanoTime() - start, MAX_LATENCY_NANOS));
+                            } catch (IllegalStateException e) {
+                                refills.failures++;
+                            }
+                        }
+                        return refills;
+                    }
+                }));
+            }
+            Histogram latency = new Histogram(MAX_LATENCY_NANOS, 3);
+            Set<Long> maxIds = new HashSet<>();
+            long failures = 0;
+            long duplicates = 0;
+            for (Future<Refills> future : futures) {
+                Refills refills = future.get();
+                latency.add(refills.latency);
+                failures += refills.failures;
+                for (Long maxId : refills.maxIds) {
+                    if (!maxIds.add(maxId)) {
+                        duplicates++;
+                    }
+                }
+            }
+            long conflicts = 0;
+            for (ZookeeperIDAllocDao dao : daos) {
+                conflicts += dao.getConflicts();
+            }
+            out.println("==== zookeeper contention, clients " + clientCount + " ====");
+            out.printf("refills %d, conflicts %d (%.2f per refill), failed after %d retries %d, duplicates %d%n",
+                    latency.getTotalCount(), conflicts, conflicts / (double) Math.max(1, latency.getTotalCount()),
+                    maxRetry, failures, duplicates);
+            BenchReport.header(out);
+            BenchReport.summary(out, "refill latency", latency);
+            out.println();
+            return duplicates;
+        } finally {
+            executor.shutdownNow();
+            for (CuratorFramework curator : curators) {
+                curator.close();
+            }
+        }
+    }
+
+    private static class Refills {
+        private final Histogram latency = new Histogram(MAX_LATENCY_NANOS, 3);
+        private final List<Long> maxIds = new ArrayList<>();
+        private long failures;
+    }
+}
@@ -0,0 +1,89 @@
+package com.sankuai.inf.leaf.bench;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    /**
+     * 服务卡顿一次300ms，卡顿期间到达的请求都在排队
+     * 修正后的延迟中大量请求超过100ms，服务时间中只有卡顿的那一次
+     */
+    @Test
+    public void testCoordinatedOmission() throws Exception {
+        final AtomicLong sequence = new AtomicLong();
+        Target target = new Target() {
+            @Override
+            public long call(String key) throws Exception {
+                long id = sequence.incrementAndGet();
+                if (id == 200) {
+                    Thread.sleep(300);
+                }
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return "stall";
+            }
+        };
+        IdLedger ledger = new IdLedger();
+        LoadGenerator generator = new LoadGenerator(target, KeyDistribution.uniform(keys(1)), 500, 1, ledger, false, 1);
+        BenchReport report = generator.run(0, 1000, 5000);
+
+        assertEquals(report.getSent(), report.getCompleted());
+        assertEquals(0, report.getErrors());
+        long slow = TimeUnit.MILLISECONDS.toNanos(100);
+        long queued = report.getLatency().getCountBetweenValues(slow, Long.MAX_VALUE >> 1);
+        long stalled = report.getService().getCountBetweenValues(slow, Long.MAX_VALUE >> 1);
+        assertEquals(1, stalled);
+        assertTrue("queued " + queued, queued > 50);
+        assertEquals(0, ledger.countDuplicates());
+    }
+
+    @Test
+    public void testDuplicates() {
+        IdLedger ledger = new IdLedger();
+        ledger.add("segment/a", 1);
+        ledger.add("segment/a", 2);
+        ledger.add("segment/b", 1);
+        assertEquals(0, ledger.countDuplicates());
+        ledger.add("segment/a", 2);
+        ledger.add("segment/a", 2);
+        assertEquals(4, ledger.getCount() - 1);
+        assertEquals(2, ledger.countDuplicates());
+    }
+
+    @Test
+    public void testZipf() {
+        KeyDistribution zipf = KeyDistribution.zipf(keys(100), 1.2);
+        Random random = new Random(7);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            String key = zipf.next(random);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        /** 1.2次方时第一个key约占 1/zeta(1.2)，远高于均匀分布的1% **/
+        assertTrue(counts.get("k0") > 15000);
+        assertTrue(counts.get("k0") > counts.get("k1"));
+        assertTrue(counts.get("k1") > counts.get("k9"));
+    }
+
+    private static List<String> keys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add("k" + i);
+        }
+        return keys;
+    }
+}
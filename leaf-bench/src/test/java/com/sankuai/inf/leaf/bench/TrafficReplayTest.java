@@ -0,0 +1,152 @@
+package com.sankuai.inf.leaf.bench;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.server.record.TrafficRecord;
+import com.sankuai.inf.leaf.server.record.TrafficRecordReader;
+import com.sankuai.inf.leaf.server.record.TrafficRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TrafficReplayTest {
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = File.createTempFile("leaf-traffic", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void after() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 写满一个文件后滚动，读出的记录与写入的一致，时间精确到微秒
+     */
+    @Test
+    public void testRecordAndRead() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(dir, TrafficRecorder.MIN_FILE_SIZE, 100, 10000);
+        long start = System.nanoTime();
+        int count = 3000;
+        for (int i = 0; i < count; i++) {
+            byte generator = i % 3 == 0 ? TrafficRecord.SNOWFLAKE : TrafficRecord.SEGMENT;
+            assertTrue(recorder.record(generator, "key-" + (i % 7), start + i * 1500L, i * 1000L, i % 10 != 0));
+        }
+        recorder.close();
+        assertEquals(count, recorder.getRecorded());
+        assertEquals(0, recorder.getDropped());
+        assertTrue(TrafficRecordReader.list(dir).size() > 1);
+
+        TrafficRecordReader reader = new TrafficRecordReader(dir);
+        TrafficRecord first = reader.next();
+        assertNotNull(first);
+        List<TrafficRecord> records = new ArrayList<>(Arrays.asList(first));
+        for (TrafficRecord record = reader.next(); record != null; record = reader.next()) {
+            records.add(record);
+        }
+        assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            TrafficRecord record = records.get(i);
+            assertEquals("key-" + (i % 7), record.getKey());
+            assertEquals(i % 3 == 0 ? "snowflake" : "segment", record.getGeneratorName());
+            assertEquals(i, record.getLatencyMicros());
+            assertEquals(i % 10 != 0, record.isSuccess());
+            assertEquals(first.getTimestampMicros() + (i * 1500L) / 1000, record.getTimestampMicros(), 1);
+        }
+    }
+
+    /**
+     * 只保留最近的文件
+     */
+    @Test
+    public void testMaxFiles() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(dir, TrafficRecorder.MIN_FILE_SIZE, 2, 10000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5000; i++) {
+            recorder.record(TrafficRecord.SEGMENT, "key", start + i, 10, true);
+        }
+        recorder.close();
+        assertEquals(2, TrafficRecordReader.list(dir).size());
+        TrafficRecordReader reader = new TrafficRecordReader(dir);
+        int read = 0;
+        while (reader.next() != null) {
+            read++;
+        }
+        assertTrue(read > 0 && read < 5000);
+    }
+
+    /**
+     * 记录1秒的请求，10倍速回放用时约100ms，请求的业务key和顺序与记录一致
+     */
+    @Test
+    public void testReplay() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(dir, 1 << 20, 4, 10000);
+        long start = System.nanoTime();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            recorder.record(i % 2 == 0 ? TrafficRecord.SEGMENT : TrafficRecord.SNOWFLAKE, "key-" + (i % 5),
+                    start + TimeUnit.MILLISECONDS.toNanos(i), 100, true);
+        }
+        recorder.close();
+
+        final List<String> calls = new ArrayList<>();
+        final AtomicLong sequence = new AtomicLong();
+        IDGen idGen = new IDGen() {
+            @Override
+            public Result get(String key) {
+                synchronized (calls) {
+                    calls.add(key);
+                }
+                return new Result(sequence.incrementAndGet(), Status.SUCCESS);
+            }
+
+            @Override
+            public List<Result> get(String key, int count) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean init() {
+                return true;
+            }
+        };
+        IdLedger ledger = new IdLedger();
+        TrafficReplay replay = new TrafficReplay(new TrafficRecordReader(dir),
+                Arrays.<Target>asList(new IDGenTarget("segment", idGen)), 10, 1, ledger, false);
+        long begin = System.nanoTime();
+        List<BenchReport> reports = replay.run(5000);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertEquals(1, reports.size());
+        BenchReport report = reports.get(0);
+        assertEquals(count / 2, report.getSent());
+        assertEquals(count / 2, report.getCompleted());
+        assertEquals(count / 2, replay.getSkipped());
+        assertEquals(count / 2, replay.getRecordedLatency("segment").getTotalCount());
+        assertTrue("elapsed " + elapsed, elapsed >= 90 && elapsed < 1000);
+        for (int i = 0; i < calls.size(); i++) {
+            assertEquals("key-" + (i * 2 % 5), calls.get(i));
+        }
+        assertEquals(0, ledger.countDuplicates());
+    }
+}
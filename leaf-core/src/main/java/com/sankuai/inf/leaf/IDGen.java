@@ -2,7 +2,19 @@ package com.sankuai.inf.leaf;
 
 import com.sankuai.inf.leaf.common.Result;
 
+import java.util.List;
+
 public interface IDGen {
     Result get(String key);
+
+    /**
+     * 一次取同一个业务key的count个号码
+     * 每个号码单独给出结果，部分失败时对应位置为异常码，与逐个调用 {@link #get(String)} 的结果一致
+     * @param key
+     * @param count 必须大于0
+     * @return count个结果
+     */
+    List<Result> get(String key, int count);
+
     boolean init();
 }
@@ -0,0 +1,16 @@
+package com.sankuai.inf.leaf.common;
+
+/**
+ * 毫秒时钟，默认使用系统时间，测试和模拟时可以替换为虚拟时间
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
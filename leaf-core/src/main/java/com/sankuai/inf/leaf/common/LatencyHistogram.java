@@ -0,0 +1,83 @@
+package com.sankuai.inf.leaf.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的耗时直方图
+ * + 按2的幂划分桶，第i个桶记录 [2^(i-1), 2^i) 纳秒的耗时，记录一次只需要一次数组元素的原子加
+ * + 分位数取所在桶的上界，误差在2倍以内，只用于定位耗时的量级
+ */
+public class LatencyHistogram {
+    /**
+     * 2^40纳秒约18分钟，更大的耗时都落在最后一个桶
+     */
+    private static final int BUCKETS = 41;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * 记录一次耗时
+     * @param nanos
+     * @param weight 抽样记录时的权重
+     */
+    public void record(long nanos, long weight) {
+        counts.addAndGet(bucketOf(nanos), weight);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * 分位数
+     * @param percentile 0到100
+     * @return 所在桶的上界纳秒数，没有记录时返回0
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * 记录过的最大耗时所在桶的上界
+     * @return
+     */
+    public long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static long upperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
@@ -4,14 +4,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 
 public class PropertyFactory {
     private static final Logger logger = LoggerFactory.getLogger(PropertyFactory.class);
     private static final Properties prop = new Properties();
     static {
+        InputStream in = PropertyFactory.class.getClassLoader().getResourceAsStream("leaf.properties");
         try {
-            prop.load(PropertyFactory.class.getClassLoader().getResourceAsStream("leaf.properties"));
+            if (in == null) {
+                /** 内嵌在应用中时可以没有leaf.properties **/
+                logger.info("leaf.properties not found");
+            } else {
+                prop.load(in);
+            }
         } catch (IOException e) {
             logger.warn("Load Properties Ex", e);
         }
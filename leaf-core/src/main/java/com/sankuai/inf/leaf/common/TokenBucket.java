@@ -0,0 +1,108 @@
+package com.sankuai.inf.leaf.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * 用一个AtomicLong记录"桶空时的理论时间"(GCRA算法)，取令牌只需要一次compare-and-set：
+ * + 每个令牌的发放间隔为 1秒 / permitsPerSecond
+ * + 理论时间超前当前时间不超过 burst个令牌的间隔 时可以取得令牌，并把理论时间推后一个间隔
+ * + 取不到令牌时直接返回false，不等待
+ */
+public class TokenBucket {
+    private final double permitsPerSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalTime;
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    /**
+     * @param permitsPerSecond 每秒发放的令牌数
+     * @param burst            桶容量，允许的突发令牌数
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        /** 初始时桶是满的 **/
+        this.theoreticalTime = new AtomicLong(System.nanoTime() - toleranceNanos);
+    }
+
+    /**
+     * 解析 rate[:burst] 格式的配置，没有给出burst时取 max(1, rate)
+     * @param value
+     * @return
+     */
+    public static TokenBucket parse(String value) {
+        String[] parts = value.trim().split(":");
+        double rate = Double.parseDouble(parts[0].trim());
+        int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : (int) Math.max(1, Math.ceil(rate));
+        return new TokenBucket(rate, burst);
+    }
+
+    /**
+     * 尝试取一个令牌
+     * @return 是否取到
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 尝试一次取多个令牌，令牌不够时一个也不取
+     * @param permits 令牌数，超过桶容量时总是取不到
+     * @return 是否取到
+     */
+    public boolean tryAcquire(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalTime.get();
+            long next = Math.max(current, now - toleranceNanos) + intervalNanos * permits;
+            if (next - now > 0) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (theoreticalTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * 被拒绝的次数
+     * @return
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("TokenBucket{");
+        sb.append("permitsPerSecond=").append(permitsPerSecond);
+        sb.append(", burst=").append(burst);
+        sb.append(", rejected=").append(rejected.get());
+        sb.append('}');
+        return sb.toString();
+    }
+}
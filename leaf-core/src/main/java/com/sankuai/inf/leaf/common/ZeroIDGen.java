@@ -2,12 +2,23 @@ package com.sankuai.inf.leaf.common;
 
 import com.sankuai.inf.leaf.IDGen;
 
+import java.util.Collections;
+import java.util.List;
+
 public class ZeroIDGen implements IDGen {
     @Override
     public Result get(String key) {
         return new Result(0, Status.SUCCESS);
     }
 
+    @Override
+    public List<Result> get(String key, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        return Collections.nCopies(count, get(key));
+    }
+
     @Override
     public boolean init() {
         return true;
@@ -0,0 +1,32 @@
+package com.sankuai.inf.leaf.common.jfr;
+
+/**
+ * 事件记录的实现，参数只使用基本类型，不依赖jdk.jfr
+ * begin返回的对象原样传给对应的end，不需要记录时返回null
+ */
+interface EventRecorder {
+
+    Object beginSegmentRefill();
+
+    void endSegmentRefill(Object event, String key, int step, boolean success);
+
+    void segmentSwitch(String key, long max, int step);
+
+    Object beginSegmentWait();
+
+    void endSegmentWait(Object event, String key, boolean nextReady);
+
+    Object beginTagSync();
+
+    void endTagSync(Object event, int added, int removed, int total, boolean success);
+
+    Object beginClockRollbackWait();
+
+    void endClockRollbackWait(Object event, long offsetMillis, boolean recovered);
+
+    Object beginSequenceSpin();
+
+    void endSequenceSpin(Object event, long lastTimestamp);
+
+    void zookeeperHeartbeatFailure(String path, String error);
+}
@@ -0,0 +1,237 @@
+package com.sankuai.inf.leaf.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * 基于jdk.jfr的事件记录，只由 {@link LeafEvents} 通过反射加载，运行时没有jdk.jfr时不会加载这个类
+ */
+class JfrEventRecorder implements EventRecorder {
+
+    @Override
+    public Object beginSegmentRefill() {
+        SegmentRefillEvent event = new SegmentRefillEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endSegmentRefill(Object object, String key, int step, boolean success) {
+        SegmentRefillEvent event = (SegmentRefillEvent) object;
+        event.end();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.step = step;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void segmentSwitch(String key, long max, int step) {
+        SegmentSwitchEvent event = new SegmentSwitchEvent();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.max = max;
+            event.step = step;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginSegmentWait() {
+        SegmentWaitEvent event = new SegmentWaitEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endSegmentWait(Object object, String key, boolean nextReady) {
+        SegmentWaitEvent event = (SegmentWaitEvent) object;
+        event.end();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.nextReady = nextReady;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginTagSync() {
+        TagSyncEvent event = new TagSyncEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endTagSync(Object object, int added, int removed, int total, boolean success) {
+        TagSyncEvent event = (TagSyncEvent) object;
+        event.end();
+        if (event.shouldCommit()) {
+            event.added = added;
+            event.removed = removed;
+            event.total = total;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginClockRollbackWait() {
+        ClockRollbackWaitEvent event = new ClockRollbackWaitEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endClockRollbackWait(Object object, long offsetMillis, boolean recovered) {
+        ClockRollbackWaitEvent event = (ClockRollbackWaitEvent) object;
+        event.end();
+        if (event.shouldCommit()) {
+            event.offset = offsetMillis;
+            event.recovered = recovered;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginSequenceSpin() {
+        SequenceSpinEvent event = new SequenceSpinEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endSequenceSpin(Object object, long lastTimestamp) {
+        SequenceSpinEvent event = (SequenceSpinEvent) object;
+        event.end();
+        if (event.shouldCommit()) {
+            event.lastTimestamp = lastTimestamp;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void zookeeperHeartbeatFailure(String path, String error) {
+        ZookeeperHeartbeatFailureEvent event = new ZookeeperHeartbeatFailureEvent();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    @Name("com.sankuai.inf.leaf.SegmentRefill")
+    @Label("Segment Refill")
+    @Description("从存储更新号段")
+    @Category({"Leaf", "Segment"})
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class SegmentRefillEvent extends Event {
+        @Label("Key")
+        String key;
+        @Label("Step")
+        int step;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.sankuai.inf.leaf.SegmentSwitch")
+    @Label("Segment Switch")
+    @Description("当前号段耗尽，切换到后备号段")
+    @Category({"Leaf", "Segment"})
+    @StackTrace(false)
+    static class SegmentSwitchEvent extends Event {
+        @Label("Key")
+        String key;
+        @Label("Max")
+        long max;
+        @Label("Step")
+        int step;
+    }
+
+    @Name("com.sankuai.inf.leaf.SegmentWait")
+    @Label("Segment Wait")
+    @Description("当前号段耗尽，等待后备号段更新")
+    @Category({"Leaf", "Segment"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class SegmentWaitEvent extends Event {
+        @Label("Key")
+        String key;
+        @Label("Next Ready")
+        boolean nextReady;
+    }
+
+    @Name("com.sankuai.inf.leaf.TagSync")
+    @Label("Tag Sync")
+    @Description("定时从存储同步业务key")
+    @Category({"Leaf", "Segment"})
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static class TagSyncEvent extends Event {
+        @Label("Added")
+        int added;
+        @Label("Removed")
+        int removed;
+        @Label("Total")
+        int total;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.sankuai.inf.leaf.ClockRollbackWait")
+    @Label("Clock Rollback Wait")
+    @Description("snowflake时钟回退后等待时钟追上")
+    @Category({"Leaf", "Snowflake"})
+    @Threshold("0 ms")
+    static class ClockRollbackWaitEvent extends Event {
+        @Label("Offset Millis")
+        long offset;
+        @Label("Recovered")
+        boolean recovered;
+    }
+
+    @Name("com.sankuai.inf.leaf.SequenceSpin")
+    @Label("Sequence Spin")
+    @Description("snowflake毫秒内序号耗尽，自旋等待下一毫秒")
+    @Category({"Leaf", "Snowflake"})
+    @Threshold("500 us")
+    @StackTrace(false)
+    static class SequenceSpinEvent extends Event {
+        @Label("Last Timestamp")
+        long lastTimestamp;
+    }
+
+    @Name("com.sankuai.inf.leaf.ZookeeperHeartbeatFailure")
+    @Label("Zookeeper Heartbeat Failure")
+    @Description("snowflake向zookeeper上报时间戳或续约失败")
+    @Category({"Leaf", "Snowflake"})
+    @StackTrace(false)
+    static class ZookeeperHeartbeatFailureEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Error")
+        String error;
+    }
+}
@@ -0,0 +1,190 @@
+package com.sankuai.inf.leaf.common.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leaf的JDK Flight Recorder事件，用于把号段更新、等待和时钟问题与GC、安全点停顿放在同一条时间线上对比
+ * + 运行时存在jdk.jfr时通过反射加载 {@link JfrEventRecorder}，否则(或者 -Dleaf.jfr.enable=false)所有方法都是空操作
+ * + 事件没有被录制时begin直接返回null，end和即时事件只做一次判空或者一次isEnabled判断
+ * + 持续事件带有默认阈值，可以在.jfc配置中通过 事件名#threshold 覆盖
+ * 用法：
+ * <pre>
+ * Object event = LeafEvents.beginSegmentWait();
+ * ...
+ * LeafEvents.endSegmentWait(event, key, nextReady);
+ * </pre>
+ */
+public final class LeafEvents {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeafEvents.class);
+    public static final String ENABLE_PROPERTY = "leaf.jfr.enable";
+    private static final EventRecorder RECORDER = createRecorder();
+
+    private LeafEvents() {
+    }
+
+    private static EventRecorder createRecorder() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLE_PROPERTY, "true"))) {
+            return new NoopEventRecorder();
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventRecorder) Class.forName("com.sankuai.inf.leaf.common.jfr.JfrEventRecorder").newInstance();
+        } catch (Throwable e) {
+            LOGGER.info("jdk flight recorder not available, leaf events disabled: {}", e.toString());
+            return new NoopEventRecorder();
+        }
+    }
+
+    /**
+     * 是否使用了JFR
+     * @return
+     */
+    public static boolean isAvailable() {
+        return !(RECORDER instanceof NoopEventRecorder);
+    }
+
+    /**
+     * 从存储更新号段
+     * @return
+     */
+    public static Object beginSegmentRefill() {
+        return RECORDER.beginSegmentRefill();
+    }
+
+    public static void endSegmentRefill(Object event, String key, int step, boolean success) {
+        if (event != null) {
+            RECORDER.endSegmentRefill(event, key, step, success);
+        }
+    }
+
+    /**
+     * 切换到后备号段，即时事件
+     * @param key
+     * @param max  切换后号段的最大值
+     * @param step 切换后号段的步长
+     */
+    public static void segmentSwitch(String key, long max, int step) {
+        RECORDER.segmentSwitch(key, max, step);
+    }
+
+    /**
+     * 当前号段耗尽，等待后备号段更新
+     * @return
+     */
+    public static Object beginSegmentWait() {
+        return RECORDER.beginSegmentWait();
+    }
+
+    public static void endSegmentWait(Object event, String key, boolean nextReady) {
+        if (event != null) {
+            RECORDER.endSegmentWait(event, key, nextReady);
+        }
+    }
+
+    /**
+     * 定时同步业务key
+     * @return
+     */
+    public static Object beginTagSync() {
+        return RECORDER.beginTagSync();
+    }
+
+    public static void endTagSync(Object event, int added, int removed, int total, boolean success) {
+        if (event != null) {
+            RECORDER.endTagSync(event, added, removed, total, success);
+        }
+    }
+
+    /**
+     * snowflake时钟回退后的等待
+     * @return
+     */
+    public static Object beginClockRollbackWait() {
+        return RECORDER.beginClockRollbackWait();
+    }
+
+    public static void endClockRollbackWait(Object event, long offsetMillis, boolean recovered) {
+        if (event != null) {
+            RECORDER.endClockRollbackWait(event, offsetMillis, recovered);
+        }
+    }
+
+    /**
+     * snowflake毫秒内序号耗尽，自旋等待下一毫秒
+     * @return
+     */
+    public static Object beginSequenceSpin() {
+        return RECORDER.beginSequenceSpin();
+    }
+
+    public static void endSequenceSpin(Object event, long lastTimestamp) {
+        if (event != null) {
+            RECORDER.endSequenceSpin(event, lastTimestamp);
+        }
+    }
+
+    /**
+     * snowflake向zookeeper上报失败，即时事件
+     * @param path
+     * @param error
+     */
+    public static void zookeeperHeartbeatFailure(String path, Throwable error) {
+        RECORDER.zookeeperHeartbeatFailure(path, String.valueOf(error));
+    }
+
+    private static class NoopEventRecorder implements EventRecorder {
+        @Override
+        public Object beginSegmentRefill() {
+            return null;
+        }
+
+        @Override
+        public void endSegmentRefill(Object event, String key, int step, boolean success) {
+        }
+
+        @Override
+        public void segmentSwitch(String key, long max, int step) {
+        }
+
+        @Override
+        public Object beginSegmentWait() {
+            return null;
+        }
+
+        @Override
+        public void endSegmentWait(Object event, String key, boolean nextReady) {
+        }
+
+        @Override
+        public Object beginTagSync() {
+            return null;
+        }
+
+        @Override
+        public void endTagSync(Object event, int added, int removed, int total, boolean success) {
+        }
+
+        @Override
+        public Object beginClockRollbackWait() {
+            return null;
+        }
+
+        @Override
+        public void endClockRollbackWait(Object event, long offsetMillis, boolean recovered) {
+        }
+
+        @Override
+        public Object beginSequenceSpin() {
+            return null;
+        }
+
+        @Override
+        public void endSequenceSpin(Object event, long lastTimestamp) {
+        }
+
+        @Override
+        public void zookeeperHeartbeatFailure(String path, String error) {
+        }
+    }
+}
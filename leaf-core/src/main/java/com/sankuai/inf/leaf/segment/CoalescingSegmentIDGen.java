@@ -0,0 +1,307 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.google.common.base.Preconditions;
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Result;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 合并同一个业务key并发请求的号段发号器
+ * + 同一个业务key的请求先加入当前打开的组，第一个加入的请求作为组长，其余请求等待组长分发号码
+ * + 每个业务key同时只有一个组在发号，组长要等上一个组发完才能关闭本组，等待期间到达的请求都并入本组，
+ *   与 {@link com.sankuai.inf.leaf.segment.dao.impl.MappedFileIDAllocDao} 的合并刷盘相同；
+ *   没有并发时组长立即发号，不增加延迟
+ * + 可以再等待一个很短的窗口收集更多请求，组满时提前结束等待
+ * + 组长用 {@link SegmentIDGenImpl#get(String, int)} 一次取出整组的号码，整组只竞争一次buffer的读锁和号段的AtomicLong
+ * 请求额外的延迟不超过 上一个组的发号耗时 + 等待窗口
+ * 被包装的发号器需要单独初始化；不存在的业务key不合并，直接交给被包装的发号器
+ * 业务key的状态只在有请求时保留，最后一个请求离开后移除，被淘汰或者不再访问的业务key不占内存
+ */
+public class CoalescingSegmentIDGen implements IDGen {
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    private final SegmentIDGenImpl idGen;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final ConcurrentMap<String, KeyState> states = new ConcurrentHashMap<String, KeyState>();
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+
+    public CoalescingSegmentIDGen(SegmentIDGenImpl idGen) {
+        this(idGen, 0, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param idGen         被包装的发号器
+     * @param windowMicros  组长在上一个组发完之后再等待的微秒数，0表示不等待
+     * @param maxBatch      一个组最多合并的请求数
+     */
+    public CoalescingSegmentIDGen(SegmentIDGenImpl idGen, long windowMicros, int maxBatch) {
+        Preconditions.checkArgument(windowMicros >= 0, "windowMicros must not be negative");
+        Preconditions.checkArgument(maxBatch > 0, "maxBatch must be positive");
+        this.idGen = idGen;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+    }
+
+    @Override
+    public boolean init() {
+        return true;
+    }
+
+    @Override
+    public Result get(String key) {
+        if (key == null || idGen.bufferOf(key) == null) {
+            return idGen.get(key);
+        }
+        requests.incrementAndGet();
+        KeyState state = acquire(key);
+        try {
+            while (true) {
+                Group group = state.open.get();
+                if (group != null) {
+                    int slot = group.join(maxBatch);
+                    if (slot > 0) {
+                        return group.await(slot);
+                    }
+                    /** 组已经关闭或者已满，开一个新组 **/
+                    state.open.compareAndSet(group, null);
+                    continue;
+                }
+                Group created = new Group();
+                if (state.open.compareAndSet(null, created)) {
+                    return lead(key, state, created);
+                }
+            }
+        } finally {
+            release(key, state);
+        }
+    }
+
+    /**
+     * 取业务key的状态并登记一个请求，状态已经退役时换一个新的
+     * @param key
+     * @return
+     */
+    private KeyState acquire(String key) {
+        while (true) {
+            KeyState state = states.get(key);
+            if (state == null) {
+                KeyState created = new KeyState();
+                state = states.putIfAbsent(key, created);
+                if (state == null) {
+                    state = created;
+                }
+            }
+            if (state.acquire()) {
+                return state;
+            }
+            states.remove(key, state);
+        }
+    }
+
+    /**
+     * 最后一个请求离开时退役并移除业务key的状态，此时没有打开的组也没有正在发号的组，
+     * 退役后到达的请求会放入新的状态，不会并入已经移除的状态
+     * @param key
+     * @param state
+     */
+    private void release(String key, KeyState state) {
+        if (state.release()) {
+            states.remove(key, state);
+        }
+    }
+
+    /**
+     * 批量请求本身已经一次取出多个号码，不再合并，直接交给被包装的发号器
+     * @param key
+     * @param count
+     * @return
+     */
+    @Override
+    public List<Result> get(String key, int count) {
+        return idGen.get(key, count);
+    }
+
+    /**
+     * 组长等上一个组发完，关闭本组，一次取出整组的号码后分发
+     * @param key
+     * @param state
+     * @param group
+     * @return 组长自己的号码
+     */
+    private Result lead(String key, KeyState state, Group group) {
+        state.inFlight.lock();
+        try {
+            if (windowNanos > 0) {
+                long deadline = System.nanoTime() + windowNanos;
+                long remaining;
+                while (!group.isFull(maxBatch) && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            int size = group.close();
+            state.open.compareAndSet(group, null);
+            batches.incrementAndGet();
+            List<Result> results = size == 1 ? null : idGen.get(key, size);
+            Result own = size == 1 ? idGen.get(key) : results.get(0);
+            group.complete(results);
+            return own;
+        } catch (RuntimeException e) {
+            group.fail(e);
+            throw e;
+        } finally {
+            state.inFlight.unlock();
+        }
+    }
+
+    /**
+     * 经过合并的请求数
+     * @return
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * 组数，即调用被包装发号器的次数
+     * @return
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public SegmentIDGenImpl getIdGen() {
+        return idGen;
+    }
+
+    /**
+     * 当前有请求的业务key数
+     * @return
+     */
+    int getKeyStates() {
+        return states.size();
+    }
+
+    private static class KeyState {
+        private static final int RETIRED = -1;
+
+        /**
+         * 正在合并或者发号的请求数；降到0时退役为RETIRED，不再接收请求
+         */
+        private final AtomicInteger users = new AtomicInteger(0);
+        /**
+         * 正在接收请求的组
+         */
+        final AtomicReference<Group> open = new AtomicReference<Group>();
+        /**
+         * 正在发号的组持有
+         */
+        final ReentrantLock inFlight = new ReentrantLock();
+
+        /**
+         * @return 状态已经退役时返回false
+         */
+        boolean acquire() {
+            while (true) {
+                int current = users.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return 最后一个请求离开并退役时返回true
+         */
+        boolean release() {
+            return users.decrementAndGet() == 0 && users.compareAndSet(0, RETIRED);
+        }
+    }
+
+    private static class Group {
+        private static final int CLOSED = -1;
+
+        /**
+         * 组内请求数，组长占第0个位置；关闭后为CLOSED
+         */
+        private final AtomicInteger size = new AtomicInteger(1);
+        private final Thread leader = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile List<Result> results;
+        private volatile RuntimeException failure;
+
+        /**
+         * @param maxBatch
+         * @return 组内的位置，组已经关闭或者已满时返回-1
+         */
+        int join(int maxBatch) {
+            while (true) {
+                int current = size.get();
+                if (current == CLOSED || current >= maxBatch) {
+                    return -1;
+                }
+                if (size.compareAndSet(current, current + 1)) {
+                    if (current + 1 == maxBatch) {
+                        LockSupport.unpark(leader);
+                    }
+                    return current;
+                }
+            }
+        }
+
+        boolean isFull(int maxBatch) {
+            return size.get() >= maxBatch;
+        }
+
+        /**
+         * 关闭后不再接收请求
+         * @return 组内请求数
+         */
+        int close() {
+            return size.getAndSet(CLOSED);
+        }
+
+        void complete(List<Result> results) {
+            this.results = results;
+            done.countDown();
+        }
+
+        void fail(RuntimeException e) {
+            this.failure = e;
+            done.countDown();
+        }
+
+        Result await(int slot) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw new IllegalStateException("coalesced request fail", failure);
+            }
+            return results.get(slot);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+
+/**
+ * 业务key的发号句柄
+ * 通过 {@link SegmentIDGenImpl#getHandle(String)} 获取，直接绑定业务key对应的SegmentBuffer，
+ * 发号时不再对cache进行查找，适合进程内对同一个业务key大量发号的场景
+ * buffer因为空闲被淘汰后，下一次发号时重新绑定
+ */
+public class SegmentHandle {
+    private final SegmentIDGenImpl idGen;
+    private volatile SegmentBuffer buffer;
+
+    SegmentHandle(SegmentIDGenImpl idGen, SegmentBuffer buffer) {
+        this.idGen = idGen;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 进行发号
+     * 业务key被删除后，返回key不存在的异常码
+     * @return
+     */
+    public Result get() {
+        SegmentBuffer current = buffer;
+        if (current.isEvicted()) {
+            /** buffer因为空闲被淘汰，重新绑定到新的buffer **/
+            SegmentBuffer fresh = idGen.bufferOf(current.getKey());
+            if (fresh != null) {
+                buffer = fresh;
+                current = fresh;
+            }
+        }
+        return idGen.get(current);
+    }
+
+    public String getKey() {
+        return buffer.getKey();
+    }
+
+    /**
+     * 句柄是否可用，业务key被删除后不可用，需要重新获取句柄
+     * @return
+     */
+    public boolean isValid() {
+        return !buffer.isRemoved();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SegmentHandle{");
+        sb.append("key='").append(buffer.getKey()).append('\'');
+        sb.append(", valid=").append(isValid());
+        sb.append('}');
+        return sb.toString();
+    }
+}
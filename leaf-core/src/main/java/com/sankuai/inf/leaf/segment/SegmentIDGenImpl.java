@@ -1,9 +1,13 @@
 package com.sankuai.inf.leaf.segment;
 
 import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Clock;
 import com.sankuai.inf.leaf.common.Result;
 import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.common.TokenBucket;
+import com.sankuai.inf.leaf.common.jfr.LeafEvents;
 import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.UpdateExecutorProvider;
 import com.sankuai.inf.leaf.segment.model.*;
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -29,6 +33,14 @@ public class SegmentIDGenImpl implements IDGen {
      * SegmentBuffer中的两个Segment均未从DB中装载时的异常码
      */
     private static final long EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL = -3;
+    /**
+     * 超过业务key发号限流时的异常码
+     */
+    public static final long EXCEPTION_ID_ISSUE_QUOTA_EXCEEDED = -4;
+    /**
+     * 号段耗尽，且后备号段更新被限流时的异常码
+     */
+    public static final long EXCEPTION_ID_REFILL_QUOTA_EXCEEDED = -5;
     /**
      * 最大步长不超过100,0000
      */
@@ -38,13 +50,84 @@ public class SegmentIDGenImpl implements IDGen {
      */
     private static final long SEGMENT_DURATION = 15 * 60 * 1000L;
     private ExecutorService service = new ThreadPoolExecutor(5, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new UpdateThreadFactory());
+    /**
+     * service是否由本对象创建，关闭时只关闭自己创建的线程池
+     */
+    private boolean ownsUpdateExecutor = true;
+    /**
+     * 定时从数据库同步业务key的线程
+     */
+    private ScheduledExecutorService cacheUpdater;
+    /**
+     * 号段步长调整、空闲淘汰和热点记录使用的时钟
+     */
+    private volatile Clock clock = Clock.SYSTEM;
     private volatile boolean initOK = false;
     /**
      * 内存中缓存的，发号器配置数据，通过定时任务，与数据库中的新增和删除比较
      * 但是发号的进度信息，不从数据库拉取，而是内存中维护
      */
-    private Map<String, SegmentBuffer> cache = new ConcurrentHashMap<String, SegmentBuffer>();
+    private ConcurrentMap<String, SegmentBuffer> cache = new ConcurrentHashMap<String, SegmentBuffer>();
+    /**
+     * 全部业务key的精简登记，冷的业务key只保留key本身，第一次发号时才创建SegmentBuffer放入cache
+     */
+    private final Set<String> tags = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * cache中的buffer空闲超过这个时间后淘汰，小于等于0时不淘汰
+     */
+    private volatile long coldTagIdleMillis = 0;
+    private ScheduledExecutorService coldTagEvictor;
+    private static final int MAX_ABANDONED_RANGES = 1000;
+    /**
+     * 淘汰buffer时未发出的号段，只用于统计，这些号码不会再发出
+     */
+    private final Deque<IdRange> abandonedRanges = new ArrayDeque<IdRange>();
+    private final AtomicLong abandonedIds = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
     private IDAllocDao dao;
+    /**
+     * 业务key的发号限流和后备号段更新限流，新增到cache中的buffer从这里取
+     */
+    private final Map<String, TokenBucket> issueQuotas = new ConcurrentHashMap<String, TokenBucket>();
+    private final Map<String, TokenBucket> refillQuotas = new ConcurrentHashMap<String, TokenBucket>();
+    /**
+     * 热点检测的抽样比例 1/(SAMPLE_MASK + 1)
+     */
+    private static final int SAMPLE_MASK = 15;
+    /**
+     * 热点检测周期
+     */
+    private static final long HOT_KEY_DETECT_PERIOD_MS = 1000L;
+    /**
+     * 分条发号后，连续这么多个周期低于降级阈值才降级，避免抖动
+     */
+    private static final int HOT_KEY_COOL_PERIODS = 3;
+    /**
+     * 判断竞争程度时至少需要的抽样数
+     */
+    private static final long HOT_KEY_MIN_SAMPLES = 64;
+    private static final int MAX_HOT_KEY_EVENTS = 100;
+    /**
+     * 升级为分条发号的每秒发号数，小于等于0时不做热点检测
+     */
+    private volatile long hotKeyPromoteRate = 0;
+    /**
+     * 升级为分条发号的cas重试比例(百分比)
+     */
+    private volatile int hotKeyContentionPercent = 10;
+    private volatile int hotKeyStripes = 16;
+    private final Deque<HotKeyEvent> hotKeyEvents = new ArrayDeque<HotKeyEvent>();
+    /**
+     * 是否按发号分类统计耗时，以及每个发号线程复用的记录
+     */
+    private volatile boolean issueStatsEnabled = false;
+    private final ThreadLocal<IssueTrace> issueTraces = new ThreadLocal<IssueTrace>() {
+        @Override
+        protected IssueTrace initialValue() {
+            return new IssueTrace();
+        }
+    };
+    private ScheduledExecutorService hotKeyDetector;
 
     /**
      * 后备号段更新线程工厂
@@ -75,15 +158,338 @@ public class SegmentIDGenImpl implements IDGen {
          * 启动一个线程，异步去从数据库拉取最新的数据
          */
         updateCacheFromDbAtEveryMinute();
+        if (hotKeyPromoteRate > 0) {
+            detectHotKeysAtEverySecond();
+        }
+        if (coldTagIdleMillis > 0) {
+            evictColdTagsPeriodically();
+        }
         return initOK;
     }
 
+    /**
+     * 开启空闲buffer淘汰，需要在init之前调用
+     * @param idleMillis buffer空闲超过这个时间后淘汰，小于等于0时不淘汰
+     */
+    public void setColdTagEviction(long idleMillis) {
+        this.coldTagIdleMillis = idleMillis;
+    }
+
+    /**
+     * 启动空闲buffer淘汰线程，检查间隔为空闲时间的一半，在1秒到1分钟之间
+     */
+    private synchronized void evictColdTagsPeriodically() {
+        if (coldTagEvictor != null) {
+            return;
+        }
+        long period = Math.max(1000L, Math.min(60000L, coldTagIdleMillis / 2));
+        coldTagEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("evict-coldTag-thread");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        coldTagEvictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictColdBuffers(clock.currentTimeMillis());
+                } catch (Exception e) {
+                    logger.warn("evict cold tags exception", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 淘汰空闲的buffer
+     * 发号时只在访问标记为false时写一次，这里每次检查清除访问标记并记录时间，避免在发号路径上每次写访问时间
+     * @param now
+     */
+    void evictColdBuffers(long now) {
+        long idleMillis = coldTagIdleMillis;
+        if (idleMillis <= 0) {
+            return;
+        }
+        for (SegmentBuffer buffer : cache.values()) {
+            if (buffer.isAccessed()) {
+                buffer.setAccessed(false);
+                buffer.setLastAccess(now);
+            } else if (now - buffer.getLastAccess() >= idleMillis && !buffer.getThreadRunning().get()) {
+                evict(buffer);
+            }
+        }
+    }
+
+    /**
+     * 在写锁下标记buffer为已淘汰，记录未发出的号段，再从cache中移除
+     * 之后通过该buffer发号(句柄)会重新从cache获取buffer
+     * @param buffer
+     */
+    private void evict(SegmentBuffer buffer) {
+        buffer.wLock().lock();
+        try {
+            /** 后备号段正在更新时不淘汰，下个周期再检查 **/
+            if (buffer.isEvicted() || buffer.getThreadRunning().get()) {
+                return;
+            }
+            buffer.setEvicted(true);
+            if (buffer.isInitOk()) {
+                abandon(buffer.getKey(), buffer.getCurrent());
+                if (buffer.isNextReady()) {
+                    abandon(buffer.getKey(), buffer.getSegments()[buffer.nextPos()]);
+                }
+            }
+        } finally {
+            buffer.wLock().unlock();
+        }
+        cache.remove(buffer.getKey(), buffer);
+        evictions.incrementAndGet();
+        logger.info("Evict cold tag {} from IdCache", buffer.getKey());
+    }
+
+    private void abandon(String key, Segment segment) {
+        long value = segment.getValue().get();
+        if (value >= segment.getMax()) {
+            return;
+        }
+        IdRange range = new IdRange(key, value, segment.getMax());
+        abandonedIds.addAndGet(range.getCount());
+        synchronized (abandonedRanges) {
+            abandonedRanges.addLast(range);
+            while (abandonedRanges.size() > MAX_ABANDONED_RANGES) {
+                abandonedRanges.removeFirst();
+            }
+        }
+        logger.info("Abandon {}", range);
+    }
+
+    /**
+     * 最近淘汰buffer时未发出的号段
+     * @return
+     */
+    public List<IdRange> getAbandonedRanges() {
+        synchronized (abandonedRanges) {
+            return new ArrayList<IdRange>(abandonedRanges);
+        }
+    }
+
+    /**
+     * 淘汰buffer时累计未发出的号码数
+     * @return
+     */
+    public long getAbandonedIds() {
+        return abandonedIds.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * 登记的业务key数量，包括还没有创建buffer的冷key
+     * @return
+     */
+    public int getTagCount() {
+        return tags.size();
+    }
+
+    /**
+     * 获取业务key的buffer，冷key第一次发号时创建
+     * @param key
+     * @return 业务key不存在时返回null
+     */
+    SegmentBuffer bufferOf(String key) {
+        SegmentBuffer buffer = cache.get(key);
+        if (buffer != null && buffer.isEvicted()) {
+            /** 已经标记淘汰，还没有从cache中移除 **/
+            cache.remove(key, buffer);
+            buffer = null;
+        }
+        if (buffer != null || !tags.contains(key)) {
+            return buffer;
+        }
+        SegmentBuffer created = newBuffer(key);
+        buffer = cache.putIfAbsent(key, created);
+        if (buffer != null) {
+            return buffer;
+        }
+        /** 创建期间业务key被删除了 **/
+        if (!tags.contains(key)) {
+            cache.remove(key, created);
+            created.setRemoved(true);
+            return null;
+        }
+        logger.info("Add tag {} to IdCache, SegmentBuffer {}", key, created);
+        return created;
+    }
+
+    /**
+     * 新建的对象，初始化状态为false
+     * @param tag
+     * @return
+     */
+    private SegmentBuffer newBuffer(String tag) {
+        SegmentBuffer buffer = new SegmentBuffer();
+        buffer.setKey(tag);
+        Segment segment = buffer.getCurrent();
+        segment.setValue(new AtomicLong(0));
+        /**
+         * 为什么max 和 step都是 0
+         * {@link SegmentIDGenImpl#get(String)}查询的时候回触发如下方法
+         * {@link SegmentIDGenImpl#updateSegmentFromDb}，中会拉取数据库的配置，将max 和 step写入
+         */
+        segment.setMax(0);
+        segment.setStep(0);
+        buffer.setIssueQuota(issueQuotas.get(tag));
+        buffer.setRefillQuota(refillQuotas.get(tag));
+        if (issueStatsEnabled) {
+            buffer.setIssueStats(new IssueStats());
+        }
+        buffer.setLastAccess(clock.currentTimeMillis());
+        return buffer;
+    }
+
+    /**
+     * 启动热点检测线程
+     */
+    private synchronized void detectHotKeysAtEverySecond() {
+        if (hotKeyDetector != null) {
+            return;
+        }
+        hotKeyDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setName("detect-hotKey-thread");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        hotKeyDetector.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    detectHotKeys(HOT_KEY_DETECT_PERIOD_MS);
+                } catch (Exception e) {
+                    logger.warn("detect hot keys exception", e);
+                }
+            }
+        }, HOT_KEY_DETECT_PERIOD_MS, HOT_KEY_DETECT_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 根据抽样估算每个业务key的发号速率和竞争程度
+     * + 速率达到升级阈值，或者cas重试比例达到阈值时，升级为分条发号
+     * + 分条发号的key连续几个周期低于升级阈值的1/4时降级，释放条带
+     * @param periodMillis 距离上次检测的时间
+     */
+    void detectHotKeys(long periodMillis) {
+        long promoteRate = hotKeyPromoteRate;
+        if (promoteRate <= 0) {
+            return;
+        }
+        for (SegmentBuffer buffer : cache.values()) {
+            long requests = buffer.getSampledRequests().getAndSet(0);
+            long retries = buffer.getSampledRetries().getAndSet(0);
+            long rate = requests * (SAMPLE_MASK + 1) * 1000 / Math.max(1, periodMillis);
+            buffer.setRate(rate);
+            if (buffer.getStriped() == null) {
+                boolean contended = requests >= HOT_KEY_MIN_SAMPLES && retries * 100 >= requests * hotKeyContentionPercent;
+                if (buffer.isInitOk() && (rate >= promoteRate || contended)) {
+                    int stripes = hotKeyStripes;
+                    /** 每个条带一次取的号码数，不超过步长的1/(条带数*4)，保证号段不会被条带一次取空 **/
+                    int chunkSize = Math.max(1, Math.min(1000, buffer.getStep() / (stripes * 4)));
+                    buffer.setStriped(new StripedSegment(stripes, chunkSize));
+                    buffer.setCoolPeriods(0);
+                    addHotKeyEvent(new HotKeyEvent(buffer.getKey(), true, rate, clock.currentTimeMillis()));
+                    logger.info("Promote hot key {}, rate {}, retries {}/{}", buffer.getKey(), rate, retries, requests);
+                }
+            } else if (rate < promoteRate / 4) {
+                buffer.setCoolPeriods(buffer.getCoolPeriods() + 1);
+                if (buffer.getCoolPeriods() >= HOT_KEY_COOL_PERIODS) {
+                    buffer.setStriped(null);
+                    buffer.setCoolPeriods(0);
+                    addHotKeyEvent(new HotKeyEvent(buffer.getKey(), false, rate, clock.currentTimeMillis()));
+                    logger.info("Demote hot key {}, rate {}", buffer.getKey(), rate);
+                }
+            } else {
+                buffer.setCoolPeriods(0);
+            }
+        }
+    }
+
+    private void addHotKeyEvent(HotKeyEvent event) {
+        synchronized (hotKeyEvents) {
+            hotKeyEvents.addLast(event);
+            while (hotKeyEvents.size() > MAX_HOT_KEY_EVENTS) {
+                hotKeyEvents.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * 最近的热点key升级和降级记录，按时间顺序
+     * @return
+     */
+    public List<HotKeyEvent> getHotKeyEvents() {
+        synchronized (hotKeyEvents) {
+            return new ArrayList<HotKeyEvent>(hotKeyEvents);
+        }
+    }
+
+    /**
+     * 开启热点key检测，需要在init之前调用
+     * @param promoteRate       升级为分条发号的每秒发号数，小于等于0时关闭
+     * @param contentionPercent 升级为分条发号的cas重试比例(百分比)
+     * @param stripes           条带数，必须是2的幂
+     */
+    public void setHotKeyDetection(long promoteRate, int contentionPercent, int stripes) {
+        if (stripes <= 0 || (stripes & (stripes - 1)) != 0) {
+            throw new IllegalArgumentException("stripes must be a power of 2");
+        }
+        this.hotKeyPromoteRate = promoteRate;
+        this.hotKeyContentionPercent = contentionPercent;
+        this.hotKeyStripes = stripes;
+    }
+
+    /**
+     * 开启按发号分类的耗时统计
+     * + 每次发号多读两次时钟，慢路径上额外记录各阶段的耗时
+     * + 结果按业务key聚合在 {@link SegmentBuffer#getIssueStats()}，当前线程最近一次的记录见 {@link #lastIssueTrace()}
+     * @param enabled
+     */
+    public void setIssueStats(boolean enabled) {
+        this.issueStatsEnabled = enabled;
+        for (SegmentBuffer buffer : cache.values()) {
+            if (enabled && buffer.getIssueStats() == null) {
+                buffer.setIssueStats(new IssueStats());
+            } else if (!enabled) {
+                buffer.setIssueStats(null);
+            }
+        }
+    }
+
+    /**
+     * 当前线程最近一次发号的分类和各阶段耗时
+     * @return 没有开启统计时返回null
+     */
+    public IssueTrace lastIssueTrace() {
+        return issueStatsEnabled ? issueTraces.get() : null;
+    }
+
     /**
      * 启动一个定时线程
      * 每一分钟，进行一次数据更新
      */
-    private void updateCacheFromDbAtEveryMinute() {
-        ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    private synchronized void updateCacheFromDbAtEveryMinute() {
+        if (cacheUpdater != null) {
+            return;
+        }
+        cacheUpdater = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
             @Override
             public Thread newThread(Runnable r) {
                 Thread t = new Thread(r);
@@ -92,7 +498,7 @@ public class SegmentIDGenImpl implements IDGen {
                 return t;
             }
         });
-        service.scheduleWithFixedDelay(new Runnable() {
+        cacheUpdater.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 updateCacheFromDb();
@@ -100,48 +506,70 @@ public class SegmentIDGenImpl implements IDGen {
         }, 60, 60, TimeUnit.SECONDS);
     }
 
+    /**
+     * 停止后台线程：定时同步业务key、空闲buffer淘汰、热点检测，以及自己创建的后备号段更新线程池
+     * + 通过 {@link #setUpdateExecutor(ExecutorService)} 传入的线程池由调用方关闭
+     * + 正在执行的号段更新会执行完，关闭后发号返回初始化失败
+     */
+    public synchronized void close() {
+        initOK = false;
+        if (cacheUpdater != null) {
+            cacheUpdater.shutdownNow();
+            cacheUpdater = null;
+        }
+        if (coldTagEvictor != null) {
+            coldTagEvictor.shutdownNow();
+            coldTagEvictor = null;
+        }
+        if (hotKeyDetector != null) {
+            hotKeyDetector.shutdownNow();
+            hotKeyDetector = null;
+        }
+        if (ownsUpdateExecutor) {
+            service.shutdown();
+        }
+        logger.info("Closed");
+    }
+
+    public boolean isInitOK() {
+        return initOK;
+    }
+
     /**
      * 从数据库拉取配置，本方法用于首次初始化，也用于后序定时更新，
      * 所以逻辑是当内存中已经有数据的情况进行编写的
      */
-    private void updateCacheFromDb() {
+    void updateCacheFromDb() {
         logger.info("update cache from db");
         StopWatch sw = new Slf4JStopWatch();
+        Object event = LeafEvents.beginTagSync();
+        int added = 0;
+        int removedTags = 0;
+        boolean success = false;
         try {
             /** 拉取全部业务标识，如果没有，结束 **/
             List<String> dbTags = dao.getAllTags();
             if (dbTags == null || dbTags.isEmpty()) {
+                success = true;
                 return;
             }
             /** 对比数据库中的数据 和 内存中的数据 对比
              * 或者 新增 和 删除 的业务
              * **/
-            List<String> cacheTags = new ArrayList<String>(cache.keySet());
+            List<String> cacheTags = new ArrayList<String>(tags);
             Set<String> insertTagsSet = new HashSet<>(dbTags);
             Set<String> removeTagsSet = new HashSet<>(cacheTags);
-            //db中新加的tags灌进cache
+            //db中新加的tags登记到tags
             for(int i = 0; i < cacheTags.size(); i++){
                 String tmp = cacheTags.get(i);
                 if(insertTagsSet.contains(tmp)){
                     insertTagsSet.remove(tmp);
                 }
             }
-            /** 新增业务，放入数据库中 **/
-            for (String tag : insertTagsSet) {
-                /** 新建的对象，初始化状态为false **/
-                SegmentBuffer buffer = new SegmentBuffer();
-                buffer.setKey(tag);
-                Segment segment = buffer.getCurrent();
-                segment.setValue(new AtomicLong(0));
-                /**
-                 * 为什么max 和 step都是 0
-                 * {@link SegmentIDGenImpl#get(String)}查询的时候回触发如下方法
-                 * {@link SegmentIDGenImpl#updateSegmentFromDb}，中会拉取数据库的配置，将max 和 step写入
-                 */
-                segment.setMax(0);
-                segment.setStep(0);
-                cache.put(tag, buffer);
-                logger.info("Add tag {} from db to IdCache, SegmentBuffer {}", tag, buffer);
+            /** 新增业务只登记key，第一次发号时再创建buffer **/
+            tags.addAll(insertTagsSet);
+            if (!insertTagsSet.isEmpty()) {
+                logger.info("Add {} tags from db, total {}", insertTagsSet.size(), tags.size());
             }
             /** 筛选出已经删除的标签 **/
             for(int i = 0; i < dbTags.size(); i++){
@@ -152,12 +580,21 @@ public class SegmentIDGenImpl implements IDGen {
             }
             /** cache中已失效的tags从cache删除 **/
             for (String tag : removeTagsSet) {
-                cache.remove(tag);
+                tags.remove(tag);
+                SegmentBuffer removed = cache.remove(tag);
+                /** 标记为已删除，使绑定在该buffer上的句柄失效 **/
+                if (removed != null) {
+                    removed.setRemoved(true);
+                }
                 logger.info("Remove tag {} from IdCache", tag);
             }
+            added = insertTagsSet.size();
+            removedTags = removeTagsSet.size();
+            success = true;
         } catch (Exception e) {
             logger.warn("update cache from db exception", e);
         } finally {
+            LeafEvents.endTagSync(event, added, removedTags, tags.size(), success);
             sw.stop("updateCacheFromDb");
         }
     }
@@ -175,42 +612,226 @@ public class SegmentIDGenImpl implements IDGen {
         if (!initOK) {
             return new Result(EXCEPTION_ID_IDCACHE_INIT_FALSE, Status.EXCEPTION);
         }
-        /** 如果不是，已有的key，那么异常抛出 **/
-        if (cache.containsKey(key)) {
-            /** 从缓存中获取分段信息 **/
-            SegmentBuffer buffer = cache.get(key);
-            /** 如果分段未初始化完成，进行初始化 **/
-            if (!buffer.isInitOk()) {
-                /** 对buffer进行互斥，只能一个请求进入 **/
-                synchronized (buffer) {
-                    /** 如果分段未初始化完成，进行初始化
-                     * double check。防止多次初始化
-                     * 如果不进行检验，会在如下情况下，出现重复初始化
-                     * Thread A：  判断okay(不okay)                                       加锁   初始化  释放
-                     * Thread B：                  判断okay(不okay)   加锁   初始化  释放
-                     * 如果进行校验，那么就会按照如下流程，不出现重复初始化
-                     * Thread A：  判断okay(不okay)                                                        判断okay(okay)  跳过
-                     * Thread B：                  判断okay(不okay):   加锁   判断okay(不okay) 初始化  释放
-                     * **/
-                    if (!buffer.isInitOk()) {
-                        try {
-                            /**
-                             * buffer.getCurrent(): 获取当前工作分段
-                             * updateSegmentFromDb(key, buffer.getCurrent())
-                             */
-                            updateSegmentFromDb(key, buffer.getCurrent());
-                            logger.info("Init buffer. Update leafkey {} {} from db", key, buffer.getCurrent());
-                            buffer.setInitOk(true);
-                        } catch (Exception e) {
-                            logger.warn("Init buffer {} exception", buffer.getCurrent(), e);
-                        }
+        /** 从缓存中获取分段信息，已经创建buffer的key只做一次map查找；如果不是已有的key，返回异常 **/
+        SegmentBuffer buffer = bufferOf(key);
+        if (buffer == null) {
+            return new Result(EXCEPTION_ID_KEY_NOT_EXISTS, Status.EXCEPTION);
+        }
+        return get(buffer);
+    }
+
+    /**
+     * 一次取count个号码，用于合并同一个业务key的并发请求
+     * + 第一个号码走普通发号，完成号段初始化、限流和统计
+     * + 其余号码一次取够限流令牌，在读锁下用一次getAndAdd从当前号段取出
+     * + 当前号段不够时，剩余的号码逐个走普通发号，由其等待后备号段和切换号段
+     * 每个号码单独给出结果，部分失败时(例如限流、两个号段都未就绪)对应位置为异常码
+     * @param key
+     * @param count
+     * @return count个结果
+     */
+    @Override
+    public List<Result> get(String key, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        if (!initOK) {
+            return failures(EXCEPTION_ID_IDCACHE_INIT_FALSE, count);
+        }
+        SegmentBuffer buffer = bufferOf(key);
+        if (buffer == null) {
+            return failures(EXCEPTION_ID_KEY_NOT_EXISTS, count);
+        }
+        List<Result> results = new ArrayList<Result>(count);
+        Result first = get(buffer);
+        results.add(first);
+        if (count > 1 && first.getStatus() == Status.SUCCESS) {
+            TokenBucket issueQuota = buffer.getIssueQuota();
+            if (issueQuota == null || issueQuota.tryAcquire(count - 1)) {
+                takeFromCurrent(buffer, count - 1, results);
+                /** 限流令牌已经取过，不再经过限流 **/
+                while (results.size() < count) {
+                    results.add(getIdFromSegmentBuffer(buffer, null));
+                }
+            }
+        }
+        /** 令牌不够一次取完时逐个发号，取到多少令牌发多少号码 **/
+        while (results.size() < count) {
+            results.add(get(buffer));
+        }
+        return results;
+    }
+
+    /**
+     * 在读锁下从当前号段一次取出最多count个号码
+     * @param buffer
+     * @param count
+     * @param results 取到的号码追加到这里
+     */
+    private void takeFromCurrent(SegmentBuffer buffer, int count, List<Result> results) {
+        buffer.rLock().lock();
+        try {
+            if (buffer.isEvicted()) {
+                return;
+            }
+            Segment segment = buffer.getCurrent();
+            long start = segment.getValue().getAndAdd(count);
+            long end = Math.min(start + count, segment.getMax());
+            for (long value = start; value < end; value++) {
+                results.add(new Result(value, Status.SUCCESS));
+            }
+            /** 取完之后再检查剩余，一次取走较多号码时及时更新后备号段 **/
+            updateNextSegmentIfNeeded(buffer, segment);
+        } finally {
+            buffer.rLock().unlock();
+        }
+    }
+
+    private static List<Result> failures(long code, int count) {
+        Result result = new Result(code, Status.EXCEPTION);
+        List<Result> results = new ArrayList<Result>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 将业务key预先解析为句柄，后续通过句柄发号不再访问cache
+     * + 句柄绑定的是SegmentBuffer，号段切换不影响句柄
+     * + 业务key被定时任务删除后，句柄失效，发号返回key不存在的异常码
+     * @param key
+     * @return key不存在或者未初始化完成时返回null
+     */
+    public SegmentHandle getHandle(String key) {
+        if (!initOK) {
+            return null;
+        }
+        SegmentBuffer buffer = bufferOf(key);
+        if (buffer == null) {
+            return null;
+        }
+        return new SegmentHandle(this, buffer);
+    }
+
+    /**
+     * 直接在存储中预留一段连续的号码，用于离线批量导入等一次需要大量号码的场景
+     * + 只做一次原子的max_id推进，不经过内存中的SegmentBuffer，不会触发号段步长的调整
+     * + 在线号段之后从推进后的max_id继续分配，与预留的区间不会重叠
+     * + 多库交错发号时一个区间不能跨块，count不能超过块大小
+     * @param key
+     * @param count 预留的号码数量
+     * @return 号码区间 [start, end)；key不存在或者未初始化完成时返回null
+     * @throws IllegalArgumentException count不是正数或者超过DAO一次能分配的数量
+     */
+    public IdRange reserve(String key, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        if (!initOK || !tags.contains(key)) {
+            return null;
+        }
+        StopWatch sw = new Slf4JStopWatch();
+        LeafAlloc temp = new LeafAlloc();
+        temp.setKey(key);
+        temp.setStep(count);
+        LeafAlloc leafAlloc = dao.updateMaxIdByCustomStepAndGetLeafAlloc(temp);
+        IdRange range = new IdRange(key, leafAlloc.getMaxId() - count, leafAlloc.getMaxId());
+        sw.stop("reserve", range.toString());
+        logger.info("Reserve {}", range);
+        return range;
+    }
+
+    /**
+     * 根据已经解析好的buffer进行发号
+     * @param buffer
+     * @return
+     */
+    Result get(SegmentBuffer buffer) {
+        IssueStats stats = buffer.getIssueStats();
+        if (stats == null) {
+            return issue(buffer, null);
+        }
+        /** 记录本次发号经过的阶段和耗时，嵌套调用时只由最外层记录 **/
+        IssueTrace trace = issueTraces.get();
+        boolean outermost = trace.begin(buffer.getKey());
+        Result result = null;
+        try {
+            result = issue(buffer, trace);
+            return result;
+        } finally {
+            if (trace.end(result != null && result.getStatus() == Status.SUCCESS) && outermost) {
+                stats.record(trace);
+            }
+        }
+    }
+
+    /**
+     * 发号
+     * @param buffer
+     * @param trace 没有开启统计时为null
+     * @return
+     */
+    private Result issue(SegmentBuffer buffer, IssueTrace trace) {
+        /** 已经从cache中删除的buffer，不再发号 **/
+        if (buffer.isRemoved()) {
+            return new Result(EXCEPTION_ID_KEY_NOT_EXISTS, Status.EXCEPTION);
+        }
+        /** 已经淘汰的buffer，重新获取 **/
+        if (buffer.isEvicted()) {
+            return get(buffer.getKey());
+        }
+        if (!buffer.isAccessed()) {
+            buffer.setAccessed(true);
+        }
+        /** 发号限流，失控的业务key不会把号段步长推到最大，拖慢其他业务key **/
+        TokenBucket issueQuota = buffer.getIssueQuota();
+        if (issueQuota != null && !issueQuota.tryAcquire()) {
+            return new Result(EXCEPTION_ID_ISSUE_QUOTA_EXCEEDED, Status.EXCEPTION);
+        }
+        /** 如果分段未初始化完成，进行初始化 **/
+        if (!buffer.isInitOk()) {
+            long initStart = trace == null ? 0 : System.nanoTime();
+            /** 对buffer进行互斥，只能一个请求进入 **/
+            synchronized (buffer) {
+                /** 如果分段未初始化完成，进行初始化
+                 * double check。防止多次初始化
+                 * 如果不进行检验，会在如下情况下，出现重复初始化
+                 * Thread A：  判断okay(不okay)                                       加锁   初始化  释放
+                 * Thread B：                  判断okay(不okay)   加锁   初始化  释放
+                 * 如果进行校验，那么就会按照如下流程，不出现重复初始化
+                 * Thread A：  判断okay(不okay)                                                        判断okay(okay)  跳过
+                 * Thread B：                  判断okay(不okay):   加锁   判断okay(不okay) 初始化  释放
+                 * **/
+                if (!buffer.isInitOk()) {
+                    try {
+                        /**
+                         * buffer.getCurrent(): 获取当前工作分段
+                         * updateSegmentFromDb(key, buffer.getCurrent())
+                         */
+                        updateSegmentFromDb(buffer.getKey(), buffer.getCurrent());
+                        logger.info("Init buffer. Update leafkey {} {} from db", buffer.getKey(), buffer.getCurrent());
+                        buffer.setInitOk(true);
+                    } catch (Exception e) {
+                        logger.warn("Init buffer {} exception", buffer.getCurrent(), e);
                     }
                 }
             }
-            /** 进行发号操作 **/
-            return getIdFromSegmentBuffer(cache.get(key));
+            if (trace != null) {
+                trace.mark(IssueOutcome.INIT);
+                trace.addInitNanos(System.nanoTime() - initStart);
+            }
+        }
+        /** 热点key先从条带发号，条带取不到号码时(号段耗尽需要切换)走普通发号 **/
+        StripedSegment striped = buffer.getStriped();
+        if (striped != null) {
+            Result result = getIdFromStripes(buffer, striped);
+            if (result != null) {
+                return result;
+            }
         }
-        return new Result(EXCEPTION_ID_KEY_NOT_EXISTS, Status.EXCEPTION);
+        /** 进行发号操作 **/
+        return getIdFromSegmentBuffer(buffer, trace);
     }
 
     /**
@@ -219,6 +840,17 @@ public class SegmentIDGenImpl implements IDGen {
      * @param segment
      */
     public void updateSegmentFromDb(String key, Segment segment) {
+        Object event = LeafEvents.beginSegmentRefill();
+        boolean success = false;
+        try {
+            loadSegmentFromDb(key, segment);
+            success = true;
+        } finally {
+            LeafEvents.endSegmentRefill(event, key, segment.getBuffer().getStep(), success);
+        }
+    }
+
+    private void loadSegmentFromDb(String key, Segment segment) {
         /** 用于性能监控 **/
         StopWatch sw = new Slf4JStopWatch();
         SegmentBuffer buffer = segment.getBuffer();
@@ -236,7 +868,7 @@ public class SegmentIDGenImpl implements IDGen {
         } else if (buffer.getUpdateTimestamp() == 0) {
             /** 初始化后，第二次分配，开始记录上次拉取时间，用于动态调整step **/
             leafAlloc = dao.updateMaxIdAndGetLeafAlloc(key);
-            buffer.setUpdateTimestamp(System.currentTimeMillis());
+            buffer.setUpdateTimestamp(clock.currentTimeMillis());
             buffer.setStep(leafAlloc.getStep());
             /** leafAlloc中的step为DB中的step **/
             buffer.setMinStep(leafAlloc.getStep());
@@ -244,7 +876,7 @@ public class SegmentIDGenImpl implements IDGen {
             /** 根据发号速度和预期的差异，进行号段step的调整
              * 大于最大步长不进行调整
              * **/
-            long duration = System.currentTimeMillis() - buffer.getUpdateTimestamp();
+            long duration = clock.currentTimeMillis() - buffer.getUpdateTimestamp();
             int nextStep = buffer.getStep();
             if (duration < SEGMENT_DURATION) {
                 if (nextStep * 2 > MAX_STEP) {
@@ -263,7 +895,7 @@ public class SegmentIDGenImpl implements IDGen {
             temp.setKey(key);
             temp.setStep(nextStep);
             leafAlloc = dao.updateMaxIdByCustomStepAndGetLeafAlloc(temp);
-            buffer.setUpdateTimestamp(System.currentTimeMillis());
+            buffer.setUpdateTimestamp(clock.currentTimeMillis());
             buffer.setStep(nextStep);
             /** leafAlloc的step为DB中的step **/
             buffer.setMinStep(leafAlloc.getStep());
@@ -286,67 +918,32 @@ public class SegmentIDGenImpl implements IDGen {
      * @return
      */
     public Result getIdFromSegmentBuffer(final SegmentBuffer buffer) {
+        return getIdFromSegmentBuffer(buffer, null);
+    }
+
+    /**
+     * 进行发号，同时记录等待后备号段、等待写锁和号段切换
+     * @param buffer
+     * @param trace 没有开启统计时为null
+     * @return
+     */
+    private Result getIdFromSegmentBuffer(final SegmentBuffer buffer, IssueTrace trace) {
         while (true) {
             /** 对号段进行加读锁 **/
             buffer.rLock().lock();
             try {
-                final Segment segment = buffer.getCurrent();
-                /**
-                 * 对后备号段进行更新
-                 * 条件如下：
-                 *      + 后备号段未ready
-                 *      + 本号段剩余可用号码，少于90%步长
-                 *      + 当前没有号段更新线程在执行
-                 *          + 然后通过cas操作，将状态改成执行
-                 * **/
-                if (!buffer.isNextReady() && (segment.getIdle() < 0.9 * segment.getStep()) && buffer.getThreadRunning().compareAndSet(false, true)) {
-                    /** 通过线程池，限制更新的线程数目
-                     * 因为同时可能有很多业务公用发号器
-                     * **/
-                    service.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            /** 获取下一次的segment **/
-                            Segment next = buffer.getSegments()[buffer.nextPos()];
-                            /** 记录是否更新成功 **/
-                            boolean updateOk = false;
-                            try {
-                                updateSegmentFromDb(buffer.getKey(), next);
-                                updateOk = true;
-                                logger.info("update segment {} from db {}", buffer.getKey(), next);
-                            } catch (Exception e) {
-                                logger.warn(buffer.getKey() + " updateSegmentFromDb exception", e);
-                            } finally {
-                                /** 更新成功 **/
-                                if (updateOk) {
-                                    /**
-                                     * 加写锁
-                                     * 修改后备号段的状态
-                                     * 修改线程状态
-                                     * 解写锁
-                                     * **/
-                                    buffer.wLock().lock();
-                                    buffer.setNextReady(true);
-                                    buffer.getThreadRunning().set(false);
-                                    buffer.wLock().unlock();
-                                } else {
-                                    /** 更新失败
-                                     * 将线程执行状态改成false
-                                     * 因为申请需要通过cas，所以在这种情况下，
-                                     * 不需要进行加锁，其他线程不可能将 threadRunning改成true
-                                     * **/
-                                    buffer.getThreadRunning().set(false);
-                                }
-                            }
-                        }
-                    });
+                /** 已经淘汰的buffer不再发号，也不再更新后备号段 **/
+                if (buffer.isEvicted()) {
+                    break;
                 }
+                final Segment segment = buffer.getCurrent();
+                updateNextSegmentIfNeeded(buffer, segment);
                 /**
                  * 号段进行发号
                  * + value自增
                  * 如果没到最大的值(不包括)，那么说明okay
                  */
-                long value = segment.getValue().getAndIncrement();
+                long value = sampled(buffer) ? incrementAndCountRetries(buffer, segment.getValue()) : segment.getValue().getAndIncrement();
                 if (value < segment.getMax()) {
                     return new Result(value, Status.SUCCESS);
                 }
@@ -355,15 +952,31 @@ public class SegmentIDGenImpl implements IDGen {
                 buffer.rLock().unlock();
             }
             /** 当前号段耗尽的情况 **/
+            if (!buffer.isNextReady()) {
+                buffer.getNotReadyExhaustions().incrementAndGet();
+            }
             /** 进入等待 **/
-            waitAndSleep(buffer);
-            buffer.wLock().lock();
+            if (trace == null) {
+                waitAndSleep(buffer);
+                buffer.wLock().lock();
+            } else {
+                trace.mark(IssueOutcome.WAIT);
+                long waitStart = System.nanoTime();
+                waitAndSleep(buffer);
+                long lockStart = System.nanoTime();
+                buffer.wLock().lock();
+                trace.addWaitNanos(lockStart - waitStart);
+                trace.addLockNanos(System.nanoTime() - lockStart);
+            }
             try {
                 /**
                  * 为什么还是用当前的segment，这个segment，不应该已经耗尽了么
                  * + 等待期间，可能由其他的请求线程，完成了号段的切换
                  * + 再次尝试，用"当前"号段进行切换
                  */
+                if (buffer.isEvicted()) {
+                    break;
+                }
                 final Segment segment = buffer.getCurrent();
                 /** 进行发号，成功就返回 **/
                 long value = segment.getValue().getAndIncrement();
@@ -377,7 +990,15 @@ public class SegmentIDGenImpl implements IDGen {
                 if (buffer.isNextReady()) {
                     buffer.switchPos();
                     buffer.setNextReady(false);
+                    LeafEvents.segmentSwitch(buffer.getKey(), buffer.getCurrent().getMax(), buffer.getCurrent().getStep());
+                    if (trace != null) {
+                        trace.mark(IssueOutcome.SWITCH);
+                    }
                 } else {
+                    if (buffer.isRefillThrottled()) {
+                        /** 后备号段更新被限流 **/
+                        return new Result(EXCEPTION_ID_REFILL_QUOTA_EXCEEDED, Status.EXCEPTION);
+                    }
                     /** 未切换完成，异常 **/
                     logger.error("Both two segments in {} are not ready!", buffer);
                     return new Result(EXCEPTION_ID_TWO_SEGMENTS_ARE_NULL, Status.EXCEPTION);
@@ -387,6 +1008,230 @@ public class SegmentIDGenImpl implements IDGen {
                 buffer.wLock().unlock();
             }
         }
+        /** buffer在发号期间被淘汰，重新获取buffer发号 **/
+        return get(buffer.getKey());
+    }
+
+    /**
+     * 按需在后台更新后备号段，调用时需要持有buffer的读锁
+     * @param buffer
+     * @param segment 当前号段
+     */
+    private void updateNextSegmentIfNeeded(final SegmentBuffer buffer, Segment segment) {
+        /**
+         * 对后备号段进行更新
+         * 条件如下：
+         *      + 后备号段未ready
+         *      + 本号段剩余可用号码，少于90%步长
+         *      + 当前没有号段更新线程在执行
+         *          + 然后通过cas操作，将状态改成执行
+         * **/
+        if (!buffer.isNextReady() && (segment.getIdle() < 0.9 * segment.getStep()) && buffer.getThreadRunning().compareAndSet(false, true)
+                && acquireRefill(buffer)) {
+            /** 通过线程池，限制更新的线程数目
+             * 因为同时可能有很多业务公用发号器
+             * **/
+            getUpdateExecutor(buffer.getKey()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    /** 获取下一次的segment **/
+                    Segment next = buffer.getSegments()[buffer.nextPos()];
+                    /** 记录是否更新成功 **/
+                    boolean updateOk = false;
+                    try {
+                        updateSegmentFromDb(buffer.getKey(), next);
+                        updateOk = true;
+                        logger.info("update segment {} from db {}", buffer.getKey(), next);
+                    } catch (Exception e) {
+                        logger.warn(buffer.getKey() + " updateSegmentFromDb exception", e);
+                    } finally {
+                        /** 更新成功 **/
+                        if (updateOk) {
+                            /**
+                             * 加写锁
+                             * 修改后备号段的状态
+                             * 修改线程状态
+                             * 解写锁
+                             * **/
+                            buffer.wLock().lock();
+                            buffer.setNextReady(true);
+                            buffer.getThreadRunning().set(false);
+                            buffer.wLock().unlock();
+                        } else {
+                            /** 更新失败
+                             * 将线程执行状态改成false
+                             * 因为申请需要通过cas，所以在这种情况下，
+                             * 不需要进行加锁，其他线程不可能将 threadRunning改成true
+                             * **/
+                            buffer.getThreadRunning().set(false);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 是否抽样本次发号，抽样到时计数
+     * @param buffer
+     * @return
+     */
+    private boolean sampled(SegmentBuffer buffer) {
+        if (hotKeyPromoteRate <= 0 || (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) != 0) {
+            return false;
+        }
+        buffer.getSampledRequests().incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 与getAndIncrement相同，同时记录cas重试次数，用于衡量竞争程度
+     * @param buffer
+     * @param value
+     * @return
+     */
+    private long incrementAndCountRetries(SegmentBuffer buffer, AtomicLong value) {
+        while (true) {
+            long current = value.get();
+            if (value.compareAndSet(current, current + 1)) {
+                return current;
+            }
+            buffer.getSampledRetries().incrementAndGet();
+        }
+    }
+
+    /**
+     * 热点key从当前线程的条带发号
+     * 条带中的号码用完后，在buffer读锁下从当前号段一次取chunkSize个号码
+     * 发号统计中条带发号和从当前号段取号码都记为FAST；当前号段耗尽时返回null，
+     * 之后的等待后备号段和号段切换由普通发号记为WAIT、SWITCH
+     * @param buffer
+     * @param striped
+     * @return 当前号段也已经耗尽时返回null，由普通发号完成号段切换
+     */
+    private Result getIdFromStripes(SegmentBuffer buffer, StripedSegment striped) {
+        sampled(buffer);
+        StripedSegment.Stripe stripe = striped.currentStripe();
+        long value = stripe.next();
+        if (value >= 0) {
+            return new Result(value, Status.SUCCESS);
+        }
+        synchronized (stripe) {
+            value = stripe.next();
+            if (value >= 0) {
+                return new Result(value, Status.SUCCESS);
+            }
+            buffer.rLock().lock();
+            try {
+                if (buffer.isEvicted()) {
+                    return null;
+                }
+                Segment segment = buffer.getCurrent();
+                updateNextSegmentIfNeeded(buffer, segment);
+                long start = segment.getValue().getAndAdd(striped.getChunkSize());
+                if (start < segment.getMax()) {
+                    stripe.reset(start + 1, Math.min(start + striped.getChunkSize(), segment.getMax()));
+                    return new Result(start, Status.SUCCESS);
+                }
+            } finally {
+                buffer.rLock().unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 后备号段更新限流
+     * 调用时已经通过cas取得了更新权，限流时需要释放，之后的发号请求会再次尝试
+     * @param buffer
+     * @return 是否可以更新
+     */
+    private boolean acquireRefill(SegmentBuffer buffer) {
+        TokenBucket refillQuota = buffer.getRefillQuota();
+        if (refillQuota == null || refillQuota.tryAcquire()) {
+            buffer.setRefillThrottled(false);
+            return true;
+        }
+        buffer.setRefillThrottled(true);
+        buffer.getThreadRunning().set(false);
+        return false;
+    }
+
+    /**
+     * 设置业务key的发号限流
+     * @param key
+     * @param quota 为null时取消限流
+     */
+    public void setIssueQuota(String key, TokenBucket quota) {
+        setQuota(issueQuotas, key, quota);
+        SegmentBuffer buffer = cache.get(key);
+        if (buffer != null) {
+            buffer.setIssueQuota(quota);
+        }
+    }
+
+    /**
+     * 设置业务key的后备号段更新限流，限制失控的业务key对更新线程池和数据库的压力
+     * @param key
+     * @param quota 为null时取消限流
+     */
+    public void setRefillQuota(String key, TokenBucket quota) {
+        setQuota(refillQuotas, key, quota);
+        SegmentBuffer buffer = cache.get(key);
+        if (buffer != null) {
+            buffer.setRefillQuota(quota);
+        }
+    }
+
+    private static void setQuota(Map<String, TokenBucket> quotas, String key, TokenBucket quota) {
+        if (quota == null) {
+            quotas.remove(key);
+        } else {
+            quotas.put(key, quota);
+        }
+    }
+
+    /**
+     * 替换时钟，需要在init之前调用
+     * @param clock
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * 替换后备号段的更新线程池，需要在init之前调用
+     * 传入的线程池用于全部业务key，优先于DAO提供的专用线程池
+     * @param executor
+     */
+    public void setUpdateExecutor(ExecutorService executor) {
+        if (ownsUpdateExecutor) {
+            /** 替换掉的默认线程池还没有执行过任务，直接关闭 **/
+            service.shutdown();
+        }
+        this.service = executor;
+        this.ownsUpdateExecutor = false;
+    }
+
+    /**
+     * 号段更新线程池
+     * + 调用方传入了线程池时使用传入的线程池
+     * + DAO提供专用线程池时使用DAO的，例如分库时使用业务key所在分片的线程池，一个分片变慢不会影响其他分片
+     * @param key
+     * @return
+     */
+    private ExecutorService getUpdateExecutor(String key) {
+        if (ownsUpdateExecutor && dao instanceof UpdateExecutorProvider) {
+            ExecutorService executor = ((UpdateExecutorProvider) dao).getUpdateExecutor(key);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return service;
     }
 
     /**
@@ -395,6 +1240,10 @@ public class SegmentIDGenImpl implements IDGen {
      * @param buffer
      */
     private void waitAndSleep(SegmentBuffer buffer) {
+        if (!buffer.getThreadRunning().get()) {
+            return;
+        }
+        Object event = LeafEvents.beginSegmentWait();
         int roll = 0;
         /** 如果更新线程还在执行，就持续等待 **/
         while (buffer.getThreadRunning().get()) {
@@ -409,6 +1258,7 @@ public class SegmentIDGenImpl implements IDGen {
                 }
             }
         }
+        LeafEvents.endSegmentWait(event, buffer.getKey(), buffer.isNextReady());
     }
 
     /**
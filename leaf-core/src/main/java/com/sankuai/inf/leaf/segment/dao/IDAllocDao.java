@@ -34,4 +34,14 @@ public interface IDAllocDao {
       * @return
       */
      List<String> getAllTags();
+
+     /**
+      * 按biz_tag升序分页查询配置，用于大量业务key时的监控，不会一次加载全部配置
+      *
+      * @param cursor 上一页最后一个biz_tag，为空时从头开始
+      * @param prefix biz_tag前缀，为空时不过滤
+      * @param limit  最多返回的条数
+      * @return
+      */
+     List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit);
 }
@@ -49,6 +49,17 @@ public interface IDAllocMapper {
     @Update("UPDATE leaf_alloc SET max_id = max_id + #{step} WHERE biz_tag = #{key}")
     void updateMaxIdByCustomStep(@Param("leafAlloc") LeafAlloc leafAlloc);
 
+    /**
+     * 以max_id作为版本号，对max_id做compare-and-set
+     *
+     * @param tag 业务key
+     * @param expect 期望的max_id
+     * @param update 新的max_id
+     * @return 更新的行数，0表示max_id已经被修改
+     */
+    @Update("UPDATE leaf_alloc SET max_id = #{update} WHERE biz_tag = #{tag} AND max_id = #{expect}")
+    int updateMaxIdByCas(@Param("tag") String tag, @Param("expect") long expect, @Param("update") long update);
+
     /**
      * 查询全部业务标识
      *
@@ -56,4 +67,31 @@ public interface IDAllocMapper {
      */
     @Select("SELECT biz_tag FROM leaf_alloc")
     List<String> getAllTags();
+
+    /**
+     * 按biz_tag游标分页查询配置
+     * 游标比较、前缀匹配和排序都按二进制进行，与 {@link LeafAllocCursors} 的String顺序一致，合并多个库的结果时不会跳过或者重复
+     * + MySQL默认的排序规则不区分大小写，需要用BINARY，此时不走主键索引，leaf_alloc通常只有几千行
+     * + H2等其他数据库的字符串默认按二进制比较
+     *
+     * @param cursor  上一页最后一个biz_tag，从头开始时为空字符串
+     * @param pattern biz_tag的LIKE前缀匹配
+     * @param limit   最多返回的条数
+     * @param binary  是否需要用BINARY比较
+     * @return
+     */
+    @Select({"<script>SELECT biz_tag, max_id, step, update_time FROM leaf_alloc WHERE ",
+            "<choose>",
+            "<when test='binary'>BINARY biz_tag &gt; #{cursor} AND biz_tag LIKE BINARY #{pattern} ORDER BY BINARY biz_tag</when>",
+            "<otherwise>biz_tag &gt; #{cursor} AND biz_tag LIKE #{pattern} ORDER BY biz_tag</otherwise>",
+            "</choose>",
+            " LIMIT #{limit}</script>"})
+    @Results(value = {
+            @Result(column = "biz_tag", property = "key"),
+            @Result(column = "max_id", property = "maxId"),
+            @Result(column = "step", property = "step"),
+            @Result(column = "update_time", property = "updateTime")
+    })
+    List<LeafAlloc> getLeafAllocsAfter(@Param("cursor") String cursor, @Param("pattern") String pattern, @Param("limit") int limit,
+                                       @Param("binary") boolean binary);
 }
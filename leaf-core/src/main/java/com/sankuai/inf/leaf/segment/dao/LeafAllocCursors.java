@@ -0,0 +1,124 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 按biz_tag游标分页的公共方法，给没有数据库排序能力的DAO使用
+ * + 只保留limit个候选，内存占用与总数无关
+ * + 结果按biz_tag升序，下一页以本页最后一个biz_tag作为游标
+ */
+public final class LeafAllocCursors {
+
+    private static final Comparator<String> REVERSE = Collections.reverseOrder();
+
+    private LeafAllocCursors() {
+    }
+
+    /**
+     * biz_tag是否在游标之后并且以prefix开头
+     * @param tag
+     * @param cursor 为空时不限制
+     * @param prefix 为空时不限制
+     * @return
+     */
+    public static boolean accept(String tag, String cursor, String prefix) {
+        if (cursor != null && !cursor.isEmpty() && tag.compareTo(cursor) <= 0) {
+            return false;
+        }
+        return prefix == null || tag.startsWith(prefix);
+    }
+
+    /**
+     * 选出游标之后最小的limit个biz_tag
+     * @param tags
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return 升序排列
+     */
+    public static List<String> selectTags(Collection<String> tags, String cursor, String prefix, int limit) {
+        checkLimit(limit);
+        /** 大顶堆，堆顶是当前候选中最大的 **/
+        PriorityQueue<String> heap = new PriorityQueue<String>(limit, REVERSE);
+        for (String tag : tags) {
+            if (!accept(tag, cursor, prefix)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.offer(tag);
+            } else if (tag.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(tag);
+            }
+        }
+        List<String> result = new ArrayList<String>(heap);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * 选出游标之后biz_tag最小的limit个配置
+     * @param leafAllocs
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return 按biz_tag升序排列
+     */
+    public static List<LeafAlloc> select(Collection<LeafAlloc> leafAllocs, String cursor, String prefix, int limit) {
+        checkLimit(limit);
+        Comparator<LeafAlloc> byKey = new Comparator<LeafAlloc>() {
+            @Override
+            public int compare(LeafAlloc o1, LeafAlloc o2) {
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        };
+        PriorityQueue<LeafAlloc> heap = new PriorityQueue<LeafAlloc>(limit, Collections.reverseOrder(byKey));
+        for (LeafAlloc leafAlloc : leafAllocs) {
+            if (!accept(leafAlloc.getKey(), cursor, prefix)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.offer(leafAlloc);
+            } else if (byKey.compare(leafAlloc, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(leafAlloc);
+            }
+        }
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>(heap);
+        Collections.sort(result, byKey);
+        return result;
+    }
+
+    /**
+     * 转换为LIKE的前缀匹配，转义其中的通配符
+     * @param prefix
+     * @return
+     */
+    public static String likePattern(String prefix) {
+        if (prefix == null) {
+            return "%";
+        }
+        StringBuilder sb = new StringBuilder(prefix.length() + 1);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('%').toString();
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 为业务key提供专用号段更新线程池的IDAllocDao，例如分库DAO每个分片一个线程池
+ * + 没有实现这个接口的DAO使用发号器自己的线程池
+ * + 装饰其他DAO的实现需要转发给被装饰的DAO，否则专用线程池会丢失
+ */
+public interface UpdateExecutorProvider {
+
+     /**
+      * 业务key的号段更新线程池
+      * @param tag
+      * @return 没有专用线程池时返回null
+      */
+     ExecutorService getUpdateExecutor(String tag);
+}
@@ -0,0 +1,204 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.UpdateExecutorProvider;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 注入故障的IDAllocDao装饰器，用于验证存储变慢或者不稳定时发号器的表现
+ * + 延迟：每次调用等待 base + [0, jitter) 毫秒
+ * + 慢调用：按概率额外等待一段时间，模拟长尾
+ * + 超时：等待时间超过超时时间时，只等待超时时间然后抛出异常，模拟查询超时
+ * + 错误：按概率抛出异常，模拟连接失败
+ * + 卡顿：{@link #stall(long)} 之后的一段时间内所有调用都阻塞到卡顿结束，模拟主从切换或者锁表
+ * 默认不注入任何故障，号段分配仍由被装饰的DAO完成，故障发生在调用之前，失败的调用不会分配号段
+ * 号段更新线程池和关闭直接转发给被装饰的DAO，不注入故障
+ */
+public class FaultInjectingIDAllocDao implements IDAllocDao, UpdateExecutorProvider, Closeable {
+    private final IDAllocDao dao;
+    private final Random random;
+
+    private volatile long baseLatencyMillis;
+    private volatile long jitterMillis;
+    private volatile double slowRate;
+    private volatile long slowMillis;
+    private volatile long timeoutMillis;
+    private volatile double errorRate;
+    private volatile long stallUntil;
+
+    private final AtomicLong calls = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+
+    public FaultInjectingIDAllocDao(IDAllocDao dao) {
+        this(dao, System.nanoTime());
+    }
+
+    /**
+     * @param dao
+     * @param seed 随机种子，相同的种子得到相同的故障序列
+     */
+    public FaultInjectingIDAllocDao(IDAllocDao dao, long seed) {
+        this.dao = dao;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 每次调用的延迟
+     * @param baseMillis   固定部分
+     * @param jitterMillis 随机部分的上限
+     */
+    public void setLatency(long baseMillis, long jitterMillis) {
+        this.baseLatencyMillis = baseMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * 慢调用
+     * @param rate   发生的概率，0到1
+     * @param millis 额外的延迟
+     */
+    public void setSlowCall(double rate, long millis) {
+        this.slowRate = rate;
+        this.slowMillis = millis;
+    }
+
+    /**
+     * @param millis 小于等于0时不超时
+     */
+    public void setTimeout(long millis) {
+        this.timeoutMillis = millis;
+    }
+
+    /**
+     * @param rate 调用失败的概率，0到1
+     */
+    public void setErrorRate(double rate) {
+        this.errorRate = rate;
+    }
+
+    /**
+     * 从现在开始卡顿一段时间
+     * @param millis
+     */
+    public void stall(long millis) {
+        this.stallUntil = System.currentTimeMillis() + millis;
+    }
+
+    /**
+     * 清除全部故障配置
+     */
+    public void reset() {
+        setLatency(0, 0);
+        setSlowCall(0, 0);
+        setTimeout(0);
+        setErrorRate(0);
+        stallUntil = 0;
+    }
+
+    /**
+     * 按配置等待或者失败
+     */
+    private void inject() {
+        calls.incrementAndGet();
+        long delay = baseLatencyMillis;
+        if (jitterMillis > 0) {
+            delay += (long) (random.nextDouble() * jitterMillis);
+        }
+        if (slowRate > 0 && random.nextDouble() < slowRate) {
+            delay += slowMillis;
+        }
+        long stall = stallUntil - System.currentTimeMillis();
+        if (stall > 0) {
+            delay += stall;
+        }
+        boolean timeout = timeoutMillis > 0 && delay > timeoutMillis;
+        sleep(timeout ? timeoutMillis : delay);
+        if (timeout) {
+            timeouts.incrementAndGet();
+            throw new IllegalStateException("injected timeout after " + timeoutMillis + "ms");
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            throw new IllegalStateException("injected error");
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        inject();
+        return dao.getAllLeafAllocs();
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        inject();
+        return dao.updateMaxIdAndGetLeafAlloc(tag);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        inject();
+        return dao.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        inject();
+        return dao.getAllTags();
+    }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        inject();
+        return dao.getLeafAllocsAfter(cursor, prefix, limit);
+    }
+
+    @Override
+    public ExecutorService getUpdateExecutor(String tag) {
+        return dao instanceof UpdateExecutorProvider ? ((UpdateExecutorProvider) dao).getUpdateExecutor(tag) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dao instanceof Closeable) {
+            ((Closeable) dao).close();
+        }
+    }
+
+    /**
+     * 调用次数，包括失败的调用
+     * @return
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+}
@@ -2,6 +2,7 @@ package com.sankuai.inf.leaf.segment.dao.impl;
 
 import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
 import com.sankuai.inf.leaf.segment.dao.IDAllocMapper;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
 import com.sankuai.inf.leaf.segment.model.LeafAlloc;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.Configuration;
@@ -12,11 +13,18 @@ import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 
 import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class IDAllocDaoImpl implements IDAllocDao {
 
     SqlSessionFactory sqlSessionFactory;
+    /**
+     * 数据库是否为MySQL，第一次分页查询时检查，分页查询需要按二进制比较biz_tag
+     */
+    private volatile Boolean mysql;
 
     /**
      * 配置mybatis
@@ -87,6 +95,42 @@ public class IDAllocDaoImpl implements IDAllocDao {
         }
     }
 
+    /**
+     * 查询单个业务的配置
+     * @param tag
+     * @return 不存在时返回null
+     */
+    public LeafAlloc getLeafAlloc(String tag) {
+        SqlSession sqlSession = sqlSessionFactory.openSession(false);
+        try {
+            return sqlSession.selectOne("com.sankuai.inf.leaf.segment.dao.IDAllocMapper.getLeafAlloc", tag);
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    /**
+     * 以max_id作为版本号，对max_id做compare-and-set
+     * @param tag
+     * @param expect 期望的max_id
+     * @param update 新的max_id
+     * @return 是否更新成功
+     */
+    public boolean updateMaxIdByCas(String tag, long expect, long update) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("tag", tag);
+        params.put("expect", expect);
+        params.put("update", update);
+        SqlSession sqlSession = sqlSessionFactory.openSession();
+        try {
+            int rows = sqlSession.update("com.sankuai.inf.leaf.segment.dao.IDAllocMapper.updateMaxIdByCas", params);
+            sqlSession.commit();
+            return rows == 1;
+        } finally {
+            sqlSession.close();
+        }
+    }
+
     /**
      * 查询全部业务标识
      *
@@ -101,4 +145,43 @@ public class IDAllocDaoImpl implements IDAllocDao {
             sqlSession.close();
         }
     }
+
+    /**
+     * 按biz_tag游标分页查询配置
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("cursor", cursor == null ? "" : cursor);
+        params.put("pattern", LeafAllocCursors.likePattern(prefix));
+        params.put("limit", limit);
+        SqlSession sqlSession = sqlSessionFactory.openSession(false);
+        try {
+            params.put("binary", isMysql(sqlSession));
+            return sqlSession.selectList("com.sankuai.inf.leaf.segment.dao.IDAllocMapper.getLeafAllocsAfter", params);
+        } finally {
+            sqlSession.close();
+        }
+    }
+
+    private boolean isMysql(SqlSession sqlSession) {
+        Boolean result = mysql;
+        if (result == null) {
+            try {
+                String product = sqlSession.getConnection().getMetaData().getDatabaseProductName().toLowerCase();
+                result = product.contains("mysql") || product.contains("mariadb");
+            } catch (SQLException e) {
+                throw new IllegalStateException("get database product name error", e);
+            }
+            mysql = result;
+        }
+        return result;
+    }
 }
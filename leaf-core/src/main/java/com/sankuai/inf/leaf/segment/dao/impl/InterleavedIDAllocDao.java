@@ -0,0 +1,377 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多库交错发号的IDAllocDao，用于没有单点主库的高可用部署
+ * + 每个库都有同一个业务key的leaf_alloc记录，各自独立地推进max_id
+ * + 号码空间按blockSize切成块，第b块归属于第 b % N 个库，每个库只在自己的块内分配号段，
+ *   所以不同库分配的号段不会重叠，一个号段不跨块，放不下时跳到下一个归属于自己的块
+ * + 同一个库内用max_id做compare-and-set，多个leaf节点并发更新同一个库也不会重复
+ * + 更新号段时先请求一个库，hedgeMillis内没有返回或者失败就同时请求下一个库，使用最先返回的结果，
+ *   其他库分配的号段直接丢弃(只浪费号码，不会重复)
+ */
+public class InterleavedIDAllocDao implements IDAllocDao, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(InterleavedIDAllocDao.class);
+    /**
+     * 默认块大小，与号段的最大步长一致
+     */
+    public static final long DEFAULT_BLOCK_SIZE = 1000000L;
+    /**
+     * 默认的对冲请求等待时间
+     */
+    public static final long DEFAULT_HEDGE_MILLIS = 50L;
+    /**
+     * 库失败后，在这段时间内优先请求其他库
+     */
+    private static final long UNHEALTHY_MILLIS = 10000L;
+    /**
+     * compare-and-set的最大重试次数
+     */
+    private static final int MAX_CAS_RETRY = 16;
+    /**
+     * 同步业务key时，等待单个库的最长时间
+     */
+    private static final long SYNC_TIMEOUT_MS = 5000L;
+
+    private final List<IDAllocDaoImpl> databases;
+    private final long blockSize;
+    private final long hedgeMillis;
+    /**
+     * 每个库独立的请求线程池，一个库卡住不影响请求其他库
+     */
+    private final List<ExecutorService> executors;
+    /**
+     * 每个库被标记为不健康的截止时间
+     */
+    private final AtomicLongArray unhealthyUntil;
+    /**
+     * 轮询选择首先请求的库
+     */
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    public InterleavedIDAllocDao(List<IDAllocDaoImpl> databases) {
+        this(databases, DEFAULT_BLOCK_SIZE, DEFAULT_HEDGE_MILLIS);
+    }
+
+    /**
+     * @param databases   各个独立的leaf_alloc库，顺序决定了每个库归属的块，部署后不能调整
+     * @param blockSize   块大小，不能小于号段的最大步长
+     * @param hedgeMillis 对冲请求等待时间
+     */
+    public InterleavedIDAllocDao(List<IDAllocDaoImpl> databases, long blockSize, long hedgeMillis) {
+        if (databases == null || databases.isEmpty()) {
+            throw new IllegalArgumentException("databases must not be empty");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.databases = new ArrayList<IDAllocDaoImpl>(databases);
+        this.blockSize = blockSize;
+        this.hedgeMillis = hedgeMillis;
+        this.unhealthyUntil = new AtomicLongArray(databases.size());
+        this.executors = new ArrayList<ExecutorService>(databases.size());
+        for (int i = 0; i < databases.size(); i++) {
+            executors.add(new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ShardingIDAllocDao.ShardThreadFactory("Thread-Segment-Interleaved-DB" + i + "-", true)));
+        }
+    }
+
+    /**
+     * 合并全部库的配置，同一个业务key取max_id最大的一条
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        Map<String, LeafAlloc> merged = new LinkedHashMap<String, LeafAlloc>();
+        for (List<LeafAlloc> leafAllocs : queryAll(new Query<List<LeafAlloc>>() {
+            @Override
+            public List<LeafAlloc> query(IDAllocDaoImpl database) {
+                return database.getAllLeafAllocs();
+            }
+        })) {
+            for (LeafAlloc leafAlloc : leafAllocs) {
+                LeafAlloc exists = merged.get(leafAlloc.getKey());
+                if (exists == null || exists.getMaxId() < leafAlloc.getMaxId()) {
+                    merged.put(leafAlloc.getKey(), leafAlloc);
+                }
+            }
+        }
+        return new ArrayList<LeafAlloc>(merged.values());
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        return allocate(tag, 0);
+    }
+
+    /**
+     * 自定义步长的号段同样不能跨块，超过块大小时直接拒绝，不请求任何库，也不会把库标记为不健康
+     * @param leafAlloc
+     * @return
+     */
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        if (leafAlloc.getStep() <= 0 || leafAlloc.getStep() > blockSize) {
+            throw new IllegalArgumentException("step " + leafAlloc.getStep() + " of " + leafAlloc.getKey()
+                    + " must be in (0, " + blockSize + "]");
+        }
+        return allocate(leafAlloc.getKey(), leafAlloc.getStep());
+    }
+
+    /**
+     * 每个库各取一页，同一个业务key取max_id最大的记录
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(final String cursor, final String prefix, final int limit) {
+        Map<String, LeafAlloc> merged = new LinkedHashMap<String, LeafAlloc>();
+        for (List<LeafAlloc> leafAllocs : queryAll(new Query<List<LeafAlloc>>() {
+            @Override
+            public List<LeafAlloc> query(IDAllocDaoImpl database) {
+                return database.getLeafAllocsAfter(cursor, prefix, limit);
+            }
+        })) {
+            for (LeafAlloc leafAlloc : leafAllocs) {
+                LeafAlloc exists = merged.get(leafAlloc.getKey());
+                if (exists == null || exists.getMaxId() < leafAlloc.getMaxId()) {
+                    merged.put(leafAlloc.getKey(), leafAlloc);
+                }
+            }
+        }
+        return LeafAllocCursors.select(merged.values(), cursor, prefix, limit);
+    }
+
+    /**
+     * 合并全部可用库的业务key
+     * @return
+     */
+    @Override
+    public List<String> getAllTags() {
+        Set<String> merged = new LinkedHashSet<String>();
+        for (List<String> tags : queryAll(new Query<List<String>>() {
+            @Override
+            public List<String> query(IDAllocDaoImpl database) {
+                return database.getAllTags();
+            }
+        })) {
+            merged.addAll(tags);
+        }
+        return new ArrayList<String>(merged);
+    }
+
+    /**
+     * 块大小，也是一次能分配的最大号码数量
+     * @return
+     */
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public void shutdown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * 从最先返回的库分配号段
+     * @param tag
+     * @param customStep 大于0时使用自定义步长，否则使用库中的步长
+     * @return
+     */
+    private LeafAlloc allocate(final String tag, final int customStep) {
+        List<Integer> order = requestOrder();
+        BlockingQueue<Future<LeafAlloc>> completed = new LinkedBlockingQueue<Future<LeafAlloc>>();
+        int submitted = 0;
+        int pending = 0;
+        Exception lastException = null;
+        submit(order.get(submitted++), tag, customStep, completed);
+        pending++;
+        try {
+            while (pending > 0) {
+                Future<LeafAlloc> future = submitted < order.size()
+                        ? completed.poll(hedgeMillis, TimeUnit.MILLISECONDS) : completed.take();
+                if (future == null) {
+                    /** 超过对冲时间没有返回，同时请求下一个库 **/
+                    submit(order.get(submitted++), tag, customStep, completed);
+                    pending++;
+                    continue;
+                }
+                pending--;
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    lastException = e;
+                    if (submitted < order.size()) {
+                        submit(order.get(submitted++), tag, customStep, completed);
+                        pending++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("allocate " + tag + " interrupted", e);
+        }
+        throw new IllegalStateException("allocate " + tag + " failed on all databases", lastException);
+    }
+
+    /**
+     * 请求顺序：从轮询位置开始，健康的库在前
+     * @return
+     */
+    private List<Integer> requestOrder() {
+        int size = databases.size();
+        int first = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        long now = System.currentTimeMillis();
+        List<Integer> healthy = new ArrayList<Integer>(size);
+        List<Integer> unhealthy = new ArrayList<Integer>(size);
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % size;
+            if (unhealthyUntil.get(index) > now) {
+                unhealthy.add(index);
+            } else {
+                healthy.add(index);
+            }
+        }
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    private void submit(final int index, final String tag, final int customStep, BlockingQueue<Future<LeafAlloc>> completed) {
+        CompletionService<LeafAlloc> completionService = new ExecutorCompletionService<LeafAlloc>(executors.get(index), completed);
+        completionService.submit(new Callable<LeafAlloc>() {
+            @Override
+            public LeafAlloc call() throws Exception {
+                try {
+                    return allocateFrom(index, tag, customStep);
+                } catch (Exception e) {
+                    unhealthyUntil.set(index, System.currentTimeMillis() + UNHEALTHY_MILLIS);
+                    logger.warn("allocate {} from database {} exception", tag, index, e);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * 在第index个库上分配号段
+     * @param index
+     * @param tag
+     * @param customStep
+     * @return
+     */
+    LeafAlloc allocateFrom(int index, String tag, int customStep) {
+        IDAllocDaoImpl database = databases.get(index);
+        for (int retry = 0; retry < MAX_CAS_RETRY; retry++) {
+            LeafAlloc current = database.getLeafAlloc(tag);
+            if (current == null) {
+                throw new IllegalStateException("tag " + tag + " not exists in database " + index);
+            }
+            int step = customStep > 0 ? customStep : current.getStep();
+            if (step <= 0 || step > blockSize) {
+                throw new IllegalArgumentException("step " + step + " of " + tag + " must be in (0, " + blockSize + "]");
+            }
+            long start = alignToOwnedBlock(current.getMaxId(), step, index);
+            if (database.updateMaxIdByCas(tag, current.getMaxId(), start + step)) {
+                LeafAlloc result = new LeafAlloc();
+                result.setKey(tag);
+                result.setMaxId(start + step);
+                /** 与IDAllocDaoImpl一致，返回库中的步长 **/
+                result.setStep(current.getStep());
+                return result;
+            }
+        }
+        throw new IllegalStateException("update max_id of " + tag + " in database " + index + " conflict");
+    }
+
+    /**
+     * 计算第index个库上，从position开始放得下step个号码的起点
+     * @param position 当前的max_id
+     * @param step
+     * @param index
+     * @return
+     */
+    long alignToOwnedBlock(long position, int step, int index) {
+        long size = databases.size();
+        long start = Math.max(position, 0);
+        long block = start / blockSize;
+        if (block % size == index && start + step <= (block + 1) * blockSize) {
+            return start;
+        }
+        long nextBlock = block + (index - block % size + size) % size;
+        if (nextBlock == block) {
+            nextBlock += size;
+        }
+        return nextBlock * blockSize;
+    }
+
+    /**
+     * 并发查询全部库，跳过超时或者异常的库
+     * @param query
+     * @param <T>
+     * @return
+     */
+    private <T> List<T> queryAll(final Query<T> query) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(databases.size());
+        for (int i = 0; i < databases.size(); i++) {
+            final IDAllocDaoImpl database = databases.get(i);
+            futures.add(executors.get(i).submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return query.query(database);
+                }
+            }));
+        }
+        List<T> result = new ArrayList<T>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                T value = futures.get(i).get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (value != null) {
+                    result.add(value);
+                }
+            } catch (Exception e) {
+                futures.get(i).cancel(true);
+                logger.warn("query database {} exception", i, e);
+            }
+        }
+        return result;
+    }
+
+    private interface Query<T> {
+        T query(IDAllocDaoImpl database);
+    }
+}
@@ -0,0 +1,405 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于本地内存映射文件的IDAllocDao，用于没有MySQL的单机部署
+ * 文件结构：
+ * + 文件头64字节：magic(4) version(4) capacity(4)
+ * + 之后是capacity条定长记录，每条160字节：
+ *   max_id(8) update_time(8) step(4) tag长度(2) 是否使用(1) 保留(1) tag(128)
+ * 更新max_id时先写映射内存，再等待刷盘完成才返回，多个并发的更新由一次刷盘一起提交(group commit)
+ */
+public class MappedFileIDAllocDao implements IDAllocDao, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileIDAllocDao.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x4C454146;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 160;
+    private static final int MAX_TAG_LENGTH = 128;
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int OFFSET_MAX_ID = 0;
+    private static final int OFFSET_UPDATE_TIME = 8;
+    private static final int OFFSET_STEP = 16;
+    private static final int OFFSET_TAG_LENGTH = 20;
+    private static final int OFFSET_USED = 22;
+    private static final int OFFSET_TAG = 24;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private int capacity;
+
+    /**
+     * 保护映射内存和索引
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * biz_tag -> 记录序号
+     */
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final LinkedList<Integer> freeSlots = new LinkedList<Integer>();
+
+    /**
+     * group commit：每次写入分配一个序号，刷盘后推进已刷盘的序号
+     */
+    private final AtomicLong writeSeq = new AtomicLong(0);
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncDone = syncLock.newCondition();
+    private long syncedSeq = 0;
+    private boolean syncing = false;
+    private final AtomicLong syncCount = new AtomicLong(0);
+
+    public MappedFileIDAllocDao(String path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param path            文件路径，不存在时创建
+     * @param initialCapacity 新建文件时的记录数，不够时自动扩容
+     * @throws IOException
+     */
+    public MappedFileIDAllocDao(String path, int initialCapacity) throws IOException {
+        this.file = new File(path);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("create dir " + parent + " failed");
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        if (channel.size() == 0) {
+            capacity = Math.max(initialCapacity, 1);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.force();
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a leaf alloc file");
+            }
+            capacity = buffer.getInt(8);
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset + OFFSET_USED) == 1) {
+                index.put(readTag(offset), slot);
+            } else {
+                freeSlots.add(slot);
+            }
+        }
+        logger.info("load leaf alloc file {}, capacity {}, tags {}", file, capacity, index.size());
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        lock.lock();
+        try {
+            List<LeafAlloc> result = new ArrayList<LeafAlloc>(index.size());
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                int offset = offset(entry.getValue());
+                LeafAlloc leafAlloc = read(entry.getKey(), offset);
+                leafAlloc.setUpdateTime(format.format(new Date(buffer.getLong(offset + OFFSET_UPDATE_TIME))));
+                result.add(leafAlloc);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        lock.lock();
+        try {
+            List<String> tags = LeafAllocCursors.selectTags(index.keySet(), cursor, prefix, limit);
+            List<LeafAlloc> result = new ArrayList<LeafAlloc>(tags.size());
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            for (String tag : tags) {
+                int offset = offset(index.get(tag));
+                LeafAlloc leafAlloc = read(tag, offset);
+                leafAlloc.setUpdateTime(format.format(new Date(buffer.getLong(offset + OFFSET_UPDATE_TIME))));
+                result.add(leafAlloc);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        return updateMaxId(tag, 0);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        return updateMaxId(leafAlloc.getKey(), leafAlloc.getStep());
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        lock.lock();
+        try {
+            return new ArrayList<String>(index.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 新增业务key
+     * @param tag
+     * @param maxId 初始的max_id
+     * @param step  步长
+     * @return 业务key已经存在时返回false
+     */
+    public boolean addTag(String tag, long maxId, int step) {
+        byte[] tagBytes = tag.getBytes(UTF8);
+        if (tagBytes.length == 0 || tagBytes.length > MAX_TAG_LENGTH) {
+            throw new IllegalArgumentException("tag length must be in [1, " + MAX_TAG_LENGTH + "] bytes");
+        }
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        long seq;
+        lock.lock();
+        try {
+            if (index.containsKey(tag)) {
+                return false;
+            }
+            if (freeSlots.isEmpty()) {
+                grow();
+            }
+            int slot = freeSlots.removeFirst();
+            int offset = offset(slot);
+            MappedByteBuffer buf = buffer;
+            buf.putLong(offset + OFFSET_MAX_ID, maxId);
+            buf.putLong(offset + OFFSET_UPDATE_TIME, System.currentTimeMillis());
+            buf.putInt(offset + OFFSET_STEP, step);
+            buf.putShort(offset + OFFSET_TAG_LENGTH, (short) tagBytes.length);
+            for (int i = 0; i < tagBytes.length; i++) {
+                buf.put(offset + OFFSET_TAG + i, tagBytes[i]);
+            }
+            /** 最后写使用标记，保证记录完整 **/
+            buf.put(offset + OFFSET_USED, (byte) 1);
+            index.put(tag, slot);
+            seq = writeSeq.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        awaitSync(seq);
+        return true;
+    }
+
+    /**
+     * 删除业务key
+     * @param tag
+     * @return 业务key不存在时返回false
+     */
+    public boolean removeTag(String tag) {
+        long seq;
+        lock.lock();
+        try {
+            Integer slot = index.remove(tag);
+            if (slot == null) {
+                return false;
+            }
+            buffer.put(offset(slot) + OFFSET_USED, (byte) 0);
+            freeSlots.add(slot);
+            seq = writeSeq.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        awaitSync(seq);
+        return true;
+    }
+
+    /**
+     * 修改业务key的步长
+     * @param tag
+     * @param step
+     * @return 业务key不存在时返回false
+     */
+    public boolean updateStep(String tag, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        long seq;
+        lock.lock();
+        try {
+            Integer slot = index.get(tag);
+            if (slot == null) {
+                return false;
+            }
+            buffer.putInt(offset(slot) + OFFSET_STEP, step);
+            seq = writeSeq.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        awaitSync(seq);
+        return true;
+    }
+
+    /**
+     * 刷盘次数，用于观察group commit的效果
+     * @return
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            buffer.force();
+            channel.close();
+            raf.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 推进max_id，并等待刷盘
+     * @param tag
+     * @param customStep 大于0时使用自定义步长
+     * @return
+     */
+    private LeafAlloc updateMaxId(String tag, int customStep) {
+        LeafAlloc result;
+        long seq;
+        lock.lock();
+        try {
+            Integer slot = index.get(tag);
+            if (slot == null) {
+                throw new IllegalStateException("tag " + tag + " not exists in " + file);
+            }
+            int offset = offset(slot);
+            MappedByteBuffer buf = buffer;
+            int step = buf.getInt(offset + OFFSET_STEP);
+            long maxId = buf.getLong(offset + OFFSET_MAX_ID) + (customStep > 0 ? customStep : step);
+            buf.putLong(offset + OFFSET_MAX_ID, maxId);
+            buf.putLong(offset + OFFSET_UPDATE_TIME, System.currentTimeMillis());
+            seq = writeSeq.incrementAndGet();
+            result = new LeafAlloc();
+            result.setKey(tag);
+            result.setMaxId(maxId);
+            result.setStep(step);
+        } finally {
+            lock.unlock();
+        }
+        /** 刷盘完成之前，号段不能使用，否则宕机重启后可能重复发号 **/
+        awaitSync(seq);
+        return result;
+    }
+
+    /**
+     * 等待序号seq之前的写入全部刷盘
+     * 没有刷盘线程时由当前线程刷盘，一次刷盘提交此前的全部写入；否则等待正在进行的刷盘完成后再判断
+     * @param seq
+     */
+    private void awaitSync(long seq) {
+        syncLock.lock();
+        try {
+            while (syncedSeq < seq) {
+                if (syncing) {
+                    syncDone.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                long target = writeSeq.get();
+                boolean success = false;
+                syncLock.unlock();
+                try {
+                    buffer.force();
+                    syncCount.incrementAndGet();
+                    success = true;
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    if (success && target > syncedSeq) {
+                        syncedSeq = target;
+                    }
+                    syncDone.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 容量翻倍，重新映射文件，调用方持有lock
+     */
+    private void grow() {
+        try {
+            int newCapacity = capacity * 2;
+            buffer.force();
+            MappedByteBuffer newBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(newCapacity));
+            newBuffer.putInt(8, newCapacity);
+            newBuffer.force();
+            for (int slot = capacity; slot < newCapacity; slot++) {
+                freeSlots.add(slot);
+            }
+            logger.info("grow leaf alloc file {} capacity from {} to {}", file, capacity, newCapacity);
+            capacity = newCapacity;
+            buffer = newBuffer;
+        } catch (IOException e) {
+            throw new IllegalStateException("grow " + file + " failed", e);
+        }
+    }
+
+    private LeafAlloc read(String tag, int offset) {
+        LeafAlloc leafAlloc = new LeafAlloc();
+        leafAlloc.setKey(tag);
+        leafAlloc.setMaxId(buffer.getLong(offset + OFFSET_MAX_ID));
+        leafAlloc.setStep(buffer.getInt(offset + OFFSET_STEP));
+        return leafAlloc;
+    }
+
+    private String readTag(int offset) {
+        int length = buffer.getShort(offset + OFFSET_TAG_LENGTH);
+        byte[] tagBytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            tagBytes[i] = buffer.get(offset + OFFSET_TAG + i);
+        }
+        return new String(tagBytes, UTF8);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+}
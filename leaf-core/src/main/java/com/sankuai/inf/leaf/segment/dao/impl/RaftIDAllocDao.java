@@ -0,0 +1,95 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.raft.LogEntry;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftNode;
+
+import java.util.List;
+
+/**
+ * 基于raft复制的IDAllocDao，不需要mysql和zookeeper
+ * + 号段由leader分配：更新max_id的操作写入raft日志，多数派复制后才返回，leader切换不会重复分配
+ * + follower把请求转发给leader，拿到的号段和其他dao一样缓存在本地的SegmentBuffer中
+ * + 业务key列表读取本节点已应用的状态，follower上可能稍微落后
+ */
+public class RaftIDAllocDao implements IDAllocDao {
+    /**
+     * 等待leader分配号段的最长时间，需要覆盖一次leader切换
+     */
+    public static final long DEFAULT_TIMEOUT_MS = 5000L;
+
+    private final RaftNode node;
+    private final long timeoutMs;
+
+    public RaftIDAllocDao(RaftNode node) {
+        this(node, DEFAULT_TIMEOUT_MS);
+    }
+
+    public RaftIDAllocDao(RaftNode node, long timeoutMs) {
+        this.node = node;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        return node.getLeafAllocs();
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        return allocate(tag, 0);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        return allocate(leafAlloc.getKey(), leafAlloc.getStep());
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        return node.getTags();
+    }
+
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        return LeafAllocCursors.select(node.getLeafAllocs(), cursor, prefix, limit);
+    }
+
+    /**
+     * 新增业务key
+     * @param tag
+     * @param maxId
+     * @param step
+     * @return 业务key已经存在时返回false
+     */
+    public boolean addTag(String tag, long maxId, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        return node.submit(new ProposeRequest(LogEntry.TYPE_ADD_TAG, tag, maxId, step), timeoutMs) != null;
+    }
+
+    /**
+     * 删除业务key
+     * @param tag
+     * @return 业务key不存在时返回false
+     */
+    public boolean removeTag(String tag) {
+        return node.submit(new ProposeRequest(LogEntry.TYPE_REMOVE_TAG, tag, 0, 0), timeoutMs) != null;
+    }
+
+    public RaftNode getNode() {
+        return node;
+    }
+
+    private LeafAlloc allocate(String tag, int customStep) {
+        LeafAlloc leafAlloc = node.submit(new ProposeRequest(LogEntry.TYPE_ALLOC, tag, 0, customStep), timeoutMs);
+        if (leafAlloc == null) {
+            throw new IllegalStateException("tag " + tag + " not exists in raft state");
+        }
+        return leafAlloc;
+    }
+}
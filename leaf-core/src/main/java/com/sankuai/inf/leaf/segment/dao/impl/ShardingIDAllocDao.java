@@ -0,0 +1,318 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.dao.UpdateExecutorProvider;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分库的IDAllocDao
+ * 每个分片是一个独立的leaf_alloc库，业务key按如下优先级路由到分片：
+ * + 显式路由表
+ * + 同步业务key时发现该key所在的分片
+ * + 一致性hash
+ * 每个分片有独立的号段更新线程池，一个分片变慢不会影响其他分片上业务key的号段更新
+ * 关闭时停止全部线程池，并关闭可以关闭的分片DAO
+ */
+public class ShardingIDAllocDao implements IDAllocDao, UpdateExecutorProvider, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ShardingIDAllocDao.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * 每个分片在hash环上的虚拟节点数
+     */
+    private static final int VIRTUAL_NODES = 160;
+    /**
+     * 同步业务key时，等待单个分片的最长时间
+     */
+    private static final long SYNC_TIMEOUT_MS = 5000L;
+
+    private final List<IDAllocDao> shards;
+    /**
+     * 每个分片的号段更新线程池
+     */
+    private final List<ExecutorService> updateExecutors;
+    /**
+     * 分片同步业务key使用的线程池
+     */
+    private final ExecutorService syncExecutor;
+    /**
+     * 显式路由表 biz_tag -> 分片序号
+     */
+    private final Map<String, Integer> routes;
+    /**
+     * 同步时发现的 biz_tag -> 分片序号
+     */
+    private final Map<String, Integer> discovered = new ConcurrentHashMap<String, Integer>();
+    /**
+     * 每个分片最近一次同步成功的业务key，分片不可用时沿用，避免cache中的key被误删
+     */
+    private final Map<Integer, List<String>> lastTags = new ConcurrentHashMap<Integer, List<String>>();
+    /**
+     * 一致性hash环 hash -> 分片序号
+     */
+    private final TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+
+    public ShardingIDAllocDao(List<IDAllocDao> shards) {
+        this(shards, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * @param shards 分片dao
+     * @param routes 显式路由表 biz_tag -> 分片序号
+     */
+    public ShardingIDAllocDao(List<IDAllocDao> shards, Map<String, Integer> routes) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("shards must not be empty");
+        }
+        for (Map.Entry<String, Integer> entry : routes.entrySet()) {
+            if (entry.getValue() < 0 || entry.getValue() >= shards.size()) {
+                throw new IllegalArgumentException("route of " + entry.getKey() + " out of range: " + entry.getValue());
+            }
+        }
+        this.shards = new ArrayList<IDAllocDao>(shards);
+        this.routes = new HashMap<String, Integer>(routes);
+        this.updateExecutors = new ArrayList<ExecutorService>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            updateExecutors.add(new ThreadPoolExecutor(5, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ShardThreadFactory("Thread-Segment-Update-Shard" + i + "-", false)));
+            for (int j = 0; j < VIRTUAL_NODES; j++) {
+                ring.put(hash("SHARD-" + i + "-NODE-" + j), i);
+            }
+        }
+        this.syncExecutor = new ThreadPoolExecutor(shards.size(), Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ShardThreadFactory("Thread-Segment-Sync-Shard-", true));
+    }
+
+    /**
+     * 查询全部分片的配置
+     * 不可用的分片跳过
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        List<Future<List<LeafAlloc>>> futures = new ArrayList<Future<List<LeafAlloc>>>(shards.size());
+        for (final IDAllocDao shard : shards) {
+            futures.add(syncExecutor.submit(new Callable<List<LeafAlloc>>() {
+                @Override
+                public List<LeafAlloc> call() throws Exception {
+                    return shard.getAllLeafAllocs();
+                }
+            }));
+        }
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                result.addAll(futures.get(i).get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            } catch (Exception e) {
+                futures.get(i).cancel(true);
+                logger.warn("get all leafAllocs from shard {} exception", i, e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        return shards.get(shardOf(tag)).updateMaxIdAndGetLeafAlloc(tag);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        return shards.get(shardOf(leafAlloc.getKey())).updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+    }
+
+    /**
+     * 每个分片各取一页，合并后取最小的limit个
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(final String cursor, final String prefix, final int limit) {
+        List<Future<List<LeafAlloc>>> futures = new ArrayList<Future<List<LeafAlloc>>>(shards.size());
+        for (final IDAllocDao shard : shards) {
+            futures.add(syncExecutor.submit(new Callable<List<LeafAlloc>>() {
+                @Override
+                public List<LeafAlloc> call() throws Exception {
+                    return shard.getLeafAllocsAfter(cursor, prefix, limit);
+                }
+            }));
+        }
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                result.addAll(futures.get(i).get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            } catch (Exception e) {
+                futures.get(i).cancel(true);
+                logger.warn("get leafAllocs after {} from shard {} exception", cursor, i, e);
+            }
+        }
+        return LeafAllocCursors.select(result, cursor, prefix, limit);
+    }
+
+    /**
+     * 并发拉取全部分片的业务key并合并
+     * 超时或者异常的分片，沿用上一次同步成功的结果
+     * @return
+     */
+    @Override
+    public List<String> getAllTags() {
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(shards.size());
+        for (final IDAllocDao shard : shards) {
+            futures.add(syncExecutor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return shard.getAllTags();
+                }
+            }));
+        }
+        List<String> result = new ArrayList<String>();
+        Map<String, Integer> found = new HashMap<String, Integer>();
+        for (int i = 0; i < futures.size(); i++) {
+            List<String> tags;
+            try {
+                tags = futures.get(i).get(SYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                lastTags.put(i, tags == null ? Collections.<String>emptyList() : tags);
+            } catch (Exception e) {
+                futures.get(i).cancel(true);
+                tags = lastTags.get(i);
+                logger.warn("get all tags from shard {} exception, use last tags {}", i, tags == null ? 0 : tags.size(), e);
+            }
+            if (tags == null) {
+                continue;
+            }
+            for (String tag : tags) {
+                Integer exists = found.put(tag, i);
+                if (exists == null) {
+                    result.add(tag);
+                } else {
+                    /** 同一个key出现在多个分片上，以路由表或者一致性hash为准 **/
+                    found.put(tag, routeOf(tag));
+                    logger.error("tag {} exists in shard {} and shard {}", tag, exists, i);
+                }
+            }
+        }
+        discovered.keySet().retainAll(found.keySet());
+        discovered.putAll(found);
+        return result;
+    }
+
+    /**
+     * 业务key所在分片的号段更新线程池
+     * @param tag
+     * @return
+     */
+    @Override
+    public ExecutorService getUpdateExecutor(String tag) {
+        return updateExecutors.get(shardOf(tag));
+    }
+
+    /**
+     * 业务key所在的分片序号
+     * @param tag
+     * @return
+     */
+    public int shardOf(String tag) {
+        Integer shard = routes.get(tag);
+        if (shard != null) {
+            return shard;
+        }
+        shard = discovered.get(tag);
+        if (shard != null) {
+            return shard;
+        }
+        return hashShardOf(tag);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public void shutdown() {
+        for (ExecutorService executor : updateExecutors) {
+            executor.shutdown();
+        }
+        syncExecutor.shutdown();
+    }
+
+    @Override
+    public void close() throws IOException {
+        shutdown();
+        for (IDAllocDao shard : shards) {
+            if (shard instanceof Closeable) {
+                ((Closeable) shard).close();
+            }
+        }
+    }
+
+    private int routeOf(String tag) {
+        Integer shard = routes.get(tag);
+        return shard != null ? shard : hashShardOf(tag);
+    }
+
+    private int hashShardOf(String tag) {
+        SortedMap<Long, Integer> tail = ring.tailMap(hash(tag));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * 取md5的前8个字节作为hash值
+     * @param key
+     * @return
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xFF);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class ShardThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+        private final String prefix;
+        private final boolean daemon;
+
+        ShardThreadFactory(String prefix, boolean daemon) {
+            this.prefix = prefix;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+            t.setDaemon(daemon);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.sankuai.inf.leaf.segment.dao.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于zookeeper的IDAllocDao，不需要单独的mysql
+ * + 每个业务key是 basePath 下的一个持久节点，节点数据为 {"maxId":..,"step":..}
+ * + 以节点版本号做compare-and-set推进max_id，冲突时按带随机抖动的指数退避重试
+ * + 业务key即 basePath 的子节点
+ */
+public class ZookeeperIDAllocDao implements IDAllocDao {
+    /**
+     * 默认的最大重试次数
+     */
+    public static final int DEFAULT_MAX_RETRY = 20;
+    /**
+     * 退避的基础时间和上限
+     */
+    private static final long BACKOFF_BASE_MS = 2L;
+    private static final long BACKOFF_MAX_MS = 200L;
+    private static final Random RANDOM = new Random();
+
+    private final CuratorFramework curator;
+    private final String basePath;
+    private final ObjectMapper mapper = new ObjectMapper();
+    /**
+     * compare-and-set冲突次数，用于观察竞争程度
+     */
+    private final AtomicLong conflicts = new AtomicLong(0);
+    private volatile int maxRetry = DEFAULT_MAX_RETRY;
+
+    /**
+     * @param curator  已经启动的curator客户端
+     * @param basePath 业务key的父节点，例如 /segment/{leaf.name}
+     */
+    public ZookeeperIDAllocDao(CuratorFramework curator, String basePath) {
+        this.curator = curator;
+        this.basePath = basePath;
+    }
+
+    @Override
+    public List<LeafAlloc> getAllLeafAllocs() {
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (String tag : getAllTags()) {
+            LeafAlloc leafAlloc = readLeafAlloc(tag, format);
+            if (leafAlloc != null) {
+                result.add(leafAlloc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 子节点列表只包含biz_tag，先在列表上分页，只读取本页的节点数据
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (String tag : LeafAllocCursors.selectTags(getAllTags(), cursor, prefix, limit)) {
+            LeafAlloc leafAlloc = readLeafAlloc(tag, format);
+            if (leafAlloc != null) {
+                result.add(leafAlloc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取业务key节点
+     * @param tag
+     * @param format
+     * @return 查询期间被删除时返回null
+     */
+    private LeafAlloc readLeafAlloc(String tag, SimpleDateFormat format) {
+        try {
+            Stat stat = new Stat();
+            byte[] bytes = curator.getData().storingStatIn(stat).forPath(path(tag));
+            LeafAlloc leafAlloc = toLeafAlloc(tag, mapper.readValue(bytes, AllocNode.class));
+            leafAlloc.setUpdateTime(format.format(new Date(stat.getMtime())));
+            return leafAlloc;
+        } catch (KeeperException.NoNodeException e) {
+            //查询期间被删除，跳过
+            return null;
+        } catch (Exception e) {
+            throw new IllegalStateException("get leafAlloc " + tag + " from zk failed", e);
+        }
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        return updateMaxId(tag, 0);
+    }
+
+    @Override
+    public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+        return updateMaxId(leafAlloc.getKey(), leafAlloc.getStep());
+    }
+
+    @Override
+    public List<String> getAllTags() {
+        try {
+            return curator.getChildren().forPath(basePath);
+        } catch (KeeperException.NoNodeException e) {
+            return new ArrayList<String>();
+        } catch (Exception e) {
+            throw new IllegalStateException("get tags from zk failed", e);
+        }
+    }
+
+    /**
+     * 新增业务key
+     * @param tag
+     * @param maxId
+     * @param step
+     * @return 业务key已经存在时返回false
+     */
+    public boolean addTag(String tag, long maxId, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        try {
+            curator.create().creatingParentsIfNeeded().forPath(path(tag), encode(maxId, step));
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException("add tag " + tag + " to zk failed", e);
+        }
+    }
+
+    /**
+     * 删除业务key
+     * @param tag
+     * @return 业务key不存在时返回false
+     */
+    public boolean removeTag(String tag) {
+        try {
+            curator.delete().forPath(path(tag));
+            return true;
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException("remove tag " + tag + " from zk failed", e);
+        }
+    }
+
+    /**
+     * 一次号段更新最多重试多少次compare-and-set，竞争激烈(很多leaf节点更新同一个业务key)时可以调大
+     * @param maxRetry
+     */
+    public void setMaxRetry(int maxRetry) {
+        if (maxRetry <= 0) {
+            throw new IllegalArgumentException("maxRetry must be positive");
+        }
+        this.maxRetry = maxRetry;
+    }
+
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * 以节点版本号做compare-and-set推进max_id
+     * @param tag
+     * @param customStep 大于0时使用自定义步长
+     * @return
+     */
+    private LeafAlloc updateMaxId(String tag, int customStep) {
+        String path = path(tag);
+        for (int attempt = 0; attempt < maxRetry; attempt++) {
+            try {
+                Stat stat = new Stat();
+                AllocNode node = mapper.readValue(curator.getData().storingStatIn(stat).forPath(path), AllocNode.class);
+                long maxId = node.getMaxId() + (customStep > 0 ? customStep : node.getStep());
+                curator.setData().withVersion(stat.getVersion()).forPath(path, encode(maxId, node.getStep()));
+                node.setMaxId(maxId);
+                return toLeafAlloc(tag, node);
+            } catch (KeeperException.BadVersionException e) {
+                conflicts.incrementAndGet();
+                backoff(attempt);
+            } catch (KeeperException.NoNodeException e) {
+                throw new IllegalStateException("tag " + tag + " not exists in zk", e);
+            } catch (Exception e) {
+                throw new IllegalStateException("update max id of " + tag + " in zk failed", e);
+            }
+        }
+        throw new IllegalStateException("update max id of " + tag + " in zk conflict after " + maxRetry + " retries");
+    }
+
+    /**
+     * 带随机抖动的指数退避：在 [0, min(上限, 基础时间 * 2^attempt)] 之间随机等待
+     * @param attempt
+     */
+    private void backoff(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt, 16));
+        long sleep = (long) (RANDOM.nextDouble() * ceiling);
+        try {
+            TimeUnit.MILLISECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("backoff interrupted", e);
+        }
+    }
+
+    private byte[] encode(long maxId, int step) throws IOException {
+        AllocNode node = new AllocNode();
+        node.setMaxId(maxId);
+        node.setStep(step);
+        return mapper.writeValueAsBytes(node);
+    }
+
+    private LeafAlloc toLeafAlloc(String tag, AllocNode node) {
+        LeafAlloc leafAlloc = new LeafAlloc();
+        leafAlloc.setKey(tag);
+        leafAlloc.setMaxId(node.getMaxId());
+        leafAlloc.setStep(node.getStep());
+        return leafAlloc;
+    }
+
+    private String path(String tag) {
+        return basePath + "/" + tag;
+    }
+
+    /**
+     * 节点数据结构
+     */
+    static class AllocNode {
+        private long maxId;
+        private int step;
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        public void setMaxId(long maxId) {
+            this.maxId = maxId;
+        }
+
+        public int getStep() {
+            return step;
+        }
+
+        public void setStep(int step) {
+            this.step = step;
+        }
+    }
+}
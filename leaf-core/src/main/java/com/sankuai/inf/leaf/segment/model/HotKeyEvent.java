@@ -0,0 +1,70 @@
+package com.sankuai.inf.leaf.segment.model;
+
+/**
+ * 热点业务key的升级和降级记录
+ */
+public class HotKeyEvent {
+    private String key;
+    /**
+     * true为升级为分条发号，false为降级
+     */
+    private boolean promoted;
+    /**
+     * 发生时估算的每秒发号数
+     */
+    private long rate;
+    private long timestamp;
+
+    public HotKeyEvent() {
+    }
+
+    public HotKeyEvent(String key, boolean promoted, long rate, long timestamp) {
+        this.key = key;
+        this.promoted = promoted;
+        this.rate = rate;
+        this.timestamp = timestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    public void setPromoted(boolean promoted) {
+        this.promoted = promoted;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("HotKeyEvent{");
+        sb.append("key='").append(key).append('\'');
+        sb.append(", promoted=").append(promoted);
+        sb.append(", rate=").append(rate);
+        sb.append(", timestamp=").append(timestamp);
+        sb.append('}');
+        return sb.toString();
+    }
+}
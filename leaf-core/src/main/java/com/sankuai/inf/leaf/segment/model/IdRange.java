@@ -0,0 +1,63 @@
+package com.sankuai.inf.leaf.segment.model;
+
+/**
+ * 一段连续的号码 [start, end)
+ */
+public class IdRange {
+    private String key;
+    /**
+     * 区间起点，包含
+     */
+    private long start;
+    /**
+     * 区间终点，不包含
+     */
+    private long end;
+
+    public IdRange() {
+    }
+
+    public IdRange(String key, long start, long end) {
+        this.key = key;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public long getCount() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("IdRange{");
+        sb.append("key='").append(key).append('\'');
+        sb.append(", start=").append(start);
+        sb.append(", end=").append(end);
+        sb.append('}');
+        return sb.toString();
+    }
+}
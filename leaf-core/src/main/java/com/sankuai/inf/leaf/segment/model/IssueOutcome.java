@@ -0,0 +1,28 @@
+package com.sankuai.inf.leaf.segment.model;
+
+/**
+ * 一次号段发号的结果分类
+ * 一次发号可能经过多个阶段，按声明顺序取最靠后的一个，例如等待后备号段后又切换了号段记为SWITCH
+ */
+public enum IssueOutcome {
+    /**
+     * 直接从当前号段或者条带取到号码，包括条带用完后从当前号段补充号码
+     */
+    FAST,
+    /**
+     * 当前号段耗尽，等待后备号段更新线程
+     */
+    WAIT,
+    /**
+     * 在写锁下切换到后备号段
+     */
+    SWITCH,
+    /**
+     * 业务key第一次发号，同步从存储加载号段
+     */
+    INIT,
+    /**
+     * 发号失败，包括两个号段都不可用和限流
+     */
+    FAIL
+}
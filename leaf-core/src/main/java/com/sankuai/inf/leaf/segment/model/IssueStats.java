@@ -0,0 +1,100 @@
+package com.sankuai.inf.leaf.segment.model;
+
+import com.sankuai.inf.leaf.common.LatencyHistogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 业务key按发号分类聚合的次数、各阶段耗时和耗时分布
+ * + FAST占绝大多数，热点key上所有线程都去加同一个计数会产生竞争，只抽样 1/(FAST_SAMPLE_MASK + 1) 按权重记录，次数是估算值
+ * + 其他分类本身就慢，每次都记录
+ */
+public class IssueStats {
+    private static final int FAST_SAMPLE_MASK = 15;
+    private static final IssueOutcome[] OUTCOMES = IssueOutcome.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(OUTCOMES.length);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(OUTCOMES.length);
+    private final AtomicLongArray initNanos = new AtomicLongArray(OUTCOMES.length);
+    private final AtomicLongArray waitNanos = new AtomicLongArray(OUTCOMES.length);
+    private final AtomicLongArray lockNanos = new AtomicLongArray(OUTCOMES.length);
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OUTCOMES.length];
+
+    public IssueStats() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 记录一次发号
+     * @param trace
+     */
+    public void record(IssueTrace trace) {
+        long weight = 1;
+        if (trace.getOutcome() == IssueOutcome.FAST) {
+            if ((ThreadLocalRandom.current().nextInt() & FAST_SAMPLE_MASK) != 0) {
+                return;
+            }
+            weight = FAST_SAMPLE_MASK + 1;
+        }
+        int i = trace.getOutcome().ordinal();
+        counts.addAndGet(i, weight);
+        totalNanos.addAndGet(i, trace.getTotalNanos() * weight);
+        histograms[i].record(trace.getTotalNanos(), weight);
+        if (trace.getInitNanos() > 0) {
+            initNanos.addAndGet(i, trace.getInitNanos());
+        }
+        if (trace.getWaitNanos() > 0) {
+            waitNanos.addAndGet(i, trace.getWaitNanos());
+        }
+        if (trace.getLockNanos() > 0) {
+            lockNanos.addAndGet(i, trace.getLockNanos());
+        }
+    }
+
+    public long getCount(IssueOutcome outcome) {
+        return counts.get(outcome.ordinal());
+    }
+
+    /**
+     * 该分类的总耗时
+     * @param outcome
+     * @return
+     */
+    public long getTotalNanos(IssueOutcome outcome) {
+        return totalNanos.get(outcome.ordinal());
+    }
+
+    /**
+     * 该分类中同步初始化号段的耗时
+     * @param outcome
+     * @return
+     */
+    public long getInitNanos(IssueOutcome outcome) {
+        return initNanos.get(outcome.ordinal());
+    }
+
+    /**
+     * 该分类中等待后备号段更新的耗时
+     * @param outcome
+     * @return
+     */
+    public long getWaitNanos(IssueOutcome outcome) {
+        return waitNanos.get(outcome.ordinal());
+    }
+
+    /**
+     * 该分类中等待写锁的耗时
+     * @param outcome
+     * @return
+     */
+    public long getLockNanos(IssueOutcome outcome) {
+        return lockNanos.get(outcome.ordinal());
+    }
+
+    public LatencyHistogram getHistogram(IssueOutcome outcome) {
+        return histograms[outcome.ordinal()];
+    }
+}
@@ -0,0 +1,120 @@
+package com.sankuai.inf.leaf.segment.model;
+
+/**
+ * 当前线程最近一次号段发号的分类和各阶段耗时
+ * + 每个线程复用一个对象，发号路径上不创建对象
+ * + 只在发号线程上读写，不需要同步
+ * + buffer被淘汰后重新发号会嵌套调用，只有最外层的调用开始和结束一次记录
+ */
+public class IssueTrace {
+    private String key;
+    private IssueOutcome outcome = IssueOutcome.FAST;
+    private long startNanos;
+    private long totalNanos;
+    private long initNanos;
+    private long waitNanos;
+    private long lockNanos;
+    private int depth;
+
+    /**
+     * 开始一次发号
+     * @param key
+     * @return 是否为最外层的调用
+     */
+    public boolean begin(String key) {
+        if (depth++ > 0) {
+            return false;
+        }
+        this.key = key;
+        this.outcome = IssueOutcome.FAST;
+        this.initNanos = 0;
+        this.waitNanos = 0;
+        this.lockNanos = 0;
+        this.totalNanos = 0;
+        this.startNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * 结束一次发号
+     * @param success 是否取到号码
+     * @return 是否为最外层的调用
+     */
+    public boolean end(boolean success) {
+        if (--depth > 0) {
+            return false;
+        }
+        if (!success) {
+            mark(IssueOutcome.FAIL);
+        }
+        totalNanos = System.nanoTime() - startNanos;
+        return true;
+    }
+
+    /**
+     * 记录经过的阶段，保留声明顺序靠后的分类
+     * @param outcome
+     */
+    public void mark(IssueOutcome outcome) {
+        if (outcome.ordinal() > this.outcome.ordinal()) {
+            this.outcome = outcome;
+        }
+    }
+
+    public void addInitNanos(long nanos) {
+        initNanos += nanos;
+    }
+
+    public void addWaitNanos(long nanos) {
+        waitNanos += nanos;
+    }
+
+    public void addLockNanos(long nanos) {
+        lockNanos += nanos;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public IssueOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * 开始时的System.nanoTime()，用于判断记录是否属于某次请求
+     * @return
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getInitNanos() {
+        return initNanos;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public long getLockNanos() {
+        return lockNanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("IssueTrace{");
+        sb.append("key='").append(key).append('\'');
+        sb.append(", outcome=").append(outcome);
+        sb.append(", totalNanos=").append(totalNanos);
+        sb.append(", initNanos=").append(initNanos);
+        sb.append(", waitNanos=").append(waitNanos);
+        sb.append(", lockNanos=").append(lockNanos);
+        sb.append('}');
+        return sb.toString();
+    }
+}
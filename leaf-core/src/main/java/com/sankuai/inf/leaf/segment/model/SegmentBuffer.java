@@ -1,7 +1,10 @@
 package com.sankuai.inf.leaf.segment.model;
 
+import com.sankuai.inf.leaf.common.TokenBucket;
+
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -31,6 +34,19 @@ public class SegmentBuffer {
      * 是否初始化完成
      */
     private volatile boolean initOk;
+    /**
+     * 是否已经从cache中删除(业务key在数据库中被删除)
+     */
+    private volatile boolean removed;
+    /**
+     * 是否因为空闲已经从cache中淘汰，淘汰后通过该buffer发号需要重新获取buffer
+     */
+    private volatile boolean evicted;
+    /**
+     * 上次淘汰检查之后是否有发号，以及最近一次检查到发号的时间
+     */
+    private volatile boolean accessed;
+    private volatile long lastAccess;
     /**
      * 号段拉取线程是否在运行中
      */
@@ -53,6 +69,43 @@ public class SegmentBuffer {
      * 用于动态调整step
      */
     private volatile long updateTimestamp;
+    /**
+     * 发号限流，为null时不限制
+     */
+    private volatile TokenBucket issueQuota;
+    /**
+     * 后备号段更新限流，为null时不限制
+     */
+    private volatile TokenBucket refillQuota;
+    /**
+     * 最近一次后备号段更新是否因为限流被跳过
+     */
+    private volatile boolean refillThrottled;
+    /**
+     * 热点key的分条发号结构，非热点key为null
+     */
+    private volatile StripedSegment striped;
+    /**
+     * 抽样到的发号请求数和cas重试次数，由热点检测任务定期清零
+     */
+    private final AtomicLong sampledRequests = new AtomicLong(0);
+    private final AtomicLong sampledRetries = new AtomicLong(0);
+    /**
+     * 最近一个检测周期估算的每秒发号数
+     */
+    private volatile long rate;
+    /**
+     * 分条发号后连续低于降级阈值的检测周期数，只由热点检测任务访问
+     */
+    private int coolPeriods;
+    /**
+     * 按发号分类聚合的耗时统计，没有开启时为null
+     */
+    private volatile IssueStats issueStats;
+    /**
+     * 当前号段耗尽时后备号段还没有就绪的次数，说明步长或者更新阈值不足以覆盖一次存储更新的耗时
+     */
+    private final AtomicLong notReadyExhaustions = new AtomicLong(0);
 
     public SegmentBuffer() {
         /** 创建2个buffer **/
@@ -105,6 +158,38 @@ public class SegmentBuffer {
         this.initOk = initOk;
     }
 
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+    }
+
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    public void setEvicted(boolean evicted) {
+        this.evicted = evicted;
+    }
+
+    public boolean isAccessed() {
+        return accessed;
+    }
+
+    public void setAccessed(boolean accessed) {
+        this.accessed = accessed;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
     public boolean isNextReady() {
         return nextReady;
     }
@@ -149,6 +234,74 @@ public class SegmentBuffer {
         this.updateTimestamp = updateTimestamp;
     }
 
+    public TokenBucket getIssueQuota() {
+        return issueQuota;
+    }
+
+    public void setIssueQuota(TokenBucket issueQuota) {
+        this.issueQuota = issueQuota;
+    }
+
+    public IssueStats getIssueStats() {
+        return issueStats;
+    }
+
+    public void setIssueStats(IssueStats issueStats) {
+        this.issueStats = issueStats;
+    }
+
+    public TokenBucket getRefillQuota() {
+        return refillQuota;
+    }
+
+    public void setRefillQuota(TokenBucket refillQuota) {
+        this.refillQuota = refillQuota;
+    }
+
+    public boolean isRefillThrottled() {
+        return refillThrottled;
+    }
+
+    public void setRefillThrottled(boolean refillThrottled) {
+        this.refillThrottled = refillThrottled;
+    }
+
+    public StripedSegment getStriped() {
+        return striped;
+    }
+
+    public void setStriped(StripedSegment striped) {
+        this.striped = striped;
+    }
+
+    public AtomicLong getSampledRequests() {
+        return sampledRequests;
+    }
+
+    public AtomicLong getSampledRetries() {
+        return sampledRetries;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public AtomicLong getNotReadyExhaustions() {
+        return notReadyExhaustions;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public int getCoolPeriods() {
+        return coolPeriods;
+    }
+
+    public void setCoolPeriods(int coolPeriods) {
+        this.coolPeriods = coolPeriods;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("SegmentBuffer{");
@@ -157,10 +310,16 @@ public class SegmentBuffer {
         sb.append(", currentPos=").append(currentPos);
         sb.append(", nextReady=").append(nextReady);
         sb.append(", initOk=").append(initOk);
+        sb.append(", removed=").append(removed);
+        sb.append(", evicted=").append(evicted);
         sb.append(", threadRunning=").append(threadRunning);
         sb.append(", step=").append(step);
         sb.append(", minStep=").append(minStep);
         sb.append(", updateTimestamp=").append(updateTimestamp);
+        sb.append(", issueQuota=").append(issueQuota);
+        sb.append(", refillQuota=").append(refillQuota);
+        sb.append(", striped=").append(striped != null);
+        sb.append(", rate=").append(rate);
         sb.append('}');
         return sb.toString();
     }
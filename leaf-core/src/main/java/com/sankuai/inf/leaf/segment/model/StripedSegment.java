@@ -0,0 +1,85 @@
+package com.sankuai.inf.leaf.segment.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点业务key的分条发号结构
+ * + 每个条带缓存一小段从当前号段中一次性取出的号码，线程按线程id落到不同的条带上发号
+ * + 条带中的号码用完后，才去号段上用一次getAndAdd取下一段，号段上的竞争降为原来的 1/chunkSize
+ * + 不同条带的号码交错发出，只保证趋势递增
+ * + 降级时条带中剩余的号码直接丢弃
+ */
+public class StripedSegment {
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int chunkSize;
+
+    /**
+     * @param stripes   条带数，必须是2的幂
+     * @param chunkSize 每次从号段取出的号码数
+     */
+    public StripedSegment(int stripes, int chunkSize) {
+        if (stripes <= 0 || (stripes & (stripes - 1)) != 0) {
+            throw new IllegalArgumentException("stripes must be a power of 2");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = stripes - 1;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 当前线程所在的条带
+     * @return
+     */
+    public Stripe currentStripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int) ((id ^ (id >>> 16)) & mask)];
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public static class Stripe {
+        private volatile Chunk chunk = new Chunk(0, 0);
+
+        /**
+         * 从条带缓存的号码中取一个
+         * @return 已经用完时返回-1
+         */
+        public long next() {
+            Chunk current = chunk;
+            long value = current.next.getAndIncrement();
+            return value < current.end ? value : -1;
+        }
+
+        /**
+         * 换上新取出的号码 [start, end)
+         * @param start
+         * @param end
+         */
+        public void reset(long start, long end) {
+            chunk = new Chunk(start, end);
+        }
+    }
+
+    private static class Chunk {
+        private final AtomicLong next;
+        private final long end;
+
+        Chunk(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * raft复制的号段状态机 biz_tag -> max_id/step
+ * 只由RaftNode在持有锁时调用，按日志顺序确定性地执行
+ */
+public class AllocStateMachine {
+    private final Map<String, LeafAlloc> allocs = new TreeMap<String, LeafAlloc>();
+
+    /**
+     * 执行一条日志
+     * @param entry
+     * @return 执行后业务key的状态，业务key不存在或者操作无效时返回null
+     */
+    public LeafAlloc apply(LogEntry entry) {
+        switch (entry.getType()) {
+            case LogEntry.TYPE_ALLOC: {
+                LeafAlloc leafAlloc = allocs.get(entry.getTag());
+                if (leafAlloc == null) {
+                    return null;
+                }
+                leafAlloc.setMaxId(leafAlloc.getMaxId() + (entry.getStep() > 0 ? entry.getStep() : leafAlloc.getStep()));
+                return copy(leafAlloc);
+            }
+            case LogEntry.TYPE_ADD_TAG: {
+                if (allocs.containsKey(entry.getTag()) || entry.getStep() <= 0) {
+                    return null;
+                }
+                LeafAlloc leafAlloc = new LeafAlloc();
+                leafAlloc.setKey(entry.getTag());
+                leafAlloc.setMaxId(entry.getValue());
+                leafAlloc.setStep(entry.getStep());
+                allocs.put(entry.getTag(), leafAlloc);
+                return copy(leafAlloc);
+            }
+            case LogEntry.TYPE_REMOVE_TAG: {
+                LeafAlloc leafAlloc = allocs.remove(entry.getTag());
+                return leafAlloc == null ? null : copy(leafAlloc);
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 当前状态的拷贝，用于快照和查询
+     * @return
+     */
+    public List<LeafAlloc> snapshot() {
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>(allocs.size());
+        for (LeafAlloc leafAlloc : allocs.values()) {
+            result.add(copy(leafAlloc));
+        }
+        return result;
+    }
+
+    /**
+     * 从快照恢复
+     * @param state
+     */
+    public void restore(List<LeafAlloc> state) {
+        allocs.clear();
+        for (LeafAlloc leafAlloc : state) {
+            allocs.put(leafAlloc.getKey(), copy(leafAlloc));
+        }
+    }
+
+    public List<String> tags() {
+        return new ArrayList<String>(allocs.keySet());
+    }
+
+    private static LeafAlloc copy(LeafAlloc leafAlloc) {
+        LeafAlloc result = new LeafAlloc();
+        result.setKey(leafAlloc.getKey());
+        result.setMaxId(leafAlloc.getMaxId());
+        result.setStep(leafAlloc.getStep());
+        return result;
+    }
+}
@@ -0,0 +1,211 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于本地文件的raft状态
+ * + meta: 任期和投票，整体写临时文件后原子替换
+ * + snapshot: 状态机快照，同样原子替换
+ * + log: 快照之后的日志，顺序追加，每次追加后fsync；截断时整体重写
+ * 进程在追加日志时崩溃，末尾不完整的记录在加载时丢弃
+ */
+public class FileRaftStorage implements RaftStorage {
+    private final File meta;
+    private final File snapshot;
+    private final File log;
+    private FileOutputStream logOut;
+
+    public FileRaftStorage(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("create raft dir " + dir + " failed");
+        }
+        this.meta = new File(dir, "meta");
+        this.snapshot = new File(dir, "snapshot");
+        this.log = new File(dir, "log");
+    }
+
+    @Override
+    public synchronized PersistentState load() throws IOException {
+        PersistentState state = new PersistentState();
+        state.snapshot = new ArrayList<LeafAlloc>();
+        state.entries = new ArrayList<LogEntry>();
+        if (meta.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            try {
+                state.term = in.readLong();
+                String votedFor = in.readUTF();
+                state.votedFor = votedFor.isEmpty() ? null : votedFor;
+            } finally {
+                in.close();
+            }
+        }
+        if (snapshot.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+            try {
+                state.snapshotIndex = in.readLong();
+                state.snapshotTerm = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    LeafAlloc leafAlloc = new LeafAlloc();
+                    leafAlloc.setKey(in.readUTF());
+                    leafAlloc.setMaxId(in.readLong());
+                    leafAlloc.setStep(in.readInt());
+                    state.snapshot.add(leafAlloc);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        if (log.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            try {
+                while (true) {
+                    LogEntry entry = readEntry(in);
+                    if (entry.getIndex() > state.snapshotIndex) {
+                        state.entries.add(entry);
+                    }
+                }
+            } catch (EOFException e) {
+                //末尾不完整的记录
+            } finally {
+                in.close();
+            }
+            /** 丢弃末尾不完整的记录，保证之后的追加是对齐的 **/
+            rewrite(state.entries);
+        }
+        return state;
+    }
+
+    @Override
+    public synchronized void saveTerm(long term, String votedFor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(term);
+        out.writeUTF(votedFor == null ? "" : votedFor);
+        out.flush();
+        replace(meta, bytes.toByteArray());
+    }
+
+    @Override
+    public synchronized void append(List<LogEntry> entries) throws IOException {
+        if (logOut == null) {
+            logOut = new FileOutputStream(log, true);
+        }
+        logOut.write(encode(entries));
+        logOut.getChannel().force(false);
+    }
+
+    @Override
+    public synchronized void rewrite(List<LogEntry> entries) throws IOException {
+        closeLog();
+        replace(log, encode(entries));
+    }
+
+    @Override
+    public synchronized void saveSnapshot(long index, long term, List<LeafAlloc> state, List<LogEntry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(index);
+        out.writeLong(term);
+        out.writeInt(state.size());
+        for (LeafAlloc leafAlloc : state) {
+            out.writeUTF(leafAlloc.getKey());
+            out.writeLong(leafAlloc.getMaxId());
+            out.writeInt(leafAlloc.getStep());
+        }
+        out.flush();
+        replace(snapshot, bytes.toByteArray());
+        /** 先保存快照再截断日志，中间崩溃时加载会跳过快照已经包含的日志 **/
+        rewrite(entries);
+    }
+
+    public synchronized void close() throws IOException {
+        closeLog();
+    }
+
+    private void closeLog() throws IOException {
+        if (logOut != null) {
+            logOut.close();
+            logOut = null;
+        }
+    }
+
+    private static void replace(File target, byte[] data) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        /** 同步目录，掉电后目录项也指向新文件 **/
+        syncDirectory(target.getParentFile());
+    }
+
+    /**
+     * 部分平台(例如windows)不能打开或者同步目录，此时跳过
+     * @param dir
+     */
+    private static void syncDirectory(File dir) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] encode(List<LogEntry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (LogEntry entry : entries) {
+            out.writeLong(entry.getTerm());
+            out.writeLong(entry.getIndex());
+            out.writeInt(entry.getType());
+            out.writeUTF(entry.getTag() == null ? "" : entry.getTag());
+            out.writeLong(entry.getValue());
+            out.writeInt(entry.getStep());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static LogEntry readEntry(DataInputStream in) throws IOException {
+        LogEntry entry = new LogEntry();
+        entry.setTerm(in.readLong());
+        entry.setIndex(in.readLong());
+        entry.setType(in.readInt());
+        String tag = in.readUTF();
+        entry.setTag(tag.isEmpty() ? null : tag);
+        entry.setValue(in.readLong());
+        entry.setStep(in.readInt());
+        return entry;
+    }
+}
@@ -0,0 +1,77 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.SnapshotRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的raft网络，用于在一个jvm里运行多节点集群
+ * + 每个节点通过 {@link #endpoint(String)} 获取自己的传输
+ * + 可以把节点从网络中断开来模拟宕机和网络分区，断开的节点收发的请求都会失败
+ */
+public class LocalRaftTransport {
+    private final Map<String, RaftNode> nodes = new ConcurrentHashMap<String, RaftNode>();
+    private final Set<String> disconnected = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public void register(RaftNode node) {
+        nodes.put(node.getId(), node);
+    }
+
+    public void disconnect(String id) {
+        disconnected.add(id);
+    }
+
+    public void connect(String id) {
+        disconnected.remove(id);
+    }
+
+    /**
+     * 节点self使用的传输
+     * @param self
+     * @return
+     */
+    public RaftTransport endpoint(final String self) {
+        return new RaftTransport() {
+            @Override
+            public VoteResponse requestVote(String peer, VoteRequest request) throws Exception {
+                return target(self, peer).handleVote(request);
+            }
+
+            @Override
+            public AppendResponse appendEntries(String peer, AppendRequest request) throws Exception {
+                return target(self, peer).handleAppend(request);
+            }
+
+            @Override
+            public AppendResponse installSnapshot(String peer, SnapshotRequest request) throws Exception {
+                return target(self, peer).handleSnapshot(request);
+            }
+
+            @Override
+            public ProposeResponse propose(String peer, ProposeRequest request) throws Exception {
+                return target(self, peer).handlePropose(request);
+            }
+        };
+    }
+
+    private RaftNode target(String from, String to) throws IOException {
+        if (disconnected.contains(from) || disconnected.contains(to)) {
+            throw new IOException("node " + to + " unreachable from " + from);
+        }
+        RaftNode node = nodes.get(to);
+        if (node == null) {
+            throw new IOException("node " + to + " not registered");
+        }
+        return node;
+    }
+}
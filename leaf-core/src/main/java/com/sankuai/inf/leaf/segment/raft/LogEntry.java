@@ -0,0 +1,101 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+/**
+ * raft日志条目，每条日志是对号段状态机的一次操作
+ */
+public class LogEntry {
+    /**
+     * 空操作，新leader上任时写入，用于提交之前任期的日志
+     */
+    public static final int TYPE_NOOP = 0;
+    /**
+     * 分配号段，step大于0时使用自定义步长
+     */
+    public static final int TYPE_ALLOC = 1;
+    /**
+     * 新增业务key，value为初始max_id
+     */
+    public static final int TYPE_ADD_TAG = 2;
+    /**
+     * 删除业务key
+     */
+    public static final int TYPE_REMOVE_TAG = 3;
+
+    private long term;
+    private long index;
+    private int type;
+    private String tag;
+    private long value;
+    private int step;
+
+    public LogEntry() {
+    }
+
+    public LogEntry(int type, String tag, long value, int step) {
+        this.type = type;
+        this.tag = tag;
+        this.value = value;
+        this.step = step;
+    }
+
+    public long getTerm() {
+        return term;
+    }
+
+    public void setTerm(long term) {
+        this.term = term;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public void setStep(int step) {
+        this.step = step;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LogEntry{");
+        sb.append("term=").append(term);
+        sb.append(", index=").append(index);
+        sb.append(", type=").append(type);
+        sb.append(", tag='").append(tag).append('\'');
+        sb.append(", value=").append(value);
+        sb.append(", step=").append(step);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内存中的raft状态，进程重启后丢失，只用于测试
+ */
+public class MemoryRaftStorage implements RaftStorage {
+    private long term;
+    private String votedFor;
+    private long snapshotIndex;
+    private long snapshotTerm;
+    private List<LeafAlloc> snapshot = new ArrayList<LeafAlloc>();
+    private List<LogEntry> entries = new ArrayList<LogEntry>();
+
+    @Override
+    public synchronized PersistentState load() {
+        PersistentState state = new PersistentState();
+        state.term = term;
+        state.votedFor = votedFor;
+        state.snapshotIndex = snapshotIndex;
+        state.snapshotTerm = snapshotTerm;
+        state.snapshot = new ArrayList<LeafAlloc>(snapshot);
+        state.entries = new ArrayList<LogEntry>(entries);
+        return state;
+    }
+
+    @Override
+    public synchronized void saveTerm(long term, String votedFor) {
+        this.term = term;
+        this.votedFor = votedFor;
+    }
+
+    @Override
+    public synchronized void append(List<LogEntry> entries) {
+        this.entries.addAll(entries);
+    }
+
+    @Override
+    public synchronized void rewrite(List<LogEntry> entries) {
+        this.entries = new ArrayList<LogEntry>(entries);
+    }
+
+    @Override
+    public synchronized void saveSnapshot(long index, long term, List<LeafAlloc> state, List<LogEntry> entries) {
+        this.snapshotIndex = index;
+        this.snapshotTerm = term;
+        this.snapshot = new ArrayList<LeafAlloc>(state);
+        this.entries = new ArrayList<LogEntry>(entries);
+    }
+}
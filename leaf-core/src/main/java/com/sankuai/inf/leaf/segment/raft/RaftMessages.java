@@ -0,0 +1,358 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.util.List;
+
+/**
+ * raft节点之间的请求和响应
+ * 都是简单的java bean，方便传输层用json序列化
+ */
+public final class RaftMessages {
+    private RaftMessages() {
+    }
+
+    public static class VoteRequest {
+        private long term;
+        private String candidateId;
+        private long lastLogIndex;
+        private long lastLogTerm;
+
+        public VoteRequest() {
+        }
+
+        public VoteRequest(long term, String candidateId, long lastLogIndex, long lastLogTerm) {
+            this.term = term;
+            this.candidateId = candidateId;
+            this.lastLogIndex = lastLogIndex;
+            this.lastLogTerm = lastLogTerm;
+        }
+
+        public long getTerm() {
+            return term;
+        }
+
+        public void setTerm(long term) {
+            this.term = term;
+        }
+
+        public String getCandidateId() {
+            return candidateId;
+        }
+
+        public void setCandidateId(String candidateId) {
+            this.candidateId = candidateId;
+        }
+
+        public long getLastLogIndex() {
+            return lastLogIndex;
+        }
+
+        public void setLastLogIndex(long lastLogIndex) {
+            this.lastLogIndex = lastLogIndex;
+        }
+
+        public long getLastLogTerm() {
+            return lastLogTerm;
+        }
+
+        public void setLastLogTerm(long lastLogTerm) {
+            this.lastLogTerm = lastLogTerm;
+        }
+    }
+
+    public static class VoteResponse {
+        private long term;
+        private boolean voteGranted;
+
+        public VoteResponse() {
+        }
+
+        public VoteResponse(long term, boolean voteGranted) {
+            this.term = term;
+            this.voteGranted = voteGranted;
+        }
+
+        public long getTerm() {
+            return term;
+        }
+
+        public void setTerm(long term) {
+            this.term = term;
+        }
+
+        public boolean isVoteGranted() {
+            return voteGranted;
+        }
+
+        public void setVoteGranted(boolean voteGranted) {
+            this.voteGranted = voteGranted;
+        }
+    }
+
+    public static class AppendRequest {
+        private long term;
+        private String leaderId;
+        private long prevLogIndex;
+        private long prevLogTerm;
+        private List<LogEntry> entries;
+        private long leaderCommit;
+
+        public long getTerm() {
+            return term;
+        }
+
+        public void setTerm(long term) {
+            this.term = term;
+        }
+
+        public String getLeaderId() {
+            return leaderId;
+        }
+
+        public void setLeaderId(String leaderId) {
+            this.leaderId = leaderId;
+        }
+
+        public long getPrevLogIndex() {
+            return prevLogIndex;
+        }
+
+        public void setPrevLogIndex(long prevLogIndex) {
+            this.prevLogIndex = prevLogIndex;
+        }
+
+        public long getPrevLogTerm() {
+            return prevLogTerm;
+        }
+
+        public void setPrevLogTerm(long prevLogTerm) {
+            this.prevLogTerm = prevLogTerm;
+        }
+
+        public List<LogEntry> getEntries() {
+            return entries;
+        }
+
+        public void setEntries(List<LogEntry> entries) {
+            this.entries = entries;
+        }
+
+        public long getLeaderCommit() {
+            return leaderCommit;
+        }
+
+        public void setLeaderCommit(long leaderCommit) {
+            this.leaderCommit = leaderCommit;
+        }
+    }
+
+    /**
+     * AppendEntries和InstallSnapshot共用的响应
+     * lastIndex是follower最后一条日志的序号，失败时leader据此快速回退nextIndex
+     */
+    public static class AppendResponse {
+        private long term;
+        private boolean success;
+        private long lastIndex;
+
+        public AppendResponse() {
+        }
+
+        public AppendResponse(long term, boolean success, long lastIndex) {
+            this.term = term;
+            this.success = success;
+            this.lastIndex = lastIndex;
+        }
+
+        public long getTerm() {
+            return term;
+        }
+
+        public void setTerm(long term) {
+            this.term = term;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public void setSuccess(boolean success) {
+            this.success = success;
+        }
+
+        public long getLastIndex() {
+            return lastIndex;
+        }
+
+        public void setLastIndex(long lastIndex) {
+            this.lastIndex = lastIndex;
+        }
+    }
+
+    /**
+     * 状态机很小，快照一次整体发送
+     */
+    public static class SnapshotRequest {
+        private long term;
+        private String leaderId;
+        private long lastIncludedIndex;
+        private long lastIncludedTerm;
+        private List<LeafAlloc> state;
+
+        public long getTerm() {
+            return term;
+        }
+
+        public void setTerm(long term) {
+            this.term = term;
+        }
+
+        public String getLeaderId() {
+            return leaderId;
+        }
+
+        public void setLeaderId(String leaderId) {
+            this.leaderId = leaderId;
+        }
+
+        public long getLastIncludedIndex() {
+            return lastIncludedIndex;
+        }
+
+        public void setLastIncludedIndex(long lastIncludedIndex) {
+            this.lastIncludedIndex = lastIncludedIndex;
+        }
+
+        public long getLastIncludedTerm() {
+            return lastIncludedTerm;
+        }
+
+        public void setLastIncludedTerm(long lastIncludedTerm) {
+            this.lastIncludedTerm = lastIncludedTerm;
+        }
+
+        public List<LeafAlloc> getState() {
+            return state;
+        }
+
+        public void setState(List<LeafAlloc> state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * follower转发给leader的操作，type同LogEntry
+     */
+    public static class ProposeRequest {
+        private int type;
+        private String tag;
+        private long value;
+        private int step;
+
+        public ProposeRequest() {
+        }
+
+        public ProposeRequest(int type, String tag, long value, int step) {
+            this.type = type;
+            this.tag = tag;
+            this.value = value;
+            this.step = step;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public void setType(int type) {
+            this.type = type;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public void setTag(String tag) {
+            this.tag = tag;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public void setValue(long value) {
+            this.value = value;
+        }
+
+        public int getStep() {
+            return step;
+        }
+
+        public void setStep(int step) {
+            this.step = step;
+        }
+    }
+
+    /**
+     * success为false且leaderId不为空时，表示请求的节点不是leader，需要重定向
+     * leafAlloc为空表示操作已提交但是无效，例如业务key不存在
+     */
+    public static class ProposeResponse {
+        private boolean success;
+        private String leaderId;
+        private LeafAlloc leafAlloc;
+        private String message;
+
+        public static ProposeResponse redirect(String leaderId) {
+            ProposeResponse response = new ProposeResponse();
+            response.setLeaderId(leaderId);
+            response.setMessage("not leader");
+            return response;
+        }
+
+        public static ProposeResponse fail(String message) {
+            ProposeResponse response = new ProposeResponse();
+            response.setMessage(message);
+            return response;
+        }
+
+        public static ProposeResponse ok(LeafAlloc leafAlloc) {
+            ProposeResponse response = new ProposeResponse();
+            response.setSuccess(true);
+            response.setLeafAlloc(leafAlloc);
+            return response;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public void setSuccess(boolean success) {
+            this.success = success;
+        }
+
+        public String getLeaderId() {
+            return leaderId;
+        }
+
+        public void setLeaderId(String leaderId) {
+            this.leaderId = leaderId;
+        }
+
+        public LeafAlloc getLeafAlloc() {
+            return leafAlloc;
+        }
+
+        public void setLeafAlloc(LeafAlloc leafAlloc) {
+            this.leafAlloc = leafAlloc;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,843 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.SnapshotRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 精简的raft节点，复制 biz_tag -> max_id/step 状态机
+ * + 选主：随机化的选举超时，日志不比自己旧的候选人才能得到投票
+ * + 复制：leader对每个follower最多一个在途的AppendEntries，响应后立即发送积压的日志，天然地批量复制
+ * + 提交：当前任期的日志被多数派复制后提交，新leader上任先写一条空日志来提交之前任期的日志
+ * + 快照：已应用的日志超过阈值后对状态机做快照并截断日志，落后太多的follower直接安装快照
+ * + leader在一个选举超时内联系不上多数派时主动退位，被隔离的旧leader不会继续接受请求
+ * 所有状态由lock保护，发往其他节点的请求在rpcExecutor中执行，不持有锁
+ */
+public class RaftNode {
+    private static final Logger logger = LoggerFactory.getLogger(RaftNode.class);
+
+    public enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+
+    /**
+     * 默认的选举超时，实际超时在 [t, 2t) 之间随机
+     */
+    public static final long DEFAULT_ELECTION_TIMEOUT_MS = 300L;
+    public static final long DEFAULT_HEARTBEAT_MS = 50L;
+    /**
+     * 提交等待的最长时间
+     */
+    public static final long DEFAULT_PROPOSE_TIMEOUT_MS = 3000L;
+    public static final int DEFAULT_SNAPSHOT_THRESHOLD = 10000;
+    private static final long TICK_MS = 10L;
+    /**
+     * 单个AppendEntries最多携带的日志数
+     */
+    private static final int MAX_BATCH = 256;
+    /**
+     * 转发给leader失败后的重试间隔
+     */
+    private static final long RETRY_INTERVAL_MS = 20L;
+
+    private final String id;
+    private final List<String> peers;
+    private final int clusterSize;
+    private final RaftTransport transport;
+    private final RaftStorage storage;
+    private final long electionTimeoutMs;
+    private final long heartbeatMs;
+    private final int snapshotThreshold;
+    private final Random random = new Random();
+    private final Object lock = new Object();
+
+    private final AllocStateMachine stateMachine = new AllocStateMachine();
+    private long currentTerm;
+    private String votedFor;
+    private Role role = Role.FOLLOWER;
+    private String leaderId;
+    /**
+     * 快照之后的日志，log.get(i)的序号是 snapshotIndex + 1 + i
+     */
+    private List<LogEntry> log = new ArrayList<LogEntry>();
+    private long snapshotIndex;
+    private long snapshotTerm;
+    private List<LeafAlloc> snapshotState = new ArrayList<LeafAlloc>();
+    private long commitIndex;
+    private long lastApplied;
+    /**
+     * follower最近一次从leader得知的提交序号，用于判断是否追上了leader
+     */
+    private long leaderCommit;
+    private long electionDeadline;
+    private long nextHeartbeat;
+    private int votes;
+    /**
+     * leader上任写入的空日志序号，提交后leader的状态机才是最新的
+     */
+    private long leaderStartIndex;
+    private final Map<String, Long> nextIndex = new HashMap<String, Long>();
+    private final Map<String, Long> matchIndex = new HashMap<String, Long>();
+    private final Map<String, Long> lastAck = new HashMap<String, Long>();
+    private final Set<String> inflight = new HashSet<String>();
+    private final Map<Long, Pending> pending = new HashMap<Long, Pending>();
+
+    private ScheduledExecutorService timer;
+    private ExecutorService rpcExecutor;
+    private volatile boolean running;
+
+    public RaftNode(String id, List<String> members, RaftTransport transport, RaftStorage storage) {
+        this(id, members, transport, storage, DEFAULT_ELECTION_TIMEOUT_MS, DEFAULT_HEARTBEAT_MS, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * @param id                本节点id
+     * @param members           集群全部节点id，包含本节点
+     * @param transport
+     * @param storage
+     * @param electionTimeoutMs 选举超时
+     * @param heartbeatMs       心跳间隔，需要明显小于选举超时
+     * @param snapshotThreshold 已应用的日志超过该数量后做快照
+     */
+    public RaftNode(String id, List<String> members, RaftTransport transport, RaftStorage storage,
+                    long electionTimeoutMs, long heartbeatMs, int snapshotThreshold) {
+        if (!members.contains(id)) {
+            throw new IllegalArgumentException("members " + members + " must contain " + id);
+        }
+        if (heartbeatMs <= 0 || heartbeatMs * 2 > electionTimeoutMs) {
+            throw new IllegalArgumentException("heartbeat must be positive and less than half of election timeout");
+        }
+        this.id = id;
+        this.peers = new ArrayList<String>(new HashSet<String>(members));
+        this.peers.remove(id);
+        this.clusterSize = peers.size() + 1;
+        this.transport = transport;
+        this.storage = storage;
+        this.electionTimeoutMs = electionTimeoutMs;
+        this.heartbeatMs = heartbeatMs;
+        this.snapshotThreshold = snapshotThreshold;
+    }
+
+    public void start() throws IOException {
+        RaftStorage.PersistentState state = storage.load();
+        synchronized (lock) {
+            currentTerm = state.term;
+            votedFor = state.votedFor;
+            snapshotIndex = state.snapshotIndex;
+            snapshotTerm = state.snapshotTerm;
+            snapshotState = state.snapshot;
+            log = state.entries;
+            stateMachine.restore(snapshotState);
+            commitIndex = snapshotIndex;
+            lastApplied = snapshotIndex;
+            role = Role.FOLLOWER;
+            resetElectionDeadline();
+        }
+        rpcExecutor = new ThreadPoolExecutor(Math.max(1, peers.size()), Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new RaftThreadFactory("Thread-Raft-Rpc-" + id + "-"));
+        timer = Executors.newSingleThreadScheduledExecutor(new RaftThreadFactory("Thread-Raft-Timer-" + id + "-"));
+        running = true;
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Exception e) {
+                    logger.error("raft node {} tick exception", id, e);
+                }
+            }
+        }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        logger.info("raft node {} started, term {}, snapshot {}, log {}", id, currentTerm, snapshotIndex, log.size());
+    }
+
+    public void shutdown() {
+        running = false;
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (rpcExecutor != null) {
+            rpcExecutor.shutdownNow();
+        }
+        synchronized (lock) {
+            role = Role.FOLLOWER;
+            leaderId = null;
+            failPending("node shutdown");
+        }
+    }
+
+    /**
+     * 等待集群选出leader并且本节点的状态机追上leader
+     * @param timeoutMs
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean awaitReady(long timeoutMs) throws InterruptedException {
+        long deadline = now() + timeoutMs;
+        while (now() < deadline) {
+            synchronized (lock) {
+                if (role == Role.LEADER ? lastApplied >= leaderStartIndex
+                        : leaderId != null && lastApplied >= leaderCommit) {
+                    return true;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(TICK_MS);
+        }
+        return false;
+    }
+
+    /**
+     * 提交一个操作，本节点不是leader时转发给leader
+     * @param request
+     * @param timeoutMs
+     * @return 操作执行后业务key的状态，操作无效时返回null
+     */
+    public LeafAlloc submit(ProposeRequest request, long timeoutMs) {
+        long deadline = now() + timeoutMs;
+        Exception lastException = null;
+        while (running && now() < deadline) {
+            String leader = getLeaderId();
+            try {
+                if (id.equals(leader)) {
+                    return propose(request);
+                }
+                if (leader != null) {
+                    ProposeResponse response = transport.propose(leader, request);
+                    if (response.isSuccess()) {
+                        return response.getLeafAlloc();
+                    }
+                    lastException = new IllegalStateException("propose to " + leader + " failed: " + response.getMessage());
+                }
+            } catch (Exception e) {
+                lastException = e;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("submit interrupted", e);
+            }
+        }
+        throw new IllegalStateException("submit " + request.getTag() + " to raft leader failed", lastException);
+    }
+
+    /**
+     * leader追加日志并等待提交
+     * @param request
+     * @return
+     * @throws NotLeaderException 本节点不是leader
+     */
+    public LeafAlloc propose(ProposeRequest request) {
+        Pending waiter;
+        long index;
+        synchronized (lock) {
+            if (role != Role.LEADER) {
+                throw new NotLeaderException(leaderId);
+            }
+            LogEntry entry = new LogEntry(request.getType(), request.getTag(), request.getValue(), request.getStep());
+            appendLocal(entry);
+            index = entry.getIndex();
+            waiter = new Pending(entry.getTerm());
+            pending.put(index, waiter);
+            broadcast();
+        }
+        try {
+            if (!waiter.latch.await(DEFAULT_PROPOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                synchronized (lock) {
+                    pending.remove(index);
+                }
+                throw new IllegalStateException("propose " + request.getTag() + " timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("propose interrupted", e);
+        }
+        if (waiter.error != null) {
+            throw new IllegalStateException("propose " + request.getTag() + " failed: " + waiter.error);
+        }
+        return waiter.result;
+    }
+
+    public ProposeResponse handlePropose(ProposeRequest request) {
+        try {
+            return ProposeResponse.ok(propose(request));
+        } catch (NotLeaderException e) {
+            return ProposeResponse.redirect(e.getLeaderId());
+        } catch (Exception e) {
+            return ProposeResponse.fail(e.getMessage());
+        }
+    }
+
+    public VoteResponse handleVote(VoteRequest request) {
+        synchronized (lock) {
+            if (request.getTerm() > currentTerm) {
+                becomeFollower(request.getTerm());
+                leaderId = null;
+            }
+            boolean granted = request.getTerm() == currentTerm
+                    && (votedFor == null || votedFor.equals(request.getCandidateId()))
+                    && (request.getLastLogTerm() > lastTerm()
+                    || (request.getLastLogTerm() == lastTerm() && request.getLastLogIndex() >= lastIndex()));
+            if (granted) {
+                votedFor = request.getCandidateId();
+                persistTerm();
+                resetElectionDeadline();
+            }
+            return new VoteResponse(currentTerm, granted);
+        }
+    }
+
+    public AppendResponse handleAppend(AppendRequest request) {
+        synchronized (lock) {
+            if (request.getTerm() < currentTerm) {
+                return new AppendResponse(currentTerm, false, lastIndex());
+            }
+            if (request.getTerm() > currentTerm || role != Role.FOLLOWER) {
+                becomeFollower(request.getTerm());
+            }
+            leaderId = request.getLeaderId();
+            resetElectionDeadline();
+            long prevIndex = request.getPrevLogIndex();
+            if (prevIndex > lastIndex()) {
+                return new AppendResponse(currentTerm, false, lastIndex());
+            }
+            if (prevIndex >= snapshotIndex && termAt(prevIndex) != request.getPrevLogTerm()) {
+                return new AppendResponse(currentTerm, false, prevIndex - 1);
+            }
+            List<LogEntry> entries = request.getEntries() == null ? Collections.<LogEntry>emptyList() : request.getEntries();
+            List<LogEntry> appended = new ArrayList<LogEntry>();
+            boolean truncated = false;
+            for (LogEntry entry : entries) {
+                if (entry.getIndex() <= snapshotIndex) {
+                    continue;
+                }
+                if (entry.getIndex() <= lastIndex()) {
+                    if (termAt(entry.getIndex()) == entry.getTerm()) {
+                        continue;
+                    }
+                    /** 与leader冲突的日志一定没有提交，截断 **/
+                    log.subList((int) (entry.getIndex() - snapshotIndex - 1), log.size()).clear();
+                    truncated = true;
+                }
+                log.add(entry);
+                appended.add(entry);
+            }
+            try {
+                if (truncated) {
+                    storage.rewrite(log);
+                } else if (!appended.isEmpty()) {
+                    storage.append(appended);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("persist raft log failed", e);
+            }
+            leaderCommit = request.getLeaderCommit();
+            long lastNew = prevIndex + entries.size();
+            if (request.getLeaderCommit() > commitIndex) {
+                commitIndex = Math.max(commitIndex, Math.min(request.getLeaderCommit(), lastNew));
+                apply();
+            }
+            return new AppendResponse(currentTerm, true, lastIndex());
+        }
+    }
+
+    public AppendResponse handleSnapshot(SnapshotRequest request) {
+        synchronized (lock) {
+            if (request.getTerm() < currentTerm) {
+                return new AppendResponse(currentTerm, false, lastIndex());
+            }
+            if (request.getTerm() > currentTerm || role != Role.FOLLOWER) {
+                becomeFollower(request.getTerm());
+            }
+            leaderId = request.getLeaderId();
+            resetElectionDeadline();
+            long index = request.getLastIncludedIndex();
+            leaderCommit = Math.max(leaderCommit, index);
+            if (index <= commitIndex) {
+                return new AppendResponse(currentTerm, true, lastIndex());
+            }
+            List<LogEntry> remaining = new ArrayList<LogEntry>();
+            if (index < lastIndex() && termAt(index) == request.getLastIncludedTerm()) {
+                remaining.addAll(log.subList((int) (index - snapshotIndex), log.size()));
+            }
+            log = remaining;
+            snapshotIndex = index;
+            snapshotTerm = request.getLastIncludedTerm();
+            snapshotState = new ArrayList<LeafAlloc>(request.getState());
+            stateMachine.restore(snapshotState);
+            commitIndex = index;
+            lastApplied = index;
+            try {
+                storage.saveSnapshot(snapshotIndex, snapshotTerm, snapshotState, log);
+            } catch (IOException e) {
+                throw new IllegalStateException("persist raft snapshot failed", e);
+            }
+            logger.info("raft node {} installed snapshot {} from {}", id, index, leaderId);
+            return new AppendResponse(currentTerm, true, lastIndex());
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getLeaderId() {
+        synchronized (lock) {
+            return leaderId;
+        }
+    }
+
+    public boolean isLeader() {
+        synchronized (lock) {
+            return role == Role.LEADER;
+        }
+    }
+
+    public Role getRole() {
+        synchronized (lock) {
+            return role;
+        }
+    }
+
+    public long getCurrentTerm() {
+        synchronized (lock) {
+            return currentTerm;
+        }
+    }
+
+    public long getCommitIndex() {
+        synchronized (lock) {
+            return commitIndex;
+        }
+    }
+
+    public long getSnapshotIndex() {
+        synchronized (lock) {
+            return snapshotIndex;
+        }
+    }
+
+    /**
+     * 本节点已应用的状态，follower上可能稍微落后于leader
+     * @return
+     */
+    public List<LeafAlloc> getLeafAllocs() {
+        synchronized (lock) {
+            return stateMachine.snapshot();
+        }
+    }
+
+    public List<String> getTags() {
+        synchronized (lock) {
+            return stateMachine.tags();
+        }
+    }
+
+    private void tick() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            long now = now();
+            if (role == Role.LEADER) {
+                if (!hasQuorum(now)) {
+                    logger.warn("raft leader {} lost quorum in term {}, step down", id, currentTerm);
+                    becomeFollower(currentTerm);
+                    leaderId = null;
+                    return;
+                }
+                if (now >= nextHeartbeat) {
+                    broadcast();
+                }
+            } else if (now >= electionDeadline) {
+                startElection();
+            }
+        }
+    }
+
+    private boolean hasQuorum(long now) {
+        int reachable = 1;
+        for (String peer : peers) {
+            if (now - lastAck.get(peer) < electionTimeoutMs) {
+                reachable++;
+            }
+        }
+        return reachable * 2 > clusterSize;
+    }
+
+    private void startElection() {
+        currentTerm++;
+        votedFor = id;
+        persistTerm();
+        role = Role.CANDIDATE;
+        leaderId = null;
+        votes = 1;
+        resetElectionDeadline();
+        logger.info("raft node {} start election for term {}", id, currentTerm);
+        if (votes * 2 > clusterSize) {
+            becomeLeader();
+            return;
+        }
+        final long term = currentTerm;
+        final VoteRequest request = new VoteRequest(term, id, lastIndex(), lastTerm());
+        for (final String peer : peers) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onVoteResponse(term, transport.requestVote(peer, request));
+                    } catch (Exception e) {
+                        logger.debug("request vote from {} exception", peer, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onVoteResponse(long term, VoteResponse response) {
+        synchronized (lock) {
+            if (response.getTerm() > currentTerm) {
+                becomeFollower(response.getTerm());
+                return;
+            }
+            if (role != Role.CANDIDATE || currentTerm != term || !response.isVoteGranted()) {
+                return;
+            }
+            votes++;
+            if (votes * 2 > clusterSize) {
+                becomeLeader();
+            }
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = id;
+        long now = now();
+        for (String peer : peers) {
+            nextIndex.put(peer, lastIndex() + 1);
+            matchIndex.put(peer, 0L);
+            lastAck.put(peer, now);
+        }
+        inflight.clear();
+        LogEntry noop = new LogEntry(LogEntry.TYPE_NOOP, null, 0, 0);
+        appendLocal(noop);
+        leaderStartIndex = noop.getIndex();
+        logger.info("raft node {} become leader of term {}", id, currentTerm);
+        broadcast();
+    }
+
+    private void becomeFollower(long term) {
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = null;
+            persistTerm();
+        }
+        if (role != Role.FOLLOWER) {
+            role = Role.FOLLOWER;
+            failPending("leadership lost");
+            resetElectionDeadline();
+        }
+    }
+
+    /**
+     * 向全部follower复制日志，同时作为心跳
+     */
+    private void broadcast() {
+        nextHeartbeat = now() + heartbeatMs;
+        if (peers.isEmpty()) {
+            advanceCommit();
+            return;
+        }
+        for (String peer : peers) {
+            replicate(peer);
+        }
+    }
+
+    private void replicate(final String peer) {
+        if (inflight.contains(peer)) {
+            return;
+        }
+        final long term = currentTerm;
+        long next = nextIndex.get(peer);
+        if (next <= snapshotIndex) {
+            final SnapshotRequest request = new SnapshotRequest();
+            request.setTerm(term);
+            request.setLeaderId(id);
+            request.setLastIncludedIndex(snapshotIndex);
+            request.setLastIncludedTerm(snapshotTerm);
+            request.setState(new ArrayList<LeafAlloc>(snapshotState));
+            inflight.add(peer);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    AppendResponse response = null;
+                    try {
+                        response = transport.installSnapshot(peer, request);
+                    } catch (Exception e) {
+                        logger.debug("install snapshot to {} exception", peer, e);
+                    }
+                    onReplicateResponse(peer, term, request.getLastIncludedIndex(), response);
+                }
+            });
+            return;
+        }
+        final AppendRequest request = new AppendRequest();
+        request.setTerm(term);
+        request.setLeaderId(id);
+        request.setPrevLogIndex(next - 1);
+        request.setPrevLogTerm(termAt(next - 1));
+        long end = Math.min(lastIndex(), next + MAX_BATCH - 1);
+        request.setEntries(new ArrayList<LogEntry>(
+                log.subList((int) (next - snapshotIndex - 1), (int) (end - snapshotIndex))));
+        request.setLeaderCommit(commitIndex);
+        inflight.add(peer);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                AppendResponse response = null;
+                try {
+                    response = transport.appendEntries(peer, request);
+                } catch (Exception e) {
+                    logger.debug("append entries to {} exception", peer, e);
+                }
+                onReplicateResponse(peer, term, request.getPrevLogIndex() + request.getEntries().size(), response);
+            }
+        });
+    }
+
+    /**
+     * @param peer
+     * @param term     请求时的任期
+     * @param sentLast 请求携带的最后一条日志序号
+     * @param response 请求失败时为null
+     */
+    private void onReplicateResponse(String peer, long term, long sentLast, AppendResponse response) {
+        synchronized (lock) {
+            inflight.remove(peer);
+            if (response == null) {
+                return;
+            }
+            if (response.getTerm() > currentTerm) {
+                becomeFollower(response.getTerm());
+                leaderId = null;
+                return;
+            }
+            if (role != Role.LEADER || currentTerm != term) {
+                return;
+            }
+            lastAck.put(peer, now());
+            if (response.isSuccess()) {
+                if (sentLast > matchIndex.get(peer)) {
+                    matchIndex.put(peer, sentLast);
+                }
+                nextIndex.put(peer, matchIndex.get(peer) + 1);
+                advanceCommit();
+            } else {
+                nextIndex.put(peer, Math.max(1L, Math.min(nextIndex.get(peer) - 1, response.getLastIndex() + 1)));
+            }
+            if (nextIndex.get(peer) <= lastIndex() || !response.isSuccess()) {
+                replicate(peer);
+            }
+        }
+    }
+
+    private void advanceCommit() {
+        long previous = commitIndex;
+        for (long n = lastIndex(); n > commitIndex; n--) {
+            if (termAt(n) != currentTerm) {
+                break;
+            }
+            int replicated = 1;
+            for (String peer : peers) {
+                if (matchIndex.get(peer) >= n) {
+                    replicated++;
+                }
+            }
+            if (replicated * 2 > clusterSize) {
+                commitIndex = n;
+                break;
+            }
+        }
+        if (commitIndex > previous) {
+            apply();
+            /** 尽快把新的提交序号通知follower **/
+            for (String peer : peers) {
+                replicate(peer);
+            }
+        }
+    }
+
+    private void apply() {
+        while (lastApplied < commitIndex) {
+            lastApplied++;
+            LogEntry entry = entryAt(lastApplied);
+            LeafAlloc result = stateMachine.apply(entry);
+            Pending waiter = pending.remove(lastApplied);
+            if (waiter != null) {
+                if (waiter.term == entry.getTerm()) {
+                    waiter.complete(result, null);
+                } else {
+                    waiter.complete(null, "entry overwritten by another leader");
+                }
+            }
+        }
+        if (lastApplied - snapshotIndex >= snapshotThreshold) {
+            takeSnapshot();
+        }
+    }
+
+    private void takeSnapshot() {
+        long term = termAt(lastApplied);
+        log = new ArrayList<LogEntry>(log.subList((int) (lastApplied - snapshotIndex), log.size()));
+        snapshotIndex = lastApplied;
+        snapshotTerm = term;
+        snapshotState = stateMachine.snapshot();
+        try {
+            storage.saveSnapshot(snapshotIndex, snapshotTerm, snapshotState, log);
+        } catch (IOException e) {
+            throw new IllegalStateException("persist raft snapshot failed", e);
+        }
+        logger.info("raft node {} take snapshot at {}", id, snapshotIndex);
+    }
+
+    private void appendLocal(LogEntry entry) {
+        entry.setTerm(currentTerm);
+        entry.setIndex(lastIndex() + 1);
+        log.add(entry);
+        try {
+            storage.append(Collections.singletonList(entry));
+        } catch (IOException e) {
+            log.remove(log.size() - 1);
+            throw new IllegalStateException("persist raft log failed", e);
+        }
+    }
+
+    private void failPending(String error) {
+        for (Pending waiter : pending.values()) {
+            waiter.complete(null, error);
+        }
+        pending.clear();
+    }
+
+    private void persistTerm() {
+        try {
+            storage.saveTerm(currentTerm, votedFor);
+        } catch (IOException e) {
+            throw new IllegalStateException("persist raft term failed", e);
+        }
+    }
+
+    private void resetElectionDeadline() {
+        electionDeadline = now() + electionTimeoutMs + (long) (random.nextDouble() * electionTimeoutMs);
+    }
+
+    private void execute(Runnable task) {
+        try {
+            rpcExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("raft node {} rpc rejected", id, e);
+        }
+    }
+
+    private long lastIndex() {
+        return snapshotIndex + log.size();
+    }
+
+    private long lastTerm() {
+        return log.isEmpty() ? snapshotTerm : log.get(log.size() - 1).getTerm();
+    }
+
+    private long termAt(long index) {
+        if (index == snapshotIndex) {
+            return snapshotTerm;
+        }
+        if (index < snapshotIndex || index > lastIndex()) {
+            return -1;
+        }
+        return entryAt(index).getTerm();
+    }
+
+    private LogEntry entryAt(long index) {
+        return log.get((int) (index - snapshotIndex - 1));
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * 等待日志提交的请求
+     */
+    private static class Pending {
+        private final long term;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile LeafAlloc result;
+        private volatile String error;
+
+        Pending(long term) {
+            this.term = term;
+        }
+
+        void complete(LeafAlloc result, String error) {
+            this.result = result;
+            this.error = error;
+            latch.countDown();
+        }
+    }
+
+    public static class NotLeaderException extends IllegalStateException {
+        private final String leaderId;
+
+        public NotLeaderException(String leaderId) {
+            super("not leader, current leader is " + leaderId);
+            this.leaderId = leaderId;
+        }
+
+        public String getLeaderId() {
+            return leaderId;
+        }
+    }
+
+    private static class RaftThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+        private final String prefix;
+
+        RaftThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
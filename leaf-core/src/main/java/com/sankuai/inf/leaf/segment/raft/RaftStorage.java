@@ -0,0 +1,54 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * raft的持久化状态：任期、投票、快照和日志
+ * 每个方法返回前数据必须已经持久化，否则节点重启后可能重复投票或者丢失已提交的日志
+ */
+public interface RaftStorage {
+    /**
+     * 读取持久化的状态，首次启动返回空的状态
+     * @return
+     * @throws IOException
+     */
+    PersistentState load() throws IOException;
+
+    void saveTerm(long term, String votedFor) throws IOException;
+
+    /**
+     * 在日志末尾追加
+     * @param entries
+     * @throws IOException
+     */
+    void append(List<LogEntry> entries) throws IOException;
+
+    /**
+     * 用entries整体替换快照之后的日志，用于截断冲突的日志
+     * @param entries
+     * @throws IOException
+     */
+    void rewrite(List<LogEntry> entries) throws IOException;
+
+    /**
+     * 保存快照，并用entries替换快照之后的日志
+     * @param index 快照包含的最后一条日志序号
+     * @param term  快照包含的最后一条日志任期
+     * @param state 状态机快照
+     * @param entries 快照之后保留的日志
+     * @throws IOException
+     */
+    void saveSnapshot(long index, long term, List<LeafAlloc> state, List<LogEntry> entries) throws IOException;
+
+    class PersistentState {
+        public long term;
+        public String votedFor;
+        public long snapshotIndex;
+        public long snapshotTerm;
+        public List<LeafAlloc> snapshot;
+        public List<LogEntry> entries;
+    }
+}
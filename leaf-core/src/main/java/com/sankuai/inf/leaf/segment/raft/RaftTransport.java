@@ -0,0 +1,23 @@
+package com.sankuai.inf.leaf.segment.raft;
+
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.SnapshotRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteResponse;
+
+/**
+ * raft节点之间的通信
+ * 调用是同步的，由RaftNode在自己的线程池里发起，实现需要设置合理的超时，失败时抛出异常
+ */
+public interface RaftTransport {
+    VoteResponse requestVote(String peer, VoteRequest request) throws Exception;
+
+    AppendResponse appendEntries(String peer, AppendRequest request) throws Exception;
+
+    AppendResponse installSnapshot(String peer, SnapshotRequest request) throws Exception;
+
+    ProposeResponse propose(String peer, ProposeRequest request) throws Exception;
+}
@@ -0,0 +1,236 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.model.Segment;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 虚拟时间的号段发号模拟器，用于评估步长调整和后备号段更新时机
+ * + 按流量曲线在虚拟时间上生成发号请求，交给真实的 {@link SegmentIDGenImpl} 处理
+ * + 时钟和后备号段更新线程池替换为虚拟实现，存储耗时表现为更新任务的延迟执行，
+ *   步长按15分钟、30分钟的间隔调整也发生在虚拟时间上，几个小时的流量几秒钟就能跑完
+ * + 当前号段耗尽、后备号段还在更新时，请求等待到更新完成，记为一次等待
+ * + 可以在指定时间重启发号器，统计重启时丢弃的号码
+ * 单线程执行，相同的参数得到相同的结果；耗时与请求数成正比，与模拟的时长无关
+ */
+public class SegmentSimulator {
+    private final CountingDao dao;
+    private final String key;
+    private long refillLatencyMillis = 10;
+    private int nearExhaustionPercent = 10;
+    private final List<Long> restarts = new ArrayList<Long>();
+
+    private VirtualClock clock;
+    private VirtualExecutor executor;
+    private SegmentIDGenImpl idGen;
+
+    /**
+     * @param dao 存储，需要已经有key的记录
+     * @param key 业务key
+     */
+    public SegmentSimulator(IDAllocDao dao, String key) {
+        this.dao = new CountingDao(dao);
+        this.key = key;
+    }
+
+    /**
+     * 每次存储调用的耗时
+     * @param millis
+     */
+    public void setRefillLatencyMillis(long millis) {
+        this.refillLatencyMillis = millis;
+    }
+
+    /**
+     * 后备号段就绪时，当前号段剩余不足步长的这个百分比记为接近耗尽
+     * @param percent
+     */
+    public void setNearExhaustionPercent(int percent) {
+        this.nearExhaustionPercent = percent;
+    }
+
+    /**
+     * 在模拟开始后的这个时间重启发号器
+     * @param millis
+     */
+    public void addRestart(long millis) {
+        restarts.add(millis);
+        Collections.sort(restarts);
+    }
+
+    /**
+     * 执行模拟
+     * @param curve          流量曲线
+     * @param durationMillis 模拟的时长
+     * @return
+     */
+    public SimulationReport run(TrafficCurve curve, long durationMillis) {
+        long wallStart = System.currentTimeMillis();
+        SimulationReport report = new SimulationReport();
+        clock = new VirtualClock(wallStart);
+        long start = clock.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        dao.roundTrips.set(0);
+        startGenerator();
+        int restartIndex = 0;
+        int lastStep = 0;
+        /** 下一个请求的到达时间 **/
+        long arrival = start;
+        while (arrival < end) {
+            /** 到达之前的重启 **/
+            while (restartIndex < restarts.size() && start + TimeUnit.MILLISECONDS.toNanos(restarts.get(restartIndex)) <= arrival) {
+                long at = start + TimeUnit.MILLISECONDS.toNanos(restarts.get(restartIndex++));
+                runRefills(at, report);
+                clock.advanceTo(at);
+                report.wastedIds += unusedIds();
+                report.restarts++;
+                startGenerator();
+            }
+            double rate = curve.rateAt(TimeUnit.NANOSECONDS.toMillis(arrival - start));
+            if (rate <= 0) {
+                /** 没有流量，一秒后再看 **/
+                runRefills(arrival, report);
+                arrival += TimeUnit.SECONDS.toNanos(1);
+                continue;
+            }
+            runRefills(arrival, report);
+            clock.advanceTo(arrival);
+            long now = clock.nanoTime();
+            SegmentBuffer buffer = idGen.getCache().get(key);
+            boolean init = buffer == null || !buffer.isInitOk();
+            if (!init && buffer.getCurrent().getIdle() <= 0 && !buffer.isNextReady()
+                    && buffer.getThreadRunning().get() && executor.getPending() > 0) {
+                /** 当前号段耗尽，等待后备号段更新完成 **/
+                long due = executor.nextDueNanos();
+                runRefills(due, report);
+                clock.advanceTo(due);
+                report.addWait(TimeUnit.NANOSECONDS.toMillis(due - now));
+            }
+            report.requests++;
+            if (idGen.get(key).getStatus() == Status.SUCCESS) {
+                report.issued++;
+            } else {
+                report.errors++;
+            }
+            if (init) {
+                /** 第一次发号同步加载号段 **/
+                clock.advanceTo(clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(refillLatencyMillis));
+                report.addWait(refillLatencyMillis);
+            }
+            buffer = idGen.getCache().get(key);
+            if (buffer != null && buffer.getStep() != lastStep) {
+                lastStep = buffer.getStep();
+                report.addStepChange(TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - start), lastStep);
+            }
+            /** 请求之间的间隔按当前速率计算，排队的请求在等待结束后立即处理 **/
+            arrival = Math.max(arrival + (long) (TimeUnit.SECONDS.toNanos(1) / rate), clock.nanoTime());
+        }
+        runRefills(end, report);
+        report.dbRoundTrips = dao.roundTrips.get();
+        report.simulatedMillis = durationMillis;
+        report.wallMillis = System.currentTimeMillis() - wallStart;
+        executor.shutdownNow();
+        return report;
+    }
+
+    /**
+     * 按虚拟时间执行到期的后备号段更新，更新完成时检查当前号段的剩余
+     * @param deadline
+     * @param report
+     */
+    private void runRefills(long deadline, SimulationReport report) {
+        while (executor.nextDueNanos() <= deadline) {
+            executor.runUntil(executor.nextDueNanos());
+            SegmentBuffer buffer = idGen.getCache().get(key);
+            if (buffer == null || !buffer.isNextReady()) {
+                continue;
+            }
+            Segment current = buffer.getCurrent();
+            if (current.getIdle() * 100 < (long) current.getStep() * nearExhaustionPercent) {
+                report.nearExhaustions++;
+            }
+        }
+    }
+
+    /**
+     * 内存中还没有发出的号码，重启后丢弃
+     * @return
+     */
+    private long unusedIds() {
+        SegmentBuffer buffer = idGen.getCache().get(key);
+        if (buffer == null || !buffer.isInitOk()) {
+            return 0;
+        }
+        long unused = Math.max(0, buffer.getCurrent().getIdle());
+        if (buffer.isNextReady()) {
+            unused += Math.max(0, buffer.getSegments()[buffer.nextPos()].getIdle());
+        }
+        return unused;
+    }
+
+    /**
+     * 启动一个新的发号器，之前的发号器中未执行的更新任务一起丢弃
+     */
+    private void startGenerator() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = new VirtualExecutor(clock);
+        executor.setDelayMillis(refillLatencyMillis);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.setClock(clock);
+        idGen.setUpdateExecutor(executor);
+        if (!idGen.init()) {
+            throw new IllegalStateException("segment generator init fail");
+        }
+    }
+
+    /**
+     * 统计更新号段的存储调用次数
+     */
+    private static class CountingDao implements IDAllocDao {
+        private final IDAllocDao dao;
+        private final AtomicLong roundTrips = new AtomicLong(0);
+
+        CountingDao(IDAllocDao dao) {
+            this.dao = dao;
+        }
+
+        @Override
+        public List<LeafAlloc> getAllLeafAllocs() {
+            return dao.getAllLeafAllocs();
+        }
+
+        @Override
+        public LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+            roundTrips.incrementAndGet();
+            return dao.updateMaxIdAndGetLeafAlloc(tag);
+        }
+
+        @Override
+        public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+            roundTrips.incrementAndGet();
+            return dao.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+        }
+
+        @Override
+        public List<String> getAllTags() {
+            return dao.getAllTags();
+        }
+
+        @Override
+        public List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+            return dao.getLeafAllocsAfter(cursor, prefix, limit);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次模拟的结果，时间都是虚拟时间
+ */
+public class SimulationReport {
+    /**
+     * 最多保留的步长变化记录
+     */
+    static final int MAX_STEP_CHANGES = 1000;
+
+    long simulatedMillis;
+    long wallMillis;
+    long requests;
+    long issued;
+    long errors;
+    long dbRoundTrips;
+    long restarts;
+    long wastedIds;
+    long waits;
+    long waitMillis;
+    long maxWaitMillis;
+    long nearExhaustions;
+    int maxStep;
+    int finalStep;
+    final List<long[]> stepChanges = new ArrayList<long[]>();
+
+    void addStepChange(long millis, int step) {
+        if (stepChanges.size() < MAX_STEP_CHANGES) {
+            stepChanges.add(new long[]{millis, step});
+        }
+        maxStep = Math.max(maxStep, step);
+        finalStep = step;
+    }
+
+    void addWait(long millis) {
+        waits++;
+        waitMillis += millis;
+        maxWaitMillis = Math.max(maxWaitMillis, millis);
+    }
+
+    public long getSimulatedMillis() {
+        return simulatedMillis;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getIssued() {
+        return issued;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 更新号段的存储调用次数，包括每次启动后的初始化
+     * @return
+     */
+    public long getDbRoundTrips() {
+        return dbRoundTrips;
+    }
+
+    public long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * 重启时内存中未发出的号码数，这些号码不会再发出
+     * @return
+     */
+    public long getWastedIds() {
+        return wastedIds;
+    }
+
+    /**
+     * 需要等待号段加载的请求数，包括启动后第一次发号的初始化和号段耗尽时等待后备号段
+     * @return
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 后备号段就绪时当前号段剩余不足阈值的次数
+     * @return
+     */
+    public long getNearExhaustions() {
+        return nearExhaustions;
+    }
+
+    public int getMaxStep() {
+        return maxStep;
+    }
+
+    public int getFinalStep() {
+        return finalStep;
+    }
+
+    /**
+     * 步长变化记录 [虚拟毫秒数, 步长]，最多保留 {@link #MAX_STEP_CHANGES} 条
+     * @return
+     */
+    public List<long[]> getStepChanges() {
+        return stepChanges;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SimulationReport{");
+        sb.append("simulatedMillis=").append(simulatedMillis);
+        sb.append(", wallMillis=").append(wallMillis);
+        sb.append(", requests=").append(requests);
+        sb.append(", issued=").append(issued);
+        sb.append(", errors=").append(errors);
+        sb.append(", dbRoundTrips=").append(dbRoundTrips);
+        sb.append(", restarts=").append(restarts);
+        sb.append(", wastedIds=").append(wastedIds);
+        sb.append(", waits=").append(waits);
+        sb.append(", waitMillis=").append(waitMillis);
+        sb.append(", maxWaitMillis=").append(maxWaitMillis);
+        sb.append(", nearExhaustions=").append(nearExhaustions);
+        sb.append(", maxStep=").append(maxStep);
+        sb.append(", finalStep=").append(finalStep);
+        sb.append(", stepChanges=").append(stepChanges.size());
+        sb.append('}');
+        return sb.toString();
+    }
+}
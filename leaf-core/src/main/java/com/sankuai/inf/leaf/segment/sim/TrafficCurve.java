@@ -0,0 +1,114 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 发号流量曲线，给出模拟开始后某一时刻的每秒发号数
+ */
+public abstract class TrafficCurve {
+
+    /**
+     * @param millis 模拟开始后的毫秒数
+     * @return 每秒发号数，小于等于0时没有流量
+     */
+    public abstract double rateAt(long millis);
+
+    /**
+     * 固定速率
+     * @param rate
+     * @return
+     */
+    public static TrafficCurve constant(final double rate) {
+        return new TrafficCurve() {
+            @Override
+            public double rateAt(long millis) {
+                return rate;
+            }
+        };
+    }
+
+    /**
+     * 按天周期变化的流量，低谷为min，高峰为max，峰值出现在周期的一半
+     * @param min
+     * @param max
+     * @param periodMillis 周期，一般为一天
+     * @return
+     */
+    public static TrafficCurve diurnal(final double min, final double max, final long periodMillis) {
+        return new TrafficCurve() {
+            @Override
+            public double rateAt(long millis) {
+                double phase = 2 * Math.PI * (millis % periodMillis) / periodMillis;
+                return min + (max - min) * (1 - Math.cos(phase)) / 2;
+            }
+        };
+    }
+
+    /**
+     * 分段线性插值，用于回放记录下来的流量，最后一个点之后保持最后的速率
+     * @param millis 各个点的时间，升序
+     * @param rates  各个点的每秒发号数
+     * @return
+     */
+    public static TrafficCurve piecewise(final long[] millis, final double[] rates) {
+        if (millis.length == 0 || millis.length != rates.length) {
+            throw new IllegalArgumentException("points must not be empty and have the same length");
+        }
+        for (int i = 1; i < millis.length; i++) {
+            if (millis[i] <= millis[i - 1]) {
+                throw new IllegalArgumentException("points must be in ascending order");
+            }
+        }
+        return new TrafficCurve() {
+            @Override
+            public double rateAt(long t) {
+                if (t <= millis[0]) {
+                    return rates[0];
+                }
+                for (int i = 1; i < millis.length; i++) {
+                    if (t < millis[i]) {
+                        double ratio = (double) (t - millis[i - 1]) / (millis[i] - millis[i - 1]);
+                        return rates[i - 1] + (rates[i] - rates[i - 1]) * ratio;
+                    }
+                }
+                return rates[rates.length - 1];
+            }
+        };
+    }
+
+    /**
+     * 读取记录的流量，每行 秒数,每秒发号数，忽略空行和#开头的注释
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    public static TrafficCurve fromCsv(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Long> times = new ArrayList<Long>();
+        List<Double> rates = new ArrayList<Double>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid traffic line " + line);
+            }
+            times.add((long) (Double.parseDouble(parts[0].trim()) * 1000));
+            rates.add(Double.parseDouble(parts[1].trim()));
+        }
+        long[] millis = new long[times.size()];
+        double[] values = new double[rates.size()];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = times.get(i);
+            values[i] = rates.get(i);
+        }
+        return piecewise(millis, values);
+    }
+}
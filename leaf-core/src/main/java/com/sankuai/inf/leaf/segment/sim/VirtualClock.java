@@ -0,0 +1,33 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import com.sankuai.inf.leaf.common.Clock;
+
+/**
+ * 虚拟时钟，只由模拟器推进，单位纳秒
+ */
+public class VirtualClock implements Clock {
+    private volatile long nanos;
+
+    public VirtualClock(long startMillis) {
+        this.nanos = startMillis * 1000000L;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return nanos / 1000000L;
+    }
+
+    public long nanoTime() {
+        return nanos;
+    }
+
+    /**
+     * 推进到指定时间，不会回退
+     * @param nanos
+     */
+    public void advanceTo(long nanos) {
+        if (nanos > this.nanos) {
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 虚拟时间的线程池，提交的任务在 提交时间 + 延迟 时由模拟器在当前线程执行
+ * 用于模拟后备号段更新的存储耗时，任务按到期时间和提交顺序执行，结果可以复现
+ */
+public class VirtualExecutor extends AbstractExecutorService {
+    private final VirtualClock clock;
+    private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    private volatile long delayNanos;
+    private long sequence;
+    private boolean shutdown;
+
+    public VirtualExecutor(VirtualClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * 任务提交后多久执行，即存储调用的耗时
+     * @param millis
+     */
+    public void setDelayMillis(long millis) {
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        tasks.add(new Task(clock.nanoTime() + delayNanos, sequence++, command));
+    }
+
+    /**
+     * 最早到期的任务时间
+     * @return 没有任务时返回 Long.MAX_VALUE
+     */
+    public synchronized long nextDueNanos() {
+        Task task = tasks.peek();
+        return task == null ? Long.MAX_VALUE : task.due;
+    }
+
+    /**
+     * 按顺序执行到期时间不晚于deadline的任务，执行前把时钟推进到任务的到期时间
+     * @param deadline
+     * @return 执行的任务数
+     */
+    public int runUntil(long deadline) {
+        int count = 0;
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.due > deadline) {
+                    return count;
+                }
+                tasks.poll();
+            }
+            clock.advanceTo(task.due);
+            task.command.run();
+            count++;
+        }
+    }
+
+    public synchronized int getPending() {
+        return tasks.size();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<Runnable>();
+        for (Task task : tasks) {
+            pending.add(task.command);
+        }
+        tasks.clear();
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private static class Task implements Comparable<Task> {
+        private final long due;
+        private final long sequence;
+        private final Runnable command;
+
+        Task(long due, long sequence, Runnable command) {
+            this.due = due;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (due != o.due) {
+                return due < o.due ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import com.google.common.base.Preconditions;
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 预生成号码的snowflake发号器
+ * + 后台线程借用未来的时间戳(最多超前maxBorrowMs)把号码预先填入长度为2的幂的环形数组
+ * + 发号时只需要compare-and-set推进读位置取走一个槽位，不做位运算，不读时钟，也不会在序号耗尽时自旋
+ * + 剩余号码少于填充阈值时唤醒后台线程填充
+ * + 环形数组填满后，后台线程每次醒来检查读位置开始的号码，时间戳即将落后当前时间maxLagMs的号码
+ *   推进读位置整段丢弃，再填入新的号码，避免空闲一段时间后发出时间过旧的号码，丢弃不占用发号线程
+ * + 环形数组为空时在调用线程上直接发号，这时需要读时钟
+ * 开启后被包装的 {@link SnowflakeIDGenImpl} 不能再直接发号，否则会把借用的时间戳当作时钟回退
+ */
+public class CachedSnowflakeIDGen implements IDGen {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedSnowflakeIDGen.class);
+    public static final int DEFAULT_RING_SIZE = 8192;
+    public static final int DEFAULT_FILL_THRESHOLD_PERCENT = 50;
+    public static final long DEFAULT_MAX_BORROW_MS = 50L;
+    public static final long DEFAULT_MAX_LAG_MS = 1000L;
+    /**
+     * 填满后后台线程的最长休眠时间，防止丢失唤醒
+     */
+    private static final long IDLE_PARK_MS = 10L;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_PARK_MS);
+    /**
+     * 借用窗口用尽时后台线程的等待时间
+     */
+    private static final long BORROW_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final SnowflakeIDGenImpl idGen;
+    private final long[] ring;
+    private final int mask;
+    private final int threshold;
+    private final long maxBorrowMs;
+    /**
+     * 后台线程丢弃号码的时间戳落后阈值，预留一次休眠的时间，保证取出的号码落后不超过maxLagMs
+     */
+    private final long discardLagMs;
+    /**
+     * 下一个被取走的位置，多个发号线程竞争
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    /**
+     * 下一个被填充的位置，只有后台线程写入
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    /**
+     * 后台线程是否正在填充，避免每次发号都去唤醒
+     */
+    private final AtomicBoolean filling = new AtomicBoolean(true);
+    private final AtomicLong discarded = new AtomicLong(0);
+    private volatile boolean running;
+    private Thread filler;
+
+    public CachedSnowflakeIDGen(SnowflakeIDGenImpl idGen) {
+        this(idGen, DEFAULT_RING_SIZE, DEFAULT_FILL_THRESHOLD_PERCENT, DEFAULT_MAX_BORROW_MS, DEFAULT_MAX_LAG_MS);
+    }
+
+    /**
+     * @param idGen                被包装的发号器，不能开启按业务key独立发号
+     * @param ringSize             环形数组长度，必须是2的幂
+     * @param fillThresholdPercent 剩余号码低于环形数组长度的这个百分比时开始填充
+     * @param maxBorrowMs          最多借用多少毫秒之后的时间戳
+     * @param maxLagMs             号码中的时间戳最多落后当前时间多少毫秒
+     */
+    public CachedSnowflakeIDGen(SnowflakeIDGenImpl idGen, int ringSize, int fillThresholdPercent, long maxBorrowMs, long maxLagMs) {
+        Preconditions.checkArgument(ringSize > 0 && (ringSize & (ringSize - 1)) == 0, "ringSize must be a power of 2");
+        Preconditions.checkArgument(fillThresholdPercent > 0 && fillThresholdPercent <= 100, "fillThresholdPercent must be in (0, 100]");
+        Preconditions.checkArgument(maxBorrowMs >= 0, "maxBorrowMs must not be negative");
+        Preconditions.checkArgument(maxLagMs > 0, "maxLagMs must be positive");
+        Preconditions.checkArgument(!idGen.isKeyed(), "cached snowflake not support keyed sequence");
+        this.idGen = idGen;
+        this.ring = new long[ringSize];
+        this.mask = ringSize - 1;
+        this.threshold = Math.max(1, (int) ((long) ringSize * fillThresholdPercent / 100));
+        this.maxBorrowMs = maxBorrowMs;
+        this.discardLagMs = Math.max(0, maxLagMs - IDLE_PARK_MS);
+    }
+
+    /**
+     * 启动后台填充线程
+     * @return
+     */
+    @Override
+    public synchronized boolean init() {
+        if (running) {
+            return true;
+        }
+        running = true;
+        filler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fillLoop();
+            }
+        }, "Thread-Snowflake-Ring-Filler");
+        filler.setDaemon(true);
+        filler.start();
+        return true;
+    }
+
+    /**
+     * 取走下一个预生成的号码，key被忽略
+     * @param key
+     * @return
+     */
+    @Override
+    public Result get(String key) {
+        while (true) {
+            long current = head.get();
+            if (current >= tail.get()) {
+                /** 已经取空，在调用线程上直接发号 **/
+                wakeFiller();
+                return generate();
+            }
+            long id = ring[(int) (current & mask)];
+            if (!head.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            if (tail.get() - current - 1 < threshold) {
+                wakeFiller();
+            }
+            return new Result(id, Status.SUCCESS);
+        }
+    }
+
+    /**
+     * 一次compare-and-set取走多个连续的槽位，key被忽略
+     * + 槽位中的号码在推进读位置之前读出，推进成功说明这期间没有被后台线程覆盖
+     * + 环形数组为空时剩余的号码在调用线程上直接发号
+     * @param key
+     * @param count
+     * @return
+     */
+    @Override
+    public List<Result> get(String key, int count) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        List<Result> results = new ArrayList<Result>(count);
+        long[] ids = new long[Math.min(count, ring.length)];
+        while (results.size() < count) {
+            long current = head.get();
+            int n = (int) Math.min(tail.get() - current, Math.min(count - results.size(), ids.length));
+            if (n <= 0) {
+                wakeFiller();
+                results.add(generate());
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                ids[i] = ring[(int) ((current + i) & mask)];
+            }
+            if (!head.compareAndSet(current, current + n)) {
+                continue;
+            }
+            if (tail.get() - current - n < threshold) {
+                wakeFiller();
+            }
+            for (int i = 0; i < n; i++) {
+                results.add(new Result(ids[i], Status.SUCCESS));
+            }
+        }
+        return results;
+    }
+
+    public synchronized void close() {
+        running = false;
+        if (filler != null) {
+            LockSupport.unpark(filler);
+            filler = null;
+        }
+    }
+
+    /**
+     * 当前可取的号码数量
+     * @return
+     */
+    public long getAvailable() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * 因为时间戳过旧而丢弃的号码数量
+     * @return
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    public int getRingSize() {
+        return ring.length;
+    }
+
+    private Result generate() {
+        while (true) {
+            Result result = idGen.nextBorrowedId(maxBorrowMs);
+            if (result.getId() != -5) {
+                return result;
+            }
+            /** 借用窗口已经用尽，等时间前进 **/
+            Thread.yield();
+        }
+    }
+
+    private void wakeFiller() {
+        Thread thread = filler;
+        if (thread != null && filling.compareAndSet(false, true)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void fillLoop() {
+        while (running) {
+            long current = tail.get();
+            if (current - head.get() >= ring.length) {
+                if (discardStale()) {
+                    continue;
+                }
+                /** 已经填满，先声明停止填充，再检查一次，避免错过填充期间发出的唤醒 **/
+                filling.set(false);
+                if (tail.get() - head.get() >= threshold) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                filling.set(true);
+                continue;
+            }
+            Result result = idGen.nextBorrowedId(maxBorrowMs);
+            if (result.getStatus() == Status.SUCCESS) {
+                ring[(int) (current & mask)] = result.getId();
+                /** volatile写，发号线程读到新的tail时一定能看到槽位中的号码 **/
+                tail.set(current + 1);
+            } else if (result.getId() == -5) {
+                LockSupport.parkNanos(this, BORROW_PARK_NANOS);
+            } else {
+                LOGGER.warn("fill snowflake ring failed, code {}", result.getId());
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * 从读位置开始，号码按填充顺序时间戳递增，把过旧的一段整体推进读位置丢弃
+     * 发号线程在推进读位置之前读出槽位，与这里竞争失败时重新读取，不会取到被覆盖的号码
+     * @return 是否丢弃了号码
+     */
+    private boolean discardStale() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            long current = head.get();
+            long end = tail.get();
+            long fresh = current;
+            while (fresh < end && now - idGen.timestampOf(ring[(int) (fresh & mask)]) > discardLagMs) {
+                fresh++;
+            }
+            if (fresh == current) {
+                return false;
+            }
+            if (head.compareAndSet(current, fresh)) {
+                discarded.addAndGet(fresh - current);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 前后填充缓存行，避免head和tail的伪共享
+     */
+    @SuppressWarnings("unused")
+    static class PaddedAtomicLong extends AtomicLong {
+        public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+        public long sumPaddingToPreventOptimisation() {
+            return p1 + p2 + p3 + p4 + p5 + p6;
+        }
+    }
+}
@@ -5,10 +5,16 @@ import com.sankuai.inf.leaf.IDGen;
 import com.sankuai.inf.leaf.common.Result;
 import com.sankuai.inf.leaf.common.Status;
 import com.sankuai.inf.leaf.common.Utils;
+import com.sankuai.inf.leaf.common.jfr.LeafEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SnowflakeIDGenImpl implements IDGen {
 
@@ -38,10 +44,26 @@ public class SnowflakeIDGenImpl implements IDGen {
     private final long sequenceMask = ~(-1L << sequenceBits);
     /** 当前发号器的worke序号，从0开始 **/
     private long workerId;
-    /** 上次用的毫秒内序号 **/
-    private long sequence = 0L;
-    /** 上次用的毫秒时间戳 **/
-    private long lastTimestamp = -1L;
+    /** 按业务key独立发号时，默认最多保留的key数量 **/
+    public static final int DEFAULT_MAX_KEYS = 10000;
+    /** 按业务key独立发号时，默认的key空闲淘汰时间 **/
+    public static final long DEFAULT_KEY_IDLE_MS = 60000L;
+    /** 全部key共用的时间戳和序号 **/
+    private final Sequence shared = new Sequence(-1L);
+    /**
+     * 按业务key独立的时间戳和序号，为null时全部key共用shared
+     * 不同业务key发出的号码可能相同，只保证同一个业务key内唯一
+     */
+    private volatile ConcurrentHashMap<String, Sequence> keySequences;
+    private int maxKeys;
+    private long keyIdleMillis;
+    private volatile long lastSweep;
+    /** 被淘汰的key用过的最大时间戳，新建的key从这之后开始发号，避免淘汰后重建的key发出重复的号码 **/
+    private final AtomicLong evictedHighWater = new AtomicLong(-1L);
+    /** workerId的持有方式 **/
+    private final WorkerIDHolder holder;
+    /** 本地时间戳检查点，可以为null **/
+    private final TimestampCheckpoint checkpoint;
     private static final Random RANDOM = new Random();
 
     public SnowflakeIDGenImpl(String zkAddress, int port) {
@@ -55,11 +77,23 @@ public class SnowflakeIDGenImpl implements IDGen {
      * @param twepoch   起始的时间戳
      */
     public SnowflakeIDGenImpl(String zkAddress, int port, long twepoch) {
+        this(new SnowflakeZookeeperHolder(Utils.getIp(), String.valueOf(port), zkAddress), twepoch);
+        LOGGER.info("zkAddress:{} port:{}", zkAddress, port);
+    }
+
+    public SnowflakeIDGenImpl(WorkerIDHolder holder) {
+        this(holder, 1288834974657L);
+    }
+
+    /**
+     * @param holder  workerId分配方式
+     * @param twepoch 起始的时间戳
+     */
+    public SnowflakeIDGenImpl(WorkerIDHolder holder, long twepoch) {
         this.twepoch = twepoch;
+        this.holder = holder;
         Preconditions.checkArgument(timeGen() > twepoch, "Snowflake not support twepoch gt currentTime");
-        final String ip = Utils.getIp();
-        SnowflakeZookeeperHolder holder = new SnowflakeZookeeperHolder(ip, String.valueOf(port), zkAddress);
-        LOGGER.info("twepoch:{} ,ip:{} ,zkAddress:{} port:{}", twepoch, ip, zkAddress, port);
+        LOGGER.info("twepoch:{} ,holder:{}", twepoch, holder.getClass().getSimpleName());
         boolean initFlag = holder.init();
         if (initFlag) {
             workerId = holder.getWorkerID();
@@ -68,58 +102,263 @@ public class SnowflakeIDGenImpl implements IDGen {
             Preconditions.checkArgument(initFlag, "Snowflake Id Gen is not init ok");
         }
         Preconditions.checkArgument(workerId >= 0 && workerId <= maxWorkerId, "workerID must gte 0 and lte 1023");
+        checkpoint = holder.getCheckpoint();
+        if (checkpoint != null && checkpoint.getHighWater() > shared.lastTimestamp) {
+            /** 从检查点继续，时钟回退到检查点之前时按时钟回退处理 **/
+            shared.lastTimestamp = checkpoint.getHighWater();
+        }
+    }
+
+    /**
+     * 开启按业务key独立发号，每个业务key有自己的时间戳和序号，热点key耗尽序号时不会阻塞其他key
+     * 需要在发号之前调用
+     * + key数量达到maxKeys时，先淘汰空闲的key，没有空闲的key时淘汰最久未使用的key
+     * + 空闲超过idleMillis的key在新建key时顺带淘汰
+     * + 新建的key从 淘汰掉的key用过的最大时间戳 的下一毫秒开始发号，淘汰后重建也不会重复
+     * @param maxKeys    最多保留的key数量
+     * @param idleMillis key空闲淘汰时间
+     */
+    public synchronized void enableKeyedSequence(int maxKeys, long idleMillis) {
+        Preconditions.checkArgument(maxKeys > 0, "maxKeys must be positive");
+        Preconditions.checkArgument(idleMillis > 0, "idleMillis must be positive");
+        this.maxKeys = maxKeys;
+        this.keyIdleMillis = idleMillis;
+        synchronized (shared) {
+            raise(evictedHighWater, shared.lastTimestamp);
+        }
+        lastSweep = timeGen();
+        if (keySequences == null) {
+            keySequences = new ConcurrentHashMap<String, Sequence>();
+        }
     }
 
     @Override
-    public synchronized Result get(String key) {
-        long timestamp = timeGen();
-        if (timestamp < lastTimestamp) {
-            /** 出现时间回退，小于5毫秒 **/
-            long offset = lastTimestamp - timestamp;
-            if (offset <= 5) {
-                try {
-                    /** 等待2倍时间 **/
-                    wait(offset << 1);
-                    /** 重新计算 **/
-                    timestamp = timeGen();
-                    if (timestamp < lastTimestamp) {
-                        return new Result(-1, Status.EXCEPTION);
+    public Result get(String key) {
+        if (!holder.isValid()) {
+            /** workerId已经不归本节点所有 **/
+            return new Result(-4, Status.EXCEPTION);
+        }
+        ConcurrentHashMap<String, Sequence> sequences = keySequences;
+        if (sequences == null || key == null) {
+            return nextId(shared);
+        }
+        Result result;
+        do {
+            /** 拿到的key刚好被淘汰时重新获取 **/
+            result = nextId(sequenceOf(sequences, key));
+        } while (result == null);
+        return result;
+    }
+
+    /**
+     * 逐个发号，每个号码单独竞争时间戳和序号的锁，不会因为一次取的数量多而长时间阻塞其他请求
+     * @param key
+     * @param count
+     * @return
+     */
+    @Override
+    public List<Result> get(String key, int count) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        List<Result> results = new ArrayList<Result>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(get(key));
+        }
+        return results;
+    }
+
+    /**
+     * 在给定的时间戳和序号上发号
+     * @param seq
+     * @return seq已经被淘汰时返回null
+     */
+    private Result nextId(Sequence seq) {
+        synchronized (seq) {
+            if (seq.evicted) {
+                return null;
+            }
+            long timestamp = timeGen();
+            if (timestamp < seq.lastTimestamp) {
+                /** 出现时间回退，小于5毫秒 **/
+                long offset = seq.lastTimestamp - timestamp;
+                if (offset <= 5) {
+                    Object event = LeafEvents.beginClockRollbackWait();
+                    try {
+                        /** 等待2倍时间 **/
+                        seq.wait(offset << 1);
+                        /** 重新计算 **/
+                        timestamp = timeGen();
+                        if (timestamp < seq.lastTimestamp) {
+                            LeafEvents.endClockRollbackWait(event, offset, false);
+                            return new Result(-1, Status.EXCEPTION);
+                        }
+                        LeafEvents.endClockRollbackWait(event, offset, true);
+                    } catch (InterruptedException e) {
+                        LeafEvents.endClockRollbackWait(event, offset, false);
+                        LOGGER.error("wait interrupted");
+                        return new Result(-2, Status.EXCEPTION);
                     }
-                } catch (InterruptedException e) {
-                    LOGGER.error("wait interrupted");
-                    return new Result(-2, Status.EXCEPTION);
+                } else {
+                    /** 大于5毫秒，直接返回错误 **/
+                    return new Result(-3, Status.EXCEPTION);
+                }
+            }
+            /** 当前毫秒 **/
+            if (seq.lastTimestamp == timestamp) {
+                /**
+                 * sequence + 1：序号自增
+                 * (sequence + 1) & sequenceMask：截断高位，防止序号超过限制
+                 */
+                seq.sequence = (seq.sequence + 1) & sequenceMask;
+                if (seq.sequence == 0) {
+                    /** 表示sequence内的值已经耗尽，需要等待下一毫秒才能发号 **/
+                    //seq 为0的时候表示是下一毫秒时间开始对seq做随机
+                    seq.sequence = RANDOM.nextInt(100);
+                    Object event = LeafEvents.beginSequenceSpin();
+                    timestamp = tilNextMillis(seq.lastTimestamp);
+                    LeafEvents.endSequenceSpin(event, seq.lastTimestamp);
                 }
             } else {
-                /** 大于5毫秒，直接返回错误 **/
-                return new Result(-3, Status.EXCEPTION);
+                /** 如果是新的ms开始 **/
+                seq.sequence = RANDOM.nextInt(100);
             }
-        }
-        /** 当前毫秒 **/
-        if (lastTimestamp == timestamp) {
+            if (checkpoint != null) {
+                checkpoint.advance(timestamp);
+            }
+            seq.lastTimestamp = timestamp;
+            seq.lastAccess = timestamp;
             /**
-             * sequence + 1：序号自增
-             * (sequence + 1) & sequenceMask：截断高位，防止序号超过限制
+             * timestamp - twepoch：获取相对开始时间的相对时间差
+             * << timestampLeftShift：左移，将毫秒内的序列位 和 work编号位 留出来（即全是设置为0）
+             * workerId << workerIdShift：work编号左移，将 将毫秒内的序列位 留出来（即全是设置为0）
+             * 通过 与 得到 { 相对时间位 | work编号位 | 将毫秒内的序列位 }
              */
-            sequence = (sequence + 1) & sequenceMask;
-            if (sequence == 0) {
-                /** 表示sequence内的值已经耗尽，需要等待下一毫秒才能发号 **/
-                //seq 为0的时候表示是下一毫秒时间开始对seq做随机
+            long id = ((timestamp - twepoch) << timestampLeftShift) | (workerId << workerIdShift) | seq.sequence;
+            return new Result(id, Status.SUCCESS);
+        }
+    }
+
+    /**
+     * 借用未来的时间戳发号，供 {@link CachedSnowflakeIDGen} 预生成号码
+     * + 当前毫秒的序号耗尽时不等待，直接使用下一毫秒
+     * + 使用的时间戳最多比当前时间超前maxBorrowMs，达到上限时返回-5，由调用方稍后重试
+     * + 时间戳超前超过maxBorrowMs + 5毫秒，说明时钟回退了，返回-3
+     * 借用过的时间戳会推进检查点，开启检查点时重启后不会重复
+     * @param maxBorrowMs
+     * @return
+     */
+    Result nextBorrowedId(long maxBorrowMs) {
+        if (!holder.isValid()) {
+            return new Result(-4, Status.EXCEPTION);
+        }
+        synchronized (shared) {
+            long now = timeGen();
+            long timestamp;
+            long sequence;
+            if (now > shared.lastTimestamp) {
+                timestamp = now;
                 sequence = RANDOM.nextInt(100);
-                timestamp = tilNextMillis(lastTimestamp);
+            } else if (shared.lastTimestamp - now > maxBorrowMs + 5) {
+                return new Result(-3, Status.EXCEPTION);
+            } else {
+                timestamp = shared.lastTimestamp;
+                sequence = (shared.sequence + 1) & sequenceMask;
+                if (sequence == 0) {
+                    timestamp++;
+                    sequence = RANDOM.nextInt(100);
+                }
+                if (timestamp - now > maxBorrowMs) {
+                    return new Result(-5, Status.EXCEPTION);
+                }
             }
-        } else {
-            /** 如果是新的ms开始 **/
-            sequence = RANDOM.nextInt(100);
+            if (checkpoint != null) {
+                checkpoint.advance(timestamp);
+            }
+            shared.lastTimestamp = timestamp;
+            shared.sequence = sequence;
+            long id = ((timestamp - twepoch) << timestampLeftShift) | (workerId << workerIdShift) | sequence;
+            return new Result(id, Status.SUCCESS);
+        }
+    }
+
+    /**
+     * 号码中的时间戳
+     * @param id
+     * @return
+     */
+    long timestampOf(long id) {
+        return (id >> timestampLeftShift) + twepoch;
+    }
+
+    boolean isKeyed() {
+        return keySequences != null;
+    }
+
+    /**
+     * 获取业务key的时间戳和序号，不存在时新建
+     * @param sequences
+     * @param key
+     * @return
+     */
+    private Sequence sequenceOf(ConcurrentHashMap<String, Sequence> sequences, String key) {
+        Sequence seq = sequences.get(key);
+        if (seq != null) {
+            return seq;
+        }
+        long now = timeGen();
+        if (sequences.size() >= maxKeys || now - lastSweep > keyIdleMillis) {
+            evictIdleKeys(sequences, now);
+        }
+        if (sequences.size() >= maxKeys) {
+            evictEldestKey(sequences);
+        }
+        Sequence created = new Sequence(evictedHighWater.get());
+        seq = sequences.putIfAbsent(key, created);
+        return seq == null ? created : seq;
+    }
+
+    private void evictIdleKeys(ConcurrentHashMap<String, Sequence> sequences, long now) {
+        lastSweep = now;
+        for (Map.Entry<String, Sequence> entry : sequences.entrySet()) {
+            if (now - entry.getValue().lastAccess > keyIdleMillis) {
+                evict(sequences, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evictEldestKey(ConcurrentHashMap<String, Sequence> sequences) {
+        Map.Entry<String, Sequence> eldest = null;
+        for (Map.Entry<String, Sequence> entry : sequences.entrySet()) {
+            if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null) {
+            evict(sequences, eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * 先记录key用过的最大时间戳再移除，之后重建的key一定从这个时间戳之后开始发号
+     * @param sequences
+     * @param key
+     * @param seq
+     */
+    private void evict(ConcurrentHashMap<String, Sequence> sequences, String key, Sequence seq) {
+        synchronized (seq) {
+            if (seq.evicted) {
+                return;
+            }
+            seq.evicted = true;
+            raise(evictedHighWater, seq.lastTimestamp);
+        }
+        sequences.remove(key, seq);
+    }
+
+    private static void raise(AtomicLong highWater, long value) {
+        long current = highWater.get();
+        while (value > current && !highWater.compareAndSet(current, value)) {
+            current = highWater.get();
         }
-        lastTimestamp = timestamp;
-        /**
-         * timestamp - twepoch：获取相对开始时间的相对时间差
-         * << timestampLeftShift：左移，将毫秒内的序列位 和 work编号位 留出来（即全是设置为0）
-         * workerId << workerIdShift：work编号左移，将 将毫秒内的序列位 留出来（即全是设置为0）
-         * 通过 与 得到 { 相对时间位 | work编号位 | 将毫秒内的序列位 }
-         */
-        long id = ((timestamp - twepoch) << timestampLeftShift) | (workerId << workerIdShift) | sequence;
-        return new Result(id, Status.SUCCESS);
     }
 
     protected long tilNextMillis(long lastTimestamp) {
@@ -138,4 +377,35 @@ public class SnowflakeIDGenImpl implements IDGen {
         return workerId;
     }
 
+    /**
+     * 按业务key独立发号时当前保留的key数量，未开启时返回0
+     * @return
+     */
+    public int getKeyCount() {
+        ConcurrentHashMap<String, Sequence> sequences = keySequences;
+        return sequences == null ? 0 : sequences.size();
+    }
+
+    /**
+     * 一组时间戳和序号，通过自身的锁保护
+     */
+    private class Sequence {
+        /** 上次用的毫秒内序号 **/
+        private long sequence;
+        /** 上次用的毫秒时间戳 **/
+        private long lastTimestamp;
+        private volatile long lastAccess;
+        private boolean evicted;
+
+        /**
+         * @param floor 已经用过的时间戳，同一毫秒内不再发号
+         */
+        Sequence(long floor) {
+            this.lastTimestamp = floor;
+            /** 序号置满，在floor这一毫秒发号时直接进入下一毫秒 **/
+            this.sequence = sequenceMask;
+            this.lastAccess = timeGen();
+        }
+    }
+
 }
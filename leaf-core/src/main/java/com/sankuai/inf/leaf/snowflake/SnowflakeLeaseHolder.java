@@ -0,0 +1,279 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sankuai.inf.leaf.common.jfr.LeafEvents;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以租约方式分配可复用的workerId，适合ip经常变化的容器环境
+ * + {basePath}/lease/{workerId} 临时节点，持有即拥有该workerId，节点进程退出或者会话过期后自动释放
+ * + {basePath}/lastseen/{workerId} 持久节点，保存持有者最后一次上报的时间戳，最多 maxWorkerId+1 个
+ * + 启动时只列出当前存活的租约，从小到大尝试创建第一个空闲的workerId，不需要遍历历史节点
+ * + 持有者超过ttl没有成功上报就停止发号；workerId释放后，要等上一个持有者最后上报时间之后的安全窗口才能复用，
+ *   安全窗口大于ttl，所以新旧持有者发出的号码的时间戳不会重叠
+ */
+public class SnowflakeLeaseHolder implements WorkerIDHolder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeLeaseHolder.class);
+    public static final long DEFAULT_HEARTBEAT_MS = 1000L;
+    public static final long DEFAULT_TTL_MS = 5000L;
+    public static final long DEFAULT_SAFETY_WINDOW_MS = 10000L;
+    public static final int MAX_WORKER_ID = 1023;
+
+    private final String ip;
+    private final String port;
+    private final CuratorFramework curator;
+    private final String leasePath;
+    private final String lastSeenPath;
+    private final long heartbeatMs;
+    private final long ttlMs;
+    private final long safetyWindowMs;
+    private final int maxWorkerId;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private volatile int workerID = -1;
+    /**
+     * 租约有效期：最后一次成功上报的时间 + ttl
+     */
+    private volatile long validUntil;
+    /**
+     * workerId已经被其他节点接手
+     */
+    private volatile boolean lost;
+    /**
+     * 上一个持有者最后上报的时间戳，没有时为-1
+     */
+    private long previousTimestamp = -1;
+    private ScheduledExecutorService heartbeat;
+
+    public SnowflakeLeaseHolder(String ip, String port, CuratorFramework curator, String basePath) {
+        this(ip, port, curator, basePath, DEFAULT_HEARTBEAT_MS, DEFAULT_TTL_MS, DEFAULT_SAFETY_WINDOW_MS, MAX_WORKER_ID);
+    }
+
+    /**
+     * @param ip
+     * @param port
+     * @param curator        已经启动的curator客户端
+     * @param basePath       例如 /snowflake/{leaf.name}
+     * @param heartbeatMs    上报间隔
+     * @param ttlMs          超过该时间没有成功上报就停止发号，需要大于上报间隔
+     * @param safetyWindowMs workerId释放后的复用等待时间，需要大于ttl
+     * @param maxWorkerId    最大workerId
+     */
+    public SnowflakeLeaseHolder(String ip, String port, CuratorFramework curator, String basePath,
+                                long heartbeatMs, long ttlMs, long safetyWindowMs, int maxWorkerId) {
+        if (heartbeatMs <= 0 || ttlMs <= heartbeatMs) {
+            throw new IllegalArgumentException("ttl must be greater than heartbeat");
+        }
+        if (safetyWindowMs <= ttlMs) {
+            throw new IllegalArgumentException("safety window must be greater than ttl");
+        }
+        this.ip = ip;
+        this.port = port;
+        this.curator = curator;
+        this.leasePath = basePath + "/lease";
+        this.lastSeenPath = basePath + "/lastseen";
+        this.heartbeatMs = heartbeatMs;
+        this.ttlMs = ttlMs;
+        this.safetyWindowMs = safetyWindowMs;
+        this.maxWorkerId = maxWorkerId;
+    }
+
+    @Override
+    public boolean init() {
+        if (workerID >= 0) {
+            return true;
+        }
+        try {
+            Set<Integer> held = new HashSet<Integer>();
+            for (String child : leaseChildren()) {
+                held.add(Integer.parseInt(child));
+            }
+            for (int id = 0; id <= maxWorkerId; id++) {
+                if (!held.contains(id) && tryAcquire(id)) {
+                    workerID = id;
+                    startHeartbeat();
+                    LOGGER.info("acquire worker id lease {} for {}:{}, previous holder last seen {}", id, ip, port, previousTimestamp);
+                    return true;
+                }
+            }
+            LOGGER.error("no free worker id, {} leases held", held.size());
+        } catch (Exception e) {
+            LOGGER.error("acquire worker id lease error", e);
+        }
+        return false;
+    }
+
+    @Override
+    public int getWorkerID() {
+        return workerID;
+    }
+
+    @Override
+    public boolean isValid() {
+        return !lost && System.currentTimeMillis() < validUntil;
+    }
+
+    /**
+     * 上一个持有者的时间戳由安全窗口保证，不使用本地检查点
+     * @return
+     */
+    @Override
+    public TimestampCheckpoint getCheckpoint() {
+        return null;
+    }
+
+    public long getPreviousTimestamp() {
+        return previousTimestamp;
+    }
+
+    /**
+     * 停止上报并释放workerId，之后不能再发号
+     */
+    public void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        if (workerID < 0 || lost) {
+            return;
+        }
+        lost = true;
+        try {
+            curator.setData().forPath(lastSeenPath + "/" + workerID, buildData(System.currentTimeMillis()));
+            curator.delete().guaranteed().forPath(leasePath + "/" + workerID);
+            LOGGER.info("release worker id lease {}", workerID);
+        } catch (Exception e) {
+            LOGGER.warn("release worker id lease {} error", workerID, e);
+        }
+    }
+
+    private List<String> leaseChildren() throws Exception {
+        try {
+            return curator.getChildren().forPath(leasePath);
+        } catch (KeeperException.NoNodeException e) {
+            return new ArrayList<String>();
+        }
+    }
+
+    /**
+     * 先创建租约节点再检查上一个持有者的时间戳，检查不通过时释放租约
+     * @param id
+     * @return
+     * @throws Exception
+     */
+    private boolean tryAcquire(int id) throws Exception {
+        long now = System.currentTimeMillis();
+        String lease = leasePath + "/" + id;
+        try {
+            curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(lease, buildData(now));
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        }
+        long last = readLastSeen(id);
+        if (last >= 0 && now < last + safetyWindowMs) {
+            LOGGER.info("worker id {} released at {}, still in safety window", id, last);
+            curator.delete().guaranteed().forPath(lease);
+            return false;
+        }
+        previousTimestamp = last;
+        writeLastSeen(id, now);
+        validUntil = now + ttlMs;
+        return true;
+    }
+
+    private void startHeartbeat() {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "schedule-lease-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 续约：确认租约节点仍属于当前会话，并上报时间戳
+     * 会话过期导致租约节点被删除时，尝试重新创建同一个workerId的租约
+     */
+    void renew() {
+        if (lost) {
+            return;
+        }
+        String lease = leasePath + "/" + workerID;
+        try {
+            long now = System.currentTimeMillis();
+            Stat stat = curator.checkExists().forPath(lease);
+            if (stat == null) {
+                try {
+                    curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(lease, buildData(now));
+                    LOGGER.warn("worker id lease {} recreated after session expired", workerID);
+                } catch (KeeperException.NodeExistsException e) {
+                    markLost();
+                    return;
+                }
+                if (readLastSeen(workerID) > validUntil) {
+                    /** 期间被其他节点持有过 **/
+                    curator.delete().guaranteed().forPath(lease);
+                    markLost();
+                    return;
+                }
+            } else if (stat.getEphemeralOwner() != curator.getZookeeperClient().getZooKeeper().getSessionId()) {
+                markLost();
+                return;
+            }
+            writeLastSeen(workerID, now);
+            validUntil = now + ttlMs;
+        } catch (Exception e) {
+            LeafEvents.zookeeperHeartbeatFailure(lease, e);
+            LOGGER.warn("renew worker id lease {} error", workerID, e);
+        }
+    }
+
+    private void markLost() {
+        lost = true;
+        LOGGER.error("worker id lease {} taken by another node, stop generating id", workerID);
+    }
+
+    private long readLastSeen(int id) throws Exception {
+        try {
+            byte[] bytes = curator.getData().forPath(lastSeenPath + "/" + id);
+            return mapper.readValue(bytes, SnowflakeZookeeperHolder.Endpoint.class).getTimestamp();
+        } catch (KeeperException.NoNodeException e) {
+            return -1;
+        }
+    }
+
+    private void writeLastSeen(int id, long timestamp) throws Exception {
+        String path = lastSeenPath + "/" + id;
+        try {
+            curator.setData().forPath(path, buildData(timestamp));
+        } catch (KeeperException.NoNodeException e) {
+            curator.create().creatingParentsIfNeeded().forPath(path, buildData(timestamp));
+        }
+    }
+
+    private byte[] buildData(long timestamp) throws IOException {
+        return mapper.writeValueAsBytes(new SnowflakeZookeeperHolder.Endpoint(ip, port, timestamp));
+    }
+}
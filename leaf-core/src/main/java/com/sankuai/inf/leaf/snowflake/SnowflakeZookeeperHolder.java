@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Maps;
 import com.sankuai.inf.leaf.common.*;
+import com.sankuai.inf.leaf.common.jfr.LeafEvents;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.zookeeper.CreateMode;
@@ -26,31 +27,90 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-public class SnowflakeZookeeperHolder {
+public class SnowflakeZookeeperHolder implements WorkerIDHolder {
     private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeZookeeperHolder.class);
     private String zk_AddressNode = null;//保存自身的key  ip:port-000000001
     private String listenAddress = null;//保存自身的key ip:port
     private int workerID;
-    private static final String PREFIX_ZK_PATH = "/snowflake/" + PropertyFactory.getProperties().getProperty("leaf.name");
-    private static final String PROP_PATH = System.getProperty("java.io.tmpdir") + File.separator + PropertyFactory.getProperties().getProperty("leaf.name") + "/leafconf/{port}/workerID.properties";
-    private static final String PATH_FOREVER = PREFIX_ZK_PATH + "/forever";//保存所有数据持久的节点
+    private final String pathForever;//保存所有数据持久的节点
+    private final String propPath;//本地缓存的workerId
     private String ip;
     private String port;
     private String connectionString;
     private long lastUpdateTime;
+    private final TimestampCheckpoint checkpoint;
+    /**
+     * 后台与zk核对workerId不一致时置为false
+     */
+    private volatile boolean valid = true;
 
     public SnowflakeZookeeperHolder(String ip, String port, String connectionString) {
+        this(ip, port, connectionString, PropertyFactory.getProperties().getProperty("leaf.name"));
+    }
+
+    /**
+     * @param ip
+     * @param port
+     * @param connectionString zk地址
+     * @param name             服务名，zk路径为 /snowflake/{name}，本地缓存在 {java.io.tmpdir}/{name}/leafconf/{port} 下
+     */
+    public SnowflakeZookeeperHolder(String ip, String port, String connectionString, String name) {
+        this(ip, port, connectionString, name, new TimestampCheckpoint(new File(localPath(name, port, "timestamp.checkpoint"))));
+    }
+
+    public SnowflakeZookeeperHolder(String ip, String port, String connectionString, TimestampCheckpoint checkpoint) {
+        this(ip, port, connectionString, PropertyFactory.getProperties().getProperty("leaf.name"), checkpoint);
+    }
+
+    public SnowflakeZookeeperHolder(String ip, String port, String connectionString, String name, TimestampCheckpoint checkpoint) {
+        this.pathForever = "/snowflake/" + name + "/forever";
+        this.propPath = localPath(name, port, "workerID.properties");
         this.ip = ip;
         this.port = port;
         this.listenAddress = ip + ":" + port;
         this.connectionString = connectionString;
+        this.checkpoint = checkpoint;
     }
 
+    /**
+     * 本地有workerId缓存和时间戳检查点时，只用检查点校验时钟就开始服务，在后台与zk核对
+     * 否则(首次启动)同步地在zk上注册
+     * @return
+     */
+    @Override
     public boolean init() {
+        Integer localWorkerID = readLocalWorkerID();
+        if (localWorkerID != null && checkpoint.read() >= 0) {
+            try {
+                if (!checkpoint.awaitPast()) {
+                    return false;
+                }
+                checkpoint.start();
+            } catch (Exception e) {
+                LOGGER.error("start from timestamp checkpoint error", e);
+                return false;
+            }
+            workerID = localWorkerID;
+            reconcileInBackground();
+            LOGGER.info("[Local NODE]start from local workerID-{} and timestamp checkpoint {}, reconcile with zk in background", workerID, checkpoint.getHighWater());
+            return true;
+        }
+        boolean initFlag = initFromZookeeper();
+        if (initFlag) {
+            try {
+                checkpoint.start();
+            } catch (IOException e) {
+                LOGGER.warn("start timestamp checkpoint error", e);
+            }
+        }
+        return initFlag;
+    }
+
+    private boolean initFromZookeeper() {
         try {
             CuratorFramework curator = createWithOptions(connectionString, new RetryUntilElapsed(1000, 4), 10000, 6000);
             curator.start();
-            Stat stat = curator.checkExists().forPath(PATH_FOREVER);
+            Stat stat = curator.checkExists().forPath(pathForever);
             if (stat == null) {
                 //不存在根节点,机器第一次启动,创建/snowflake/ip:port-000000000,并上传数据
                 zk_AddressNode = createNode(curator);
@@ -63,7 +123,7 @@ public class SnowflakeZookeeperHolder {
                 Map<String, Integer> nodeMap = Maps.newHashMap();//ip:port->00001
                 Map<String, String> realNode = Maps.newHashMap();//ip:port->(ipport-000001)
                 //存在根节点,先检查是否有属于自己的根节点
-                List<String> keys = curator.getChildren().forPath(PATH_FOREVER);
+                List<String> keys = curator.getChildren().forPath(pathForever);
                 for (String key : keys) {
                     String[] nodeKey = key.split("-");
                     realNode.put(nodeKey[0], key);
@@ -72,7 +132,7 @@ public class SnowflakeZookeeperHolder {
                 Integer workerid = nodeMap.get(listenAddress);
                 if (workerid != null) {
                     //有自己的节点,zk_AddressNode=ip:port
-                    zk_AddressNode = PATH_FOREVER + "/" + realNode.get(listenAddress);
+                    zk_AddressNode = pathForever + "/" + realNode.get(listenAddress);
                     workerID = workerid;//启动worder时使用会使用
                     if (!checkInitTimeStamp(curator, zk_AddressNode)) {
                         throw new CheckLastTimeException("init timestamp check error,forever node timestamp gt this node time");
@@ -97,7 +157,7 @@ public class SnowflakeZookeeperHolder {
             LOGGER.error("Start node ERROR {}", e);
             try {
                 Properties properties = new Properties();
-                properties.load(new FileInputStream(new File(PROP_PATH.replace("{port}", port + ""))));
+                properties.load(new FileInputStream(new File(propPath)));
                 workerID = Integer.valueOf(properties.getProperty("workerID"));
                 LOGGER.warn("START FAILED ,use local node file properties workerID-{}", workerID);
             } catch (Exception e1) {
@@ -108,6 +168,80 @@ public class SnowflakeZookeeperHolder {
         return true;
     }
 
+    /**
+     * 后台在zk上找到本节点的持久节点，核对workerId和时间戳，并开始定时上报
+     * zk不可用时继续使用本地workerId服务，稍后重试；zk中的信息与本地不一致时停止发号
+     */
+    private void reconcileInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CuratorFramework curator = createWithOptions(connectionString, new RetryUntilElapsed(1000, 4), 10000, 6000);
+                curator.start();
+                while (true) {
+                    try {
+                        String node = null;
+                        if (curator.checkExists().forPath(pathForever) != null) {
+                            for (String key : curator.getChildren().forPath(pathForever)) {
+                                if (key.split("-")[0].equals(listenAddress)) {
+                                    node = key;
+                                }
+                            }
+                        }
+                        if (node == null || Integer.parseInt(node.split("-")[1]) != workerID) {
+                            valid = false;
+                            LOGGER.error("local workerID-{} not match zk node {}, stop generating id", workerID, node);
+                        } else {
+                            zk_AddressNode = pathForever + "/" + node;
+                            if (!checkInitTimeStamp(curator, zk_AddressNode)) {
+                                valid = false;
+                                LOGGER.error("zk node {} timestamp gt this node time, stop generating id", zk_AddressNode);
+                            } else {
+                                doService(curator);
+                                LOGGER.info("reconcile workerID-{} with zk node {} SUCCESS", workerID, zk_AddressNode);
+                            }
+                        }
+                        return;
+                    } catch (Exception e) {
+                        LOGGER.warn("reconcile with zk error, retry later", e);
+                        try {
+                            TimeUnit.SECONDS.sleep(10);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "snowflake-zk-reconcile");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 读取本地缓存的workerId
+     * @return 没有缓存时返回null
+     */
+    private Integer readLocalWorkerID() {
+        File file = new File(propPath);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            String value = properties.getProperty("workerID");
+            return value == null ? null : Integer.valueOf(value.trim());
+        } catch (Exception e) {
+            LOGGER.warn("read local workerID error", e);
+            return null;
+        }
+    }
+
     private void doService(CuratorFramework curator) {
         ScheduledUploadData(curator, zk_AddressNode);// /snowflake_forever/ip:port-000000001
     }
@@ -169,7 +303,7 @@ public class SnowflakeZookeeperHolder {
      */
     private String createNode(CuratorFramework curator) throws Exception {
         try {
-            return curator.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath(PATH_FOREVER + "/" + listenAddress + "-", buildData().getBytes());
+            return curator.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath(pathForever + "/" + listenAddress + "-", buildData().getBytes());
         } catch (Exception e) {
             LOGGER.error("create node error msg {} ", e.getMessage());
             throw e;
@@ -184,6 +318,7 @@ public class SnowflakeZookeeperHolder {
             curator.setData().forPath(path, buildData().getBytes());
             lastUpdateTime = System.currentTimeMillis();
         } catch (Exception e) {
+            LeafEvents.zookeeperHeartbeatFailure(path, e);
             LOGGER.info("update init data error path is {} error is {}", path, e);
         }
     }
@@ -212,7 +347,7 @@ public class SnowflakeZookeeperHolder {
      * @param workerID
      */
     private void updateLocalWorkerID(int workerID) {
-        File leafConfFile = new File(PROP_PATH.replace("{port}", port));
+        File leafConfFile = new File(propPath);
         boolean exists = leafConfFile.exists();
         LOGGER.info("file exists status is {}", exists);
         if (exists) {
@@ -252,6 +387,10 @@ public class SnowflakeZookeeperHolder {
     /**
      * 上报数据结构
      */
+    private static String localPath(String name, String port, String file) {
+        return System.getProperty("java.io.tmpdir") + File.separator + name + "/leafconf/" + port + "/" + file;
+    }
+
     static class Endpoint {
         private String ip;
         private String port;
@@ -307,10 +446,26 @@ public class SnowflakeZookeeperHolder {
         this.listenAddress = listenAddress;
     }
 
+    @Override
     public int getWorkerID() {
         return workerID;
     }
 
+    /**
+     * 持久节点的workerId一直归本节点所有，只有后台核对发现本地缓存与zk不一致时失效
+     * 时间戳检查点写不进去时也停止发号，否则重启后可能发出重复的号码
+     * @return
+     */
+    @Override
+    public boolean isValid() {
+        return valid && checkpoint.isHealthy();
+    }
+
+    @Override
+    public TimestampCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
     public void setWorkerID(int workerID) {
         this.workerID = workerID;
     }
@@ -0,0 +1,209 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地持久化的时间戳高水位
+ * + 发号器每次发号调用 {@link #advance(long)}，只有进入新的毫秒时才做一次compare-and-set
+ * + 后台线程每隔interval把高水位写入文件并fsync
+ * + 启动时读取文件，当前时间必须大于 高水位 + interval，才能保证不会发出重复的号码；
+ *   小于interval的差距直接等待，更大的差距说明时钟回退了
+ * 文件内容为 时间戳 + 校验值，共16字节，校验失败时视为没有检查点
+ * 写入一直失败、文件中的高水位落后太多时 {@link #isHealthy()} 返回false，持有者据此停止发号
+ */
+public class TimestampCheckpoint {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimestampCheckpoint.class);
+    public static final long DEFAULT_INTERVAL_MS = 20L;
+    private static final long MAGIC = 0x4C4541465453L;
+    /**
+     * 写入失败时，文件中的高水位最多落后多少个interval
+     */
+    private static final long MAX_LAG_INTERVALS = 10;
+
+    private final File file;
+    private final long intervalMs;
+    private final AtomicLong highWater = new AtomicLong(-1);
+    private volatile long written = -1;
+    /**
+     * 最近一次写入是否失败
+     */
+    private volatile boolean failing = false;
+    private FileChannel channel;
+    private ScheduledExecutorService writer;
+
+    public TimestampCheckpoint(File file) {
+        this(file, DEFAULT_INTERVAL_MS);
+    }
+
+    public TimestampCheckpoint(File file, long intervalMs) {
+        this.file = file;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * 读取上次持久化的高水位
+     * @return 没有检查点时返回-1
+     */
+    public long read() {
+        if (!file.exists()) {
+            return -1;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() < 16) {
+                    return -1;
+                }
+                long timestamp = raf.readLong();
+                long check = raf.readLong();
+                return (timestamp ^ MAGIC) == check ? timestamp : -1;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("read timestamp checkpoint {} error", file, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 启动时检查时钟，时钟落后于检查点不超过interval时等待
+     * @return 时钟回退超过interval时返回false
+     * @throws InterruptedException
+     */
+    public boolean awaitPast() throws InterruptedException {
+        long checkpoint = read();
+        if (checkpoint < 0) {
+            return true;
+        }
+        advance(checkpoint);
+        long wait = checkpoint + intervalMs - System.currentTimeMillis();
+        if (wait > intervalMs) {
+            LOGGER.error("clock {} is behind timestamp checkpoint {}", System.currentTimeMillis(), checkpoint);
+            return false;
+        }
+        if (wait > 0) {
+            TimeUnit.MILLISECONDS.sleep(wait + 1);
+        }
+        return true;
+    }
+
+    public void advance(long timestamp) {
+        /** 按业务key独立发号时会被并发调用，不能让较小的时间戳覆盖较大的 **/
+        long current = highWater.get();
+        while (timestamp > current && !highWater.compareAndSet(current, timestamp)) {
+            current = highWater.get();
+        }
+    }
+
+    public long getHighWater() {
+        return highWater.get();
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * 检查点是否在正常写入
+     * 写入失败并且文件中的高水位落后超过 {@link #MAX_LAG_INTERVALS} 个interval时返回false，写入恢复后重新返回true
+     * @return
+     */
+    public boolean isHealthy() {
+        return !failing || highWater.get() - written <= intervalMs * MAX_LAG_INTERVALS;
+    }
+
+    public synchronized void start() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("create checkpoint dir " + parent + " failed");
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "schedule-timestamp-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                /** 任何异常都不能让定时任务停止，否则检查点不再推进 **/
+                try {
+                    flush();
+                } catch (Throwable e) {
+                    LOGGER.error("timestamp checkpoint {} writer error", file, e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把高水位写入文件
+     */
+    synchronized void flush() {
+        long timestamp = highWater.get();
+        if (timestamp <= written || channel == null) {
+            return;
+        }
+        try {
+            write(channel, timestamp);
+            written = timestamp;
+            failing = false;
+        } catch (IOException e) {
+            failing = true;
+            LOGGER.warn("write timestamp checkpoint {} error", file, e);
+        } catch (RuntimeException | Error e) {
+            failing = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 写入并fsync
+     * 以Buffer调用flip，JDK9之后编译出的ByteBuffer.flip()在JDK8上不存在
+     * @param channel
+     * @param timestamp
+     * @throws IOException
+     */
+    void write(FileChannel channel, long timestamp) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(timestamp).putLong(timestamp ^ MAGIC);
+        ((Buffer) buffer).flip();
+        channel.write(buffer, 0);
+        channel.force(false);
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            writer.shutdownNow();
+        }
+        flush();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("close timestamp checkpoint {} error", file, e);
+            }
+            channel = null;
+        }
+    }
+}
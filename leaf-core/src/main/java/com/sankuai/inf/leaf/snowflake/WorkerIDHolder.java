@@ -0,0 +1,26 @@
+package com.sankuai.inf.leaf.snowflake;
+
+/**
+ * snowflake的workerId分配
+ */
+public interface WorkerIDHolder {
+    /**
+     * 获取workerId
+     * @return 是否成功
+     */
+    boolean init();
+
+    int getWorkerID();
+
+    /**
+     * workerId当前是否还归本节点所有，不再持有时发号器停止发号，避免与接手该workerId的节点重复
+     * @return
+     */
+    boolean isValid();
+
+    /**
+     * 本地时间戳检查点，发号器把发出的时间戳推进到检查点；不使用检查点时返回null
+     * @return
+     */
+    TimestampCheckpoint getCheckpoint();
+}
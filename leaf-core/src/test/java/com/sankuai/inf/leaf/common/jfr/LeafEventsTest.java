@@ -0,0 +1,77 @@
+package com.sankuai.inf.leaf.common.jfr;
+
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.MemoryIDAllocDao;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LeafEventsTest {
+
+    @Test
+    public void testNotRecording() {
+        assertTrue(LeafEvents.isAvailable());
+        /** 没有开启录制时不创建事件 **/
+        assertNull(LeafEvents.beginSegmentRefill());
+        assertNull(LeafEvents.beginSegmentWait());
+        LeafEvents.endSegmentWait(null, "a", true);
+    }
+
+    /**
+     * 号段初始化和切换分别产生SegmentRefill和SegmentSwitch事件
+     */
+    @Test
+    public void testSegmentEvents() throws Exception {
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        dao.addTag("a", 1, 10);
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+
+        File file = File.createTempFile("leaf", ".jfr");
+        Recording recording = new Recording();
+        try {
+            recording.enable("com.sankuai.inf.leaf.SegmentRefill").withThreshold(java.time.Duration.ZERO);
+            recording.enable("com.sankuai.inf.leaf.SegmentSwitch");
+            recording.enable("com.sankuai.inf.leaf.TagSync");
+            recording.start();
+            assertTrue(idGen.init());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Status.SUCCESS, idGen.get("a").getStatus());
+            }
+            recording.stop();
+            recording.dump(file.toPath());
+        } finally {
+            recording.close();
+        }
+
+        int refills = 0;
+        int switches = 0;
+        int syncs = 0;
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if (name.equals("com.sankuai.inf.leaf.SegmentRefill")) {
+                refills++;
+                assertEquals("a", event.getString("key"));
+                assertTrue(event.getBoolean("success"));
+            } else if (name.equals("com.sankuai.inf.leaf.SegmentSwitch")) {
+                switches++;
+                assertEquals("a", event.getString("key"));
+            } else if (name.equals("com.sankuai.inf.leaf.TagSync")) {
+                syncs++;
+                assertEquals(1, event.getInt("added"));
+            }
+        }
+        file.delete();
+        assertTrue(refills > 1);
+        assertTrue(switches > 0);
+        assertEquals(1, syncs);
+    }
+}
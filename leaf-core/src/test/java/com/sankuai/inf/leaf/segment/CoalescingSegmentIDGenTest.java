@@ -0,0 +1,144 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.common.TokenBucket;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingSegmentIDGenTest {
+    private static final String KEY = "leaf-segment-test";
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag(KEY, 1, 1000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+    }
+
+    /**
+     * 一次取的号码跨过号段切换，仍然连续
+     */
+    @Test
+    public void testBatchAcrossSegments() {
+        List<Result> results = idGen.get(KEY, 2500);
+        assertEquals(2500, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Status.SUCCESS, results.get(i).getStatus());
+            assertEquals(i + 1, results.get(i).getId());
+        }
+        assertEquals(2501, idGen.get(KEY).getId());
+    }
+
+    @Test
+    public void testBatchUnknownKey() {
+        List<Result> results = idGen.get("not-exists", 3);
+        assertEquals(3, results.size());
+        for (Result result : results) {
+            assertEquals(-2, result.getId());
+        }
+    }
+
+    /**
+     * 令牌不够一次取完时，取到多少令牌发多少号码，其余为限流异常码
+     */
+    @Test
+    public void testBatchQuota() {
+        idGen.setIssueQuota(KEY, new TokenBucket(0.001, 10));
+        List<Result> results = idGen.get(KEY, 15);
+        int success = 0;
+        for (Result result : results) {
+            if (result.getStatus() == Status.SUCCESS) {
+                success++;
+            } else {
+                assertEquals(SegmentIDGenImpl.EXCEPTION_ID_ISSUE_QUOTA_EXCEEDED, result.getId());
+            }
+        }
+        assertEquals(10, success);
+    }
+
+    /**
+     * 并发请求合并后号码不重复，调用被包装发号器的次数少于请求数
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        final CoalescingSegmentIDGen coalescing = new CoalescingSegmentIDGen(idGen, 200, 16);
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger errors = new AtomicInteger();
+        final int threads = 8;
+        final int perThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            Result result = coalescing.get(KEY);
+                            if (result.getStatus() != Status.SUCCESS || !ids.add(result.getId())) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(0, errors.get());
+        assertEquals(threads * perThread, ids.size());
+        assertEquals(threads * perThread, coalescing.getRequests());
+        assertTrue("batches " + coalescing.getBatches(), coalescing.getBatches() < coalescing.getRequests());
+        assertEquals(0, coalescing.getKeyStates());
+    }
+
+    /**
+     * 请求结束后业务key的状态被移除，大量业务key轮流访问时状态数不增长
+     */
+    @Test
+    public void testKeyStateRemoved() {
+        for (int i = 0; i < 100; i++) {
+            dao.addTag(KEY + "-" + i, 1, 1000);
+        }
+        idGen.updateCacheFromDb();
+        CoalescingSegmentIDGen coalescing = new CoalescingSegmentIDGen(idGen);
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(round, coalescing.get(KEY + "-" + i).getId());
+                assertEquals(0, coalescing.getKeyStates());
+            }
+        }
+        assertEquals(300, coalescing.getBatches());
+    }
+
+    /**
+     * 不存在的业务key不合并
+     */
+    @Test
+    public void testUnknownKeyNotCoalesced() {
+        CoalescingSegmentIDGen coalescing = new CoalescingSegmentIDGen(idGen);
+        assertEquals(-2, coalescing.get("not-exists").getId());
+        assertEquals(0, coalescing.getRequests());
+        assertEquals(1, coalescing.get(KEY).getId());
+        assertEquals(1, coalescing.getBatches());
+    }
+}
@@ -0,0 +1,70 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.LeafAllocCursors;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 测试用的内存IDAllocDao，行为与leaf_alloc表一致
+ */
+public class MemoryIDAllocDao implements IDAllocDao {
+    private final Map<String, LeafAlloc> table = new TreeMap<String, LeafAlloc>();
+
+    public synchronized void addTag(String tag, long maxId, int step) {
+        LeafAlloc leafAlloc = new LeafAlloc();
+        leafAlloc.setKey(tag);
+        leafAlloc.setMaxId(maxId);
+        leafAlloc.setStep(step);
+        table.put(tag, leafAlloc);
+    }
+
+    public synchronized void removeTag(String tag) {
+        table.remove(tag);
+    }
+
+    @Override
+    public synchronized List<LeafAlloc> getAllLeafAllocs() {
+        List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+        for (LeafAlloc leafAlloc : table.values()) {
+            result.add(copy(leafAlloc));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized LeafAlloc updateMaxIdAndGetLeafAlloc(String tag) {
+        LeafAlloc leafAlloc = table.get(tag);
+        leafAlloc.setMaxId(leafAlloc.getMaxId() + leafAlloc.getStep());
+        return copy(leafAlloc);
+    }
+
+    @Override
+    public synchronized LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc request) {
+        LeafAlloc leafAlloc = table.get(request.getKey());
+        leafAlloc.setMaxId(leafAlloc.getMaxId() + request.getStep());
+        return copy(leafAlloc);
+    }
+
+    @Override
+    public synchronized List<String> getAllTags() {
+        return new ArrayList<String>(table.keySet());
+    }
+
+    @Override
+    public synchronized List<LeafAlloc> getLeafAllocsAfter(String cursor, String prefix, int limit) {
+        return LeafAllocCursors.select(getAllLeafAllocs(), cursor, prefix, limit);
+    }
+
+    private LeafAlloc copy(LeafAlloc leafAlloc) {
+        LeafAlloc result = new LeafAlloc();
+        result.setKey(leafAlloc.getKey());
+        result.setMaxId(leafAlloc.getMaxId());
+        result.setStep(leafAlloc.getStep());
+        return result;
+    }
+}
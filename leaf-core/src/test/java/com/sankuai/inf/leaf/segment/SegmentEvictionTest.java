@@ -0,0 +1,77 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.model.IdRange;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentEvictionTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        for (int i = 0; i < 10000; i++) {
+            dao.addTag("tenant-" + i, 1, 1000);
+        }
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.init();
+        /** init之后再开启，不启动后台淘汰线程，由测试手动触发 **/
+        idGen.setColdTagEviction(1000);
+    }
+
+    /**
+     * 冷key只登记，第一次发号时才创建buffer
+     */
+    @Test
+    public void testLazyBuffer() {
+        assertEquals(10000, idGen.getTagCount());
+        assertEquals(0, idGen.getCache().size());
+        assertEquals(1, idGen.get("tenant-7").getId());
+        assertEquals(1, idGen.getCache().size());
+        assertEquals(Status.EXCEPTION, idGen.get("not-exists").getStatus());
+        assertEquals(1, idGen.getCache().size());
+    }
+
+    /**
+     * 空闲的buffer被淘汰，记录未发出的号段；之后发号从新的号段开始，句柄重新绑定
+     */
+    @Test
+    public void testEvictIdleBuffer() {
+        SegmentHandle handle = idGen.getHandle("tenant-1");
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, handle.get().getId());
+        }
+        idGen.get("tenant-2");
+        long now = System.currentTimeMillis();
+        /** 第一次检查清除访问标记 **/
+        idGen.evictColdBuffers(now);
+        assertEquals(2, idGen.getCache().size());
+        idGen.get("tenant-2");
+        idGen.evictColdBuffers(now + 1000);
+        assertEquals(1, idGen.getCache().size());
+        assertTrue(idGen.getCache().containsKey("tenant-2"));
+        assertEquals(1, idGen.getEvictions());
+
+        IdRange abandoned = idGen.getAbandonedRanges().get(0);
+        assertEquals("tenant-1", abandoned.getKey());
+        assertEquals(11, abandoned.getStart());
+        assertEquals(1001, abandoned.getEnd());
+        assertEquals(990, idGen.getAbandonedIds());
+
+        assertTrue(handle.isValid());
+        Result result = handle.get();
+        assertEquals(Status.SUCCESS, result.getStatus());
+        assertEquals(1001, result.getId());
+        SegmentBuffer rebuilt = idGen.getCache().get("tenant-1");
+        assertNotNull(rebuilt);
+        assertFalse(rebuilt.isEvicted());
+        assertEquals(1002, idGen.get("tenant-1").getId());
+    }
+}
@@ -0,0 +1,52 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentHandleTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag("leaf-segment-test", 1, 1000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.init();
+    }
+
+    @Test
+    public void testGetIdAcrossSegments() {
+        SegmentHandle handle = idGen.getHandle("leaf-segment-test");
+        assertNotNull(handle);
+        for (int i = 1; i <= 2500; i++) {
+            Result r = handle.get();
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertEquals(i, r.getId());
+        }
+        assertTrue(handle.isValid());
+    }
+
+    @Test
+    public void testUnknownKey() {
+        assertNull(idGen.getHandle("not-exists"));
+    }
+
+    @Test
+    public void testInvalidAfterTagRemoved() {
+        SegmentHandle handle = idGen.getHandle("leaf-segment-test");
+        assertEquals(Status.SUCCESS, handle.get().getStatus());
+        dao.removeTag("leaf-segment-test");
+        /** 保证删除后db中仍有数据，否则同步任务直接跳过 **/
+        dao.addTag("other", 1, 10);
+        idGen.updateCacheFromDb();
+        assertFalse(handle.isValid());
+        assertEquals(Status.EXCEPTION, handle.get().getStatus());
+        assertNull(idGen.getHandle("leaf-segment-test"));
+    }
+}
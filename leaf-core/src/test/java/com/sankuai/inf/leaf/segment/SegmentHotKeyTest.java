@@ -0,0 +1,99 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.model.HotKeyEvent;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SegmentHotKeyTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag("hot", 1, 2000);
+        dao.addTag("cold", 1, 2000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.init();
+        /** init之后再开启，不启动后台检测线程，由测试手动触发检测 **/
+        idGen.setHotKeyDetection(1000, 10, 8);
+    }
+
+    /**
+     * 发号速率超过阈值的key升级为分条发号，冷却后降级，升级和降级都有记录
+     */
+    @Test
+    public void testPromoteAndDemote() {
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Status.SUCCESS, idGen.get("hot").getStatus());
+        }
+        idGen.get("cold");
+        idGen.detectHotKeys(1000);
+        SegmentBuffer hot = idGen.getCache().get("hot");
+        assertNotNull(hot.getStriped());
+        assertTrue(hot.getRate() >= 1000);
+        assertNull(idGen.getCache().get("cold").getStriped());
+
+        for (int i = 0; i < 3; i++) {
+            idGen.detectHotKeys(1000);
+        }
+        assertNull(hot.getStriped());
+        List<HotKeyEvent> events = idGen.getHotKeyEvents();
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).isPromoted());
+        assertFalse(events.get(1).isPromoted());
+        assertEquals("hot", events.get(1).getKey());
+    }
+
+    /**
+     * 分条发号跨越多次号段切换，多线程发出的号码不重复
+     * 后备号段还没有更新完成时发号会失败(两个号段都不可用)，和普通发号一样由调用方重试
+     */
+    @Test
+    public void testStripedUnique() throws InterruptedException {
+        for (int i = 0; i < 5000; i++) {
+            idGen.get("hot");
+        }
+        idGen.detectHotKeys(1000);
+        assertNotNull(idGen.getCache().get("hot").getStriped());
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger failures = new AtomicInteger(0);
+        int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        Result result = idGen.get("hot");
+                        while (result.getStatus() != Status.SUCCESS
+                                && result.getId() == -3) {
+                            Thread.yield();
+                            result = idGen.get("hot");
+                        }
+                        if (result.getStatus() != Status.SUCCESS || !ids.add(result.getId())) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertEquals(0, failures.get());
+        assertEquals(threads * 20000, ids.size());
+    }
+}
@@ -0,0 +1,27 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+
+/**
+ * 测试中顺序发号的辅助方法
+ */
+public class SegmentIds {
+    /**
+     * 等后备号段更新线程执行完成后再发号
+     * 当前号段耗尽时后备号段还没有更新完成会直接返回-3，单线程连续发号的测试先等待更新，结果不受机器负载影响
+     * @param idGen
+     * @param key
+     * @return
+     */
+    public static Result get(SegmentIDGenImpl idGen, String key) {
+        SegmentBuffer buffer = idGen.getCache().get(key);
+        if (buffer != null) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (buffer.getThreadRunning().get() && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+        }
+        return idGen.get(key);
+    }
+}
@@ -0,0 +1,98 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.LatencyHistogram;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.common.TokenBucket;
+import com.sankuai.inf.leaf.segment.model.IssueOutcome;
+import com.sankuai.inf.leaf.segment.model.IssueStats;
+import com.sankuai.inf.leaf.segment.model.IssueTrace;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentIssueStatsTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag("a", 1, 100);
+        dao.addTag("limited", 1, 100);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.setIssueStats(true);
+        idGen.init();
+    }
+
+    /**
+     * 第一次发号记为INIT，号段耗尽后在写锁下切换记为SWITCH
+     */
+    @Test
+    public void testOutcomes() {
+        assertEquals(Status.SUCCESS, idGen.get("a").getStatus());
+        IssueTrace trace = idGen.lastIssueTrace();
+        assertEquals("a", trace.getKey());
+        assertEquals(IssueOutcome.INIT, trace.getOutcome());
+        assertTrue(trace.getInitNanos() > 0);
+        assertTrue(trace.getTotalNanos() >= trace.getInitNanos());
+
+        int switches = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Status.SUCCESS, SegmentIds.get(idGen, "a").getStatus());
+            if (idGen.lastIssueTrace().getOutcome() == IssueOutcome.SWITCH) {
+                switches++;
+                assertTrue(idGen.lastIssueTrace().getWaitNanos() >= 0);
+            }
+        }
+        IssueStats stats = idGen.getCache().get("a").getIssueStats();
+        assertEquals(1, stats.getCount(IssueOutcome.INIT));
+        assertTrue(switches > 0);
+        assertEquals(switches, stats.getCount(IssueOutcome.SWITCH));
+        assertEquals(switches, stats.getHistogram(IssueOutcome.SWITCH).getCount());
+        assertEquals(0, stats.getCount(IssueOutcome.FAIL));
+    }
+
+    /**
+     * 后备号段更新被限流，发号失败记为FAIL
+     */
+    @Test
+    public void testFail() {
+        idGen.setRefillQuota("limited", new TokenBucket(0.001, 1));
+        int failures = 0;
+        for (int i = 0; i < 500; i++) {
+            Result result = idGen.get("limited");
+            if (result.getStatus() != Status.SUCCESS) {
+                failures++;
+                assertEquals(IssueOutcome.FAIL, idGen.lastIssueTrace().getOutcome());
+            }
+        }
+        assertTrue(failures > 0);
+        assertEquals(failures, idGen.getCache().get("limited").getIssueStats().getCount(IssueOutcome.FAIL));
+    }
+
+    @Test
+    public void testStatsDisabled() {
+        idGen.setIssueStats(false);
+        idGen.get("a");
+        assertNull(idGen.lastIssueTrace());
+        assertNull(idGen.getCache().get("a").getIssueStats());
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000, 1);
+        }
+        histogram.record(1000000, 1);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1024, histogram.percentile(50));
+        assertEquals(1024, histogram.percentile(99));
+        assertEquals(1L << 20, histogram.percentile(100));
+        assertEquals(1L << 20, histogram.max());
+    }
+}
@@ -0,0 +1,85 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.common.TokenBucket;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentQuotaTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag("runaway", 1, 100);
+        dao.addTag("normal", 1, 100);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.init();
+    }
+
+    /**
+     * 超过发号限流的请求返回独立的异常码，不影响其他业务key
+     */
+    @Test
+    public void testIssueQuota() {
+        idGen.setIssueQuota("runaway", new TokenBucket(1, 10));
+        int success = 0;
+        int rejected = 0;
+        for (int i = 0; i < 100; i++) {
+            Result r = idGen.get("runaway");
+            if (r.getStatus() == Status.SUCCESS) {
+                success++;
+            } else {
+                assertEquals(SegmentIDGenImpl.EXCEPTION_ID_ISSUE_QUOTA_EXCEEDED, r.getId());
+                rejected++;
+            }
+            assertEquals(Status.SUCCESS, idGen.get("normal").getStatus());
+        }
+        assertTrue(success >= 10 && success <= 11);
+        assertEquals(rejected, idGen.getCache().get("runaway").getIssueQuota().getRejected());
+
+        idGen.setIssueQuota("runaway", null);
+        assertEquals(Status.SUCCESS, idGen.get("runaway").getStatus());
+    }
+
+    /**
+     * 后备号段更新被限流时，当前号段耗尽后返回独立的异常码，号码不会重复
+     */
+    @Test
+    public void testRefillQuota() {
+        idGen.setRefillQuota("runaway", new TokenBucket(0.001, 1));
+        long last = 0;
+        int refillRejected = 0;
+        for (int i = 0; i < 1000; i++) {
+            Result r = idGen.get("runaway");
+            if (r.getStatus() == Status.SUCCESS) {
+                assertTrue(r.getId() > last);
+                last = r.getId();
+            } else {
+                assertEquals(SegmentIDGenImpl.EXCEPTION_ID_REFILL_QUOTA_EXCEEDED, r.getId());
+                refillRejected++;
+            }
+        }
+        /** 首次装载不受限流，之后只允许更新一次后备号段 **/
+        assertEquals(200, last);
+        assertTrue(refillRejected > 0);
+        assertTrue(idGen.getCache().get("runaway").getRefillQuota().getRejected() > 0);
+    }
+
+    @Test
+    public void testTokenBucketParse() {
+        TokenBucket bucket = TokenBucket.parse("2.5:20");
+        assertEquals(2.5, bucket.getPermitsPerSecond(), 0.0001);
+        assertEquals(20, bucket.getBurst());
+        assertEquals(100, TokenBucket.parse("100").getBurst());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+    }
+}
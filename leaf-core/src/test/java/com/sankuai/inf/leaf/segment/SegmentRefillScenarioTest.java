@@ -0,0 +1,71 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sankuai.inf.leaf.segment.sim.SegmentSimulator;
+import com.sankuai.inf.leaf.segment.sim.SimulationReport;
+import com.sankuai.inf.leaf.segment.sim.TrafficCurve;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 存储变慢或者不稳定时号段发号的表现
+ * 在虚拟时间上执行，存储耗时表现为后备号段更新任务的延迟，结果与机器负载无关；
+ * 真实时钟下的延迟分布见leaf-bench的 RefillScenarioBench
+ */
+public class SegmentRefillScenarioTest {
+    private static final String KEY = "scenario";
+
+    /**
+     * 存储正常，号段总是提前就绪
+     */
+    @Test
+    public void testHealthy() {
+        SegmentSimulator simulator = new SegmentSimulator(dao(1000), KEY);
+        simulator.setRefillLatencyMillis(3);
+        SimulationReport report = simulator.run(TrafficCurve.constant(2000), 10000);
+        assertEquals(0, report.getErrors());
+        /** 只有第一次发号同步加载号段 **/
+        assertEquals(1, report.getWaits());
+    }
+
+    /**
+     * 存储更新耗时200ms，步长100在2000/s下只能用50ms，后备号段来不及就绪
+     * 同样的存储，步长2000时可以用1s，覆盖更新耗时
+     */
+    @Test
+    public void testSlowRefillStep() {
+        SegmentSimulator small = new SegmentSimulator(dao(100), KEY);
+        small.setRefillLatencyMillis(200);
+        SimulationReport smallStep = small.run(TrafficCurve.constant(2000), 10000);
+        assertTrue(smallStep.getWaits() > 1);
+
+        SegmentSimulator large = new SegmentSimulator(dao(2000), KEY);
+        large.setRefillLatencyMillis(200);
+        SimulationReport largeStep = large.run(TrafficCurve.constant(2000), 10000);
+        assertEquals(1, largeStep.getWaits());
+        assertEquals(0, largeStep.getErrors());
+        assertTrue(largeStep.getWaitMillis() < smallStep.getWaitMillis());
+    }
+
+    /**
+     * 存储一半的调用失败，后备号段更新会在后续发号时重试
+     */
+    @Test
+    public void testFlaky() {
+        FaultInjectingIDAllocDao dao = dao(500);
+        SegmentSimulator simulator = new SegmentSimulator(dao, KEY);
+        simulator.setRefillLatencyMillis(3);
+        dao.setErrorRate(0.5);
+        SimulationReport report = simulator.run(TrafficCurve.constant(2000), 10000);
+        assertTrue(dao.getErrors() > 0);
+        assertTrue(report.getIssued() > 0);
+        assertTrue(report.getErrors() < report.getRequests() / 2);
+    }
+
+    private FaultInjectingIDAllocDao dao(int step) {
+        MemoryIDAllocDao memory = new MemoryIDAllocDao();
+        memory.addTag(KEY, 1, step);
+        return new FaultInjectingIDAllocDao(memory, 7);
+    }
+}
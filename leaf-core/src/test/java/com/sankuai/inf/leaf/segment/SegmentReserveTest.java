@@ -0,0 +1,52 @@
+package com.sankuai.inf.leaf.segment;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.model.IdRange;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentReserveTest {
+    MemoryIDAllocDao dao;
+    SegmentIDGenImpl idGen;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        dao.addTag("leaf-segment-test", 1, 1000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        idGen.init();
+    }
+
+    /**
+     * 预留区间不经过号段缓存，在线发号继续使用当前号段，之后的号段从区间之后开始
+     */
+    @Test
+    public void testReserveAlongsideOnlineIds() {
+        assertEquals(1, idGen.get("leaf-segment-test").getId());
+        IdRange range = idGen.reserve("leaf-segment-test", 50000000);
+        assertNotNull(range);
+        assertEquals(50000000, range.getCount());
+        assertEquals(1001, range.getStart());
+        assertEquals(50001001, range.getEnd());
+        assertEquals(2, idGen.get("leaf-segment-test").getId());
+        for (int i = 3; i <= 3000; i++) {
+            Result r = SegmentIds.get(idGen, "leaf-segment-test");
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertTrue(r.getId() < range.getStart() || r.getId() >= range.getEnd());
+        }
+    }
+
+    @Test
+    public void testReserveUnknownKey() {
+        assertNull(idGen.reserve("not-exists", 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReserveNonPositiveCount() {
+        idGen.reserve("leaf-segment-test", 0);
+    }
+}
@@ -0,0 +1,37 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 测试用的内存H2 leaf_alloc库
+ */
+public class H2LeafAllocDb {
+
+    public static JdbcDataSource create(String name) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        execute(dataSource, "CREATE TABLE leaf_alloc (biz_tag varchar(128) NOT NULL DEFAULT '', "
+                + "max_id bigint NOT NULL DEFAULT 1, step int NOT NULL, description varchar(256) DEFAULT NULL, "
+                + "update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (biz_tag))");
+        return dataSource;
+    }
+
+    public static void drop(JdbcDataSource dataSource) throws SQLException {
+        execute(dataSource, "DROP ALL OBJECTS");
+    }
+
+    public static void execute(JdbcDataSource dataSource, String sql) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
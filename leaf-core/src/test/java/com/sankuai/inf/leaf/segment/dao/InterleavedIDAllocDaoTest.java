@@ -0,0 +1,154 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.SegmentIds;
+import com.sankuai.inf.leaf.segment.dao.impl.IDAllocDaoImpl;
+import com.sankuai.inf.leaf.segment.dao.impl.InterleavedIDAllocDao;
+import com.sankuai.inf.leaf.segment.model.IdRange;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class InterleavedIDAllocDaoTest {
+    static final long BLOCK = 10000;
+    List<JdbcDataSource> dataSources = new ArrayList<JdbcDataSource>();
+
+    @Before
+    public void before() throws SQLException {
+        for (int i = 0; i < 2; i++) {
+            JdbcDataSource dataSource = H2LeafAllocDb.create("leaf_ha_" + i);
+            H2LeafAllocDb.execute(dataSource, "insert into leaf_alloc(biz_tag, max_id, step) values('order', 1, 1000)");
+            dataSources.add(dataSource);
+        }
+    }
+
+    @After
+    public void after() throws SQLException {
+        for (JdbcDataSource dataSource : dataSources) {
+            H2LeafAllocDb.drop(dataSource);
+        }
+    }
+
+    @Test
+    public void testRangesNeverOverlapAcrossDatabases() throws Exception {
+        /** 两个leaf节点并发从两个库分配号段 **/
+        final List<InterleavedIDAllocDao> nodes = Arrays.asList(newDao(null), newDao(null));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<LeafAlloc>>> futures = new ArrayList<Future<List<LeafAlloc>>>();
+        for (int t = 0; t < 4; t++) {
+            final InterleavedIDAllocDao dao = nodes.get(t % 2);
+            final int custom = t < 2 ? 0 : 3000;
+            futures.add(executor.submit(new Callable<List<LeafAlloc>>() {
+                @Override
+                public List<LeafAlloc> call() {
+                    List<LeafAlloc> result = new ArrayList<LeafAlloc>();
+                    for (int i = 0; i < 30; i++) {
+                        if (custom == 0) {
+                            result.add(dao.updateMaxIdAndGetLeafAlloc("order"));
+                        } else {
+                            LeafAlloc request = new LeafAlloc();
+                            request.setKey("order");
+                            request.setStep(custom);
+                            LeafAlloc leafAlloc = dao.updateMaxIdByCustomStepAndGetLeafAlloc(request);
+                            /** 与SegmentIDGenImpl一致，号段为[maxId - 自定义步长, maxId) **/
+                            leafAlloc.setStep(custom);
+                            result.add(leafAlloc);
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+        TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+        Set<Long> blocks = new HashSet<Long>();
+        for (Future<List<LeafAlloc>> future : futures) {
+            for (LeafAlloc leafAlloc : future.get()) {
+                long start = leafAlloc.getMaxId() - leafAlloc.getStep();
+                assertNull(ranges.put(start, leafAlloc.getMaxId()));
+                /** 号段不跨块 **/
+                assertEquals(start / BLOCK, (leafAlloc.getMaxId() - 1) / BLOCK);
+                blocks.add(start / BLOCK % 2);
+            }
+        }
+        long end = Long.MIN_VALUE;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            assertTrue(range.getKey() >= end);
+            end = range.getValue();
+        }
+        /** 两个库都分配过号段 **/
+        assertEquals(2, blocks.size());
+        executor.shutdown();
+        for (InterleavedIDAllocDao node : nodes) {
+            node.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetIdDuringSingleDatabaseOutage() {
+        InterleavedIDAllocDao dao = newDao(new IDAllocDaoImpl(dataSources.get(1)) {
+            @Override
+            public LeafAlloc getLeafAlloc(String tag) {
+                throw new IllegalStateException("database down");
+            }
+        });
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        Set<Long> ids = new HashSet<Long>();
+        for (int i = 0; i < 5000; i++) {
+            Result r = SegmentIds.get(idGen, "order");
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertTrue(ids.add(r.getId()));
+            assertEquals(0, r.getId() / BLOCK % 2);
+        }
+        dao.shutdown();
+    }
+
+    /**
+     * 预留的区间落在一个归属的块内，与在线号段不重叠；超过块大小时直接拒绝，不影响后续分配
+     */
+    @Test
+    public void testReserveWithinOwnedBlock() {
+        InterleavedIDAllocDao dao = newDao(null);
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        assertEquals(Status.SUCCESS, idGen.get("order").getStatus());
+        IdRange range = idGen.reserve("order", (int) BLOCK);
+        assertEquals(BLOCK, range.getCount());
+        assertEquals(0, range.getStart() % BLOCK);
+        try {
+            idGen.reserve("order", (int) BLOCK + 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("step " + (BLOCK + 1) + " of order must be in (0, " + BLOCK + "]", e.getMessage());
+        }
+        IdRange next = idGen.reserve("order", 5000);
+        assertTrue(next.getStart() >= range.getEnd() || next.getEnd() <= range.getStart());
+        for (int i = 0; i < 3000; i++) {
+            Result r = SegmentIds.get(idGen, "order");
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertTrue(r.getId() < range.getStart() || r.getId() >= range.getEnd());
+            assertTrue(r.getId() < next.getStart() || r.getId() >= next.getEnd());
+        }
+        idGen.close();
+        dao.shutdown();
+    }
+
+    private InterleavedIDAllocDao newDao(IDAllocDaoImpl second) {
+        List<IDAllocDaoImpl> databases = new ArrayList<IDAllocDaoImpl>();
+        databases.add(new IDAllocDaoImpl(dataSources.get(0)));
+        databases.add(second != null ? second : new IDAllocDaoImpl(dataSources.get(1)));
+        return new InterleavedIDAllocDao(databases, BLOCK, 20);
+    }
+}
@@ -0,0 +1,118 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.SegmentIds;
+import com.sankuai.inf.leaf.segment.dao.impl.MappedFileIDAllocDao;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class MappedFileIDAllocDaoTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAddRemoveAndReopen() throws Exception {
+        String path = new File(folder.getRoot(), "leaf_alloc.dat").getPath();
+        MappedFileIDAllocDao dao = new MappedFileIDAllocDao(path, 2);
+        assertTrue(dao.addTag("a", 1, 100));
+        assertFalse(dao.addTag("a", 1, 100));
+        /** 超过初始容量，自动扩容 **/
+        assertTrue(dao.addTag("b", 1, 200));
+        assertTrue(dao.addTag("c", 1, 300));
+        assertEquals(101, dao.updateMaxIdAndGetLeafAlloc("a").getMaxId());
+        LeafAlloc custom = new LeafAlloc();
+        custom.setKey("b");
+        custom.setStep(1000);
+        LeafAlloc b = dao.updateMaxIdByCustomStepAndGetLeafAlloc(custom);
+        assertEquals(1001, b.getMaxId());
+        assertEquals(200, b.getStep());
+        assertTrue(dao.removeTag("c"));
+        assertFalse(dao.removeTag("c"));
+        dao.close();
+
+        dao = new MappedFileIDAllocDao(path);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), new HashSet<String>(dao.getAllTags()));
+        assertEquals(201, dao.updateMaxIdAndGetLeafAlloc("a").getMaxId());
+        assertEquals(1201, dao.updateMaxIdAndGetLeafAlloc("b").getMaxId());
+        assertEquals(2, dao.getAllLeafAllocs().size());
+        dao.close();
+    }
+
+    @Test
+    public void testLeafAllocsAfter() throws Exception {
+        MappedFileIDAllocDao dao = new MappedFileIDAllocDao(new File(folder.getRoot(), "page.dat").getPath());
+        for (int i = 9; i >= 0; i--) {
+            dao.addTag("tag" + i, i, 100);
+        }
+        dao.addTag("other", 1, 100);
+        List<LeafAlloc> page = dao.getLeafAllocsAfter(null, "tag", 4);
+        assertEquals(4, page.size());
+        assertEquals("tag0", page.get(0).getKey());
+        assertEquals("tag3", page.get(3).getKey());
+        assertEquals(3, page.get(3).getMaxId());
+        page = dao.getLeafAllocsAfter("tag7", "tag", 4);
+        assertEquals(2, page.size());
+        assertEquals("tag9", page.get(1).getKey());
+        assertEquals(11, dao.getLeafAllocsAfter(null, null, 100).size());
+    }
+
+    @Test
+    public void testConcurrentRefillsAreGroupCommitted() throws Exception {
+        final MappedFileIDAllocDao dao = new MappedFileIDAllocDao(new File(folder.getRoot(), "group.dat").getPath());
+        final int threads = 16;
+        final int rounds = 200;
+        for (int i = 0; i < threads; i++) {
+            dao.addTag("tag" + i, 1, 10);
+        }
+        long before = dao.getSyncCount();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int i = 0; i < threads; i++) {
+            final String tag = "tag" + i;
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long last = 0;
+                    for (int r = 0; r < rounds; r++) {
+                        long maxId = dao.updateMaxIdAndGetLeafAlloc(tag).getMaxId();
+                        assertTrue(maxId > last);
+                        last = maxId;
+                    }
+                    return last;
+                }
+            }));
+        }
+        for (Future<Long> future : futures) {
+            assertEquals(1 + rounds * 10, (long) future.get());
+        }
+        long syncs = dao.getSyncCount() - before;
+        assertTrue(syncs > 0);
+        assertTrue(syncs <= threads * rounds);
+        executor.shutdown();
+        dao.close();
+    }
+
+    @Test
+    public void testGetIdFromFile() throws Exception {
+        MappedFileIDAllocDao dao = new MappedFileIDAllocDao(new File(folder.getRoot(), "gen.dat").getPath());
+        dao.addTag("leaf-segment-test", 1, 2000);
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        for (int i = 1; i <= 5000; i++) {
+            Result r = SegmentIds.get(idGen, "leaf-segment-test");
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertEquals(i, r.getId());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.SegmentIds;
+import com.sankuai.inf.leaf.segment.dao.impl.RaftIDAllocDao;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.raft.FileRaftStorage;
+import com.sankuai.inf.leaf.segment.raft.LocalRaftTransport;
+import com.sankuai.inf.leaf.segment.raft.MemoryRaftStorage;
+import com.sankuai.inf.leaf.segment.raft.RaftNode;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class RaftIDAllocDaoTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    LocalRaftTransport network = new LocalRaftTransport();
+    List<RaftNode> nodes = new ArrayList<RaftNode>();
+
+    @After
+    public void after() {
+        for (RaftNode node : nodes) {
+            node.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        startCluster(3, RaftNode.DEFAULT_SNAPSHOT_THRESHOLD);
+        RaftNode follower = anyFollower();
+        RaftIDAllocDao dao = new RaftIDAllocDao(follower);
+        assertTrue(dao.addTag("a", 1, 100));
+        assertFalse(dao.addTag("a", 1, 100));
+        assertEquals(101, dao.updateMaxIdAndGetLeafAlloc("a").getMaxId());
+        LeafAlloc custom = new LeafAlloc();
+        custom.setKey("a");
+        custom.setStep(1000);
+        assertEquals(1101, dao.updateMaxIdByCustomStepAndGetLeafAlloc(custom).getMaxId());
+        for (RaftNode node : nodes) {
+            awaitState(node, "a", 1101);
+        }
+        assertTrue(dao.removeTag("a"));
+        try {
+            dao.updateMaxIdAndGetLeafAlloc("a");
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testGetIdOnAllNodes() throws Exception {
+        startCluster(3, RaftNode.DEFAULT_SNAPSHOT_THRESHOLD);
+        new RaftIDAllocDao(nodes.get(0)).addTag("leaf-segment-test", 1, 2000);
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (RaftNode node : nodes) {
+            awaitState(node, "leaf-segment-test", 1);
+            final SegmentIDGenImpl idGen = newIdGen(node);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < 5000; i++) {
+                        Result r = idGen.get("leaf-segment-test");
+                        assertEquals(Status.SUCCESS, r.getStatus());
+                        assertTrue(ids.add(r.getId()));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(15000, ids.size());
+    }
+
+    /**
+     * leader断开后，剩下的节点重新选主，预取的号段覆盖切换期间的发号
+     */
+    @Test
+    public void testLeaderFailover() throws Exception {
+        startCluster(3, RaftNode.DEFAULT_SNAPSHOT_THRESHOLD);
+        RaftNode leader = leader();
+        new RaftIDAllocDao(leader).addTag("leaf-segment-test", 1, 2000);
+        List<RaftNode> survivors = new ArrayList<RaftNode>(nodes);
+        survivors.remove(leader);
+        List<SegmentIDGenImpl> idGens = new ArrayList<SegmentIDGenImpl>();
+        for (RaftNode node : survivors) {
+            awaitState(node, "leaf-segment-test", 1);
+            idGens.add(newIdGen(node));
+        }
+        Set<Long> ids = new HashSet<Long>();
+        for (int i = 0; i < 3000; i++) {
+            for (SegmentIDGenImpl idGen : idGens) {
+                assertTrue(ids.add(idGen.get("leaf-segment-test").getId()));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        network.disconnect(leader.getId());
+        RaftNode newLeader = null;
+        while (newLeader == null && System.currentTimeMillis() - start < 5000) {
+            for (RaftNode node : survivors) {
+                if (node.isLeader()) {
+                    newLeader = node;
+                }
+            }
+            Thread.sleep(5);
+        }
+        assertNotNull(newLeader);
+        long failover = System.currentTimeMillis() - start;
+        assertTrue(failover < 2 * 2 * RaftNode.DEFAULT_ELECTION_TIMEOUT_MS + 500);
+
+        for (int i = 0; i < 3000; i++) {
+            for (SegmentIDGenImpl idGen : idGens) {
+                Result r = SegmentIds.get(idGen, "leaf-segment-test");
+                assertEquals(Status.SUCCESS, r.getStatus());
+                assertTrue(ids.add(r.getId()));
+            }
+        }
+        /** 被隔离的旧leader联系不上多数派，主动退位 **/
+        Thread.sleep(3 * RaftNode.DEFAULT_ELECTION_TIMEOUT_MS);
+        assertFalse(leader.isLeader());
+    }
+
+    /**
+     * 落后太多的follower通过快照追上leader
+     */
+    @Test
+    public void testSnapshotCatchUp() throws Exception {
+        startCluster(3, 20);
+        RaftNode leader = leader();
+        RaftIDAllocDao dao = new RaftIDAllocDao(leader);
+        dao.addTag("a", 0, 10);
+        RaftNode lagging = anyFollower();
+        network.disconnect(lagging.getId());
+        for (int i = 0; i < 100; i++) {
+            dao.updateMaxIdAndGetLeafAlloc("a");
+        }
+        assertTrue(leader.getSnapshotIndex() > 0);
+        network.connect(lagging.getId());
+        awaitState(lagging, "a", 1000);
+        assertTrue(lagging.getSnapshotIndex() > 0);
+    }
+
+    @Test
+    public void testFileStorageRecovery() throws Exception {
+        java.io.File dir = folder.newFolder("raft");
+        RaftNode node = new RaftNode("n0", Collections.singletonList("n0"), network.endpoint("n0"), new FileRaftStorage(dir), 300, 50, 5);
+        node.start();
+        assertTrue(node.awaitReady(5000));
+        RaftIDAllocDao dao = new RaftIDAllocDao(node);
+        dao.addTag("a", 0, 10);
+        for (int i = 0; i < 12; i++) {
+            dao.updateMaxIdAndGetLeafAlloc("a");
+        }
+        long term = node.getCurrentTerm();
+        node.shutdown();
+
+        RaftNode restarted = new RaftNode("n0", Collections.singletonList("n0"), network.endpoint("n0"), new FileRaftStorage(dir), 300, 50, 5);
+        nodes.add(restarted);
+        restarted.start();
+        assertTrue(restarted.awaitReady(5000));
+        assertTrue(restarted.getCurrentTerm() > term);
+        assertEquals(130, new RaftIDAllocDao(restarted).updateMaxIdAndGetLeafAlloc("a").getMaxId());
+    }
+
+    private void startCluster(int size, int snapshotThreshold) throws Exception {
+        List<String> members = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            members.add("n" + i);
+        }
+        for (String id : members) {
+            RaftNode node = new RaftNode(id, members, network.endpoint(id), new MemoryRaftStorage(),
+                    RaftNode.DEFAULT_ELECTION_TIMEOUT_MS, RaftNode.DEFAULT_HEARTBEAT_MS, snapshotThreshold);
+            network.register(node);
+            nodes.add(node);
+        }
+        for (RaftNode node : nodes) {
+            node.start();
+        }
+        for (RaftNode node : nodes) {
+            assertTrue(node.awaitReady(5000));
+        }
+    }
+
+    private SegmentIDGenImpl newIdGen(RaftNode node) {
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(new RaftIDAllocDao(node));
+        assertTrue(idGen.init());
+        return idGen;
+    }
+
+    private RaftNode leader() {
+        for (RaftNode node : nodes) {
+            if (node.isLeader()) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("no leader");
+    }
+
+    private RaftNode anyFollower() {
+        for (RaftNode node : nodes) {
+            if (!node.isLeader()) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("no follower");
+    }
+
+    private void awaitState(RaftNode node, String tag, long maxId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            for (LeafAlloc leafAlloc : node.getLeafAllocs()) {
+                if (leafAlloc.getKey().equals(tag) && leafAlloc.getMaxId() >= maxId) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail(node.getId() + " not catch up " + tag + " " + maxId);
+    }
+}
@@ -0,0 +1,244 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.SegmentIds;
+import com.sankuai.inf.leaf.segment.dao.impl.FaultInjectingIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.IDAllocDaoImpl;
+import com.sankuai.inf.leaf.segment.dao.impl.ShardingIDAllocDao;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import org.apache.ibatis.session.Configuration;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardingIDAllocDaoTest {
+    List<JdbcDataSource> dataSources = new ArrayList<JdbcDataSource>();
+    ShardingIDAllocDao dao;
+
+    @Before
+    public void before() throws SQLException {
+        List<IDAllocDao> shards = new ArrayList<IDAllocDao>();
+        for (int i = 0; i < 2; i++) {
+            JdbcDataSource dataSource = H2LeafAllocDb.create("leaf_shard_" + i);
+            dataSources.add(dataSource);
+            shards.add(new IDAllocDaoImpl(dataSource));
+        }
+        H2LeafAllocDb.execute(dataSources.get(0), "insert into leaf_alloc(biz_tag, max_id, step) values('order', 1, 2000)");
+        H2LeafAllocDb.execute(dataSources.get(1), "insert into leaf_alloc(biz_tag, max_id, step) values('item', 1, 2000)");
+        dao = new ShardingIDAllocDao(shards, Collections.singletonMap("order", 0));
+    }
+
+    @After
+    public void after() throws SQLException {
+        dao.shutdown();
+        for (JdbcDataSource dataSource : dataSources) {
+            H2LeafAllocDb.drop(dataSource);
+        }
+    }
+
+    @Test
+    public void testTagsMergedAndRouted() {
+        List<String> tags = dao.getAllTags();
+        assertEquals(new HashSet<String>(Arrays.asList("order", "item")), new HashSet<String>(tags));
+        assertEquals(0, dao.shardOf("order"));
+        /** item没有显式路由，按同步时发现的分库路由 **/
+        assertEquals(1, dao.shardOf("item"));
+        assertEquals(2, dao.getAllLeafAllocs().size());
+
+        LeafAlloc leafAlloc = dao.updateMaxIdAndGetLeafAlloc("item");
+        assertEquals(2001, leafAlloc.getMaxId());
+    }
+
+    /**
+     * 各分片按游标分页后合并，前缀中的通配符按字面匹配
+     */
+    @Test
+    public void testLeafAllocsAfter() throws SQLException {
+        H2LeafAllocDb.execute(dataSources.get(0), "insert into leaf_alloc(biz_tag, max_id, step) values('order_a', 1, 2000)");
+        H2LeafAllocDb.execute(dataSources.get(1), "insert into leaf_alloc(biz_tag, max_id, step) values('orderxb', 1, 2000)");
+        H2LeafAllocDb.execute(dataSources.get(1), "insert into leaf_alloc(biz_tag, max_id, step) values('order_c', 1, 2000)");
+        List<LeafAlloc> page = dao.getLeafAllocsAfter(null, "order", 2);
+        assertEquals(Arrays.asList("order", "order_a"), keys(page));
+        page = dao.getLeafAllocsAfter("order_a", "order", 2);
+        assertEquals(Arrays.asList("order_c", "orderxb"), keys(page));
+        assertTrue(dao.getLeafAllocsAfter("orderxb", "order", 2).isEmpty());
+        assertEquals(Arrays.asList("order_a", "order_c"), keys(dao.getLeafAllocsAfter("", "order_", 10)));
+    }
+
+    /**
+     * 大小写混合的biz_tag分布在不同分片，逐页合并的顺序与String顺序一致，前缀区分大小写
+     */
+    @Test
+    public void testMixedCaseCursor() throws SQLException {
+        List<String> expected = new ArrayList<String>(Arrays.asList("order", "item"));
+        String[] tags = {"Order_b", "ORDER", "order_B", "Order_a", "item_A", "Item", "b", "B", "a"};
+        for (int i = 0; i < tags.length; i++) {
+            H2LeafAllocDb.execute(dataSources.get(i % 2),
+                    "insert into leaf_alloc(biz_tag, max_id, step) values('" + tags[i] + "', 1, 2000)");
+            expected.add(tags[i]);
+        }
+        Collections.sort(expected);
+        List<String> paged = new ArrayList<String>();
+        String cursor = null;
+        while (true) {
+            List<LeafAlloc> page = dao.getLeafAllocsAfter(cursor, null, 2);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(keys(page));
+            cursor = page.get(page.size() - 1).getKey();
+        }
+        assertEquals(expected, paged);
+        assertEquals(keys(LeafAllocCursors.select(dao.getAllLeafAllocs(), null, null, 100)), paged);
+        assertEquals(Arrays.asList("Order_a", "Order_b"), keys(dao.getLeafAllocsAfter(null, "Order", 10)));
+    }
+
+    /**
+     * MySQL默认的排序规则不区分大小写，分页查询按二进制比较和排序
+     */
+    @Test
+    public void testMysqlCursorIsBinary() {
+        Configuration configuration = new Configuration();
+        configuration.addMapper(IDAllocMapper.class);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("cursor", "Order");
+        params.put("pattern", "%");
+        params.put("limit", 10);
+        params.put("binary", true);
+        String sql = configuration.getMappedStatement("com.sankuai.inf.leaf.segment.dao.IDAllocMapper.getLeafAllocsAfter")
+                .getBoundSql(params).getSql();
+        assertTrue(sql, sql.contains("BINARY biz_tag > ?"));
+        assertTrue(sql, sql.contains("biz_tag LIKE BINARY ?"));
+        assertTrue(sql, sql.contains("ORDER BY BINARY biz_tag"));
+        params.put("binary", false);
+        sql = configuration.getMappedStatement("com.sankuai.inf.leaf.segment.dao.IDAllocMapper.getLeafAllocsAfter")
+                .getBoundSql(params).getSql();
+        assertFalse(sql, sql.contains("BINARY"));
+    }
+
+    private List<String> keys(List<LeafAlloc> leafAllocs) {
+        List<String> keys = new ArrayList<String>();
+        for (LeafAlloc leafAlloc : leafAllocs) {
+            keys.add(leafAlloc.getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testGetIdFromShards() {
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        for (String tag : Arrays.asList("order", "item")) {
+            Set<Long> ids = new HashSet<Long>();
+            for (int i = 0; i < 1000; i++) {
+                Result r = SegmentIds.get(idGen, tag);
+                assertEquals(Status.SUCCESS, r.getStatus());
+                assertTrue(ids.add(r.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testSlowShardDoesNotBlockOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final IDAllocDao slow = new IDAllocDaoImpl(dataSources.get(1)) {
+            @Override
+            public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+            }
+        };
+        H2LeafAllocDb.execute(dataSources.get(1), "update leaf_alloc set step = 100 where biz_tag = 'item'");
+        dao.shutdown();
+        dao = new ShardingIDAllocDao(Arrays.<IDAllocDao>asList(new IDAllocDaoImpl(dataSources.get(0)), slow));
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        /** item的第三次号段更新会卡住，order不受影响 **/
+        for (int i = 0; i < 250; i++) {
+            idGen.get("item");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Status.SUCCESS, SegmentIds.get(idGen, "order").getStatus());
+        }
+        release.countDown();
+    }
+
+    /**
+     * 装饰后的分库DAO仍然使用分片自己的更新线程池，调用方传入的线程池优先
+     */
+    @Test
+    public void testShardExecutorsThroughWrapper() throws Exception {
+        final Queue<String> threads = new ConcurrentLinkedQueue<String>();
+        IDAllocDao recording = new IDAllocDaoImpl(dataSources.get(1)) {
+            @Override
+            public LeafAlloc updateMaxIdByCustomStepAndGetLeafAlloc(LeafAlloc leafAlloc) {
+                threads.add(Thread.currentThread().getName());
+                return super.updateMaxIdByCustomStepAndGetLeafAlloc(leafAlloc);
+            }
+        };
+        H2LeafAllocDb.execute(dataSources.get(1), "update leaf_alloc set step = 100 where biz_tag = 'item'");
+        dao.shutdown();
+        dao = new ShardingIDAllocDao(Arrays.<IDAllocDao>asList(new IDAllocDaoImpl(dataSources.get(0)), recording));
+        FaultInjectingIDAllocDao wrapped = new FaultInjectingIDAllocDao(dao);
+        assertSame(dao.getUpdateExecutor("item"), wrapped.getUpdateExecutor("item"));
+
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(wrapped);
+        assertTrue(idGen.init());
+        for (int i = 0; i < 250; i++) {
+            assertEquals(Status.SUCCESS, SegmentIds.get(idGen, "item").getStatus());
+        }
+        idGen.close();
+        assertTrue(threads.toString(), threads.toString().contains("Thread-Segment-Update-Shard1-"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "explicit-update");
+            }
+        });
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(wrapped);
+        idGen.setUpdateExecutor(executor);
+        assertTrue(idGen.init());
+        for (int i = 0; i < 250; i++) {
+            assertEquals(Status.SUCCESS, SegmentIds.get(idGen, "item").getStatus());
+        }
+        idGen.close();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(threads.toString(), threads.contains("explicit-update"));
+    }
+
+    /**
+     * 通过装饰器关闭时停止全部分片的线程池
+     */
+    @Test
+    public void testCloseThroughWrapper() throws IOException {
+        ExecutorService executor = dao.getUpdateExecutor("order");
+        new FaultInjectingIDAllocDao(dao).close();
+        assertTrue(executor.isShutdown());
+        assertTrue(dao.getUpdateExecutor("item").isShutdown());
+    }
+}
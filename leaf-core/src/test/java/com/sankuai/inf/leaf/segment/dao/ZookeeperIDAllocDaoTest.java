@@ -0,0 +1,136 @@
+package com.sankuai.inf.leaf.segment.dao;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.SegmentIds;
+import com.sankuai.inf.leaf.segment.dao.impl.ZookeeperIDAllocDao;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ZookeeperIDAllocDaoTest {
+    TestingServer server;
+    List<CuratorFramework> clients = new ArrayList<CuratorFramework>();
+
+    @Before
+    public void before() throws Exception {
+        server = new TestingServer();
+    }
+
+    @After
+    public void after() throws Exception {
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testTags() {
+        ZookeeperIDAllocDao dao = newDao();
+        assertTrue(dao.getAllTags().isEmpty());
+        assertTrue(dao.addTag("a", 1, 100));
+        assertFalse(dao.addTag("a", 1, 100));
+        assertTrue(dao.addTag("b", 1, 200));
+        assertEquals(101, dao.updateMaxIdAndGetLeafAlloc("a").getMaxId());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), new HashSet<String>(dao.getAllTags()));
+        assertEquals(2, dao.getAllLeafAllocs().size());
+        assertTrue(dao.removeTag("b"));
+        assertEquals(Collections.singletonList("a"), dao.getAllTags());
+    }
+
+    @Test
+    public void testGetId() {
+        ZookeeperIDAllocDao dao = newDao();
+        dao.addTag("leaf-segment-test", 1, 2000);
+        SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        for (int i = 1; i <= 5000; i++) {
+            Result r = SegmentIds.get(idGen, "leaf-segment-test");
+            assertEquals(Status.SUCCESS, r.getStatus());
+            assertEquals(i, r.getId());
+        }
+    }
+
+    /**
+     * 多个客户端并发更新同一个业务key，冲突后重试，分配的号段既不重复也不跳号
+     * 单个客户端不会冲突；冲突次数和更新耗时的测量见leaf-bench的 ZookeeperContentionBench
+     */
+    @Test
+    public void testContention() throws Exception {
+        newDao().addTag("hot", 1, 100);
+        assertEquals(0, runContention("hot", 1, 20, 1));
+        /** 竞争下只检查正确性，冲突次数取决于调度；重试次数足够大，不会因为冲突失败 **/
+        runContention("hot", 4, 20, 1 + 20 * 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxRetry() {
+        newDao().setMaxRetry(0);
+    }
+
+    /**
+     * @return 全部客户端的冲突次数
+     */
+    private long runContention(final String tag, int clientCount, final int rounds, long startMaxId) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+        List<ZookeeperIDAllocDao> daos = new ArrayList<ZookeeperIDAllocDao>();
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        for (int c = 0; c < clientCount; c++) {
+            final ZookeeperIDAllocDao dao = newDao();
+            dao.setMaxRetry(1000);
+            daos.add(dao);
+            futures.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    long[] maxIds = new long[rounds];
+                    for (int r = 0; r < rounds; r++) {
+                        maxIds[r] = dao.updateMaxIdAndGetLeafAlloc(tag).getMaxId();
+                    }
+                    return maxIds;
+                }
+            }));
+        }
+        Set<Long> maxIds = new HashSet<Long>();
+        for (Future<long[]> future : futures) {
+            for (long maxId : future.get()) {
+                assertTrue(maxIds.add(maxId));
+            }
+        }
+        for (int i = 1; i <= clientCount * rounds; i++) {
+            assertTrue(maxIds.contains(startMaxId + i * 100L));
+        }
+        executor.shutdown();
+        long conflicts = 0;
+        for (ZookeeperIDAllocDao dao : daos) {
+            conflicts += dao.getConflicts();
+        }
+        return conflicts;
+    }
+
+    private ZookeeperIDAllocDao newDao() {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(1000));
+        client.start();
+        clients.add(client);
+        return new ZookeeperIDAllocDao(client, "/segment/test");
+    }
+}
@@ -0,0 +1,92 @@
+package com.sankuai.inf.leaf.segment.sim;
+
+import com.sankuai.inf.leaf.segment.MemoryIDAllocDao;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class SegmentSimulatorTest {
+    private static final long HOUR = 3600 * 1000L;
+
+    private SegmentSimulator simulator(int step) {
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        dao.addTag("sim", 1, step);
+        return new SegmentSimulator(dao, "sim");
+    }
+
+    /**
+     * 每秒100个请求，号段用不到15分钟时步长翻倍
+     * 间隔是两次更新之间的时间，即上一个号段的使用时间，所以会比刚好够用15分钟的128000多翻倍一次
+     */
+    @Test
+    public void testStepGrowth() {
+        SegmentSimulator simulator = simulator(1000);
+        SimulationReport report = simulator.run(TrafficCurve.constant(100), 2 * HOUR);
+        assertEquals(720000, report.getRequests());
+        assertEquals(report.getRequests(), report.getIssued());
+        assertEquals(0, report.getErrors());
+        /** 只有第一次发号等待初始化 **/
+        assertEquals(1, report.getWaits());
+        assertEquals(256000, report.getMaxStep());
+        assertTrue(report.getDbRoundTrips() < 20);
+        assertTrue(report.getStepChanges().size() > 5);
+    }
+
+    /**
+     * 流量下降后，号段用了30分钟以上才更新时步长减半
+     */
+    @Test
+    public void testStepShrink() {
+        SegmentSimulator simulator = simulator(1000);
+        TrafficCurve curve = TrafficCurve.piecewise(new long[]{0, HOUR, HOUR + 1}, new double[]{50, 50, 20});
+        SimulationReport report = simulator.run(curve, 6 * HOUR);
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getFinalStep() < report.getMaxStep());
+    }
+
+    /**
+     * 存储耗时超过一个号段能用的时间，后备号段来不及就绪，请求需要等待
+     */
+    @Test
+    public void testSlowRefill() {
+        SegmentSimulator simulator = simulator(100);
+        simulator.setRefillLatencyMillis(50);
+        SimulationReport report = simulator.run(TrafficCurve.constant(10000), 10000);
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getWaits() > 1);
+        assertTrue(report.getNearExhaustions() > 0);
+        assertTrue(report.getMaxWaitMillis() <= 50);
+    }
+
+    @Test
+    public void testRestart() {
+        SegmentSimulator simulator = simulator(1000);
+        simulator.addRestart(HOUR);
+        SimulationReport report = simulator.run(TrafficCurve.constant(100), 2 * HOUR);
+        assertEquals(1, report.getRestarts());
+        assertTrue(report.getWastedIds() > 0);
+        /** 启动和重启后各初始化一次 **/
+        assertEquals(2, report.getWaits());
+        assertEquals(0, report.getErrors());
+    }
+
+    @Test
+    public void testDeterministic() {
+        TrafficCurve curve = TrafficCurve.diurnal(10, 200, 24 * HOUR);
+        SimulationReport first = simulator(1000).run(curve, 4 * HOUR);
+        SimulationReport second = simulator(1000).run(curve, 4 * HOUR);
+        assertEquals(first.getRequests(), second.getRequests());
+        assertEquals(first.getDbRoundTrips(), second.getDbRoundTrips());
+        assertEquals(first.getFinalStep(), second.getFinalStep());
+    }
+
+    @Test
+    public void testCsvCurve() throws Exception {
+        TrafficCurve curve = TrafficCurve.fromCsv(new StringReader("# seconds,rate\n0,100\n\n60,200\n"));
+        assertEquals(100, curve.rateAt(0), 0.001);
+        assertEquals(150, curve.rateAt(30000), 0.001);
+        assertEquals(200, curve.rateAt(120000), 0.001);
+    }
+}
@@ -0,0 +1,128 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachedSnowflakeIDGenTest {
+
+    /**
+     * 多线程从环形数组取号，号码不重复，且时间戳不超前借用窗口
+     */
+    @Test
+    public void testConcurrentGet() throws InterruptedException {
+        final SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new SnowflakeIDGenImplTest.FixedHolder(2));
+        final CachedSnowflakeIDGen cached = new CachedSnowflakeIDGen(idGen, 1024, 50, 20, 1000);
+        cached.init();
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger failures = new AtomicInteger(0);
+        int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        Result result = cached.get("a");
+                        if (result.getStatus() != Status.SUCCESS || !ids.add(result.getId())
+                                || idGen.timestampOf(result.getId()) > System.currentTimeMillis() + 20) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        cached.close();
+        assertEquals(0, failures.get());
+        assertEquals(8 * 50000, ids.size());
+    }
+
+    /**
+     * 空闲后环形数组中的号码过旧，后台线程丢弃后重新填充，取号时不再检查
+     */
+    @Test
+    public void testDiscardStale() throws InterruptedException {
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new SnowflakeIDGenImplTest.FixedHolder(3));
+        CachedSnowflakeIDGen cached = new CachedSnowflakeIDGen(idGen, 256, 50, 20, 50);
+        cached.init();
+        awaitAvailable(cached, 256);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cached.getDiscarded() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(cached.getDiscarded() > 0);
+        long now = System.currentTimeMillis();
+        Result result = cached.get("a");
+        assertEquals(Status.SUCCESS, result.getStatus());
+        assertTrue(idGen.timestampOf(result.getId()) >= now - 50);
+        assertTrue(cached.getDiscarded() > 0);
+        cached.close();
+    }
+
+    /**
+     * 后台线程没有启动时在调用线程上直接发号
+     */
+    @Test
+    public void testGetWithoutFiller() {
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new SnowflakeIDGenImplTest.FixedHolder(4));
+        CachedSnowflakeIDGen cached = new CachedSnowflakeIDGen(idGen, 16, 50, 0, 1000);
+        long last = -1;
+        for (int i = 0; i < 10000; i++) {
+            Result result = cached.get("a");
+            assertEquals(Status.SUCCESS, result.getStatus());
+            assertTrue(result.getId() > last);
+            last = result.getId();
+        }
+        assertEquals(0, cached.getAvailable());
+    }
+
+    /**
+     * 一次取的数量超过环形数组中剩余的号码，先取走数组中的号码，其余在调用线程上直接发号
+     */
+    @Test
+    public void testBatchGet() throws InterruptedException {
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new SnowflakeIDGenImplTest.FixedHolder(6));
+        CachedSnowflakeIDGen cached = new CachedSnowflakeIDGen(idGen, 256, 50, 20, 1000);
+        cached.init();
+        awaitAvailable(cached, 256);
+        List<Result> results = cached.get("a", 1000);
+        assertEquals(1000, results.size());
+        Set<Long> ids = new HashSet<>();
+        for (Result result : results) {
+            assertEquals(Status.SUCCESS, result.getStatus());
+            assertTrue(ids.add(result.getId()));
+        }
+        assertTrue(ids.add(cached.get("a").getId()));
+        cached.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingSizeMustBePowerOfTwo() {
+        new CachedSnowflakeIDGen(new SnowflakeIDGenImpl(new SnowflakeIDGenImplTest.FixedHolder(5)), 1000, 50, 20, 1000);
+    }
+
+    /**
+     * 等待后台线程把环形数组填满
+     */
+    private static void awaitAvailable(CachedSnowflakeIDGen cached, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        long available;
+        while ((available = cached.getAvailable()) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, available);
+    }
+}
@@ -3,9 +3,20 @@ package com.sankuai.inf.leaf.snowflake;
 import com.sankuai.inf.leaf.IDGen;
 import com.sankuai.inf.leaf.common.PropertyFactory;
 import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SnowflakeIDGenImplTest {
     @Test
@@ -26,4 +37,124 @@ public class SnowflakeIDGenImplTest {
         System.out.println(Long.valueOf(-1).byteValue());
         System.out.println(~(-1L << sequenceBits));
     }
+
+    /**
+     * 按业务key独立发号：一个key在同一毫秒内发出大量号码，不会让其他key等待下一毫秒
+     */
+    @Test
+    public void testKeyedSequenceIndependent() {
+        FrozenClockIDGen idGen = new FrozenClockIDGen();
+        idGen.enableKeyedSequence(100, 60000L);
+        Set<Long> hot = new HashSet<Long>();
+        Set<Long> cold = new HashSet<Long>();
+        for (int i = 0; i < 3900; i++) {
+            hot.add(idGen.get("hot").getId());
+            cold.add(idGen.get("cold").getId());
+        }
+        assertEquals(3900, hot.size());
+        assertEquals(3900, cold.size());
+        assertEquals(0, idGen.waits.get());
+        assertEquals(2, idGen.getKeyCount());
+    }
+
+    /**
+     * key被淘汰后重建，在同一毫秒内也不会发出重复的号码
+     */
+    @Test
+    public void testKeyedSequenceEviction() {
+        FrozenClockIDGen idGen = new FrozenClockIDGen();
+        idGen.enableKeyedSequence(1, 60000L);
+        long first = idGen.get("a").getId();
+        idGen.get("b");
+        assertEquals(1, idGen.getKeyCount());
+        long second = idGen.get("a").getId();
+        assertNotEquals(first, second);
+        assertTrue(second >> 22 > first >> 22);
+        assertEquals(1, idGen.getKeyCount());
+    }
+
+    /**
+     * 并发发号并不断淘汰key，同一个key内的号码不重复，key数量不超过上限
+     */
+    @Test
+    public void testKeyedSequenceConcurrent() throws InterruptedException {
+        final SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(new FixedHolder(1));
+        idGen.enableKeyedSequence(4, 60000L);
+        final ConcurrentHashMap<String, Set<Long>> ids = new ConcurrentHashMap<String, Set<Long>>();
+        final AtomicInteger failures = new AtomicInteger(0);
+        int threads = 8;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        String key = "key-" + ((i + offset) % 6);
+                        Result result = idGen.get(key);
+                        ids.putIfAbsent(key, Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>()));
+                        if (result.getStatus() != Status.SUCCESS || !ids.get(key).add(result.getId())) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertEquals(0, failures.get());
+        assertTrue(idGen.getKeyCount() <= 4 + threads);
+    }
+
+    static class FixedHolder implements WorkerIDHolder {
+        private final int workerId;
+
+        FixedHolder(int workerId) {
+            this.workerId = workerId;
+        }
+
+        @Override
+        public boolean init() {
+            return true;
+        }
+
+        @Override
+        public int getWorkerID() {
+            return workerId;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public TimestampCheckpoint getCheckpoint() {
+            return null;
+        }
+    }
+
+    /**
+     * 时间停止的发号器，序号耗尽时时间前进一毫秒并计数
+     */
+    static class FrozenClockIDGen extends SnowflakeIDGenImpl {
+        private volatile long now = System.currentTimeMillis();
+        private final AtomicInteger waits = new AtomicInteger(0);
+
+        FrozenClockIDGen() {
+            super(new FixedHolder(1));
+        }
+
+        @Override
+        protected long tilNextMillis(long lastTimestamp) {
+            waits.incrementAndGet();
+            now = lastTimestamp + 1;
+            return now;
+        }
+
+        @Override
+        protected long timeGen() {
+            return now == 0 ? System.currentTimeMillis() : now;
+        }
+    }
 }
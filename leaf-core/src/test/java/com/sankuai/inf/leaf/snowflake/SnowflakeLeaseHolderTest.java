@@ -0,0 +1,124 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnowflakeLeaseHolderTest {
+    TestingServer server;
+    List<CuratorFramework> clients = new ArrayList<CuratorFramework>();
+    List<SnowflakeLeaseHolder> holders = new ArrayList<SnowflakeLeaseHolder>();
+
+    @Before
+    public void before() throws Exception {
+        server = new TestingServer();
+    }
+
+    @After
+    public void after() throws Exception {
+        for (SnowflakeLeaseHolder holder : holders) {
+            holder.close();
+        }
+        for (CuratorFramework client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testLowestFreeId() {
+        for (int i = 0; i < 3; i++) {
+            SnowflakeLeaseHolder holder = newHolder(1000);
+            assertTrue(holder.init());
+            assertEquals(i, holder.getWorkerID());
+            assertTrue(holder.isValid());
+        }
+    }
+
+    /**
+     * 释放的workerId在安全窗口内不能复用，之后复用最小的空闲workerId
+     */
+    @Test
+    public void testReuseAfterSafetyWindow() throws Exception {
+        SnowflakeLeaseHolder first = newHolder(2000);
+        assertTrue(first.init());
+        SnowflakeLeaseHolder second = newHolder(2000);
+        assertTrue(second.init());
+        assertEquals(1, second.getWorkerID());
+
+        first.close();
+        assertFalse(first.isValid());
+        SnowflakeLeaseHolder third = newHolder(2000);
+        assertTrue(third.init());
+        assertEquals(2, third.getWorkerID());
+        assertEquals(-1, third.getPreviousTimestamp());
+
+        Thread.sleep(2100);
+        SnowflakeLeaseHolder fourth = newHolder(2000);
+        assertTrue(fourth.init());
+        assertEquals(0, fourth.getWorkerID());
+        assertTrue(fourth.getPreviousTimestamp() > 0);
+    }
+
+    @Test
+    public void testExhausted() {
+        for (int i = 0; i <= 3; i++) {
+            assertTrue(newHolder(1000, 3).init());
+        }
+        assertFalse(newHolder(1000, 3).init());
+    }
+
+    /**
+     * 租约被其他会话接手后停止发号
+     */
+    @Test
+    public void testLostLease() throws Exception {
+        SnowflakeLeaseHolder holder = newHolder(1000);
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(holder);
+        assertEquals(0, idGen.getWorkerId());
+        assertEquals(Status.SUCCESS, idGen.get("a").getStatus());
+
+        CuratorFramework other = newClient();
+        other.delete().forPath("/snowflake/test/lease/0");
+        other.create().withMode(org.apache.zookeeper.CreateMode.EPHEMERAL).forPath("/snowflake/test/lease/0");
+        holder.renew();
+        assertFalse(holder.isValid());
+        Result result = idGen.get("a");
+        assertEquals(Status.EXCEPTION, result.getStatus());
+        assertEquals(-4, result.getId());
+    }
+
+    private SnowflakeLeaseHolder newHolder(long safetyWindowMs) {
+        return newHolder(safetyWindowMs, SnowflakeLeaseHolder.MAX_WORKER_ID);
+    }
+
+    private SnowflakeLeaseHolder newHolder(long safetyWindowMs, int maxWorkerId) {
+        SnowflakeLeaseHolder holder = new SnowflakeLeaseHolder("127.0.0.1", String.valueOf(8080 + holders.size()), newClient(),
+                "/snowflake/test", 100, 500, safetyWindowMs, maxWorkerId);
+        holders.add(holder);
+        return holder;
+    }
+
+    private CuratorFramework newClient() {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        clients.add(client);
+        try {
+            client.blockUntilConnected();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return client;
+    }
+}
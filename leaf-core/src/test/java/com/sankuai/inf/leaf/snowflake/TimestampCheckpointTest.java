@@ -0,0 +1,185 @@
+package com.sankuai.inf.leaf.snowflake;
+
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import org.apache.curator.test.TestingServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TimestampCheckpointTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 高水位只前进不后退，后台线程写入后可以读到
+     */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = new File(folder.getRoot(), "conf/timestamp.checkpoint");
+        TimestampCheckpoint checkpoint = new TimestampCheckpoint(file, 5);
+        assertEquals(-1, checkpoint.read());
+        checkpoint.start();
+        long now = System.currentTimeMillis();
+        checkpoint.advance(now);
+        checkpoint.advance(now - 10);
+        assertEquals(now, checkpoint.getHighWater());
+        awaitRead(checkpoint, now);
+        checkpoint.close();
+        assertEquals(now, new TimestampCheckpoint(file).read());
+    }
+
+    /**
+     * 直接调用flush：写入失败时不健康，恢复写入后重新健康
+     */
+    @Test
+    public void testHealthFollowsWrites() throws Exception {
+        final AtomicBoolean broken = new AtomicBoolean(true);
+        File file = new File(folder.getRoot(), "timestamp.checkpoint");
+        /** 间隔足够长，后台线程不会在测试期间写入 **/
+        TimestampCheckpoint checkpoint = new TimestampCheckpoint(file, 60000) {
+            @Override
+            void write(FileChannel channel, long timestamp) throws IOException {
+                if (broken.get()) {
+                    throw new IOException("disk full");
+                }
+                super.write(channel, timestamp);
+            }
+        };
+        checkpoint.start();
+        assertTrue(checkpoint.isHealthy());
+        long now = System.currentTimeMillis();
+        checkpoint.advance(now);
+        checkpoint.flush();
+        assertEquals(-1, checkpoint.read());
+        assertFalse(checkpoint.isHealthy());
+
+        broken.set(false);
+        checkpoint.flush();
+        assertEquals(now, checkpoint.read());
+        assertTrue(checkpoint.isHealthy());
+        checkpoint.close();
+    }
+
+    /**
+     * 写入抛出Error时定时任务不退出，恢复写入后后台线程继续推进检查点
+     */
+    @Test
+    public void testWriterSurvivesErrors() throws Exception {
+        final AtomicBoolean broken = new AtomicBoolean(true);
+        File file = new File(folder.getRoot(), "timestamp.checkpoint");
+        TimestampCheckpoint checkpoint = new TimestampCheckpoint(file, 5) {
+            @Override
+            void write(FileChannel channel, long timestamp) throws IOException {
+                if (broken.get()) {
+                    throw new NoSuchMethodError("java.nio.ByteBuffer.flip()");
+                }
+                super.write(channel, timestamp);
+            }
+        };
+        checkpoint.start();
+        long now = System.currentTimeMillis();
+        checkpoint.advance(now);
+        awaitHealthy(checkpoint, false);
+        assertEquals(-1, checkpoint.read());
+
+        broken.set(false);
+        awaitRead(checkpoint, now);
+        /** 文件写入之后才恢复健康状态 **/
+        awaitHealthy(checkpoint, true);
+        checkpoint.close();
+    }
+
+    private static void awaitHealthy(TimestampCheckpoint checkpoint, boolean expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (checkpoint.isHealthy() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, checkpoint.isHealthy());
+    }
+
+    private static void awaitRead(TimestampCheckpoint checkpoint, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (checkpoint.read() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, checkpoint.read());
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        File file = folder.newFile("timestamp.checkpoint");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[16]);
+        out.write(1);
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(System.currentTimeMillis());
+        raf.close();
+        assertEquals(-1, new TimestampCheckpoint(file).read());
+    }
+
+    /**
+     * 时钟落后于检查点不超过interval时等待，超过时拒绝启动
+     */
+    @Test
+    public void testAwaitPast() throws Exception {
+        File file = folder.newFile("timestamp.checkpoint");
+        TimestampCheckpoint checkpoint = new TimestampCheckpoint(file, 100);
+        checkpoint.start();
+        long now = System.currentTimeMillis();
+        checkpoint.advance(now - 50);
+        checkpoint.close();
+
+        TimestampCheckpoint restarted = new TimestampCheckpoint(file, 100);
+        assertTrue(restarted.awaitPast());
+        assertTrue(System.currentTimeMillis() > now + 50);
+
+        checkpoint = new TimestampCheckpoint(file, 100);
+        checkpoint.start();
+        checkpoint.advance(System.currentTimeMillis() + 1000);
+        checkpoint.close();
+        assertFalse(new TimestampCheckpoint(file, 100).awaitPast());
+    }
+
+    /**
+     * 首次启动在zk注册，之后zk不可用时凭本地workerId和检查点直接启动，发号时间戳不早于检查点
+     */
+    @Test
+    public void testStartWithoutZookeeper() throws Exception {
+        String port = String.valueOf(20000 + new Random().nextInt(10000));
+        File file = new File(folder.getRoot(), "timestamp.checkpoint");
+        TestingServer server = new TestingServer();
+        SnowflakeZookeeperHolder holder = new SnowflakeZookeeperHolder("127.0.0.1", port, server.getConnectString(),
+                new TimestampCheckpoint(file, 5));
+        SnowflakeIDGenImpl idGen = new SnowflakeIDGenImpl(holder);
+        long workerId = idGen.getWorkerId();
+        assertEquals(Status.SUCCESS, idGen.get("a").getStatus());
+        Thread.sleep(50);
+        holder.getCheckpoint().close();
+        server.close();
+
+        long checkpoint = new TimestampCheckpoint(file).read();
+        assertTrue(checkpoint > 0);
+        long start = System.currentTimeMillis();
+        SnowflakeZookeeperHolder restarted = new SnowflakeZookeeperHolder("127.0.0.1", port, "127.0.0.1:1",
+                new TimestampCheckpoint(file, 5));
+        SnowflakeIDGenImpl restartedIdGen = new SnowflakeIDGenImpl(restarted);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(workerId, restartedIdGen.getWorkerId());
+        Result result = restartedIdGen.get("a");
+        assertEquals(Status.SUCCESS, result.getStatus());
+        assertTrue((result.getId() >> 22) + 1288834974657L > checkpoint);
+        restarted.getCheckpoint().close();
+    }
+}
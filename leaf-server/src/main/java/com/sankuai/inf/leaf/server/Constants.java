@@ -8,8 +8,70 @@ public class Constants {
     public static final String LEAF_JDBC_URL = "leaf.jdbc.url";
     public static final String LEAF_JDBC_USERNAME = "leaf.jdbc.username";
     public static final String LEAF_JDBC_PASSWORD = "leaf.jdbc.password";
+    /** 本地文件存储号段，以及启动时需要存在的业务key biz_tag:step,biz_tag:step **/
+    public static final String LEAF_SEGMENT_FILE_PATH = "leaf.segment.file.path";
+    public static final String LEAF_SEGMENT_FILE_TAGS = "leaf.segment.file.tags";
+    /** zookeeper存储号段，启动时需要存在的业务key biz_tag:step,biz_tag:step，以及一次更新最多重试的次数 **/
+    public static final String LEAF_SEGMENT_ZK_ADDRESS = "leaf.segment.zk.address";
+    public static final String LEAF_SEGMENT_ZK_TAGS = "leaf.segment.zk.tags";
+    public static final String LEAF_SEGMENT_ZK_MAX_RETRY = "leaf.segment.zk.max.retry";
+    public static final String LEAF_NAME = "leaf.name";
+    /** raft存储号段：本节点id，全部节点 id@host:port,id@host:port，数据目录，启动时需要存在的业务key，以及节点之间通信的token **/
+    public static final String LEAF_SEGMENT_RAFT_ID = "leaf.segment.raft.id";
+    public static final String LEAF_SEGMENT_RAFT_MEMBERS = "leaf.segment.raft.members";
+    public static final String LEAF_SEGMENT_RAFT_DIR = "leaf.segment.raft.dir";
+    public static final String LEAF_SEGMENT_RAFT_TAGS = "leaf.segment.raft.tags";
+    public static final String LEAF_SEGMENT_RAFT_TOKEN = "leaf.segment.raft.token";
+    /** 分库数量，以及每个分库的配置 leaf.jdbc.shard.{i}.url/username/password **/
+    public static final String LEAF_JDBC_SHARDS = "leaf.jdbc.shards";
+    public static final String LEAF_JDBC_SHARD_PREFIX = "leaf.jdbc.shard.";
+    /** 多库交错发号的库数量，以及每个库的配置 leaf.jdbc.ha.{i}.url/username/password **/
+    public static final String LEAF_JDBC_HA_DATABASES = "leaf.jdbc.ha.databases";
+    public static final String LEAF_JDBC_HA_PREFIX = "leaf.jdbc.ha.";
+    public static final String LEAF_SEGMENT_HA_BLOCK = "leaf.segment.ha.block";
+    public static final String LEAF_SEGMENT_HA_HEDGE_MS = "leaf.segment.ha.hedge.ms";
+    /** 管理接口一次预留的最大号码数量，多库交错发号时不超过leaf.segment.ha.block **/
+    public static final String LEAF_SEGMENT_RESERVE_MAX = "leaf.segment.reserve.max";
+    /** 显式路由 leaf.segment.route.{biz_tag}={分库序号} **/
+    public static final String LEAF_SEGMENT_ROUTE_PREFIX = "leaf.segment.route.";
+    /** 业务key限流 leaf.segment.quota.{biz_tag}=rate[:burst]，leaf.segment.refill.quota.{biz_tag}=rate[:burst] **/
+    public static final String LEAF_SEGMENT_QUOTA_PREFIX = "leaf.segment.quota.";
+    public static final String LEAF_SEGMENT_REFILL_QUOTA_PREFIX = "leaf.segment.refill.quota.";
+    /** 热点key升级为分条发号的每秒发号数(小于等于0时关闭)、cas重试百分比和条带数 **/
+    public static final String LEAF_SEGMENT_HOT_PROMOTE_QPS = "leaf.segment.hot.promote.qps";
+    public static final String LEAF_SEGMENT_HOT_CONTENTION_PERCENT = "leaf.segment.hot.contention.percent";
+    public static final String LEAF_SEGMENT_HOT_STRIPES = "leaf.segment.hot.stripes";
+    /** 号段缓存空闲多少毫秒后淘汰，小于等于0时不淘汰 **/
+    public static final String LEAF_SEGMENT_COLD_IDLE_MS = "leaf.segment.cold.idle.ms";
+    /** 按发号分类统计耗时，以及带上耗时响应头的请求抽样比例(0到1) **/
+    public static final String LEAF_SEGMENT_STATS_ENABLE = "leaf.segment.stats.enable";
+    public static final String LEAF_SEGMENT_TRACE_SAMPLE = "leaf.segment.trace.sample";
+    /** 合并同一个业务key的并发请求：是否开启、组长额外等待的微秒数、一组最多合并的请求数 **/
+    public static final String LEAF_SEGMENT_COALESCE_ENABLE = "leaf.segment.coalesce.enable";
+    public static final String LEAF_SEGMENT_COALESCE_WINDOW_US = "leaf.segment.coalesce.window.us";
+    public static final String LEAF_SEGMENT_COALESCE_MAX_BATCH = "leaf.segment.coalesce.max.batch";
+    /** 一次批量发号请求最多取的号码总数 **/
+    public static final String LEAF_BATCH_MAX_IDS = "leaf.batch.max.ids";
+    /** 记录发号请求用于回放压测：是否开启、目录、单个文件的MB数、保留的文件数、等待写入的最大记录数 **/
+    public static final String LEAF_RECORD_ENABLE = "leaf.record.enable";
+    public static final String LEAF_RECORD_DIR = "leaf.record.dir";
+    public static final String LEAF_RECORD_FILE_MB = "leaf.record.file.mb";
+    public static final String LEAF_RECORD_MAX_FILES = "leaf.record.max.files";
+    public static final String LEAF_RECORD_QUEUE_SIZE = "leaf.record.queue.size";
 
     public static final String LEAF_SNOWFLAKE_ENABLE = "leaf.snowflake.enable";
     public static final String LEAF_SNOWFLAKE_PORT = "leaf.snowflake.port";
     public static final String LEAF_SNOWFLAKE_ZK_ADDRESS = "leaf.snowflake.zk.address";
+    /** 以临时节点租约分配可复用的workerId，适合ip经常变化的部署 **/
+    public static final String LEAF_SNOWFLAKE_WORKER_LEASE = "leaf.snowflake.worker.lease";
+    /** 按业务key独立的时间戳和序号，以及保留的最大key数量和空闲淘汰时间 **/
+    public static final String LEAF_SNOWFLAKE_KEYED_ENABLE = "leaf.snowflake.keyed.enable";
+    public static final String LEAF_SNOWFLAKE_KEYED_MAX_KEYS = "leaf.snowflake.keyed.max.keys";
+    public static final String LEAF_SNOWFLAKE_KEYED_IDLE_MS = "leaf.snowflake.keyed.idle.ms";
+    /** 环形数组预生成号码，以及数组长度、填充阈值百分比、最多借用的毫秒数 **/
+    public static final String LEAF_SNOWFLAKE_CACHE_ENABLE = "leaf.snowflake.cache.enable";
+    public static final String LEAF_SNOWFLAKE_CACHE_RING_SIZE = "leaf.snowflake.cache.ring.size";
+    public static final String LEAF_SNOWFLAKE_CACHE_FILL_THRESHOLD = "leaf.snowflake.cache.fill.threshold";
+    public static final String LEAF_SNOWFLAKE_CACHE_BORROW_MS = "leaf.snowflake.cache.borrow.ms";
+    public static final String LEAF_SNOWFLAKE_CACHE_MAX_LAG_MS = "leaf.snowflake.cache.max.lag.ms";
 }
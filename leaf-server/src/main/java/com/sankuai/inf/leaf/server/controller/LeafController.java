@@ -2,17 +2,31 @@ package com.sankuai.inf.leaf.server.controller;
 
 import com.sankuai.inf.leaf.common.Result;
 import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.model.IdRange;
+import com.sankuai.inf.leaf.segment.model.IssueTrace;
 import com.sankuai.inf.leaf.server.exception.LeafServerException;
 import com.sankuai.inf.leaf.server.exception.NoKeyException;
+import com.sankuai.inf.leaf.server.exception.QuotaExceededException;
+import com.sankuai.inf.leaf.server.model.BatchIds;
+import com.sankuai.inf.leaf.server.record.TrafficRecord;
+import com.sankuai.inf.leaf.server.service.BatchService;
 import com.sankuai.inf.leaf.server.service.SegmentService;
 import com.sankuai.inf.leaf.server.service.SnowflakeService;
+import com.sankuai.inf.leaf.server.service.TrafficRecordService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
 /**
  * 发号器服务controller
  *
@@ -20,11 +34,20 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class LeafController {
     private Logger logger = LoggerFactory.getLogger(LeafController.class);
+    /**
+     * 请求头 X-Leaf-Trace: true 时总是返回本次发号的分类和耗时
+     */
+    private static final String TRACE_HEADER = "X-Leaf-Trace";
+    private static final String OUTCOME_HEADER = "X-Leaf-Outcome";
 
     @Autowired
     private SegmentService segmentService;
     @Autowired
     private SnowflakeService snowflakeService;
+    @Autowired
+    private TrafficRecordService trafficRecordService;
+    @Autowired
+    private BatchService batchService;
 
     /**
      * 使用号段发号器进行发号
@@ -32,8 +55,37 @@ public class LeafController {
      * @return
      */
     @RequestMapping(value = "/api/segment/get/{key}")
-    public String getSegmentId(@PathVariable("key") String key) {
-        return get(key, segmentService.getId(key));
+    public String getSegmentId(@PathVariable("key") String key, HttpServletRequest request, HttpServletResponse response) {
+        long start = System.nanoTime();
+        Result result = segmentService.getId(key);
+        trafficRecordService.record(TrafficRecord.SEGMENT, key, start, result);
+        if (segmentService.shouldTrace(Boolean.parseBoolean(request.getHeader(TRACE_HEADER)))) {
+            trace(response, segmentService.lastIssueTrace(), start);
+        }
+        if (result.getStatus().equals(Status.EXCEPTION)
+                && (result.getId() == SegmentIDGenImpl.EXCEPTION_ID_ISSUE_QUOTA_EXCEEDED
+                || result.getId() == SegmentIDGenImpl.EXCEPTION_ID_REFILL_QUOTA_EXCEEDED)) {
+            /** 超过业务key的限流，返回429 **/
+            throw new QuotaExceededException(result.toString());
+        }
+        return get(key, result);
+    }
+
+    /**
+     * 为离线批量导入等任务预留一段连续的号码，一次推进max_id，不影响在线发号
+     * + 管理接口，只接受POST，不与发号接口共用/api前缀，便于在网关上单独限制访问
+     * + 数量超过leaf.segment.reserve.max(多库交错发号时不超过leaf.segment.ha.block)时返回400
+     * @param key
+     * @param count 预留数量
+     * @return 号码区间 [start, end)
+     */
+    @RequestMapping(value = "/admin/segment/reserve/{key}", method = RequestMethod.POST)
+    public IdRange reserveSegmentIds(@PathVariable("key") String key, @RequestParam("count") int count) {
+        IdRange range = segmentService.reserve(key, count);
+        if (range == null) {
+            throw new NoKeyException();
+        }
+        return range;
     }
 
     /**
@@ -43,7 +95,49 @@ public class LeafController {
      */
     @RequestMapping(value = "/api/snowflake/get/{key}")
     public String getSnowflakeId(@PathVariable("key") String key) {
-        return get(key, snowflakeService.getId(key));
+        long start = System.nanoTime();
+        Result result = snowflakeService.getId(key);
+        trafficRecordService.record(TrafficRecord.SNOWFLAKE, key, start, result);
+        return get(key, result);
+    }
+
+    /**
+     * 一次请求从多个业务key取号，例如 /api/batch?segment=order,item:3&snowflake=log:2
+     * 每个业务key单独给出号码或者异常码，部分业务key失败时整个请求仍然返回200
+     * @param segment   号段业务key列表，key或者key:count，逗号分隔
+     * @param snowflake 雪花业务key列表，格式同上
+     * @return {"segment":{"order":{"ids":[..]},...},"snowflake":{...}}
+     */
+    @RequestMapping(value = "/api/batch")
+    public Map<String, Map<String, BatchIds>> getBatchIds(@RequestParam(value = "segment", required = false) String segment,
+                                                          @RequestParam(value = "snowflake", required = false) String snowflake) {
+        return batchService.getIds(batchService.parse(segment), batchService.parse(snowflake));
+    }
+
+    /**
+     * 在响应头中返回本次发号的分类和各阶段耗时，同时打印一条trace日志
+     * + X-Leaf-Outcome: fast/wait/switch/init/fail
+     * + Server-Timing: init、wait(等待后备号段)、lock(等待写锁)和total的毫秒数
+     * @param response
+     * @param trace
+     * @param start 请求开始的时间，早于这个时间的记录属于之前的请求(本次在发号前就失败了)
+     */
+    private void trace(HttpServletResponse response, IssueTrace trace, long start) {
+        if (trace == null || trace.getStartNanos() - start < 0) {
+            return;
+        }
+        String outcome = trace.getOutcome().name().toLowerCase();
+        response.setHeader(OUTCOME_HEADER, outcome);
+        response.setHeader("Server-Timing", "init;dur=" + millis(trace.getInitNanos())
+                + ", wait;dur=" + millis(trace.getWaitNanos())
+                + ", lock;dur=" + millis(trace.getLockNanos())
+                + ", total;dur=" + millis(trace.getTotalNanos()));
+        logger.info("Segment trace key[{}], outcome[{}], total[{}ns], init[{}ns], wait[{}ns], lock[{}ns]", trace.getKey(),
+                outcome, trace.getTotalNanos(), trace.getInitNanos(), trace.getWaitNanos(), trace.getLockNanos());
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
     }
 
     /**
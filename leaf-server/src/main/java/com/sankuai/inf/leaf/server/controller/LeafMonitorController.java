@@ -1,20 +1,29 @@
 package com.sankuai.inf.leaf.server.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sankuai.inf.leaf.segment.CoalescingSegmentIDGen;
 import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
 import com.sankuai.inf.leaf.server.model.SegmentBufferView;
 import com.sankuai.inf.leaf.segment.model.LeafAlloc;
 import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+import com.sankuai.inf.leaf.server.exception.NoKeyException;
+import com.sankuai.inf.leaf.server.service.LeafBootstrap;
+import com.sankuai.inf.leaf.server.service.SegmentMonitorService;
 import com.sankuai.inf.leaf.server.service.SegmentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -25,8 +34,12 @@ import java.util.Map;
 public class LeafMonitorController {
     private Logger logger = LoggerFactory.getLogger(LeafMonitorController.class);
 
+    private final ObjectMapper mapper = new ObjectMapper();
+
     @Autowired
     private SegmentService segmentService;
+    @Autowired
+    private SegmentMonitorService segmentMonitorService;
 
     /**
      * 查询当前缓存中的号段发号器信息
@@ -36,31 +49,26 @@ public class LeafMonitorController {
     @RequestMapping(value = "cache")
     public String getCache(Model model) {
         Map<String, SegmentBufferView> data = new HashMap<>();
+        LeafBootstrap.checkReady(segmentService.getReadiness());
         SegmentIDGenImpl segmentIDGen = segmentService.getIdGen();
         if (segmentIDGen == null) {
             throw new IllegalArgumentException("You should config leaf.segment.enable=true first");
         }
         Map<String, SegmentBuffer> cache = segmentIDGen.getCache();
         for (Map.Entry<String, SegmentBuffer> entry : cache.entrySet()) {
-            SegmentBufferView sv = new SegmentBufferView();
-            SegmentBuffer buffer = entry.getValue();
-            sv.setInitOk(buffer.isInitOk());
-            sv.setKey(buffer.getKey());
-            sv.setPos(buffer.getCurrentPos());
-            sv.setNextReady(buffer.isNextReady());
-            sv.setMax0(buffer.getSegments()[0].getMax());
-            sv.setValue0(buffer.getSegments()[0].getValue().get());
-            sv.setStep0(buffer.getSegments()[0].getStep());
-
-            sv.setMax1(buffer.getSegments()[1].getMax());
-            sv.setValue1(buffer.getSegments()[1].getValue().get());
-            sv.setStep1(buffer.getSegments()[1].getStep());
-
-            data.put(entry.getKey(), sv);
-
+            data.put(entry.getKey(), SegmentMonitorService.toView(entry.getValue()));
         }
-        logger.info("Cache info {}", data);
+        logger.debug("Cache info {}", data);
         model.addAttribute("data", data);
+        model.addAttribute("hotKeyEvents", segmentIDGen.getHotKeyEvents());
+        model.addAttribute("tagCount", segmentIDGen.getTagCount());
+        model.addAttribute("evictions", segmentIDGen.getEvictions());
+        model.addAttribute("abandonedIds", segmentIDGen.getAbandonedIds());
+        CoalescingSegmentIDGen coalescing = segmentService.getCoalescing();
+        if (coalescing != null) {
+            model.addAttribute("coalescedRequests", coalescing.getRequests());
+            model.addAttribute("coalescedBatches", coalescing.getBatches());
+        }
         return "segment";
     }
 
@@ -70,16 +78,94 @@ public class LeafMonitorController {
      */
     @RequestMapping(value = "db")
     public String getDb(Model model) {
+        LeafBootstrap.checkReady(segmentService.getReadiness());
         SegmentIDGenImpl segmentIDGen = segmentService.getIdGen();
         if (segmentIDGen == null) {
             throw new IllegalArgumentException("You should config leaf.segment.enable=true first");
         }
         List<LeafAlloc> items = segmentIDGen.getAllLeafAllocs();
-        logger.info("DB info {}", items);
+        logger.debug("DB info {}", items);
         model.addAttribute("items", items);
         return "db";
     }
 
+    /**
+     * 分页查询缓存中的号段，逐条写出json
+     * {"items":[...], "next":"下一页的游标，没有下一页时为null"}
+     * @param cursor 上一页返回的next
+     * @param prefix biz_tag前缀
+     * @param state  notInit、nextNotReady 或 lowIdle
+     * @param sort   key 或 runway(剩余号码数从少到多)
+     * @param limit  每页条数
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/api/monitor/cache")
+    public void getCachePage(@RequestParam(value = "cursor", required = false) String cursor,
+                             @RequestParam(value = "prefix", required = false) String prefix,
+                             @RequestParam(value = "state", required = false) String state,
+                             @RequestParam(value = "sort", defaultValue = SegmentMonitorService.SORT_KEY) String sort,
+                             @RequestParam(value = "limit", defaultValue = "100") int limit,
+                             HttpServletResponse response) throws IOException {
+        List<SegmentBufferView> items = segmentMonitorService.scanCache(cursor, emptyToNull(prefix), emptyToNull(state), sort, limit);
+        String next = items.size() < limit ? null : segmentMonitorService.cursorOf(items.get(items.size() - 1), sort);
+        writePage(response, items, next);
+    }
+
+    /**
+     * 按biz_tag分页查询数据库配置，逐条写出json
+     * @param cursor 上一页返回的next
+     * @param prefix biz_tag前缀
+     * @param limit  每页条数
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/api/monitor/db")
+    public void getDbPage(@RequestParam(value = "cursor", required = false) String cursor,
+                          @RequestParam(value = "prefix", required = false) String prefix,
+                          @RequestParam(value = "limit", defaultValue = "100") int limit,
+                          HttpServletResponse response) throws IOException {
+        List<LeafAlloc> items = segmentMonitorService.scanDb(emptyToNull(cursor), emptyToNull(prefix), limit);
+        String next = items.size() < limit ? null : items.get(items.size() - 1).getKey();
+        writePage(response, items, next);
+    }
+
+    /**
+     * 业务key按发号分类(fast/wait/switch/init/fail)聚合的次数和耗时，用于定位延迟升高的原因
+     * @param key
+     * @return
+     */
+    @RequestMapping(value = "/api/monitor/latency/{key}")
+    @ResponseBody
+    public Map<String, Map<String, Object>> getLatency(@PathVariable("key") String key) {
+        Map<String, Map<String, Object>> latency = segmentMonitorService.latencyOf(key);
+        if (latency == null) {
+            throw new NoKeyException();
+        }
+        return latency;
+    }
+
+    private void writePage(HttpServletResponse response, List<?> items, String next) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        JsonGenerator generator = mapper.getFactory().createGenerator(response.getOutputStream());
+        try {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("items");
+            for (Object item : items) {
+                generator.writeObject(item);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("next", next);
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
     /**
      * 逆向解析雪花发号
      * the output is like this:
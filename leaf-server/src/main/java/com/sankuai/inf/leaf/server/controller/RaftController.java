@@ -0,0 +1,64 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.SnapshotRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftNode;
+import com.sankuai.inf.leaf.server.exception.ForbiddenException;
+import com.sankuai.inf.leaf.server.exception.LeafServerException;
+import com.sankuai.inf.leaf.server.raft.RaftPeerAccess;
+import com.sankuai.inf.leaf.server.service.SegmentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * raft节点之间通信的接口，只在号段模式使用raft存储时可用
+ * 只接受集群内节点的请求，见 {@link RaftPeerAccess}，其他来源返回403
+ */
+@RestController
+@RequestMapping(value = "/raft", method = RequestMethod.POST)
+public class RaftController {
+    @Autowired
+    private SegmentService segmentService;
+
+    @RequestMapping(value = "/vote")
+    public VoteResponse vote(@RequestBody VoteRequest request, HttpServletRequest servletRequest) {
+        return node(servletRequest).handleVote(request);
+    }
+
+    @RequestMapping(value = "/append")
+    public AppendResponse append(@RequestBody AppendRequest request, HttpServletRequest servletRequest) {
+        return node(servletRequest).handleAppend(request);
+    }
+
+    @RequestMapping(value = "/snapshot")
+    public AppendResponse snapshot(@RequestBody SnapshotRequest request, HttpServletRequest servletRequest) {
+        return node(servletRequest).handleSnapshot(request);
+    }
+
+    @RequestMapping(value = "/propose")
+    public ProposeResponse propose(@RequestBody ProposeRequest request, HttpServletRequest servletRequest) {
+        return node(servletRequest).handlePropose(request);
+    }
+
+    private RaftNode node(HttpServletRequest servletRequest) {
+        RaftNode node = segmentService.getRaftNode();
+        RaftPeerAccess access = segmentService.getRaftPeerAccess();
+        if (node == null || access == null) {
+            throw new LeafServerException("raft not enabled");
+        }
+        if (!access.allow(servletRequest.getRemoteAddr(), servletRequest.getHeader(RaftPeerAccess.TOKEN_HEADER))) {
+            throw new ForbiddenException("not a raft peer");
+        }
+        return node;
+    }
+}
@@ -0,0 +1,49 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.server.model.Readiness;
+import com.sankuai.inf.leaf.server.service.LeafBootstrap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 就绪检查
+ * 全部发号器就绪时返回200，否则返回503，响应中分别给出每个发号器的状态
+ */
+@RestController
+public class ReadinessController {
+    @Autowired
+    private LeafBootstrap bootstrap;
+
+    @RequestMapping(value = "/ready")
+    public ResponseEntity<Map<String, Readiness>> ready() {
+        Map<String, Readiness> result = new LinkedHashMap<>();
+        boolean ready = true;
+        for (Readiness readiness : bootstrap.getReadinesses()) {
+            result.put(readiness.getName(), readiness);
+            ready &= readiness.isReady();
+        }
+        return new ResponseEntity<>(result, ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * 单个发号器的就绪状态
+     * @param name segment或者snowflake
+     * @return
+     */
+    @RequestMapping(value = "/ready/{name}")
+    public ResponseEntity<Readiness> ready(@PathVariable("name") String name) {
+        for (Readiness readiness : bootstrap.getReadinesses()) {
+            if (readiness.getName().equals(name)) {
+                return new ResponseEntity<>(readiness, readiness.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+            }
+        }
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+}
@@ -0,0 +1,11 @@
+package com.sankuai.inf.leaf.server.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code=HttpStatus.FORBIDDEN)
+public class ForbiddenException extends RuntimeException {
+    public ForbiddenException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,11 @@
+package com.sankuai.inf.leaf.server.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code=HttpStatus.SERVICE_UNAVAILABLE)
+public class NotReadyException extends RuntimeException {
+    public NotReadyException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,11 @@
+package com.sankuai.inf.leaf.server.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code=HttpStatus.TOO_MANY_REQUESTS)
+public class QuotaExceededException extends RuntimeException {
+    public QuotaExceededException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,49 @@
+package com.sankuai.inf.leaf.server.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量发号中一个业务key的结果
+ * + ids: 发号成功的号码，按发号顺序
+ * + code: 第一个失败号码的异常码，全部成功时不输出
+ * + message: 发号器未就绪等整体失败的原因，没有时不输出
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchIds {
+    private final List<Long> ids;
+    private Long code;
+    private String message;
+
+    public BatchIds(List<Result> results) {
+        ids = new ArrayList<>(results.size());
+        for (Result result : results) {
+            if (result.getStatus() == Status.SUCCESS) {
+                ids.add(result.getId());
+            } else if (code == null) {
+                code = result.getId();
+            }
+        }
+    }
+
+    public BatchIds(String message) {
+        this.ids = new ArrayList<>(0);
+        this.message = message;
+    }
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public Long getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,76 @@
+package com.sankuai.inf.leaf.server.model;
+
+/**
+ * 发号器的就绪状态
+ * 初始化失败后会重试，FAILED表示最近一次初始化失败，重试成功后变为READY
+ */
+public class Readiness {
+    public enum State {
+        INITIALIZING, READY, FAILED
+    }
+
+    private final String name;
+    private final long startTime = System.currentTimeMillis();
+    private volatile State state = State.INITIALIZING;
+    private volatile String message;
+    /**
+     * 初始化耗时，未完成时为-1
+     */
+    private volatile long costMillis = -1;
+    /**
+     * 初始化失败的次数
+     */
+    private volatile int failures;
+
+    public Readiness(String name) {
+        this.name = name;
+    }
+
+    public void ready() {
+        costMillis = System.currentTimeMillis() - startTime;
+        state = State.READY;
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        failures++;
+        costMillis = System.currentTimeMillis() - startTime;
+        state = State.FAILED;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getCostMillis() {
+        return costMillis;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("Readiness{");
+        sb.append("name='").append(name).append('\'');
+        sb.append(", state=").append(state);
+        sb.append(", message='").append(message).append('\'');
+        sb.append(", costMillis=").append(costMillis);
+        sb.append(", failures=").append(failures);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -15,6 +15,22 @@ public class SegmentBufferView {
     private int pos;
     private boolean nextReady;
     private boolean initOk;
+    /**
+     * 发号限流和后备号段更新限流，没有限流时为空字符串
+     */
+    private String issueQuota = "";
+    private long issueRejected;
+    private String refillQuota = "";
+    private long refillRejected;
+    /**
+     * 是否为分条发号的热点key，以及最近估算的每秒发号数
+     */
+    private boolean striped;
+    private long rate;
+    /**
+     * 剩余可发的号码数，当前号段剩余加上已经就绪的后备号段
+     */
+    private long runway;
 
     public String getKey() {
         return key;
@@ -95,4 +111,60 @@ public class SegmentBufferView {
     public void setInitOk(boolean initOk) {
         this.initOk = initOk;
     }
+
+    public String getIssueQuota() {
+        return issueQuota;
+    }
+
+    public void setIssueQuota(String issueQuota) {
+        this.issueQuota = issueQuota;
+    }
+
+    public long getIssueRejected() {
+        return issueRejected;
+    }
+
+    public void setIssueRejected(long issueRejected) {
+        this.issueRejected = issueRejected;
+    }
+
+    public String getRefillQuota() {
+        return refillQuota;
+    }
+
+    public void setRefillQuota(String refillQuota) {
+        this.refillQuota = refillQuota;
+    }
+
+    public long getRefillRejected() {
+        return refillRejected;
+    }
+
+    public void setRefillRejected(long refillRejected) {
+        this.refillRejected = refillRejected;
+    }
+
+    public boolean isStriped() {
+        return striped;
+    }
+
+    public void setStriped(boolean striped) {
+        this.striped = striped;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public long getRunway() {
+        return runway;
+    }
+
+    public void setRunway(long runway) {
+        this.runway = runway;
+    }
 }
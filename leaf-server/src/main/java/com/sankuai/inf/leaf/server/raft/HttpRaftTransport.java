@@ -0,0 +1,93 @@
+package com.sankuai.inf.leaf.server.raft;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.AppendResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.ProposeResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.SnapshotRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteRequest;
+import com.sankuai.inf.leaf.segment.raft.RaftMessages.VoteResponse;
+import com.sankuai.inf.leaf.segment.raft.RaftTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基于http+json的raft传输，请求发往对端leaf-server的 /raft/* 接口
+ */
+public class HttpRaftTransport implements RaftTransport {
+    private static final int CONNECT_TIMEOUT_MS = 200;
+    private static final int READ_TIMEOUT_MS = 1000;
+    /**
+     * 转发的提交请求需要等待日志复制，读超时更长
+     */
+    private static final int PROPOSE_READ_TIMEOUT_MS = 4000;
+
+    private final Map<String, String> addresses;
+    private final String token;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param addresses 节点id -> host:port
+     * @param token     放在请求头 {@link RaftPeerAccess#TOKEN_HEADER} 中，为null时不发送
+     */
+    public HttpRaftTransport(Map<String, String> addresses, String token) {
+        this.addresses = new HashMap<>(addresses);
+        this.token = token;
+    }
+
+    @Override
+    public VoteResponse requestVote(String peer, VoteRequest request) throws Exception {
+        return post(peer, "/raft/vote", request, VoteResponse.class, READ_TIMEOUT_MS);
+    }
+
+    @Override
+    public AppendResponse appendEntries(String peer, AppendRequest request) throws Exception {
+        return post(peer, "/raft/append", request, AppendResponse.class, READ_TIMEOUT_MS);
+    }
+
+    @Override
+    public AppendResponse installSnapshot(String peer, SnapshotRequest request) throws Exception {
+        return post(peer, "/raft/snapshot", request, AppendResponse.class, READ_TIMEOUT_MS);
+    }
+
+    @Override
+    public ProposeResponse propose(String peer, ProposeRequest request) throws Exception {
+        return post(peer, "/raft/propose", request, ProposeResponse.class, PROPOSE_READ_TIMEOUT_MS);
+    }
+
+    private <T> T post(String peer, String path, Object request, Class<T> responseType, int readTimeout) throws IOException {
+        String address = addresses.get(peer);
+        if (address == null) {
+            throw new IOException("unknown raft peer " + peer);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://" + address + path).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(readTimeout);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (token != null) {
+                connection.setRequestProperty(RaftPeerAccess.TOKEN_HEADER, token);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                mapper.writeValue(out, request);
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("raft peer " + peer + " " + path + " response " + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return mapper.readValue(in, responseType);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.sankuai.inf.leaf.server.raft;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * /raft/* 接口的访问控制，这些接口可以投票、写日志和覆盖快照，只接受集群内节点的请求
+ * + 请求的来源地址需要是 leaf.segment.raft.members 中某个节点的地址，主机名在启动时解析一次
+ * + 配置了 leaf.segment.raft.token 时，请求头 {@link #TOKEN_HEADER} 还需要与之相同
+ */
+public class RaftPeerAccess {
+    public static final String TOKEN_HEADER = "X-Leaf-Raft-Token";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Set<String> peerAddresses = new HashSet<>();
+    private final byte[] token;
+
+    /**
+     * @param members 全部节点的 host:port
+     * @param token   为空时不校验
+     * @throws UnknownHostException
+     */
+    public RaftPeerAccess(Collection<String> members, String token) throws UnknownHostException {
+        for (String member : members) {
+            String host = member.substring(0, member.lastIndexOf(':'));
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+                peerAddresses.add(address.getHostAddress());
+            }
+        }
+        this.token = token == null || token.trim().isEmpty() ? null : token.trim().getBytes(UTF8);
+    }
+
+    /**
+     * @param remoteAddress 请求的来源ip
+     * @param token         请求头中的token
+     * @return
+     */
+    public boolean allow(String remoteAddress, String token) {
+        if (remoteAddress == null || !peerAddresses.contains(normalize(remoteAddress))) {
+            return false;
+        }
+        if (this.token == null) {
+            return true;
+        }
+        return token != null && MessageDigest.isEqual(this.token, token.getBytes(UTF8));
+    }
+
+    public String getToken() {
+        return token == null ? null : new String(token, UTF8);
+    }
+
+    /**
+     * ip字面量统一格式，例如ipv6的 ::1 和 0:0:0:0:0:0:0:1，不做dns查询
+     * @param address
+     * @return
+     */
+    private static String normalize(String address) {
+        try {
+            return InetAddress.getByName(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.sankuai.inf.leaf.server.record;
+
+/**
+ * 一次发号请求的记录
+ */
+public class TrafficRecord {
+    public static final byte SEGMENT = 0;
+    public static final byte SNOWFLAKE = 1;
+
+    /**
+     * 请求开始的时间，epoch微秒
+     */
+    private final long timestampMicros;
+    private final String key;
+    private final byte generator;
+    private final long latencyMicros;
+    private final boolean success;
+
+    public TrafficRecord(long timestampMicros, String key, byte generator, long latencyMicros, boolean success) {
+        this.timestampMicros = timestampMicros;
+        this.key = key;
+        this.generator = generator;
+        this.latencyMicros = latencyMicros;
+        this.success = success;
+    }
+
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte getGenerator() {
+        return generator;
+    }
+
+    /**
+     * 发号器名称，与接口路径 /api/{name}/get 一致
+     * @return segment 或者 snowflake
+     */
+    public String getGeneratorName() {
+        return generator == SNOWFLAKE ? "snowflake" : "segment";
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficRecord{" +
+                "timestampMicros=" + timestampMicros +
+                ", key='" + key + '\'' +
+                ", generator=" + getGeneratorName() +
+                ", latencyMicros=" + latencyMicros +
+                ", success=" + success +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+package com.sankuai.inf.leaf.server.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按顺序读取 {@link TrafficRecorder} 写入的记录文件
+ * 可以读取正在写入的文件，读到还没有写入的部分时结束
+ */
+public class TrafficRecordReader {
+    private final List<File> files;
+    private int index;
+    private File file;
+    private ByteBuffer buffer;
+    private final List<String> keys = new ArrayList<>();
+    private long lastMicros;
+
+    /**
+     * @param path 记录文件，或者记录文件所在的目录(按时间顺序读取其中全部文件)
+     */
+    public TrafficRecordReader(File path) {
+        this(list(path));
+    }
+
+    public TrafficRecordReader(List<File> files) {
+        this.files = new ArrayList<>(files);
+    }
+
+    /**
+     * @param path 记录文件或者目录
+     * @return 需要读取的文件，按时间排序
+     */
+    public static List<File> list(File path) {
+        if (path.isDirectory()) {
+            return Arrays.asList(TrafficRecorder.listFiles(path));
+        }
+        return Collections.singletonList(path);
+    }
+
+    /**
+     * 读取下一条请求记录
+     * @return 全部文件读完时返回null
+     * @throws IOException 文件格式错误
+     */
+    public TrafficRecord next() throws IOException {
+        while (true) {
+            if (buffer == null) {
+                if (index >= files.size()) {
+                    return null;
+                }
+                open(files.get(index++));
+            }
+            if (!buffer.hasRemaining()) {
+                buffer = null;
+                continue;
+            }
+            int position = buffer.position();
+            byte type = buffer.get();
+            if (type == TrafficRecorder.TYPE_END) {
+                buffer = null;
+            } else if (type == TrafficRecorder.TYPE_KEY) {
+                int id = (int) getVarLong();
+                byte[] bytes = new byte[(int) getVarLong()];
+                if (id != keys.size() || bytes.length > TrafficRecorder.MAX_KEY_BYTES) {
+                    throw corrupt(position);
+                }
+                buffer.get(bytes);
+                keys.add(new String(bytes, TrafficRecorder.UTF8));
+            } else if (type == TrafficRecorder.TYPE_REQUEST) {
+                int flags = buffer.get() & 0xFF;
+                int id = (int) getVarLong();
+                long delta = getVarLong();
+                long latency = getVarLong();
+                if (id < 0 || id >= keys.size()) {
+                    throw corrupt(position);
+                }
+                lastMicros += (delta >>> 1) ^ -(delta & 1);
+                return new TrafficRecord(lastMicros, keys.get(id), (byte) (flags & ~TrafficRecorder.FLAG_FAILED),
+                        latency, (flags & TrafficRecorder.FLAG_FAILED) == 0);
+            } else {
+                throw corrupt(position);
+            }
+        }
+    }
+
+    private void open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < TrafficRecorder.HEADER_SIZE || mapped.getInt() != TrafficRecorder.MAGIC) {
+                throw new IOException("not a traffic record file " + file);
+            }
+            int version = mapped.getInt();
+            if (version != TrafficRecorder.VERSION) {
+                throw new IOException("unsupported traffic record version " + version + " of " + file);
+            }
+            lastMicros = mapped.getLong();
+            ((Buffer) mapped).position(TrafficRecorder.HEADER_SIZE);
+            this.file = file;
+            this.buffer = mapped;
+            keys.clear();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long getVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    private IOException corrupt(int position) {
+        return new IOException("corrupt traffic record file " + file + " at " + position);
+    }
+}
@@ -0,0 +1,330 @@
+package com.sankuai.inf.leaf.server.record;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发号请求记录器，把线上的请求(时间、业务key、发号器、耗时)写入滚动的内存映射文件，用于回放压测
+ * + 请求线程只把记录放入有界队列，队列满时丢弃，不阻塞发号
+ * + 单个写线程批量取出记录写入映射内存，不在请求路径上做io
+ * + 文件写满后截断到实际长度并打开下一个文件，只保留最近的若干个文件
+ * 文件结构：
+ * + 文件头32字节：magic(4) version(4) 起始时间epoch微秒(8) 保留(16)
+ * + 之后是变长记录，第一个字节是类型，0表示文件结束
+ *   业务key：类型1 key序号(varint) 长度(varint) utf8，每个文件内第一次出现时写入
+ *   请求：类型2 发号器和失败标记(1) key序号(varint) 与上一条请求的时间差微秒(zigzag varint) 耗时微秒(varint)
+ * 每条记录先写内容最后写类型字节，进程崩溃时文件中不会出现写了一半的记录
+ */
+public class TrafficRecorder implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TrafficRecorder.class);
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int MAGIC = 0x4C524543;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final byte TYPE_END = 0;
+    static final byte TYPE_KEY = 1;
+    static final byte TYPE_REQUEST = 2;
+    static final int FLAG_FAILED = 0x80;
+    static final String FILE_PREFIX = "traffic-";
+    static final String FILE_SUFFIX = ".rec";
+    static final int MAX_KEY_BYTES = 1024;
+    /**
+     * 一个业务key记录加一个请求记录的最大长度
+     */
+    private static final int MAX_RECORD_SIZE = 1 + 5 + 5 + MAX_KEY_BYTES + 1 + 1 + 5 + 10 + 10;
+    private static final int BATCH_SIZE = 1024;
+    public static final long MIN_FILE_SIZE = 4096;
+
+    private final File dir;
+    private final long fileSize;
+    private final int maxFiles;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * 用nanoTime换算请求时间，请求线程不需要再取一次系统时间
+     */
+    private final long baseNanos;
+    private final long baseEpochMicros;
+
+    /** 以下只在写线程中访问 **/
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private long lastMicros;
+    private int sequence;
+    private long lastErrorMillis;
+
+    /**
+     * @param dir       记录文件所在目录，不存在时创建
+     * @param fileSize  单个文件的字节数
+     * @param maxFiles  保留的文件数
+     * @param queueSize 等待写入的最大记录数
+     */
+    public TrafficRecorder(File dir, long fileSize, int maxFiles, int queueSize) {
+        if (fileSize < MIN_FILE_SIZE || fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("file size must be between " + MIN_FILE_SIZE + " and " + Integer.MAX_VALUE);
+        }
+        if (maxFiles <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("max files and queue size must be positive");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("can not create traffic record dir " + dir);
+        }
+        this.dir = dir;
+        this.fileSize = fileSize;
+        this.maxFiles = maxFiles;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.baseNanos = System.nanoTime();
+        this.baseEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Thread-Leaf-Traffic-Recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 记录一次请求，队列满或者已经关闭时丢弃
+     * @param generator    {@link TrafficRecord#SEGMENT} 或者 {@link TrafficRecord#SNOWFLAKE}
+     * @param key          业务key
+     * @param startNanos   请求开始时的System.nanoTime()
+     * @param latencyNanos 耗时
+     * @param success      是否发号成功
+     * @return 是否放入队列
+     */
+    public boolean record(byte generator, String key, long startNanos, long latencyNanos, boolean success) {
+        if (running && queue.offer(new Entry(generator, key, startNanos, latencyNanos, success))) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Entry entry : batch) {
+                    write(entry);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            /** 写线程退出后不再接收记录，之后的请求全部计入丢弃 **/
+            running = false;
+            logger.error("traffic record writer stopped", e);
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(Entry entry) {
+        byte[] keyBytes = entry.key.getBytes(UTF8);
+        if (keyBytes.length > MAX_KEY_BYTES) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long micros = baseEpochMicros + (entry.startNanos - baseNanos) / 1000;
+        try {
+            if (buffer == null || buffer.remaining() < MAX_RECORD_SIZE + 1) {
+                roll(micros);
+            }
+        } catch (IOException e) {
+            closeFile();
+            dropped.incrementAndGet();
+            long now = System.currentTimeMillis();
+            if (now - lastErrorMillis > 10000) {
+                lastErrorMillis = now;
+                logger.error("Open traffic record file in {} fail", dir, e);
+            }
+            return;
+        }
+        Integer id = keyIds.get(entry.key);
+        if (id == null) {
+            id = keyIds.size();
+            keyIds.put(entry.key, id);
+            int position = buffer.position();
+            ((Buffer) buffer).position(position + 1);
+            putVarLong(id);
+            putVarLong(keyBytes.length);
+            buffer.put(keyBytes);
+            buffer.put(position, TYPE_KEY);
+        }
+        int position = buffer.position();
+        ((Buffer) buffer).position(position + 1);
+        buffer.put((byte) (entry.success ? entry.generator : entry.generator | FLAG_FAILED));
+        putVarLong(id);
+        long delta = micros - lastMicros;
+        putVarLong((delta << 1) ^ (delta >> 63));
+        putVarLong(Math.max(0, entry.latencyNanos / 1000));
+        buffer.put(position, TYPE_REQUEST);
+        lastMicros = micros;
+        recorded.incrementAndGet();
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 关闭当前文件，打开下一个文件并删除多余的旧文件
+     * @param micros 第一条记录的时间
+     * @throws IOException
+     */
+    private void roll(long micros) throws IOException {
+        closeFile();
+        long millis = micros / 1000;
+        File file = new File(dir, String.format("%s%013d-%04d%s", FILE_PREFIX, millis, sequence, FILE_SUFFIX));
+        sequence = (sequence + 1) % 10000;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        lastMicros = millis * 1000;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(lastMicros);
+        ((Buffer) buffer).position(HEADER_SIZE);
+        keyIds.clear();
+        deleteOldFiles();
+        logger.info("Traffic record file {} opened", file);
+    }
+
+    /**
+     * 刷盘后截断到实际写入的长度
+     */
+    private void closeFile() {
+        if (raf == null) {
+            return;
+        }
+        try {
+            if (buffer != null) {
+                int length = buffer.position();
+                buffer.force();
+                buffer = null;
+                channel.truncate(length);
+            }
+        } catch (IOException e) {
+            logger.warn("Truncate traffic record file fail", e);
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("Close traffic record file fail", e);
+            }
+            raf = null;
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void deleteOldFiles() {
+        File[] files = listFiles(dir);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            if (!files[i].delete()) {
+                logger.warn("Delete traffic record file {} fail", files[i]);
+            }
+        }
+    }
+
+    /**
+     * 目录中的记录文件，按时间排序
+     * @param dir
+     * @return
+     */
+    static File[] listFiles(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * 写入文件的记录数
+     * @return
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * 因为队列满、key过长或者文件打开失败丢弃的记录数
+     * @return
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 停止接收记录，等待队列中的记录写完后关闭文件
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Traffic recorder closed, recorded {}, dropped {}", recorded.get(), dropped.get());
+    }
+
+    private static class Entry {
+        final byte generator;
+        final String key;
+        final long startNanos;
+        final long latencyNanos;
+        final boolean success;
+
+        Entry(byte generator, String key, long startNanos, long latencyNanos, boolean success) {
+            this.generator = generator;
+            this.key = key;
+            this.startNanos = startNanos;
+            this.latencyNanos = latencyNanos;
+            this.success = success;
+        }
+    }
+}
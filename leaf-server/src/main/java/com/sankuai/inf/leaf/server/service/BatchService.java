@@ -0,0 +1,146 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.common.PropertyFactory;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.server.Constants;
+import com.sankuai.inf.leaf.server.exception.BadRequestException;
+import com.sankuai.inf.leaf.server.exception.NotReadyException;
+import com.sankuai.inf.leaf.server.model.BatchIds;
+import com.sankuai.inf.leaf.server.record.TrafficRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次请求从多个业务key取号，号段和雪花发号器可以混合
+ * + 每个业务key用 {@link com.sankuai.inf.leaf.IDGen#get(String, int)} 一次取够，不逐个发号
+ * + 某个业务key失败(不存在、限流、发号器未就绪)只体现在这个key的结果中，不影响其他key
+ * + 一次请求的号码总数不超过 leaf.batch.max.ids，格式错误或者超过上限时返回400
+ */
+@Service("BatchService")
+public class BatchService {
+    public static final String SEGMENT = "segment";
+    public static final String SNOWFLAKE = "snowflake";
+
+    @Autowired
+    private SegmentService segmentService;
+    @Autowired
+    private SnowflakeService snowflakeService;
+    @Autowired
+    private TrafficRecordService trafficRecordService;
+
+    private final int maxIds;
+
+    public BatchService() {
+        maxIds = Integer.parseInt(PropertyFactory.getProperties().getProperty(Constants.LEAF_BATCH_MAX_IDS, "1000"));
+    }
+
+    /**
+     * 按 leaf.batch.max.ids 解析业务key列表
+     * @param spec 可以为null
+     * @return 业务key到数量，保持书写顺序
+     */
+    public Map<String, Integer> parse(String spec) {
+        return parse(spec, maxIds);
+    }
+
+    /**
+     * 解析 key1,key2:count,... 形式的业务key列表，没有写数量的key取1个，重复的key数量相加
+     * + 业务key本身包含冒号时需要写明数量，例如 a:b:1
+     * + 边解析边用long累加，单个数量或者累计数量超过maxIds时立即拒绝，重复的key不会溢出
+     * @param spec   可以为null
+     * @param maxIds 号码总数上限
+     * @return 业务key到数量，保持书写顺序
+     */
+    public static Map<String, Integer> parse(String spec, int maxIds) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (spec == null) {
+            return counts;
+        }
+        long total = 0;
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            String key = item;
+            int count = 1;
+            int colon = item.lastIndexOf(':');
+            if (colon >= 0) {
+                key = item.substring(0, colon);
+                try {
+                    count = Integer.parseInt(item.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    throw new BadRequestException("bad count in " + item);
+                }
+            }
+            if (key.isEmpty() || count <= 0) {
+                throw new BadRequestException("bad batch item " + item);
+            }
+            total += count;
+            if (total > maxIds) {
+                throw new BadRequestException("batch of " + total + " ids exceeds " + maxIds);
+            }
+            Integer previous = counts.get(key);
+            /** 累计不超过maxIds，相加不会溢出 **/
+            counts.put(key, previous == null ? count : previous + count);
+        }
+        return counts;
+    }
+
+    /**
+     * @param segment   号段业务key到数量
+     * @param snowflake 雪花业务key到数量
+     * @return 发号器名称到 业务key到结果，没有请求的发号器不出现
+     */
+    public Map<String, Map<String, BatchIds>> getIds(Map<String, Integer> segment, Map<String, Integer> snowflake) {
+        long total = 0;
+        for (Integer count : segment.values()) {
+            total += count;
+        }
+        for (Integer count : snowflake.values()) {
+            total += count;
+        }
+        if (total == 0) {
+            throw new BadRequestException("no key in batch");
+        }
+        if (total > maxIds) {
+            throw new BadRequestException("batch of " + total + " ids exceeds " + maxIds);
+        }
+        Map<String, Map<String, BatchIds>> ids = new LinkedHashMap<>();
+        if (!segment.isEmpty()) {
+            ids.put(SEGMENT, getIds(TrafficRecord.SEGMENT, segment));
+        }
+        if (!snowflake.isEmpty()) {
+            ids.put(SNOWFLAKE, getIds(TrafficRecord.SNOWFLAKE, snowflake));
+        }
+        return ids;
+    }
+
+    private Map<String, BatchIds> getIds(byte generator, Map<String, Integer> counts) {
+        Map<String, BatchIds> ids = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String key = entry.getKey();
+            long start = System.nanoTime();
+            List<Result> results;
+            try {
+                results = generator == TrafficRecord.SEGMENT
+                        ? segmentService.getIds(key, entry.getValue())
+                        : snowflakeService.getIds(key, entry.getValue());
+            } catch (NotReadyException e) {
+                ids.put(key, new BatchIds(e.getMessage()));
+                continue;
+            }
+            BatchIds batchIds = new BatchIds(results);
+            /** 一个业务key记录为一次请求，有号码失败时记为失败 **/
+            trafficRecordService.record(generator, key, start,
+                    new Result(0, batchIds.getCode() == null ? Status.SUCCESS : Status.EXCEPTION));
+            ids.put(key, batchIds);
+        }
+        return ids;
+    }
+}
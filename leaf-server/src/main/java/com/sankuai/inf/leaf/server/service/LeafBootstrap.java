@@ -0,0 +1,121 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.server.exception.NotReadyException;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发号器的并行初始化
+ * 各个发号器的初始化提交到bootstrap线程池中同时执行，服务启动不等待初始化完成，
+ * 一个发号器初始化慢(例如zk或者数据库不可用)不影响另一个发号器提供服务
+ * 初始化失败时按指数退避重试，直到成功或者服务关闭，启动时存储短暂不可用不会让服务一直不可用
+ */
+@Service("LeafBootstrap")
+public class LeafBootstrap {
+    private Logger logger = LoggerFactory.getLogger(LeafBootstrap.class);
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 1000L;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 60000L;
+
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    private final List<Readiness> readinesses = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Thread-Leaf-Bootstrap-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public LeafBootstrap() {
+        this(DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+    }
+
+    /**
+     * @param initialBackoffMs 第一次失败后等待多久重试
+     * @param maxBackoffMs     每次失败后等待时间翻倍，最多等待这么久
+     */
+    public LeafBootstrap(long initialBackoffMs, long maxBackoffMs) {
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * 提交初始化任务，失败后重试，任务需要自己释放失败时已经创建的资源
+     * @param name 发号器名称
+     * @param task
+     * @return 发号器的就绪状态
+     */
+    public Readiness submit(final String name, final Task task) {
+        final Readiness readiness = new Readiness(name);
+        readinesses.add(readiness);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long backoff = initialBackoffMs;
+                while (true) {
+                    try {
+                        task.run();
+                        readiness.ready();
+                        logger.info("{} ready in {}ms after {} failed attempts", name, readiness.getCostMillis(), readiness.getFailures());
+                        return;
+                    } catch (InterruptedException e) {
+                        readiness.fail("interrupted");
+                        return;
+                    } catch (Exception e) {
+                        readiness.fail(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+                        logger.error("{} init fail {} times, retry in {}ms", name, readiness.getFailures(), backoff, e);
+                    }
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(backoff);
+                    } catch (InterruptedException e) {
+                        /** 服务关闭 **/
+                        return;
+                    }
+                    backoff = Math.min(backoff * 2, maxBackoffMs);
+                }
+            }
+        });
+        return readiness;
+    }
+
+    /**
+     * 发号器未就绪时快速失败
+     * @param readiness
+     */
+    public static void checkReady(Readiness readiness) {
+        if (!readiness.isReady()) {
+            throw new NotReadyException(readiness.getName() + " " + readiness.getState()
+                    + (readiness.getMessage() == null ? "" : ": " + readiness.getMessage()));
+        }
+    }
+
+    public List<Readiness> getReadinesses() {
+        return new ArrayList<>(readinesses);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public interface Task {
+        void run() throws Exception;
+    }
+}
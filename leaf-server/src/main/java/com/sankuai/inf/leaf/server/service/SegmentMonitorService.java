@@ -0,0 +1,292 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.common.LatencyHistogram;
+import com.sankuai.inf.leaf.common.TokenBucket;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.model.IssueOutcome;
+import com.sankuai.inf.leaf.segment.model.IssueStats;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.model.Segment;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+import com.sankuai.inf.leaf.server.exception.LeafServerException;
+import com.sankuai.inf.leaf.server.model.SegmentBufferView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 号段发号器的分页监控
+ * + 遍历cache时只保留一页的候选，不复制cache，也不为每个业务key创建视图
+ * + 按biz_tag排序时游标是上一页最后一个biz_tag
+ * + 按剩余号码数排序时游标是 剩余号码数:biz_tag，剩余号码数一直在变化，翻页结果是近似的
+ */
+@Service("SegmentMonitorService")
+public class SegmentMonitorService {
+    public static final String SORT_KEY = "key";
+    public static final String SORT_RUNWAY = "runway";
+    /**
+     * 未初始化、后备号段未就绪、当前号段剩余不足步长的 LOW_IDLE_PERCENT%
+     */
+    public static final String STATE_NOT_INIT = "notInit";
+    public static final String STATE_NEXT_NOT_READY = "nextNotReady";
+    public static final String STATE_LOW_IDLE = "lowIdle";
+    public static final int MAX_LIMIT = 1000;
+    private static final int LOW_IDLE_PERCENT = 10;
+
+    private static final Comparator<Entry> BY_KEY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.key.compareTo(o2.key);
+        }
+    };
+    private static final Comparator<Entry> BY_RUNWAY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            if (o1.runway != o2.runway) {
+                return o1.runway < o2.runway ? -1 : 1;
+            }
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    @Autowired
+    private SegmentService segmentService;
+
+    /**
+     * 分页查询cache中的号段
+     * @param cursor 上一页返回的游标，为空时从头开始
+     * @param prefix biz_tag前缀，为空时不过滤
+     * @param state  状态过滤，为空时不过滤
+     * @param sort   key 或 runway
+     * @param limit  每页条数，不超过MAX_LIMIT
+     * @return
+     */
+    public List<SegmentBufferView> scanCache(String cursor, String prefix, String state, String sort, int limit) {
+        checkLimit(limit);
+        checkState(state);
+        Comparator<Entry> comparator = comparator(sort);
+        Entry after = parseCursor(cursor, comparator);
+        /** 大顶堆，堆顶是当前候选中排在最后的 **/
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(limit, Collections.reverseOrder(comparator));
+        for (Map.Entry<String, SegmentBuffer> mapEntry : idGen().getCache().entrySet()) {
+            String key = mapEntry.getKey();
+            if (prefix != null && !key.startsWith(prefix)) {
+                continue;
+            }
+            SegmentBuffer buffer = mapEntry.getValue();
+            if (!matchState(buffer, state)) {
+                continue;
+            }
+            Entry entry = new Entry(key, runway(buffer), buffer);
+            if (after != null && comparator.compare(entry, after) <= 0) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.offer(entry);
+            } else if (comparator.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(entry);
+            }
+        }
+        List<Entry> entries = new ArrayList<Entry>(heap);
+        Collections.sort(entries, comparator);
+        List<SegmentBufferView> result = new ArrayList<SegmentBufferView>(entries.size());
+        for (Entry entry : entries) {
+            SegmentBufferView view = toView(entry.buffer);
+            /** 与排序时使用的值保持一致，保证游标正确 **/
+            view.setRunway(entry.runway);
+            result.add(view);
+        }
+        return result;
+    }
+
+    /**
+     * 下一页的游标
+     * @param view 本页最后一条
+     * @param sort
+     * @return
+     */
+    public String cursorOf(SegmentBufferView view, String sort) {
+        return SORT_RUNWAY.equals(sort) ? view.getRunway() + ":" + view.getKey() : view.getKey();
+    }
+
+    /**
+     * 按biz_tag游标分页查询数据库配置
+     * @param cursor
+     * @param prefix
+     * @param limit
+     * @return
+     */
+    public List<LeafAlloc> scanDb(String cursor, String prefix, int limit) {
+        checkLimit(limit);
+        return idGen().getDao().getLeafAllocsAfter(cursor, prefix, limit);
+    }
+
+    /**
+     * 业务key按发号分类聚合的次数和耗时，耗时单位为微秒
+     * + avg/p50/p99/max：整次发号的耗时，分位数是所在2的幂区间的上界
+     * + init/wait/lock：平均每次花在同步初始化、等待后备号段、等待写锁上的耗时
+     * @param key
+     * @return 业务key没有号段缓存或者没有开启统计时返回null
+     */
+    public Map<String, Map<String, Object>> latencyOf(String key) {
+        SegmentBuffer buffer = idGen().getCache().get(key);
+        IssueStats stats = buffer == null ? null : buffer.getIssueStats();
+        if (stats == null) {
+            return null;
+        }
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (IssueOutcome outcome : IssueOutcome.values()) {
+            long count = stats.getCount(outcome);
+            LatencyHistogram histogram = stats.getHistogram(outcome);
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("count", count);
+            item.put("avgUs", average(stats.getTotalNanos(outcome), count));
+            item.put("p50Us", histogram.percentile(50) / 1000);
+            item.put("p99Us", histogram.percentile(99) / 1000);
+            item.put("maxUs", histogram.max() / 1000);
+            item.put("initUs", average(stats.getInitNanos(outcome), count));
+            item.put("waitUs", average(stats.getWaitNanos(outcome), count));
+            item.put("lockUs", average(stats.getLockNanos(outcome), count));
+            result.put(outcome.name().toLowerCase(), item);
+        }
+        return result;
+    }
+
+    private static long average(long nanos, long count) {
+        return count == 0 ? 0 : nanos / count / 1000;
+    }
+
+    /**
+     * 号段缓存的视图
+     * @param buffer
+     * @return
+     */
+    public static SegmentBufferView toView(SegmentBuffer buffer) {
+        SegmentBufferView sv = new SegmentBufferView();
+        sv.setInitOk(buffer.isInitOk());
+        sv.setKey(buffer.getKey());
+        sv.setPos(buffer.getCurrentPos());
+        sv.setNextReady(buffer.isNextReady());
+        sv.setMax0(buffer.getSegments()[0].getMax());
+        sv.setValue0(buffer.getSegments()[0].getValue().get());
+        sv.setStep0(buffer.getSegments()[0].getStep());
+
+        sv.setMax1(buffer.getSegments()[1].getMax());
+        sv.setValue1(buffer.getSegments()[1].getValue().get());
+        sv.setStep1(buffer.getSegments()[1].getStep());
+
+        sv.setStriped(buffer.getStriped() != null);
+        sv.setRate(buffer.getRate());
+        sv.setRunway(runway(buffer));
+
+        TokenBucket issueQuota = buffer.getIssueQuota();
+        if (issueQuota != null) {
+            sv.setIssueQuota(issueQuota.getPermitsPerSecond() + ":" + issueQuota.getBurst());
+            sv.setIssueRejected(issueQuota.getRejected());
+        }
+        TokenBucket refillQuota = buffer.getRefillQuota();
+        if (refillQuota != null) {
+            sv.setRefillQuota(refillQuota.getPermitsPerSecond() + ":" + refillQuota.getBurst());
+            sv.setRefillRejected(refillQuota.getRejected());
+        }
+        return sv;
+    }
+
+    /**
+     * 剩余可发的号码数，不加锁读取，只用于监控
+     * @param buffer
+     * @return
+     */
+    private static long runway(SegmentBuffer buffer) {
+        if (!buffer.isInitOk()) {
+            return 0;
+        }
+        long runway = Math.max(0, buffer.getCurrent().getIdle());
+        if (buffer.isNextReady()) {
+            runway += Math.max(0, buffer.getSegments()[buffer.nextPos()].getIdle());
+        }
+        return runway;
+    }
+
+    private static boolean matchState(SegmentBuffer buffer, String state) {
+        if (state == null) {
+            return true;
+        }
+        if (STATE_NOT_INIT.equals(state)) {
+            return !buffer.isInitOk();
+        }
+        if (STATE_NEXT_NOT_READY.equals(state)) {
+            return buffer.isInitOk() && !buffer.isNextReady();
+        }
+        Segment current = buffer.getCurrent();
+        return buffer.isInitOk() && current.getIdle() * 100 < (long) current.getStep() * LOW_IDLE_PERCENT;
+    }
+
+    private SegmentIDGenImpl idGen() {
+        LeafBootstrap.checkReady(segmentService.getReadiness());
+        SegmentIDGenImpl segmentIDGen = segmentService.getIdGen();
+        if (segmentIDGen == null) {
+            throw new IllegalArgumentException("You should config leaf.segment.enable=true first");
+        }
+        return segmentIDGen;
+    }
+
+    private static Comparator<Entry> comparator(String sort) {
+        if (SORT_KEY.equals(sort)) {
+            return BY_KEY;
+        }
+        if (SORT_RUNWAY.equals(sort)) {
+            return BY_RUNWAY;
+        }
+        throw new LeafServerException("sort must be " + SORT_KEY + " or " + SORT_RUNWAY);
+    }
+
+    private static Entry parseCursor(String cursor, Comparator<Entry> comparator) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        if (comparator == BY_KEY) {
+            return new Entry(cursor, 0, null);
+        }
+        int colon = cursor.indexOf(':');
+        try {
+            return new Entry(cursor.substring(colon + 1), Long.parseLong(cursor.substring(0, colon)), null);
+        } catch (RuntimeException e) {
+            throw new LeafServerException("invalid cursor " + cursor);
+        }
+    }
+
+    private static void checkState(String state) {
+        if (state != null && !STATE_NOT_INIT.equals(state) && !STATE_NEXT_NOT_READY.equals(state)
+                && !STATE_LOW_IDLE.equals(state)) {
+            throw new LeafServerException("state must be one of " + STATE_NOT_INIT + ", " + STATE_NEXT_NOT_READY
+                    + ", " + STATE_LOW_IDLE);
+        }
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new LeafServerException("limit must be in [1, " + MAX_LIMIT + "]");
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final long runway;
+        private final SegmentBuffer buffer;
+
+        Entry(String key, long runway, SegmentBuffer buffer) {
+            this.key = key;
+            this.runway = runway;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -4,18 +4,46 @@ import com.alibaba.druid.pool.DruidDataSource;
 import com.sankuai.inf.leaf.IDGen;
 import com.sankuai.inf.leaf.common.PropertyFactory;
 import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.TokenBucket;
 import com.sankuai.inf.leaf.common.ZeroIDGen;
+import com.sankuai.inf.leaf.segment.CoalescingSegmentIDGen;
 import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
 import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
 import com.sankuai.inf.leaf.segment.dao.impl.IDAllocDaoImpl;
+import com.sankuai.inf.leaf.segment.dao.impl.InterleavedIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.MappedFileIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.RaftIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.ShardingIDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.ZookeeperIDAllocDao;
+import com.sankuai.inf.leaf.segment.model.IdRange;
+import com.sankuai.inf.leaf.segment.model.IssueTrace;
+import com.sankuai.inf.leaf.segment.raft.FileRaftStorage;
+import com.sankuai.inf.leaf.segment.raft.RaftNode;
 import com.sankuai.inf.leaf.server.Constants;
+import com.sankuai.inf.leaf.server.exception.BadRequestException;
 import com.sankuai.inf.leaf.server.exception.InitException;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import com.sankuai.inf.leaf.server.raft.HttpRaftTransport;
+import com.sankuai.inf.leaf.server.raft.RaftPeerAccess;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryUntilElapsed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 号段发号器服务
@@ -23,9 +51,40 @@ import java.util.Properties;
 @Service("SegmentService")
 public class SegmentService {
     private Logger logger = LoggerFactory.getLogger(SegmentService.class);
+    public static final int DEFAULT_RESERVE_MAX = 100000000;
 
-    private IDGen idGen;
-    private DruidDataSource dataSource;
+    private volatile IDGen idGen;
+    /**
+     * 开启请求合并时发号经过这里，否则为null
+     */
+    private volatile CoalescingSegmentIDGen coalescing;
+    private List<DruidDataSource> dataSources = new ArrayList<>();
+    private volatile IDAllocDao dao;
+    private volatile RaftNode raftNode;
+    private volatile RaftPeerAccess raftPeerAccess;
+    private volatile CuratorFramework curator;
+    private final Readiness readiness;
+    /**
+     * 带上耗时响应头的请求比例
+     */
+    private volatile double traceSampleRate;
+    /**
+     * 一次预留的最大号码数量
+     */
+    private volatile int reserveMax = DEFAULT_RESERVE_MAX;
+
+    /**
+     * 发号器在bootstrap线程池中初始化，初始化完成前发号返回未就绪
+     * @param bootstrap
+     */
+    public SegmentService(LeafBootstrap bootstrap) {
+        readiness = bootstrap.submit("segment", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                init();
+            }
+        });
+    }
 
     /**
      * 发号器初始化
@@ -34,30 +93,87 @@ public class SegmentService {
      * @throws SQLException
      * @throws InitException
      */
-    public SegmentService() throws SQLException, InitException {
+    private void init() throws SQLException, IOException, InterruptedException, InitException {
+        try {
+            doInit();
+        } catch (Exception e) {
+            /** 释放本次创建的存储资源，下次重试重新创建 **/
+            release();
+            throw e;
+        }
+    }
+
+    private void doInit() throws SQLException, IOException, InterruptedException, InitException {
         Properties properties = PropertyFactory.getProperties();
         boolean flag = Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SEGMENT_ENABLE, "true"));
         if (flag) {
-            /** 从配置中获取数据库配置，初始化数据源
-             * 用的阿里的druid
-             * **/
-            dataSource = new DruidDataSource();
-            dataSource.setUrl(properties.getProperty(Constants.LEAF_JDBC_URL));
-            dataSource.setUsername(properties.getProperty(Constants.LEAF_JDBC_USERNAME));
-            dataSource.setPassword(properties.getProperty(Constants.LEAF_JDBC_PASSWORD));
-            dataSource.init();
-
-            /** 创建发号器分配DAO **/
-            IDAllocDao dao = new IDAllocDaoImpl(dataSource);
+            /** 创建发号器分配DAO，配置了本地文件、分库或者多库时创建对应的DAO **/
+            IDAllocDao dao;
+            String raftId = properties.getProperty(Constants.LEAF_SEGMENT_RAFT_ID);
+            String filePath = properties.getProperty(Constants.LEAF_SEGMENT_FILE_PATH);
+            String zkAddress = properties.getProperty(Constants.LEAF_SEGMENT_ZK_ADDRESS);
+            int shards = Integer.parseInt(properties.getProperty(Constants.LEAF_JDBC_SHARDS, "0"));
+            int haDatabases = Integer.parseInt(properties.getProperty(Constants.LEAF_JDBC_HA_DATABASES, "0"));
+            if (raftId != null && !raftId.trim().isEmpty()) {
+                dao = createRaftDao(properties, raftId.trim());
+            } else if (filePath != null && !filePath.trim().isEmpty()) {
+                dao = createMappedFileDao(properties, filePath.trim());
+            } else if (zkAddress != null && !zkAddress.trim().isEmpty()) {
+                dao = createZookeeperDao(properties, zkAddress.trim());
+            } else if (shards > 0) {
+                dao = createShardingDao(properties, shards);
+            } else if (haDatabases > 0) {
+                dao = createInterleavedDao(properties, haDatabases);
+            } else {
+                /** 从配置中获取数据库配置，初始化数据源
+                 * 用的阿里的druid
+                 * **/
+                dao = new IDAllocDaoImpl(createDataSource(properties.getProperty(Constants.LEAF_JDBC_URL),
+                        properties.getProperty(Constants.LEAF_JDBC_USERNAME),
+                        properties.getProperty(Constants.LEAF_JDBC_PASSWORD)));
+            }
 
+            this.dao = dao;
+            int reserveMax = Integer.parseInt(properties.getProperty(Constants.LEAF_SEGMENT_RESERVE_MAX,
+                    String.valueOf(DEFAULT_RESERVE_MAX)));
+            if (dao instanceof InterleavedIDAllocDao) {
+                /** 多库交错发号时预留的区间不能跨块 **/
+                reserveMax = (int) Math.min(reserveMax, ((InterleavedIDAllocDao) dao).getBlockSize());
+            }
+            this.reserveMax = reserveMax;
             /** 创建一个基于数据库分段的发号器实现 **/
-            idGen = new SegmentIDGenImpl();
+            SegmentIDGenImpl segmentIDGen = new SegmentIDGenImpl();
             /** 把dao赋值给发号器 **/
-            ((SegmentIDGenImpl) idGen).setDao(dao);
+            segmentIDGen.setDao(dao);
+            configQuotas(properties, segmentIDGen);
+            /** 热点key自动升级为分条发号，冷却后降级；分条后号码只保证趋势递增，默认关闭 **/
+            segmentIDGen.setHotKeyDetection(
+                    Long.parseLong(properties.getProperty(Constants.LEAF_SEGMENT_HOT_PROMOTE_QPS, "0")),
+                    Integer.parseInt(properties.getProperty(Constants.LEAF_SEGMENT_HOT_CONTENTION_PERCENT, "10")),
+                    Integer.parseInt(properties.getProperty(Constants.LEAF_SEGMENT_HOT_STRIPES, "16")));
+            /** 冷的业务key第一次发号时才创建号段缓存，空闲后淘汰 **/
+            segmentIDGen.setColdTagEviction(Long.parseLong(properties.getProperty(Constants.LEAF_SEGMENT_COLD_IDLE_MS, "0")));
+            /** 按发号分类统计耗时，用于定位延迟升高的原因；每次发号多读两次时钟，默认关闭 **/
+            segmentIDGen.setIssueStats(Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SEGMENT_STATS_ENABLE, "false")));
+            traceSampleRate = Double.parseDouble(properties.getProperty(Constants.LEAF_SEGMENT_TRACE_SAMPLE, "0"));
+            if (raftNode != null) {
+                /** raft节点之间通过本服务的http接口通信，等待选出leader后再创建业务key **/
+                awaitRaft(properties);
+            }
             /** 初始化，主要是从数据库拉取发号数据，加载到内存，启动定时更新线程 **/
-            if (idGen.init()) {
+            if (segmentIDGen.init()) {
+                if (Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SEGMENT_COALESCE_ENABLE, "false"))) {
+                    /** 同一个业务key的并发请求合并为一次批量发号 **/
+                    long windowMicros = Long.parseLong(properties.getProperty(Constants.LEAF_SEGMENT_COALESCE_WINDOW_US, "0"));
+                    int maxBatch = Integer.parseInt(properties.getProperty(Constants.LEAF_SEGMENT_COALESCE_MAX_BATCH,
+                            String.valueOf(CoalescingSegmentIDGen.DEFAULT_MAX_BATCH)));
+                    coalescing = new CoalescingSegmentIDGen(segmentIDGen, windowMicros, maxBatch);
+                    logger.info("Segment Service coalesce requests, window {}us, max batch {}", windowMicros, maxBatch);
+                }
+                idGen = segmentIDGen;
                 logger.info("Segment Service Init Successfully");
             } else {
+                segmentIDGen.close();
                 throw new InitException("Segment Service Init Fail");
             }
         } else {
@@ -67,13 +183,329 @@ public class SegmentService {
         }
     }
 
+    /**
+     * 关闭发号器和存储
+     * + 先停止发号器的后台线程，再关闭DAO的线程池和本地文件
+     * + 最后关闭raft节点、zookeeper客户端和数据源
+     */
+    @PreDestroy
+    public void shutdown() {
+        SegmentIDGenImpl segmentIDGen = getIdGen();
+        if (segmentIDGen != null) {
+            segmentIDGen.close();
+        }
+        release();
+        logger.info("Segment Service shutdown");
+    }
+
+    private void release() {
+        if (dao instanceof Closeable) {
+            try {
+                ((Closeable) dao).close();
+            } catch (IOException e) {
+                logger.warn("close segment dao exception", e);
+            }
+        }
+        dao = null;
+        if (raftNode != null) {
+            raftNode.shutdown();
+            raftNode = null;
+        }
+        if (curator != null) {
+            curator.close();
+            curator = null;
+        }
+        for (DruidDataSource dataSource : dataSources) {
+            dataSource.close();
+        }
+        dataSources.clear();
+    }
+
+    /**
+     * 业务key的限流配置 rate[:burst]
+     * + leaf.segment.quota.{biz_tag} 每秒发号数
+     * + leaf.segment.refill.quota.{biz_tag} 每秒后备号段更新次数，可以是小数
+     * @param properties
+     * @param segmentIDGen
+     */
+    private void configQuotas(Properties properties, SegmentIDGenImpl segmentIDGen) {
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(Constants.LEAF_SEGMENT_QUOTA_PREFIX)) {
+                String tag = name.substring(Constants.LEAF_SEGMENT_QUOTA_PREFIX.length());
+                segmentIDGen.setIssueQuota(tag, TokenBucket.parse(properties.getProperty(name)));
+                logger.info("Segment issue quota of {} is {}", tag, properties.getProperty(name));
+            } else if (name.startsWith(Constants.LEAF_SEGMENT_REFILL_QUOTA_PREFIX)) {
+                String tag = name.substring(Constants.LEAF_SEGMENT_REFILL_QUOTA_PREFIX.length());
+                segmentIDGen.setRefillQuota(tag, TokenBucket.parse(properties.getProperty(name)));
+                logger.info("Segment refill quota of {} is {}", tag, properties.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * 创建raft DAO
+     * + leaf.segment.raft.members 配置全部节点 id@host:port，节点之间通过 /raft/* 接口通信
+     * + leaf.segment.raft.dir 保存任期、日志和快照
+     * + /raft/* 只接受来自其他节点地址的请求，配置 leaf.segment.raft.token 时还需要带上相同的token
+     * @param properties
+     * @param raftId
+     * @return
+     * @throws IOException
+     */
+    private IDAllocDao createRaftDao(Properties properties, String raftId) throws IOException {
+        Map<String, String> addresses = new LinkedHashMap<>();
+        for (String item : properties.getProperty(Constants.LEAF_SEGMENT_RAFT_MEMBERS, "").split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] idAndAddress = item.trim().split("@");
+            addresses.put(idAndAddress[0], idAndAddress[1]);
+        }
+        File dir = new File(properties.getProperty(Constants.LEAF_SEGMENT_RAFT_DIR, "raft"), raftId);
+        raftPeerAccess = new RaftPeerAccess(addresses.values(), properties.getProperty(Constants.LEAF_SEGMENT_RAFT_TOKEN));
+        HttpRaftTransport transport = new HttpRaftTransport(addresses, raftPeerAccess.getToken());
+        raftNode = new RaftNode(raftId, new ArrayList<>(addresses.keySet()), transport, new FileRaftStorage(dir));
+        raftNode.start();
+        logger.info("Segment Service use raft node {}, members {}, dir {}", raftId, addresses, dir);
+        return new RaftIDAllocDao(raftNode);
+    }
+
+    /**
+     * 等待raft集群选出leader后创建配置的业务key
+     * + leaf.segment.raft.tags 配置启动时需要存在的业务key，格式为 biz_tag:step,biz_tag:step
+     * @param properties
+     * @throws InterruptedException
+     */
+    private void awaitRaft(Properties properties) throws InterruptedException {
+        while (!raftNode.awaitReady(10000)) {
+            logger.warn("Raft node {} waiting for leader", raftNode.getId());
+        }
+        RaftIDAllocDao dao = new RaftIDAllocDao(raftNode);
+        String tags = properties.getProperty(Constants.LEAF_SEGMENT_RAFT_TAGS, "");
+        for (String item : tags.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] tagAndStep = item.trim().split(":");
+            if (dao.addTag(tagAndStep[0], 1, Integer.parseInt(tagAndStep[1]))) {
+                logger.info("Add tag {} to raft", item);
+            }
+        }
+    }
+
+    /**
+     * 创建本地文件DAO
+     * + leaf.segment.file.tags 配置启动时需要存在的业务key，格式为 biz_tag:step,biz_tag:step
+     * @param properties
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private IDAllocDao createMappedFileDao(Properties properties, String path) throws IOException {
+        MappedFileIDAllocDao dao = new MappedFileIDAllocDao(path);
+        String tags = properties.getProperty(Constants.LEAF_SEGMENT_FILE_TAGS, "");
+        for (String item : tags.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] tagAndStep = item.trim().split(":");
+            if (dao.addTag(tagAndStep[0], 1, Integer.parseInt(tagAndStep[1]))) {
+                logger.info("Add tag {} to leaf alloc file {}", item, path);
+            }
+        }
+        logger.info("Segment Service use leaf alloc file {}", path);
+        return dao;
+    }
+
+    /**
+     * 创建zookeeper DAO
+     * + 业务key保存在 /segment/{leaf.name} 下
+     * + leaf.segment.zk.tags 配置启动时需要存在的业务key，格式为 biz_tag:step,biz_tag:step
+     * @param properties
+     * @param zkAddress
+     * @return
+     */
+    private IDAllocDao createZookeeperDao(Properties properties, String zkAddress) {
+        curator = CuratorFrameworkFactory.builder().connectString(zkAddress)
+                .retryPolicy(new RetryUntilElapsed(1000, 4))
+                .connectionTimeoutMs(10000)
+                .sessionTimeoutMs(6000)
+                .build();
+        curator.start();
+        String basePath = "/segment/" + properties.getProperty(Constants.LEAF_NAME);
+        ZookeeperIDAllocDao dao = new ZookeeperIDAllocDao(curator, basePath);
+        dao.setMaxRetry(Integer.parseInt(properties.getProperty(Constants.LEAF_SEGMENT_ZK_MAX_RETRY,
+                String.valueOf(ZookeeperIDAllocDao.DEFAULT_MAX_RETRY)).trim()));
+        String tags = properties.getProperty(Constants.LEAF_SEGMENT_ZK_TAGS, "");
+        for (String item : tags.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] tagAndStep = item.trim().split(":");
+            if (dao.addTag(tagAndStep[0], 1, Integer.parseInt(tagAndStep[1]))) {
+                logger.info("Add tag {} to zk {}", item, basePath);
+            }
+        }
+        logger.info("Segment Service use zk {} {}", zkAddress, basePath);
+        return dao;
+    }
+
+    /**
+     * 创建分库DAO
+     * + 每个分库一个独立的druid连接池
+     * + leaf.segment.route.{biz_tag} 配置显式路由，未配置的业务key按所在分库或一致性hash路由
+     * @param properties
+     * @param shards
+     * @return
+     * @throws SQLException
+     */
+    private IDAllocDao createShardingDao(Properties properties, int shards) throws SQLException {
+        List<IDAllocDao> daos = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            String prefix = Constants.LEAF_JDBC_SHARD_PREFIX + i + ".";
+            daos.add(new IDAllocDaoImpl(createDataSource(properties.getProperty(prefix + "url"),
+                    properties.getProperty(prefix + "username"),
+                    properties.getProperty(prefix + "password"))));
+        }
+        Map<String, Integer> routes = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(Constants.LEAF_SEGMENT_ROUTE_PREFIX)) {
+                routes.put(name.substring(Constants.LEAF_SEGMENT_ROUTE_PREFIX.length()),
+                        Integer.parseInt(properties.getProperty(name).trim()));
+            }
+        }
+        logger.info("Segment Service use {} shards, routes {}", shards, routes);
+        return new ShardingIDAllocDao(daos, routes);
+    }
+
+    /**
+     * 创建多库交错发号DAO
+     * + 每个库一个独立的druid连接池，库的顺序决定号码归属，部署后不能调整
+     * @param properties
+     * @param databases
+     * @return
+     * @throws SQLException
+     */
+    private IDAllocDao createInterleavedDao(Properties properties, int databases) throws SQLException {
+        List<IDAllocDaoImpl> daos = new ArrayList<>(databases);
+        for (int i = 0; i < databases; i++) {
+            String prefix = Constants.LEAF_JDBC_HA_PREFIX + i + ".";
+            daos.add(new IDAllocDaoImpl(createDataSource(properties.getProperty(prefix + "url"),
+                    properties.getProperty(prefix + "username"),
+                    properties.getProperty(prefix + "password"))));
+        }
+        long blockSize = Long.parseLong(properties.getProperty(Constants.LEAF_SEGMENT_HA_BLOCK,
+                String.valueOf(InterleavedIDAllocDao.DEFAULT_BLOCK_SIZE)));
+        long hedgeMillis = Long.parseLong(properties.getProperty(Constants.LEAF_SEGMENT_HA_HEDGE_MS,
+                String.valueOf(InterleavedIDAllocDao.DEFAULT_HEDGE_MILLIS)));
+        logger.info("Segment Service use {} interleaved databases, block {}, hedge {}ms", databases, blockSize, hedgeMillis);
+        return new InterleavedIDAllocDao(daos, blockSize, hedgeMillis);
+    }
+
+    private DruidDataSource createDataSource(String url, String username, String password) throws SQLException {
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSources.add(dataSource);
+        dataSource.init();
+        return dataSource;
+    }
+
     /**
      * 进行发号
      * @param key
      * @return
      */
     public Result getId(String key) {
-        return idGen.get(key);
+        LeafBootstrap.checkReady(readiness);
+        CoalescingSegmentIDGen current = coalescing;
+        return current == null ? idGen.get(key) : current.get(key);
+    }
+
+    /**
+     * 一次取同一个业务key的多个号码，开启请求合并时也不再合并
+     * @param key
+     * @param count
+     * @return count个结果
+     */
+    public List<Result> getIds(String key, int count) {
+        LeafBootstrap.checkReady(readiness);
+        return idGen.get(key, count);
+    }
+
+    /**
+     * 直接在存储中预留一段连续的号码，不经过号段缓存
+     * @param key
+     * @param count 必须在 [1, {@link #getReserveMax()}] 之间，否则返回400
+     * @return key不存在或者未开启号段模式时返回null
+     */
+    public IdRange reserve(String key, int count) {
+        if (count <= 0 || count > reserveMax) {
+            throw new BadRequestException("count must be in [1, " + reserveMax + "]");
+        }
+        LeafBootstrap.checkReady(readiness);
+        SegmentIDGenImpl segmentIDGen = getIdGen();
+        if (segmentIDGen == null) {
+            return null;
+        }
+        try {
+            return segmentIDGen.reserve(key, count);
+        } catch (IllegalArgumentException e) {
+            /** DAO一次分配不了这么多号码，例如被包装的多库交错DAO **/
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    public int getReserveMax() {
+        return reserveMax;
+    }
+
+    /**
+     * 本次请求是否需要返回耗时记录
+     * @param forced 请求中要求返回
+     * @return
+     */
+    public boolean shouldTrace(boolean forced) {
+        double rate = traceSampleRate;
+        return forced || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /**
+     * 请求合并，没有开启时返回null
+     * @return
+     */
+    public CoalescingSegmentIDGen getCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * 当前线程最近一次发号的分类和各阶段耗时，合并的请求由组长线程发号，等待的线程没有记录
+     * @return 没有开启统计或者未开启号段模式时返回null
+     */
+    public IssueTrace lastIssueTrace() {
+        SegmentIDGenImpl segmentIDGen = getIdGen();
+        return segmentIDGen == null ? null : segmentIDGen.lastIssueTrace();
+    }
+
+    public Readiness getReadiness() {
+        return readiness;
+    }
+
+    /**
+     * 使用raft存储时的本地节点，否则返回null
+     * @return
+     */
+    public RaftNode getRaftNode() {
+        return raftNode;
+    }
+
+    /**
+     * 使用raft存储时 /raft/* 接口的访问控制，否则返回null
+     * @return
+     */
+    public RaftPeerAccess getRaftPeerAccess() {
+        return raftPeerAccess;
     }
 
     /**
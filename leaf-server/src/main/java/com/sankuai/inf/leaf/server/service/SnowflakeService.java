@@ -3,14 +3,22 @@ package com.sankuai.inf.leaf.server.service;
 import com.sankuai.inf.leaf.IDGen;
 import com.sankuai.inf.leaf.common.PropertyFactory;
 import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Utils;
 import com.sankuai.inf.leaf.common.ZeroIDGen;
 import com.sankuai.inf.leaf.server.Constants;
 import com.sankuai.inf.leaf.server.exception.InitException;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import com.sankuai.inf.leaf.snowflake.CachedSnowflakeIDGen;
 import com.sankuai.inf.leaf.snowflake.SnowflakeIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.SnowflakeLeaseHolder;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryUntilElapsed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -20,9 +28,40 @@ import java.util.Properties;
 public class SnowflakeService {
     private Logger logger = LoggerFactory.getLogger(SnowflakeService.class);
 
-    private IDGen idGen;
+    private volatile IDGen idGen;
+    /**
+     * 租约方式分配workerId时使用的zookeeper客户端
+     */
+    private volatile CuratorFramework curator;
+    private final Readiness readiness;
+
+    /**
+     * 发号器在bootstrap线程池中初始化，初始化完成前发号返回未就绪
+     * @param bootstrap
+     */
+    public SnowflakeService(LeafBootstrap bootstrap) {
+        readiness = bootstrap.submit("snowflake", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                init();
+            }
+        });
+    }
+
+    private void init() throws InitException {
+        try {
+            doInit();
+        } catch (RuntimeException | InitException e) {
+            /** 关闭本次创建的zookeeper客户端，下次重试重新创建 **/
+            if (curator != null) {
+                curator.close();
+                curator = null;
+            }
+            throw e;
+        }
+    }
 
-    public SnowflakeService() throws InitException {
+    private void doInit() throws InitException {
         /**
          * 是否启动雪花
          */
@@ -34,7 +73,44 @@ public class SnowflakeService {
              */
             String zkAddress = properties.getProperty(Constants.LEAF_SNOWFLAKE_ZK_ADDRESS);
             int port = Integer.parseInt(properties.getProperty(Constants.LEAF_SNOWFLAKE_PORT));
-            idGen = new SnowflakeIDGenImpl(zkAddress, port);
+            boolean lease = Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SNOWFLAKE_WORKER_LEASE, "false"));
+            SnowflakeIDGenImpl snowflakeIDGen;
+            if (lease) {
+                /** 租约方式分配workerId，租约保存在 /snowflake/{leaf.name}/lease 下 **/
+                CuratorFramework curator = CuratorFrameworkFactory.builder().connectString(zkAddress)
+                        .retryPolicy(new RetryUntilElapsed(1000, 4))
+                        .connectionTimeoutMs(10000)
+                        .sessionTimeoutMs(6000)
+                        .build();
+                curator.start();
+                this.curator = curator;
+                String basePath = "/snowflake/" + properties.getProperty(Constants.LEAF_NAME);
+                snowflakeIDGen = new SnowflakeIDGenImpl(new SnowflakeLeaseHolder(Utils.getIp(), String.valueOf(port), curator, basePath));
+            } else {
+                snowflakeIDGen = new SnowflakeIDGenImpl(zkAddress, port);
+            }
+            if (Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SNOWFLAKE_KEYED_ENABLE, "false"))) {
+                /** 按业务key独立发号，不同业务key的号码可能相同 **/
+                snowflakeIDGen.enableKeyedSequence(
+                        Integer.parseInt(properties.getProperty(Constants.LEAF_SNOWFLAKE_KEYED_MAX_KEYS,
+                                String.valueOf(SnowflakeIDGenImpl.DEFAULT_MAX_KEYS))),
+                        Long.parseLong(properties.getProperty(Constants.LEAF_SNOWFLAKE_KEYED_IDLE_MS,
+                                String.valueOf(SnowflakeIDGenImpl.DEFAULT_KEY_IDLE_MS))));
+            }
+            if (Boolean.parseBoolean(properties.getProperty(Constants.LEAF_SNOWFLAKE_CACHE_ENABLE, "false"))) {
+                /** 后台线程预生成号码，发号时直接从环形数组中取 **/
+                idGen = new CachedSnowflakeIDGen(snowflakeIDGen,
+                        Integer.parseInt(properties.getProperty(Constants.LEAF_SNOWFLAKE_CACHE_RING_SIZE,
+                                String.valueOf(CachedSnowflakeIDGen.DEFAULT_RING_SIZE))),
+                        Integer.parseInt(properties.getProperty(Constants.LEAF_SNOWFLAKE_CACHE_FILL_THRESHOLD,
+                                String.valueOf(CachedSnowflakeIDGen.DEFAULT_FILL_THRESHOLD_PERCENT))),
+                        Long.parseLong(properties.getProperty(Constants.LEAF_SNOWFLAKE_CACHE_BORROW_MS,
+                                String.valueOf(CachedSnowflakeIDGen.DEFAULT_MAX_BORROW_MS))),
+                        Long.parseLong(properties.getProperty(Constants.LEAF_SNOWFLAKE_CACHE_MAX_LAG_MS,
+                                String.valueOf(CachedSnowflakeIDGen.DEFAULT_MAX_LAG_MS))));
+            } else {
+                idGen = snowflakeIDGen;
+            }
             if(idGen.init()) {
                 logger.info("Snowflake Service Init Successfully");
             } else {
@@ -53,6 +129,22 @@ public class SnowflakeService {
      * @return
      */
     public Result getId(String key) {
+        LeafBootstrap.checkReady(readiness);
         return idGen.get(key);
     }
+
+    /**
+     * 一次取同一个业务key的多个号码
+     * @param key
+     * @param count
+     * @return count个结果
+     */
+    public List<Result> getIds(String key, int count) {
+        LeafBootstrap.checkReady(readiness);
+        return idGen.get(key, count);
+    }
+
+    public Readiness getReadiness() {
+        return readiness;
+    }
 }
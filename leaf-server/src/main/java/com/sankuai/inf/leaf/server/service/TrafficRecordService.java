@@ -0,0 +1,69 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.common.PropertyFactory;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.server.Constants;
+import com.sankuai.inf.leaf.server.record.TrafficRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * 发号请求记录服务，默认关闭
+ * 开启后每次发号的时间、业务key、发号器和耗时写入 leaf.record.dir 下的滚动文件，
+ * 可以用 leaf-bench 的 LeafReplay 在进程内按原速或者加速回放
+ */
+@Service("TrafficRecordService")
+public class TrafficRecordService {
+    private Logger logger = LoggerFactory.getLogger(TrafficRecordService.class);
+
+    private final TrafficRecorder recorder;
+
+    public TrafficRecordService() {
+        Properties properties = PropertyFactory.getProperties();
+        if (Boolean.parseBoolean(properties.getProperty(Constants.LEAF_RECORD_ENABLE, "false"))) {
+            File dir = new File(properties.getProperty(Constants.LEAF_RECORD_DIR, "traffic"));
+            long fileSize = Long.parseLong(properties.getProperty(Constants.LEAF_RECORD_FILE_MB, "64")) << 20;
+            int maxFiles = Integer.parseInt(properties.getProperty(Constants.LEAF_RECORD_MAX_FILES, "16"));
+            int queueSize = Integer.parseInt(properties.getProperty(Constants.LEAF_RECORD_QUEUE_SIZE, "65536"));
+            recorder = new TrafficRecorder(dir, fileSize, maxFiles, queueSize);
+            logger.info("Traffic record to {}, file {}MB, max files {}", dir.getAbsolutePath(), fileSize >> 20, maxFiles);
+        } else {
+            recorder = null;
+        }
+    }
+
+    /**
+     * 记录一次发号，没有开启时直接返回
+     * @param generator  {@link com.sankuai.inf.leaf.server.record.TrafficRecord#SEGMENT} 或者 SNOWFLAKE
+     * @param key
+     * @param startNanos 请求开始时的System.nanoTime()
+     * @param result
+     */
+    public void record(byte generator, String key, long startNanos, Result result) {
+        if (recorder == null || key == null) {
+            return;
+        }
+        recorder.record(generator, key, startNanos, System.nanoTime() - startNanos, result.getStatus() == Status.SUCCESS);
+    }
+
+    /**
+     * 记录器，没有开启时返回null
+     * @return
+     */
+    public TrafficRecorder getRecorder() {
+        return recorder;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+}
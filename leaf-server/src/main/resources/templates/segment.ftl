@@ -6,6 +6,10 @@
     <link href="/css/bootstrap.min.css" rel="stylesheet">
 </head>
 <body>
+<p>tags: ${tagCount}, cached: ${data?size}, evictions: ${evictions}, abandoned ids: ${abandonedIds}</p>
+<#if coalescedRequests??>
+<p>coalesced requests: ${coalescedRequests}, batches: ${coalescedBatches}</p>
+</#if>
 <table class="table table-hover">
     <thead>
     <tr>
@@ -19,6 +23,12 @@
         <th>value1</th>
         <th>max1</th>
         <th>step1</th>
+        <th>quota</th>
+        <th>rejected</th>
+        <th>refill quota</th>
+        <th>refill rejected</th>
+        <th>rate</th>
+        <th>striped</th>
 
     </tr>
     </thead>
@@ -36,6 +46,12 @@
             <td>${data[key].value1}</td>
             <td>${data[key].max1}</td>
             <td>${data[key].step1}</td>
+            <td>${data[key].issueQuota}</td>
+            <td>${data[key].issueRejected}</td>
+            <td>${data[key].refillQuota}</td>
+            <td>${data[key].refillRejected}</td>
+            <td>${data[key].rate}</td>
+            <td>${data[key].striped?string('true','false')}</td>
         </tr>
         <tr>
         </tr>
@@ -44,5 +60,27 @@
     </#if>
     <tbody>
 </table>
+<table class="table table-hover">
+    <thead>
+    <tr>
+        <th>time</th>
+        <th>name</th>
+        <th>event</th>
+        <th>rate</th>
+    </tr>
+    </thead>
+    <tbody>
+    <#if hotKeyEvents?exists>
+        <#list hotKeyEvents?reverse as event>
+        <tr>
+            <td>${event.timestamp?number_to_datetime?string('yyyy-MM-dd HH:mm:ss')}</td>
+            <td>${event.key}</td>
+            <td>${event.promoted?string('promote','demote')}</td>
+            <td>${event.rate}</td>
+        </tr>
+        </#list>
+    </#if>
+    </tbody>
+</table>
 </body>
 </html>
\ No newline at end of file
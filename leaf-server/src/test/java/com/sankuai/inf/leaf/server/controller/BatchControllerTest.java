@@ -0,0 +1,93 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.segment.MemoryIDAllocDao;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import com.sankuai.inf.leaf.server.service.BatchService;
+import com.sankuai.inf.leaf.server.service.LeafBootstrap;
+import com.sankuai.inf.leaf.server.service.Services;
+import com.sankuai.inf.leaf.server.service.SnowflakeService;
+import com.sankuai.inf.leaf.server.service.TrafficRecordService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class BatchControllerTest {
+    private SegmentIDGenImpl idGen;
+    private MockMvc mvc;
+
+    @Before
+    public void before() {
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        dao.addTag("order", 1, 1000);
+        dao.addTag("item", 1, 1000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        /** snowflake初始化失败，批量发号中只影响snowflake的业务key **/
+        SnowflakeService snowflakeService = new SnowflakeService(new LeafBootstrap() {
+            @Override
+            public Readiness submit(String name, Task task) {
+                Readiness readiness = new Readiness(name);
+                readiness.fail("zk unavailable");
+                return readiness;
+            }
+        });
+        TrafficRecordService trafficRecordService = new TrafficRecordService();
+        BatchService batchService = new BatchService();
+        ReflectionTestUtils.setField(batchService, "segmentService", Services.segmentService(idGen));
+        ReflectionTestUtils.setField(batchService, "snowflakeService", snowflakeService);
+        ReflectionTestUtils.setField(batchService, "trafficRecordService", trafficRecordService);
+        LeafController leafController = new LeafController();
+        ReflectionTestUtils.setField(leafController, "batchService", batchService);
+        ReflectionTestUtils.setField(leafController, "trafficRecordService", trafficRecordService);
+        mvc = MockMvcBuilders.standaloneSetup(leafController).build();
+    }
+
+    @After
+    public void after() {
+        idGen.close();
+    }
+
+    /**
+     * 不存在的业务key和未就绪的发号器只体现在各自的结果中，其他业务key正常发号，整个请求返回200
+     */
+    @Test
+    public void testPartialFailure() throws Exception {
+        mvc.perform(get("/api/batch").param("segment", "order:3,missing,item").param("snowflake", "log:2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.segment.order.ids", contains(1, 2, 3)))
+                .andExpect(jsonPath("$.segment.order.code").doesNotExist())
+                .andExpect(jsonPath("$.segment.item.ids", contains(1)))
+                .andExpect(jsonPath("$.segment.missing.ids", hasSize(0)))
+                .andExpect(jsonPath("$.segment.missing.code").value(-2))
+                .andExpect(jsonPath("$.snowflake.log.ids", hasSize(0)))
+                .andExpect(jsonPath("$.snowflake.log.message").value("snowflake FAILED: zk unavailable"));
+    }
+
+    /**
+     * 号码总数包括号段和snowflake两部分，超过leaf.batch.max.ids时返回400，不发号
+     */
+    @Test
+    public void testTotalCap() throws Exception {
+        mvc.perform(get("/api/batch").param("segment", "order:600").param("snowflake", "log:401"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/batch").param("segment", "order:2000000000,order:2000000000"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/batch"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/batch").param("segment", "order"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.segment.order.ids", contains(1)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.raft.LocalRaftTransport;
+import com.sankuai.inf.leaf.segment.raft.MemoryRaftStorage;
+import com.sankuai.inf.leaf.segment.raft.RaftNode;
+import com.sankuai.inf.leaf.server.raft.RaftPeerAccess;
+import com.sankuai.inf.leaf.server.service.SegmentService;
+import com.sankuai.inf.leaf.server.service.Services;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class RaftControllerTest {
+    private static final String VOTE = "{\"term\":1,\"candidateId\":\"2\",\"lastLogIndex\":0,\"lastLogTerm\":0}";
+
+    private SegmentService segmentService;
+    private MockMvc mvc;
+
+    @Before
+    public void before() throws Exception {
+        segmentService = Services.segmentService(new SegmentIDGenImpl());
+        RaftNode node = new RaftNode("1", Arrays.asList("1", "2"), new LocalRaftTransport().endpoint("1"), new MemoryRaftStorage());
+        ReflectionTestUtils.setField(segmentService, "raftNode", node);
+        RaftController raftController = new RaftController();
+        ReflectionTestUtils.setField(raftController, "segmentService", segmentService);
+        mvc = MockMvcBuilders.standaloneSetup(raftController).build();
+    }
+
+    /**
+     * 只接受来自集群节点地址的请求
+     */
+    @Test
+    public void testPeerAddress() throws Exception {
+        ReflectionTestUtils.setField(segmentService, "raftPeerAccess",
+                new RaftPeerAccess(Arrays.asList("10.0.0.1:8080", "localhost:8081"), null));
+        mvc.perform(vote("10.0.0.1", null))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.voteGranted").value(true));
+        mvc.perform(vote("127.0.0.1", null)).andExpect(status().isOk());
+        for (String path : new String[]{"/raft/vote", "/raft/append", "/raft/snapshot", "/raft/propose"}) {
+            mvc.perform(post(path).contentType(MediaType.APPLICATION_JSON).content("{}").with(from("10.0.0.2")))
+                    .andExpect(status().isForbidden());
+        }
+    }
+
+    /**
+     * 配置token时，集群节点的请求也需要带上相同的token
+     */
+    @Test
+    public void testToken() throws Exception {
+        ReflectionTestUtils.setField(segmentService, "raftPeerAccess",
+                new RaftPeerAccess(Collections.singletonList("10.0.0.1:8080"), "secret"));
+        mvc.perform(vote("10.0.0.1", null)).andExpect(status().isForbidden());
+        mvc.perform(vote("10.0.0.1", "wrong")).andExpect(status().isForbidden());
+        mvc.perform(vote("10.0.0.2", "secret")).andExpect(status().isForbidden());
+        mvc.perform(vote("10.0.0.1", "secret")).andExpect(status().isOk());
+    }
+
+    private static MockHttpServletRequestBuilder vote(String remoteAddress, String token) {
+        MockHttpServletRequestBuilder builder = post("/raft/vote").contentType(MediaType.APPLICATION_JSON)
+                .content(VOTE).with(from(remoteAddress));
+        return token == null ? builder : builder.header(RaftPeerAccess.TOKEN_HEADER, token);
+    }
+
+    private static RequestPostProcessor from(final String remoteAddress) {
+        return new RequestPostProcessor() {
+            @Override
+            public MockHttpServletRequest postProcessRequest(MockHttpServletRequest request) {
+                request.setRemoteAddr(remoteAddress);
+                return request;
+            }
+        };
+    }
+}
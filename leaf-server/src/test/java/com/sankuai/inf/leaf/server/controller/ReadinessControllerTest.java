@@ -0,0 +1,96 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.server.model.Readiness;
+import com.sankuai.inf.leaf.server.service.LeafBootstrap;
+import com.sankuai.inf.leaf.server.service.SnowflakeService;
+import com.sankuai.inf.leaf.server.service.TrafficRecordService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ReadinessControllerTest {
+    private final CountDownLatch segmentReady = new CountDownLatch(1);
+    private LeafBootstrap bootstrap;
+    private MockMvc mvc;
+
+    @Before
+    public void before() {
+        bootstrap = new LeafBootstrap(10, 10);
+        bootstrap.submit("segment", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                segmentReady.await();
+            }
+        });
+        ReadinessController readinessController = new ReadinessController();
+        ReflectionTestUtils.setField(readinessController, "bootstrap", bootstrap);
+        mvc = MockMvcBuilders.standaloneSetup(readinessController).build();
+    }
+
+    @After
+    public void after() {
+        bootstrap.shutdown();
+    }
+
+    /**
+     * 全部发号器就绪前返回503，单个发号器分别给出状态
+     */
+    @Test
+    public void testReady() throws Exception {
+        Readiness snowflake = bootstrap.submit("snowflake", new LeafBootstrap.Task() {
+            @Override
+            public void run() {
+            }
+        });
+        await(snowflake);
+        mvc.perform(get("/ready"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.segment.state").value("INITIALIZING"))
+                .andExpect(jsonPath("$.snowflake.state").value("READY"));
+        mvc.perform(get("/ready/snowflake")).andExpect(status().isOk());
+        mvc.perform(get("/ready/segment")).andExpect(status().isServiceUnavailable());
+        mvc.perform(get("/ready/unknown")).andExpect(status().isNotFound());
+
+        segmentReady.countDown();
+        await(bootstrap.getReadinesses().get(0));
+        mvc.perform(get("/ready")).andExpect(status().isOk());
+    }
+
+    /**
+     * 发号器初始化失败时发号接口返回503，不是500
+     */
+    @Test
+    public void testNotReadyIs503() throws Exception {
+        SnowflakeService snowflakeService = new SnowflakeService(new LeafBootstrap() {
+            @Override
+            public Readiness submit(String name, Task task) {
+                Readiness readiness = new Readiness(name);
+                readiness.fail("zk unavailable");
+                return readiness;
+            }
+        });
+        LeafController leafController = new LeafController();
+        ReflectionTestUtils.setField(leafController, "snowflakeService", snowflakeService);
+        ReflectionTestUtils.setField(leafController, "trafficRecordService", new TrafficRecordService());
+        MockMvcBuilders.standaloneSetup(leafController).build()
+                .perform(get("/api/snowflake/get/a"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    private static void await(Readiness readiness) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!readiness.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.sankuai.inf.leaf.server.controller;
+
+import com.sankuai.inf.leaf.segment.MemoryIDAllocDao;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.server.service.SegmentService;
+import com.sankuai.inf.leaf.server.service.Services;
+import com.sankuai.inf.leaf.server.service.TrafficRecordService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ReserveControllerTest {
+    private SegmentIDGenImpl idGen;
+    private MockMvc mvc;
+
+    @Before
+    public void before() {
+        MemoryIDAllocDao dao = new MemoryIDAllocDao();
+        dao.addTag("order", 1, 1000);
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        assertTrue(idGen.init());
+        SegmentService segmentService = Services.segmentService(idGen);
+        ReflectionTestUtils.setField(segmentService, "reserveMax", 100000);
+        LeafController leafController = new LeafController();
+        ReflectionTestUtils.setField(leafController, "segmentService", segmentService);
+        ReflectionTestUtils.setField(leafController, "trafficRecordService", new TrafficRecordService());
+        mvc = MockMvcBuilders.standaloneSetup(leafController).build();
+    }
+
+    @After
+    public void after() {
+        idGen.close();
+    }
+
+    /**
+     * 预留只在管理路径上接受POST
+     */
+    @Test
+    public void testReserveOnAdminPath() throws Exception {
+        mvc.perform(post("/admin/segment/reserve/order").param("count", "100000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.start").value(1))
+                .andExpect(jsonPath("$.count").value(100000));
+        mvc.perform(get("/admin/segment/reserve/order").param("count", "10"))
+                .andExpect(status().isMethodNotAllowed());
+        mvc.perform(post("/api/segment/reserve/order").param("count", "10"))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * 数量不是正数或者超过上限时返回400，不推进max_id
+     */
+    @Test
+    public void testRejectBadCount() throws Exception {
+        mvc.perform(post("/admin/segment/reserve/order").param("count", "100001"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/admin/segment/reserve/order").param("count", "0"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/admin/segment/reserve/order").param("count", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.start").value(1));
+    }
+}
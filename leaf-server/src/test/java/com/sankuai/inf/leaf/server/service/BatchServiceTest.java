@@ -0,0 +1,61 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.server.exception.BadRequestException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BatchServiceTest {
+
+    /**
+     * 没有写数量的key取1个，重复的key数量相加，保持书写顺序
+     */
+    @Test
+    public void testParse() {
+        Map<String, Integer> counts = BatchService.parse(" order , item:3,,order:2 ", 1000);
+        assertEquals(Arrays.asList("order", "item"), Arrays.asList(counts.keySet().toArray()));
+        assertEquals(Integer.valueOf(3), counts.get("order"));
+        assertEquals(Integer.valueOf(3), counts.get("item"));
+        assertTrue(BatchService.parse(null, 1000).isEmpty());
+        assertTrue(BatchService.parse(" , ", 1000).isEmpty());
+    }
+
+    /**
+     * 按最后一个冒号分隔数量，业务key本身包含冒号时需要写明数量
+     */
+    @Test
+    public void testParseKeyWithColon() {
+        Map<String, Integer> counts = BatchService.parse("a:b:1,c:d:2", 1000);
+        assertEquals(Integer.valueOf(1), counts.get("a:b"));
+        assertEquals(Integer.valueOf(2), counts.get("c:d"));
+        assertBadRequest("a:b", "bad count in a:b");
+        assertBadRequest(":1", "bad batch item :1");
+        assertBadRequest("a:0", "bad batch item a:0");
+        assertBadRequest("a:-1", "bad batch item a:-1");
+    }
+
+    /**
+     * 单个数量或者累计数量超过上限时拒绝，重复的key不会因为int相加溢出而绕过上限
+     */
+    @Test
+    public void testParseCap() {
+        assertEquals(Integer.valueOf(1000), BatchService.parse("a:600,a:400", 1000).get("a"));
+        assertBadRequest("a:1001", "batch of 1001 ids exceeds 1000");
+        assertBadRequest("a:600,b:401", "batch of 1001 ids exceeds 1000");
+        assertBadRequest("a:2000000000,a:2000000000", "batch of 2000000000 ids exceeds 1000");
+        assertBadRequest("a:2147483647,a:2147483647,a:2", "batch of 2147483647 ids exceeds 1000");
+        assertBadRequest("a:99999999999", "bad count in a:99999999999");
+    }
+
+    private static void assertBadRequest(String spec, String message) {
+        try {
+            BatchService.parse(spec, 1000);
+            fail(spec);
+        } catch (BadRequestException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
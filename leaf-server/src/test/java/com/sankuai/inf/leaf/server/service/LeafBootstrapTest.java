@@ -0,0 +1,93 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.server.exception.NotReadyException;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LeafBootstrapTest {
+    private LeafBootstrap bootstrap = new LeafBootstrap(10, 40);
+
+    @After
+    public void after() {
+        bootstrap.shutdown();
+    }
+
+    /**
+     * 初始化失败后退避重试，重试成功后就绪
+     */
+    @Test
+    public void testRetryUntilReady() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger(0);
+        Readiness readiness = bootstrap.submit("segment", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                if (attempts.incrementAndGet() <= 3) {
+                    throw new IllegalStateException("zk unavailable");
+                }
+            }
+        });
+        await(readiness, Readiness.State.READY);
+        assertEquals(4, attempts.get());
+        assertEquals(3, readiness.getFailures());
+        assertEquals("zk unavailable", readiness.getMessage());
+        LeafBootstrap.checkReady(readiness);
+        assertEquals(1, bootstrap.getReadinesses().size());
+    }
+
+    /**
+     * 初始化失败期间发号快速失败，原因中带上最近一次的错误
+     */
+    @Test
+    public void testCheckReadyWhileFailing() throws Exception {
+        Readiness readiness = bootstrap.submit("snowflake", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                throw new IllegalStateException("zk unavailable");
+            }
+        });
+        await(readiness, Readiness.State.FAILED);
+        try {
+            LeafBootstrap.checkReady(readiness);
+            fail();
+        } catch (NotReadyException e) {
+            assertEquals("snowflake FAILED: zk unavailable", e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭后不再重试
+     */
+    @Test
+    public void testShutdownStopsRetry() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger(0);
+        final CountDownLatch failed = new CountDownLatch(1);
+        bootstrap = new LeafBootstrap(200, 200);
+        bootstrap.submit("segment", new LeafBootstrap.Task() {
+            @Override
+            public void run() throws Exception {
+                attempts.incrementAndGet();
+                failed.countDown();
+                throw new IllegalStateException("db unavailable");
+            }
+        });
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        bootstrap.shutdown();
+        Thread.sleep(500);
+        assertEquals(1, attempts.get());
+    }
+
+    private static void await(Readiness readiness, Readiness.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (readiness.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, readiness.getState());
+    }
+}
@@ -0,0 +1,183 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.segment.MemoryIDAllocDao;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.model.LeafAlloc;
+import com.sankuai.inf.leaf.segment.model.SegmentBuffer;
+import com.sankuai.inf.leaf.server.exception.LeafServerException;
+import com.sankuai.inf.leaf.server.model.SegmentBufferView;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentMonitorServiceTest {
+    private MemoryIDAllocDao dao;
+    private SegmentIDGenImpl idGen;
+    private SegmentMonitorService monitorService;
+
+    @Before
+    public void before() {
+        dao = new MemoryIDAllocDao();
+        idGen = new SegmentIDGenImpl();
+        idGen.setDao(dao);
+        monitorService = new SegmentMonitorService();
+        ReflectionTestUtils.setField(monitorService, "segmentService", Services.segmentService(idGen));
+    }
+
+    /**
+     * 按剩余号码数翻页，游标为 剩余号码数:biz_tag，剩余号码数相同时按biz_tag排序，每个业务key只出现一次
+     */
+    @Test
+    public void testRunwayCursor() {
+        List<String> expected = new ArrayList<String>();
+        for (int runway = 0; runway < 5; runway++) {
+            for (int i = 0; i < 10; i++) {
+                expected.add(String.format("key-%02d", i * 5 + runway));
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            /** 当前号段剩余 (i % 5) * 50，后备号段就绪时再加上后备号段剩余的 (i % 5) * 50 **/
+            addBuffer(String.format("key-%02d", i), true, true, (i % 5) * 50, 100);
+        }
+        List<String> keys = new ArrayList<String>();
+        String cursor = null;
+        while (true) {
+            List<SegmentBufferView> page = monitorService.scanCache(cursor, null, null, SegmentMonitorService.SORT_RUNWAY, 7);
+            if (page.isEmpty()) {
+                break;
+            }
+            assertTrue(page.size() <= 7);
+            for (SegmentBufferView view : page) {
+                keys.add(view.getKey());
+            }
+            SegmentBufferView last = page.get(page.size() - 1);
+            cursor = monitorService.cursorOf(last, SegmentMonitorService.SORT_RUNWAY);
+            assertEquals(last.getRunway() + ":" + last.getKey(), cursor);
+        }
+        assertEquals(expected, keys);
+
+        List<SegmentBufferView> page = monitorService.scanCache("100:key-41", null, null, SegmentMonitorService.SORT_RUNWAY, 3);
+        assertEquals(Arrays.asList("key-46", "key-02", "key-07"), keysOf(page));
+        assertEquals(100, page.get(0).getRunway());
+        assertEquals(200, page.get(1).getRunway());
+    }
+
+    @Test(expected = LeafServerException.class)
+    public void testInvalidRunwayCursor() {
+        monitorService.scanCache("key-01", null, null, SegmentMonitorService.SORT_RUNWAY, 10);
+    }
+
+    /**
+     * 三种状态分别过滤出未初始化、后备号段未就绪、当前号段剩余不足步长10%的业务key
+     */
+    @Test
+    public void testStateFilters() {
+        addBuffer("not-init", false, false, 0, 100);
+        addBuffer("next-not-ready", true, false, 100, 100);
+        addBuffer("low-idle", true, true, 9, 100);
+        addBuffer("low-idle-next-not-ready", true, false, 5, 100);
+        addBuffer("healthy", true, true, 10, 100);
+        assertEquals(Arrays.asList("not-init"), keysOf(scanByState(SegmentMonitorService.STATE_NOT_INIT)));
+        assertEquals(Arrays.asList("low-idle-next-not-ready", "next-not-ready"),
+                keysOf(scanByState(SegmentMonitorService.STATE_NEXT_NOT_READY)));
+        assertEquals(Arrays.asList("low-idle", "low-idle-next-not-ready"),
+                keysOf(scanByState(SegmentMonitorService.STATE_LOW_IDLE)));
+        assertEquals(5, scanByState(null).size());
+        try {
+            scanByState("unknown");
+            fail();
+        } catch (LeafServerException e) {
+            assertTrue(e.getMessage().startsWith("state must be one of"));
+        }
+    }
+
+    /**
+     * cache远大于一页时只返回排在最前的limit个，结果有序，与cache的遍历顺序无关
+     */
+    @Test
+    public void testBoundedPage() {
+        List<String> all = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            all.add(String.format("order-%04d", i));
+            all.add(String.format("user-%04d", i));
+        }
+        Collections.shuffle(all);
+        for (String key : all) {
+            addBuffer(key, true, true, 100, 100);
+        }
+        List<SegmentBufferView> page = monitorService.scanCache(null, "user-", null, SegmentMonitorService.SORT_KEY, 3);
+        assertEquals(Arrays.asList("user-0000", "user-0001", "user-0002"), keysOf(page));
+        page = monitorService.scanCache("user-4997", "user-", null, SegmentMonitorService.SORT_KEY, 10);
+        assertEquals(Arrays.asList("user-4998", "user-4999"), keysOf(page));
+        assertEquals(SegmentMonitorService.MAX_LIMIT,
+                monitorService.scanCache(null, null, null, SegmentMonitorService.SORT_KEY, SegmentMonitorService.MAX_LIMIT).size());
+        for (int limit : new int[]{0, SegmentMonitorService.MAX_LIMIT + 1}) {
+            try {
+                monitorService.scanCache(null, null, null, SegmentMonitorService.SORT_KEY, limit);
+                fail();
+            } catch (LeafServerException e) {
+                assertEquals("limit must be in [1, " + SegmentMonitorService.MAX_LIMIT + "]", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 数据库配置按biz_tag游标分页
+     */
+    @Test
+    public void testScanDb() {
+        for (int i = 0; i < 25; i++) {
+            dao.addTag(String.format("tag-%02d", i), 1, 1000);
+        }
+        dao.addTag("other", 1, 1000);
+        List<String> tags = new ArrayList<String>();
+        String cursor = null;
+        while (true) {
+            List<LeafAlloc> page = monitorService.scanDb(cursor, "tag-", 10);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (LeafAlloc leafAlloc : page) {
+                tags.add(leafAlloc.getKey());
+            }
+            cursor = page.get(page.size() - 1).getKey();
+        }
+        assertEquals(25, tags.size());
+        assertEquals("tag-00", tags.get(0));
+        assertEquals("tag-24", tags.get(24));
+    }
+
+    private List<SegmentBufferView> scanByState(String state) {
+        return monitorService.scanCache(null, null, state, SegmentMonitorService.SORT_KEY, 100);
+    }
+
+    /**
+     * 放入指定状态的号段缓存，当前号段和后备号段剩余的号码数相同
+     */
+    private void addBuffer(String key, boolean initOk, boolean nextReady, long idle, int step) {
+        SegmentBuffer buffer = new SegmentBuffer();
+        buffer.setKey(key);
+        buffer.setInitOk(initOk);
+        buffer.setNextReady(nextReady);
+        for (int i = 0; i < 2; i++) {
+            buffer.getSegments()[i].setMax(idle);
+            buffer.getSegments()[i].setStep(step);
+        }
+        idGen.getCache().put(key, buffer);
+    }
+
+    private static List<String> keysOf(List<SegmentBufferView> views) {
+        List<String> keys = new ArrayList<String>(views.size());
+        for (SegmentBufferView view : views) {
+            keys.add(view.getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,37 @@
+package com.sankuai.inf.leaf.server.service;
+
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.server.model.Readiness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 测试用的服务，不读取leaf.properties，直接使用传入的发号器
+ */
+public class Services {
+
+    /**
+     * 已经就绪的号段服务
+     * @param idGen 已经初始化的发号器
+     * @return
+     */
+    public static SegmentService segmentService(SegmentIDGenImpl idGen) {
+        SegmentService segmentService = new SegmentService(readyBootstrap());
+        ReflectionTestUtils.setField(segmentService, "idGen", idGen);
+        return segmentService;
+    }
+
+    /**
+     * 提交的任务不执行，直接就绪
+     * @return
+     */
+    public static LeafBootstrap readyBootstrap() {
+        return new LeafBootstrap() {
+            @Override
+            public Readiness submit(String name, Task task) {
+                Readiness readiness = new Readiness(name);
+                readiness.ready();
+                return readiness;
+            }
+        };
+    }
+}
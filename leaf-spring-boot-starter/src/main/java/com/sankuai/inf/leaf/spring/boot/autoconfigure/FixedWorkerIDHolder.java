@@ -0,0 +1,35 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.snowflake.TimestampCheckpoint;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+
+/**
+ * 由配置指定的workerId，不依赖zookeeper，各实例的workerId由应用自己保证不同
+ */
+class FixedWorkerIDHolder implements WorkerIDHolder {
+    private final int workerId;
+
+    FixedWorkerIDHolder(int workerId) {
+        this.workerId = workerId;
+    }
+
+    @Override
+    public boolean init() {
+        return true;
+    }
+
+    @Override
+    public int getWorkerID() {
+        return workerId;
+    }
+
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    @Override
+    public TimestampCheckpoint getCheckpoint() {
+        return null;
+    }
+}
@@ -0,0 +1,226 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Utils;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.segment.dao.IDAllocDao;
+import com.sankuai.inf.leaf.segment.dao.impl.IDAllocDaoImpl;
+import com.sankuai.inf.leaf.snowflake.CachedSnowflakeIDGen;
+import com.sankuai.inf.leaf.snowflake.SnowflakeIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.SnowflakeLeaseHolder;
+import com.sankuai.inf.leaf.snowflake.SnowflakeZookeeperHolder;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryUntilElapsed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnSingleCandidate;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 在应用进程内发号，不经过leaf-server
+ * + leaf.segment.enable=true 时注册号段发号器 segmentIDGen，默认使用应用中唯一的DataSource访问leaf_alloc表，
+ *   也可以自己声明IDAllocDao
+ * + leaf.snowflake.enable=true 时注册snowflake发号器 snowflakeIDGen，workerId可以固定、由zookeeper分配或者以租约分配
+ * + 两个发号器都是IDGen，同时开启时按名称注入
+ * + 后备号段更新线程池、zookeeper客户端和后台线程随应用关闭，正在执行的号段更新会等待完成
+ * + 应用引入actuator时提供健康检查leaf和监控指标leaf.*
+ */
+@Configuration
+@ConditionalOnClass(IDGen.class)
+@EnableConfigurationProperties(LeafProperties.class)
+@AutoConfigureAfter(DataSourceAutoConfiguration.class)
+public class LeafAutoConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeafAutoConfiguration.class);
+
+    @Configuration
+    @ConditionalOnProperty(prefix = "leaf.segment", name = "enable", havingValue = "true")
+    static class SegmentConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(IDAllocDao.class)
+        @ConditionalOnSingleCandidate(DataSource.class)
+        public IDAllocDao leafIDAllocDao(DataSource dataSource) {
+            return new IDAllocDaoImpl(dataSource);
+        }
+
+        /**
+         * 后备号段更新线程池，与SegmentIDGenImpl默认的线程池相同：常驻updateThreads个线程，不排队
+         * 关闭时等待正在执行的更新，避免数据库中的max_id已经推进而号段没有用上
+         * @param properties
+         * @return
+         */
+        @Bean
+        public ThreadPoolExecutorFactoryBean leafSegmentUpdateExecutor(LeafProperties properties) {
+            ThreadPoolExecutorFactoryBean executor = new ThreadPoolExecutorFactoryBean();
+            executor.setCorePoolSize(properties.getSegment().getUpdateThreads());
+            executor.setMaxPoolSize(Integer.MAX_VALUE);
+            executor.setQueueCapacity(0);
+            executor.setKeepAliveSeconds(60);
+            executor.setThreadNamePrefix("Thread-Segment-Update-");
+            executor.setWaitForTasksToCompleteOnShutdown(true);
+            executor.setAwaitTerminationSeconds(properties.getSegment().getShutdownAwaitSeconds());
+            return executor;
+        }
+
+        /**
+         * 依赖更新线程池，关闭时先停止发号器的后台线程，再关闭线程池
+         * @param properties
+         * @param dao
+         * @param updateExecutor
+         * @return
+         */
+        @Bean(destroyMethod = "close")
+        @ConditionalOnMissingBean(name = "segmentIDGen")
+        public SegmentIDGenImpl segmentIDGen(LeafProperties properties, IDAllocDao dao,
+                                             @Qualifier("leafSegmentUpdateExecutor") ExecutorService updateExecutor) {
+            SegmentIDGenImpl idGen = new SegmentIDGenImpl();
+            idGen.setDao(dao);
+            idGen.setUpdateExecutor(updateExecutor);
+            idGen.setColdTagEviction(properties.getSegment().getColdIdleMs());
+            idGen.setIssueStats(properties.getSegment().isStatsEnable());
+            if (!idGen.init()) {
+                throw new IllegalStateException("Segment IDGen init fail");
+            }
+            LOGGER.info("Segment IDGen init successfully, {} tags", idGen.getTagCount());
+            return idGen;
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(prefix = "leaf.snowflake", name = "enable", havingValue = "true")
+    static class SnowflakeConfiguration {
+
+        /**
+         * 租约方式分配workerId时使用的zookeeper客户端
+         * @param properties
+         * @return
+         */
+        @Bean(destroyMethod = "close")
+        @ConditionalOnProperty(prefix = "leaf.snowflake", name = "worker-lease", havingValue = "true")
+        public CuratorFramework leafCuratorFramework(LeafProperties properties) {
+            CuratorFramework curator = CuratorFrameworkFactory.builder()
+                    .connectString(requireZkAddress(properties.getSnowflake()))
+                    .retryPolicy(new RetryUntilElapsed(1000, 4))
+                    .connectionTimeoutMs(10000)
+                    .sessionTimeoutMs(6000)
+                    .build();
+            curator.start();
+            return curator;
+        }
+
+        /**
+         * 租约方式分配workerId，直接依赖zookeeper客户端，关闭应用时先释放租约再关闭客户端
+         * 同时固定workerId时以固定的为准
+         * @param properties
+         * @param curator
+         * @return
+         */
+        @Bean
+        @ConditionalOnMissingBean(WorkerIDHolder.class)
+        @ConditionalOnProperty(prefix = "leaf.snowflake", name = "worker-lease", havingValue = "true")
+        public WorkerIDHolder leafWorkerLeaseHolder(LeafProperties properties,
+                                                    @Qualifier("leafCuratorFramework") CuratorFramework curator) {
+            LeafProperties.Snowflake snowflake = properties.getSnowflake();
+            if (snowflake.getWorkerId() != null) {
+                return new FixedWorkerIDHolder(snowflake.getWorkerId());
+            }
+            /** 租约保存在 /snowflake/{leaf.name}/lease 下 **/
+            return new SnowflakeLeaseHolder(Utils.getIp(), requirePort(snowflake), curator, "/snowflake/" + properties.getName());
+        }
+
+        /**
+         * 固定workerId时不连接zookeeper
+         * @param properties
+         * @return
+         */
+        @Bean
+        @ConditionalOnMissingBean(WorkerIDHolder.class)
+        @ConditionalOnProperty(prefix = "leaf.snowflake", name = "worker-lease", havingValue = "false", matchIfMissing = true)
+        public WorkerIDHolder leafWorkerIDHolder(LeafProperties properties) {
+            LeafProperties.Snowflake snowflake = properties.getSnowflake();
+            if (snowflake.getWorkerId() != null) {
+                return new FixedWorkerIDHolder(snowflake.getWorkerId());
+            }
+            return new SnowflakeZookeeperHolder(Utils.getIp(), requirePort(snowflake), requireZkAddress(snowflake), properties.getName());
+        }
+
+        /**
+         * 开启环形数组预生成时返回 {@link CachedSnowflakeIDGen}，关闭应用时停止填充线程
+         * @param properties
+         * @param holder
+         * @return
+         */
+        @Bean
+        @ConditionalOnMissingBean(name = "snowflakeIDGen")
+        public IDGen snowflakeIDGen(LeafProperties properties, WorkerIDHolder holder) {
+            LeafProperties.Snowflake snowflake = properties.getSnowflake();
+            SnowflakeIDGenImpl snowflakeIDGen = new SnowflakeIDGenImpl(holder);
+            if (snowflake.getKeyed().isEnable()) {
+                /** 按业务key独立发号，不同业务key的号码可能相同 **/
+                snowflakeIDGen.enableKeyedSequence(snowflake.getKeyed().getMaxKeys(), snowflake.getKeyed().getIdleMs());
+            }
+            IDGen idGen = snowflakeIDGen;
+            if (snowflake.getCache().isEnable()) {
+                LeafProperties.Cache cache = snowflake.getCache();
+                idGen = new CachedSnowflakeIDGen(snowflakeIDGen, cache.getRingSize(), cache.getFillThreshold(),
+                        cache.getBorrowMs(), cache.getMaxLagMs());
+            }
+            if (!idGen.init()) {
+                throw new IllegalStateException("Snowflake IDGen init fail");
+            }
+            LOGGER.info("Snowflake IDGen init successfully, workerId {}", holder.getWorkerID());
+            return idGen;
+        }
+
+        private static String requirePort(LeafProperties.Snowflake snowflake) {
+            if (snowflake.getPort() == null) {
+                throw new IllegalArgumentException("leaf.snowflake.port is required without leaf.snowflake.worker-id");
+            }
+            return String.valueOf(snowflake.getPort());
+        }
+
+        private static String requireZkAddress(LeafProperties.Snowflake snowflake) {
+            if (snowflake.getZkAddress() == null || snowflake.getZkAddress().trim().isEmpty()) {
+                throw new IllegalArgumentException("leaf.snowflake.zk-address is required without leaf.snowflake.worker-id");
+            }
+            return snowflake.getZkAddress();
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(HealthIndicator.class)
+    static class ActuatorConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "leafHealthIndicator")
+        public LeafHealthIndicator leafHealthIndicator(@Qualifier("segmentIDGen") ObjectProvider<SegmentIDGenImpl> segment,
+                                                       @Qualifier("snowflakeIDGen") ObjectProvider<IDGen> snowflake,
+                                                       ObjectProvider<WorkerIDHolder> holder) {
+            return new LeafHealthIndicator(segment.getIfAvailable(), snowflake.getIfAvailable(), holder.getIfAvailable());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean(name = "leafPublicMetrics")
+        public LeafPublicMetrics leafPublicMetrics(@Qualifier("segmentIDGen") ObjectProvider<SegmentIDGenImpl> segment,
+                                                   @Qualifier("snowflakeIDGen") ObjectProvider<IDGen> snowflake,
+                                                   ObjectProvider<WorkerIDHolder> holder) {
+            return new LeafPublicMetrics(segment.getIfAvailable(), snowflake.getIfAvailable(), holder.getIfAvailable());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * 内嵌发号器的健康检查
+ * + 号段发号器未初始化或者已经关闭时为DOWN
+ * + snowflake的workerId不再归本实例所有(租约过期、被其他节点接手)时为DOWN，此时发号返回异常码
+ */
+public class LeafHealthIndicator extends AbstractHealthIndicator {
+    private final SegmentIDGenImpl segment;
+    private final IDGen snowflake;
+    private final WorkerIDHolder holder;
+
+    /**
+     * @param segment   没有开启号段模式时为null
+     * @param snowflake 没有开启snowflake模式时为null
+     * @param holder    没有开启snowflake模式时为null
+     */
+    public LeafHealthIndicator(SegmentIDGenImpl segment, IDGen snowflake, WorkerIDHolder holder) {
+        this.segment = segment;
+        this.snowflake = snowflake;
+        this.holder = holder;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        boolean up = true;
+        if (segment != null) {
+            up = segment.isInitOK();
+            builder.withDetail("segment.initOk", segment.isInitOK())
+                    .withDetail("segment.tags", segment.getTagCount())
+                    .withDetail("segment.buffers", segment.getCache().size());
+        }
+        if (snowflake != null && holder != null) {
+            up = up && holder.isValid();
+            builder.withDetail("snowflake.workerId", holder.getWorkerID())
+                    .withDetail("snowflake.valid", holder.isValid());
+        }
+        if (up) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.snowflake.CachedSnowflakeIDGen;
+import com.sankuai.inf.leaf.snowflake.SnowflakeIDGenImpl;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 内嵌发号器的配置，前缀为leaf，与leaf-server的leaf.properties对应
+ */
+@ConfigurationProperties(prefix = "leaf")
+public class LeafProperties {
+    /**
+     * 服务名，snowflake在zookeeper上的路径为 /snowflake/{name}，同一个名字下的实例分配不同的workerId
+     */
+    private String name = "leaf";
+    private final Segment segment = new Segment();
+    private final Snowflake snowflake = new Snowflake();
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Segment getSegment() {
+        return segment;
+    }
+
+    public Snowflake getSnowflake() {
+        return snowflake;
+    }
+
+    public static class Segment {
+        /**
+         * 是否开启号段模式，开启后使用应用中唯一的DataSource访问leaf_alloc表
+         */
+        private boolean enable = false;
+        /**
+         * 业务key的号段缓存空闲超过该毫秒数后淘汰，小于等于0时不淘汰
+         */
+        private long coldIdleMs = 0;
+        /**
+         * 是否按发号分类统计耗时
+         */
+        private boolean statsEnable = false;
+        /**
+         * 后备号段更新线程池的常驻线程数
+         */
+        private int updateThreads = 5;
+        /**
+         * 应用关闭时等待正在执行的号段更新的秒数
+         */
+        private int shutdownAwaitSeconds = 10;
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public long getColdIdleMs() {
+            return coldIdleMs;
+        }
+
+        public void setColdIdleMs(long coldIdleMs) {
+            this.coldIdleMs = coldIdleMs;
+        }
+
+        public boolean isStatsEnable() {
+            return statsEnable;
+        }
+
+        public void setStatsEnable(boolean statsEnable) {
+            this.statsEnable = statsEnable;
+        }
+
+        public int getUpdateThreads() {
+            return updateThreads;
+        }
+
+        public void setUpdateThreads(int updateThreads) {
+            this.updateThreads = updateThreads;
+        }
+
+        public int getShutdownAwaitSeconds() {
+            return shutdownAwaitSeconds;
+        }
+
+        public void setShutdownAwaitSeconds(int shutdownAwaitSeconds) {
+            this.shutdownAwaitSeconds = shutdownAwaitSeconds;
+        }
+    }
+
+    public static class Snowflake {
+        /**
+         * 是否开启snowflake模式
+         */
+        private boolean enable = false;
+        /**
+         * 固定的workerId，设置后不连接zookeeper，由应用保证各实例不同
+         */
+        private Integer workerId;
+        /**
+         * zookeeper地址，没有固定workerId时必填
+         */
+        private String zkAddress;
+        /**
+         * 注册到zookeeper的端口，与ip一起标识本实例
+         */
+        private Integer port;
+        /**
+         * 以临时节点租约分配可复用的workerId，适合ip经常变化的部署
+         */
+        private boolean workerLease = false;
+        private final Keyed keyed = new Keyed();
+        private final Cache cache = new Cache();
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public Integer getWorkerId() {
+            return workerId;
+        }
+
+        public void setWorkerId(Integer workerId) {
+            this.workerId = workerId;
+        }
+
+        public String getZkAddress() {
+            return zkAddress;
+        }
+
+        public void setZkAddress(String zkAddress) {
+            this.zkAddress = zkAddress;
+        }
+
+        public Integer getPort() {
+            return port;
+        }
+
+        public void setPort(Integer port) {
+            this.port = port;
+        }
+
+        public boolean isWorkerLease() {
+            return workerLease;
+        }
+
+        public void setWorkerLease(boolean workerLease) {
+            this.workerLease = workerLease;
+        }
+
+        public Keyed getKeyed() {
+            return keyed;
+        }
+
+        public Cache getCache() {
+            return cache;
+        }
+    }
+
+    /**
+     * 按业务key独立的时间戳和序号
+     */
+    public static class Keyed {
+        private boolean enable = false;
+        private int maxKeys = SnowflakeIDGenImpl.DEFAULT_MAX_KEYS;
+        private long idleMs = SnowflakeIDGenImpl.DEFAULT_KEY_IDLE_MS;
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        public long getIdleMs() {
+            return idleMs;
+        }
+
+        public void setIdleMs(long idleMs) {
+            this.idleMs = idleMs;
+        }
+    }
+
+    /**
+     * 环形数组预生成号码
+     */
+    public static class Cache {
+        private boolean enable = false;
+        /**
+         * 环形数组长度，必须是2的幂
+         */
+        private int ringSize = CachedSnowflakeIDGen.DEFAULT_RING_SIZE;
+        /**
+         * 剩余号码低于环形数组长度的这个百分比时开始填充
+         */
+        private int fillThreshold = CachedSnowflakeIDGen.DEFAULT_FILL_THRESHOLD_PERCENT;
+        /**
+         * 最多借用多少毫秒之后的时间戳
+         */
+        private long borrowMs = CachedSnowflakeIDGen.DEFAULT_MAX_BORROW_MS;
+        /**
+         * 号码中的时间戳最多落后当前时间多少毫秒，更旧的号码由填充线程丢弃
+         */
+        private long maxLagMs = CachedSnowflakeIDGen.DEFAULT_MAX_LAG_MS;
+
+        public boolean isEnable() {
+            return enable;
+        }
+
+        public void setEnable(boolean enable) {
+            this.enable = enable;
+        }
+
+        public int getRingSize() {
+            return ringSize;
+        }
+
+        public void setRingSize(int ringSize) {
+            this.ringSize = ringSize;
+        }
+
+        public int getFillThreshold() {
+            return fillThreshold;
+        }
+
+        public void setFillThreshold(int fillThreshold) {
+            this.fillThreshold = fillThreshold;
+        }
+
+        public long getBorrowMs() {
+            return borrowMs;
+        }
+
+        public void setBorrowMs(long borrowMs) {
+            this.borrowMs = borrowMs;
+        }
+
+        public long getMaxLagMs() {
+            return maxLagMs;
+        }
+
+        public void setMaxLagMs(long maxLagMs) {
+            this.maxLagMs = maxLagMs;
+        }
+    }
+}
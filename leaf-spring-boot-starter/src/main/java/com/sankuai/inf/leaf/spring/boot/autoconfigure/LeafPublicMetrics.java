@@ -0,0 +1,56 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.CachedSnowflakeIDGen;
+import com.sankuai.inf.leaf.snowflake.SnowflakeIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 内嵌发号器的监控指标，在/metrics中以leaf.开头
+ * + leaf.segment.tags / buffers: 登记的业务key数量，以及已经创建号段缓存的业务key数量
+ * + leaf.segment.evictions / abandoned.ids: 空闲淘汰的次数和未发出的号码数
+ * + leaf.snowflake.worker.id / valid: workerId以及是否仍归本实例所有(1或0)
+ * + leaf.snowflake.keys: 按业务key独立发号时保留的key数量
+ * + leaf.snowflake.cache.available / discarded: 环形数组中可取的号码数和因过旧丢弃的号码数
+ */
+public class LeafPublicMetrics implements PublicMetrics {
+    private final SegmentIDGenImpl segment;
+    private final IDGen snowflake;
+    private final WorkerIDHolder holder;
+
+    public LeafPublicMetrics(SegmentIDGenImpl segment, IDGen snowflake, WorkerIDHolder holder) {
+        this.segment = segment;
+        this.snowflake = snowflake;
+        this.holder = holder;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        if (segment != null) {
+            metrics.add(new Metric<Integer>("leaf.segment.tags", segment.getTagCount()));
+            metrics.add(new Metric<Integer>("leaf.segment.buffers", segment.getCache().size()));
+            metrics.add(new Metric<Long>("leaf.segment.evictions", segment.getEvictions()));
+            metrics.add(new Metric<Long>("leaf.segment.abandoned.ids", segment.getAbandonedIds()));
+        }
+        if (snowflake != null && holder != null) {
+            metrics.add(new Metric<Integer>("leaf.snowflake.worker.id", holder.getWorkerID()));
+            metrics.add(new Metric<Integer>("leaf.snowflake.valid", holder.isValid() ? 1 : 0));
+        }
+        if (snowflake instanceof SnowflakeIDGenImpl) {
+            metrics.add(new Metric<Integer>("leaf.snowflake.keys", ((SnowflakeIDGenImpl) snowflake).getKeyCount()));
+        } else if (snowflake instanceof CachedSnowflakeIDGen) {
+            CachedSnowflakeIDGen cached = (CachedSnowflakeIDGen) snowflake;
+            metrics.add(new Metric<Long>("leaf.snowflake.cache.available", cached.getAvailable()));
+            metrics.add(new Metric<Long>("leaf.snowflake.cache.discarded", cached.getDiscarded()));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,184 @@
+package com.sankuai.inf.leaf.spring.boot.autoconfigure;
+
+import com.sankuai.inf.leaf.IDGen;
+import com.sankuai.inf.leaf.common.Result;
+import com.sankuai.inf.leaf.common.Status;
+import com.sankuai.inf.leaf.segment.SegmentIDGenImpl;
+import com.sankuai.inf.leaf.snowflake.CachedSnowflakeIDGen;
+import com.sankuai.inf.leaf.snowflake.SnowflakeLeaseHolder;
+import com.sankuai.inf.leaf.snowflake.WorkerIDHolder;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.test.TestingServer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+
+public class LeafAutoConfigurationTest {
+    private AnnotationConfigApplicationContext context;
+
+    @After
+    public void after() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    /**
+     * 号段发号器使用应用的DataSource，关闭应用时停止发号并关闭更新线程池
+     */
+    @Test
+    public void testSegment() {
+        load(H2Configuration.class, "leaf.segment.enable=true");
+        SegmentIDGenImpl idGen = context.getBean("segmentIDGen", SegmentIDGenImpl.class);
+        for (int i = 1; i <= 250; i++) {
+            assertEquals(i, idGen.get("leaf-segment-test").getId());
+        }
+        List<Result> results = idGen.get("leaf-segment-test", 10);
+        assertEquals(251, results.get(0).getId());
+
+        LeafHealthIndicator health = context.getBean(LeafHealthIndicator.class);
+        assertEquals(org.springframework.boot.actuate.health.Status.UP, health.health().getStatus());
+        Map<String, Number> metrics = metrics();
+        assertEquals(1, metrics.get("leaf.segment.tags").intValue());
+        assertEquals(1, metrics.get("leaf.segment.buffers").intValue());
+        assertFalse(context.containsBean("snowflakeIDGen"));
+
+        ExecutorService updateExecutor = context.getBean("leafSegmentUpdateExecutor", ExecutorService.class);
+        context.close();
+        assertTrue(updateExecutor.isShutdown());
+        assertFalse(idGen.isInitOK());
+        assertEquals(Status.EXCEPTION, idGen.get("leaf-segment-test").getStatus());
+    }
+
+    /**
+     * 固定workerId的snowflake发号器，开启环形数组预生成
+     */
+    @Test
+    public void testSnowflake() {
+        load(EmptyConfiguration.class, "leaf.snowflake.enable=true", "leaf.snowflake.worker-id=7",
+                "leaf.snowflake.cache.enable=true", "leaf.snowflake.cache.ring-size=1024");
+        IDGen idGen = context.getBean("snowflakeIDGen", IDGen.class);
+        assertTrue(idGen instanceof CachedSnowflakeIDGen);
+        assertEquals(1024, ((CachedSnowflakeIDGen) idGen).getRingSize());
+        Set<Long> ids = new HashSet<>();
+        for (Result result : idGen.get("a", 5000)) {
+            assertEquals(Status.SUCCESS, result.getStatus());
+            assertEquals(7, (result.getId() >> 12) & 1023);
+            assertTrue(ids.add(result.getId()));
+        }
+        assertEquals(org.springframework.boot.actuate.health.Status.UP,
+                context.getBean(LeafHealthIndicator.class).health().getStatus());
+        assertEquals(7, metrics().get("leaf.snowflake.worker.id").intValue());
+        assertFalse(context.containsBean("segmentIDGen"));
+    }
+
+    /**
+     * 租约方式分配workerId，租约依赖zookeeper客户端，关闭应用时先释放租约再关闭客户端
+     */
+    @Test
+    public void testSnowflakeLease() throws Exception {
+        TestingServer server = new TestingServer();
+        try {
+            load(EmptyConfiguration.class, "leaf.snowflake.enable=true", "leaf.snowflake.worker-lease=true",
+                    "leaf.snowflake.zk-address=" + server.getConnectString(), "leaf.snowflake.port=8080",
+                    "leaf.name=starter-test");
+            WorkerIDHolder holder = context.getBean(WorkerIDHolder.class);
+            assertTrue(holder instanceof SnowflakeLeaseHolder);
+            assertEquals(Status.SUCCESS, context.getBean("snowflakeIDGen", IDGen.class).get("a").getStatus());
+            assertTrue(Arrays.asList(context.getBeanFactory().getDependentBeans("leafCuratorFramework"))
+                    .contains("leafWorkerLeaseHolder"));
+            CuratorFramework curator = context.getBean("leafCuratorFramework", CuratorFramework.class);
+            context.close();
+            assertFalse(((SnowflakeLeaseHolder) holder).isValid());
+            assertEquals(CuratorFrameworkState.STOPPED, curator.getState());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * 默认不开启任何发号器
+     */
+    @Test
+    public void testDisabledByDefault() {
+        load(H2Configuration.class);
+        assertTrue(context.getBeansOfType(IDGen.class).isEmpty());
+        assertEquals(org.springframework.boot.actuate.health.Status.UP,
+                context.getBean(LeafHealthIndicator.class).health().getStatus());
+    }
+
+    /**
+     * 没有固定workerId时必须配置zookeeper地址，启动时报错
+     */
+    @Test
+    public void testSnowflakeRequiresZkAddress() {
+        try {
+            load(EmptyConfiguration.class, "leaf.snowflake.enable=true", "leaf.snowflake.port=2181");
+            fail();
+        } catch (BeanCreationException e) {
+            assertTrue(e.getMostSpecificCause() instanceof IllegalArgumentException);
+            assertTrue(e.getMostSpecificCause().getMessage().contains("zk-address"));
+        }
+    }
+
+    private void load(Class<?> config, String... pairs) {
+        context = new AnnotationConfigApplicationContext();
+        EnvironmentTestUtils.addEnvironment(context, pairs);
+        context.register(config, LeafAutoConfiguration.class);
+        context.refresh();
+    }
+
+    private Map<String, Number> metrics() {
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : context.getBean(LeafPublicMetrics.class).metrics()) {
+            metrics.put(metric.getName(), metric.getValue());
+        }
+        return metrics;
+    }
+
+    @Configuration
+    static class EmptyConfiguration {
+    }
+
+    @Configuration
+    static class H2Configuration {
+        @Bean
+        public DataSource dataSource() throws SQLException {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:leaf-starter-" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                statement.execute("CREATE TABLE leaf_alloc (biz_tag varchar(128) NOT NULL DEFAULT '', "
+                        + "max_id bigint NOT NULL DEFAULT 1, step int NOT NULL, description varchar(256) DEFAULT NULL, "
+                        + "update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (biz_tag))");
+                statement.execute("INSERT INTO leaf_alloc(biz_tag, max_id, step) VALUES('leaf-segment-test', 1, 100)");
+                statement.close();
+            } finally {
+                connection.close();
+            }
+            return dataSource;
+        }
+    }
+}